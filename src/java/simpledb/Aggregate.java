@@ -112,6 +112,11 @@ public class Aggregate extends Operator {
     	return m_op;
     }
 
+    /** @return the DbIterator feeding this aggregate its tuples */
+    DbIterator getChild() {
+    	return m_tupleIterator;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
     	return aop.toString();
     }
@@ -121,7 +126,14 @@ public class Aggregate extends Operator {
 	// some code goes here
     	super.open();
     	m_tupleIterator.open();
-    	while (m_tupleIterator.hasNext())
+    	// an ungrouped integer aggregate straight over a column table
+    	// works on the encoded column instead of on tuples
+    	boolean merged = m_groupByFieldIndex == Aggregator.NO_GROUPING
+    			&& m_aggregator instanceof IntegerAggregator
+    			&& m_tupleIterator instanceof SeqScan
+    			&& ((SeqScan) m_tupleIterator).mergeColumn(m_aggregateFieldIndex,
+    					(IntegerAggregator) m_aggregator);
+    	while (!merged && m_tupleIterator.hasNext())
     	{
     		m_aggregator.mergeTupleIntoGroup(m_tupleIterator.next());
     	}
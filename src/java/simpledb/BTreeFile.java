@@ -0,0 +1,735 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * BTreeFile is a DbFile that keeps a table's tuples in a B+ tree sorted on
+ * one key field, so equality and range predicates on the key only read the
+ * pages they need (see {@link #indexIterator}). Keys may be int or string
+ * fields, and duplicate keys are allowed.
+ * <p>
+ * The tuples themselves live in the leaves, which are chained by left and
+ * right sibling pointers; the internal pages only route searches. Page 0
+ * is a meta page naming the root and the head of a list of free pages that
+ * merges give back. The page layouts are described in {@link BTreePage}.
+ * All pages are read and written through the buffer pool.
+ * <p>
+ * Searches do not keep parent pointers: insertTuple and deleteTuple
+ * remember the path from the root instead, and split or merge pages on the
+ * way back up it. A tree can also be written in one go from tuples already
+ * sorted on the key with {@link #bulkLoad}.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final int META_PAGE = 0;
+
+    private final File m_file;
+    private final TupleDesc m_td;
+    private final int m_keyField;
+    private final int m_pageSize;
+
+    // serializes changes to the tree's structure
+    private final Object m_treeLock = new Object();
+    // guards m_raf; never held while calling the buffer pool
+    private final Object m_ioLock = new Object();
+    private RandomAccessFile m_raf;
+
+    /**
+     * Opens a B+ tree with the default page size.
+     *
+     * @param f the file backing the tree; a missing or empty file is an
+     *            empty tree
+     * @param keyField the index of the key field in td
+     * @param td the schema of the tuples
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this(f, keyField, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Opens a B+ tree whose pages are pageSize bytes.
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td, int pageSize) {
+        m_file = f;
+        m_keyField = keyField;
+        m_td = td;
+        m_pageSize = pageSize;
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    public int getId() {
+        return m_file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public int getPageSize() {
+        return m_pageSize;
+    }
+
+    /** @return the index of the key field in the tuples */
+    public int getKeyField() {
+        return m_keyField;
+    }
+
+    /** @return true: range predicates read only the leaves they need */
+    public boolean isOrdered() {
+        return true;
+    }
+
+    private HeapPageId pid(int pageNumber) {
+        return new HeapPageId(getId(), pageNumber);
+    }
+
+    /**
+     * Opens the file, first writing an empty tree (a meta page and an
+     * empty root leaf) if it is empty. Call with m_ioLock held.
+     */
+    private RandomAccessFile raf() throws IOException {
+        if (m_raf == null) {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            if (m_raf.length() == 0) {
+                BTreePage meta = new BTreePage(pid(META_PAGE), new byte[m_pageSize], m_td, m_keyField);
+                meta.reset(BTreePage.META);
+                meta.setRoot(1);
+                BTreePage leaf = new BTreePage(pid(1), new byte[m_pageSize], m_td, m_keyField);
+                leaf.reset(BTreePage.LEAF);
+                m_raf.write(meta.getPageData());
+                m_raf.write(leaf.getPageData());
+            }
+        }
+        return m_raf;
+    }
+
+    /** @return the number of pages in the file, including free ones */
+    public int numPages() {
+        synchronized (m_ioLock) {
+            try {
+                return (int) (raf().length() / m_pageSize);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[m_pageSize];
+        synchronized (m_ioLock) {
+            try {
+                RandomAccessFile raf = raf();
+                long offset = (long) pid.pageNumber() * m_pageSize;
+                if (pid.pageNumber() < 0 || offset + m_pageSize > raf.length())
+                    throw new IllegalArgumentException("Page offset exceeds max size: " + pid);
+                raf.seek(offset);
+                raf.readFully(data);
+            } catch (IOException e) {
+                System.err.println("Caught IOException: " + e.getMessage());
+                throw new IllegalArgumentException();
+            }
+        }
+        return new BTreePage(pid(pid.pageNumber()), data, m_td, m_keyField);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        synchronized (m_ioLock) {
+            RandomAccessFile raf = raf();
+            raf.seek((long) page.getId().pageNumber() * m_pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Closes the file; any later access reopens it.
+     */
+    public void close() throws IOException {
+        synchronized (m_ioLock) {
+            if (m_raf != null) {
+                m_raf.close();
+                m_raf = null;
+            }
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNumber, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid(pageNumber), perm);
+    }
+
+    /**
+     * Marks a page dirty right away, so that it is not evicted unwritten
+     * while the rest of a split or merge is still reading pages in, and
+     * adds it to the pages to hand back to the buffer pool.
+     */
+    private static void dirty(TransactionId tid, BTreePage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    /**
+     * @return the child of an internal page to descend into to find the
+     *   first tuple with the given key, or the first child if key is null
+     */
+    private static int childFor(BTreePage page, Field key) {
+        if (key == null)
+            return 0;
+        int lo = 0, hi = page.getCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, page.getKey(mid)))
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /** @return the position of the first tuple on a leaf whose key is at least key */
+    private static int lowerBound(BTreePage leaf, Field key) {
+        int lo = 0, hi = leaf.getCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (leaf.getLeafKey(mid).compare(Predicate.Op.LESS_THAN, key))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the position of the first tuple on a leaf whose key is greater than key */
+    private static int upperBound(BTreePage leaf, Field key) {
+        int lo = 0, hi = leaf.getCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (leaf.getLeafKey(mid).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold key.
+     *
+     * @param key the key, or null for the first leaf of the tree
+     * @param path if not null, receives the internal pages passed through
+     * @param indexes if not null, receives the child taken at each of them
+     */
+    private BTreePage findLeaf(TransactionId tid, Field key, Permissions perm,
+            ArrayList<BTreePage> path, ArrayList<Integer> indexes)
+        throws DbException, TransactionAbortedException {
+        BTreePage meta = getPage(tid, META_PAGE, perm);
+        BTreePage page = getPage(tid, meta.getRoot(), perm);
+        while (page.getKind() == BTreePage.INTERNAL) {
+            int i = childFor(page, key);
+            if (path != null) {
+                path.add(page);
+                indexes.add(i);
+            }
+            page = getPage(tid, page.getChild(i), perm);
+        }
+        return page;
+    }
+
+    /**
+     * Takes a page off the free list, or adds one to the end of the file,
+     * and makes it an empty page of the given kind.
+     */
+    private BTreePage allocate(TransactionId tid, byte kind, ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreePage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+        BTreePage page;
+        int free = meta.getFreeHead();
+        if (free != 0) {
+            page = getPage(tid, free, Permissions.READ_WRITE);
+            meta.setFreeHead(page.getNextFree());
+            dirty(tid, meta, dirtied);
+        } else {
+            int n;
+            synchronized (m_ioLock) {
+                RandomAccessFile raf = raf();
+                n = (int) (raf.length() / m_pageSize);
+                raf.seek((long) n * m_pageSize);
+                raf.write(new byte[m_pageSize]);
+            }
+            page = getPage(tid, n, Permissions.READ_WRITE);
+        }
+        page.reset(kind);
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Puts a page that is no longer part of the tree on the free list. */
+    private void free(TransactionId tid, BTreePage page, ArrayList<Page> dirtied)
+        throws DbException, TransactionAbortedException {
+        BTreePage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+        page.reset(BTreePage.FREE);
+        page.setNextFree(meta.getFreeHead());
+        meta.setFreeHead(page.getId().pageNumber());
+        dirty(tid, page, dirtied);
+        dirty(tid, meta, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc mismatch.");
+        synchronized (m_treeLock) {
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+            ArrayList<Integer> indexes = new ArrayList<Integer>();
+            Field key = t.getField(m_keyField);
+            BTreePage leaf = findLeaf(tid, key, Permissions.READ_WRITE, path, indexes);
+            int pos = upperBound(leaf, key);
+            if (leaf.getCount() < leaf.leafCapacity()) {
+                leaf.insertTuple(pos, t);
+                dirty(tid, leaf, dirtied);
+                t.setRecordId(new RecordId(leaf.getId(), pos));
+                return dirtied;
+            }
+
+            // split the leaf in half, linking the new right half in after it
+            ArrayList<Tuple> tuples = leaf.getTuples();
+            tuples.add(pos, t);
+            int half = tuples.size() / 2;
+            BTreePage right = allocate(tid, BTreePage.LEAF, dirtied);
+            int leafNo = leaf.getId().pageNumber();
+            int rightNo = right.getId().pageNumber();
+            leaf.setTuples(tuples.subList(0, half));
+            right.setTuples(tuples.subList(half, tuples.size()));
+            right.setLeft(leafNo);
+            right.setRight(leaf.getRight());
+            if (leaf.getRight() != 0) {
+                BTreePage next = getPage(tid, leaf.getRight(), Permissions.READ_WRITE);
+                next.setLeft(rightNo);
+                dirty(tid, next, dirtied);
+            }
+            leaf.setRight(rightNo);
+            dirty(tid, leaf, dirtied);
+            if (pos < half)
+                t.setRecordId(new RecordId(leaf.getId(), pos));
+            else
+                t.setRecordId(new RecordId(right.getId(), pos - half));
+
+            insertInParent(tid, path, indexes, leaf,
+                    tuples.get(half - 1).getField(m_keyField), right, dirtied);
+            return dirtied;
+        }
+    }
+
+    /**
+     * Adds the new right half of a split page to its parent, splitting the
+     * parent in turn if it is full.
+     *
+     * @param path the internal pages above left, the root first
+     * @param indexes the position of left in each of them
+     * @param key the separator: at least every key in left, at most every
+     *            key in right
+     */
+    private void insertInParent(TransactionId tid, ArrayList<BTreePage> path,
+            ArrayList<Integer> indexes, BTreePage left, Field key, BTreePage right,
+            ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            // left was the root: grow the tree by one level
+            BTreePage root = allocate(tid, BTreePage.INTERNAL, dirtied);
+            root.setRootEntries(left.getId().pageNumber(), key, right.getId().pageNumber());
+            BTreePage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            meta.setRoot(root.getId().pageNumber());
+            dirty(tid, meta, dirtied);
+            return;
+        }
+        BTreePage parent = path.remove(path.size() - 1);
+        int i = indexes.remove(indexes.size() - 1);
+        ArrayList<Field> keys = parent.getKeys();
+        ArrayList<Integer> children = parent.getChildren();
+        keys.add(i, key);
+        children.add(i + 1, right.getId().pageNumber());
+        if (keys.size() <= parent.internalCapacity()) {
+            parent.setEntries(keys, children);
+            dirty(tid, parent, dirtied);
+            return;
+        }
+
+        // split the parent, moving its middle key up
+        int mid = keys.size() / 2;
+        BTreePage sibling = allocate(tid, BTreePage.INTERNAL, dirtied);
+        sibling.setEntries(keys.subList(mid + 1, keys.size()),
+                children.subList(mid + 1, children.size()));
+        parent.setEntries(keys.subList(0, mid), children.subList(0, mid + 1));
+        dirty(tid, parent, dirtied);
+        insertInParent(tid, path, indexes, parent, keys.get(mid), sibling, dirtied);
+    }
+
+    /**
+     * Removes a tuple from the tree. The tuple is found by its field
+     * values rather than its RecordId, since splits and merges move tuples
+     * between leaves; if several tuples are equal, one of them is removed.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc mismatch.");
+        synchronized (m_treeLock) {
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+            ArrayList<Integer> indexes = new ArrayList<Integer>();
+            Field key = t.getField(m_keyField);
+            BTreePage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            BTreePage root = getPage(tid, meta.getRoot(), Permissions.READ_WRITE);
+            BTreePage leaf = findTuple(tid, root, key, t, path, indexes);
+            if (leaf == null)
+                throw new DbException("tuple is not in " + m_file);
+            leaf.removeTuple(position(leaf, key, t));
+            dirty(tid, leaf, dirtied);
+            t.setRecordId(null);
+            rebalance(tid, path, indexes, leaf, dirtied);
+            return dirtied;
+        }
+    }
+
+    /** @return the position of a tuple on a leaf, or -1 if it is not there */
+    private int position(BTreePage leaf, Field key, Tuple t) {
+        for (int i = lowerBound(leaf, key); i < leaf.getCount()
+                && leaf.getLeafKey(i).equals(key); i++) {
+            Tuple candidate = leaf.getTuple(i);
+            boolean same = true;
+            for (int j = 0; j < m_td.numFields() && same; j++)
+                same = candidate.getField(j).equals(t.getField(j));
+            if (same)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the leaf holding a tuple below page, trying each child whose
+     * key range admits the key, since equal keys may span several leaves.
+     *
+     * @return the leaf, or null if the tuple is not there; path and
+     *   indexes then hold the route to it
+     */
+    private BTreePage findTuple(TransactionId tid, BTreePage page, Field key, Tuple t,
+            ArrayList<BTreePage> path, ArrayList<Integer> indexes)
+        throws DbException, TransactionAbortedException {
+        if (page.getKind() == BTreePage.LEAF)
+            return position(page, key, t) >= 0 ? page : null;
+        for (int i = childFor(page, key); i <= page.getCount(); i++) {
+            if (i > 0 && key.compare(Predicate.Op.LESS_THAN, page.getKey(i - 1)))
+                break;
+            path.add(page);
+            indexes.add(i);
+            BTreePage child = getPage(tid, page.getChild(i), Permissions.READ_WRITE);
+            BTreePage leaf = findTuple(tid, child, key, t, path, indexes);
+            if (leaf != null)
+                return leaf;
+            path.remove(path.size() - 1);
+            indexes.remove(indexes.size() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Refills a page that has dropped below half full by merging it with
+     * or borrowing from a sibling under the same parent, then rebalances
+     * the parent. An internal root left without keys is replaced by its
+     * only child.
+     */
+    private void rebalance(TransactionId tid, ArrayList<BTreePage> path,
+            ArrayList<Integer> indexes, BTreePage page, ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        boolean isLeaf = page.getKind() == BTreePage.LEAF;
+        if (path.isEmpty()) {
+            if (!isLeaf && page.getCount() == 0) {
+                BTreePage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+                meta.setRoot(page.getChild(0));
+                dirty(tid, meta, dirtied);
+                free(tid, page, dirtied);
+            }
+            return;
+        }
+        int min = (isLeaf ? page.leafCapacity() : page.internalCapacity()) / 2;
+        if (page.getCount() >= min)
+            return;
+
+        BTreePage parent = path.remove(path.size() - 1);
+        int i = indexes.remove(indexes.size() - 1);
+        int sep;
+        BTreePage left, right;
+        if (i < parent.getCount()) {
+            sep = i;
+            left = page;
+            right = getPage(tid, parent.getChild(i + 1), Permissions.READ_WRITE);
+        } else {
+            sep = i - 1;
+            left = getPage(tid, parent.getChild(i - 1), Permissions.READ_WRITE);
+            right = page;
+        }
+        ArrayList<Field> keys = parent.getKeys();
+        ArrayList<Integer> children = parent.getChildren();
+
+        if (isLeaf) {
+            ArrayList<Tuple> tuples = left.getTuples();
+            tuples.addAll(right.getTuples());
+            if (tuples.size() <= left.leafCapacity()) {
+                left.setTuples(tuples);
+                left.setRight(right.getRight());
+                if (right.getRight() != 0) {
+                    BTreePage next = getPage(tid, right.getRight(), Permissions.READ_WRITE);
+                    next.setLeft(left.getId().pageNumber());
+                    dirty(tid, next, dirtied);
+                }
+                free(tid, right, dirtied);
+                keys.remove(sep);
+                children.remove(sep + 1);
+            } else {
+                int half = tuples.size() / 2;
+                left.setTuples(tuples.subList(0, half));
+                right.setTuples(tuples.subList(half, tuples.size()));
+                keys.set(sep, tuples.get(half - 1).getField(m_keyField));
+                dirty(tid, right, dirtied);
+            }
+        } else {
+            // the separator comes down between the two pages' entries
+            ArrayList<Field> k = left.getKeys();
+            k.add(keys.get(sep));
+            k.addAll(right.getKeys());
+            ArrayList<Integer> c = left.getChildren();
+            c.addAll(right.getChildren());
+            if (k.size() <= left.internalCapacity()) {
+                left.setEntries(k, c);
+                free(tid, right, dirtied);
+                keys.remove(sep);
+                children.remove(sep + 1);
+            } else {
+                int mid = k.size() / 2;
+                left.setEntries(k.subList(0, mid), c.subList(0, mid + 1));
+                right.setEntries(k.subList(mid + 1, k.size()), c.subList(mid + 1, c.size()));
+                keys.set(sep, k.get(mid));
+                dirty(tid, right, dirtied);
+            }
+        }
+        dirty(tid, left, dirtied);
+        parent.setEntries(keys, children);
+        dirty(tid, parent, dirtied);
+        rebalance(tid, path, indexes, parent, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate,
+     * in key order. Equality and greater-than predicates start at the
+     * first leaf that may hold a match; equality and less-than predicates
+     * stop at the first key past the last match.
+     *
+     * @param ipred the predicate on the key, or null for all tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, ipred);
+    }
+
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId m_tid;
+        private final IndexPredicate m_ipred;
+        private boolean m_open;
+        private BTreePage m_leaf;
+        private int m_pos;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate ipred) {
+            m_tid = tid;
+            m_ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            Field start = null;
+            if (m_ipred != null) {
+                switch (m_ipred.getOp()) {
+                case EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    start = m_ipred.getField();
+                    break;
+                default:
+                    break;
+                }
+            }
+            m_leaf = findLeaf(m_tid, start, Permissions.READ_ONLY, null, null);
+            m_pos = start == null ? 0 : lowerBound(m_leaf, start);
+            m_open = true;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            m_open = false;
+            m_leaf = null;
+        }
+
+        /** @return true if no key after this non-matching one can match */
+        private boolean pastEnd(Field key) {
+            switch (m_ipred.getOp()) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, m_ipred.getField());
+            default:
+                return false;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!m_open || m_leaf == null)
+                return null;
+            while (true) {
+                while (m_pos >= m_leaf.getCount()) {
+                    if (m_leaf.getRight() == 0) {
+                        m_leaf = null;
+                        return null;
+                    }
+                    m_leaf = getPage(m_tid, m_leaf.getRight(), Permissions.READ_ONLY);
+                    m_pos = 0;
+                }
+                Field key = m_leaf.getLeafKey(m_pos);
+                if (m_ipred == null || m_ipred.matches(key))
+                    return m_leaf.getTuple(m_pos++);
+                if (pastEnd(key)) {
+                    m_leaf = null;
+                    return null;
+                }
+                m_pos++;
+            }
+        }
+    }
+
+    /**
+     * Writes a B+ tree with the default page size from tuples sorted on the
+     * key, e.g. a SeqScan of a heap file sorted on the key, or an
+     * {@link OrderBy}. See {@link #bulkLoad(File, TupleDesc, int, DbIterator, int)}.
+     */
+    public static int bulkLoad(File f, TupleDesc td, int keyField, DbIterator sorted)
+        throws IOException, DbException, TransactionAbortedException {
+        return bulkLoad(f, td, keyField, sorted, BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes a B+ tree from tuples sorted on the key, much faster than
+     * inserting them one at a time: the leaves are filled completely and
+     * written in order, then each level of internal pages is built over
+     * the one below. The file is overwritten and should not be open in the
+     * buffer pool.
+     *
+     * @param f the file to write
+     * @param td the schema of the tuples
+     * @param keyField the index of the key field in td
+     * @param sorted the tuples, in key order; must already be open
+     * @param pageSize the page size of the tree
+     * @return the number of tuples written
+     * @throws DbException if the tuples are not sorted on the key
+     */
+    public static int bulkLoad(File f, TupleDesc td, int keyField, DbIterator sorted, int pageSize)
+        throws IOException, DbException, TransactionAbortedException {
+        int id = f.getAbsoluteFile().hashCode();
+        int leafCapacity = BTreePage.leafCapacity(pageSize, td);
+        int internalCapacity = BTreePage.internalCapacity(pageSize, td.getFieldType(keyField));
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            ArrayList<Integer> level = new ArrayList<Integer>();
+            ArrayList<Field> maxKeys = new ArrayList<Field>();
+            ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+            BTreePage previous = null;
+            Field last = null;
+            int next = 1;
+            int count = 0;
+            while (true) {
+                boolean more = sorted.hasNext();
+                if (more) {
+                    Tuple t = sorted.next();
+                    if (!td.equals(t.getTupleDesc()))
+                        throw new DbException("TupleDesc mismatch.");
+                    Field key = t.getField(keyField);
+                    if (last != null && key.compare(Predicate.Op.LESS_THAN, last))
+                        throw new DbException("tuples are not sorted on field " + keyField);
+                    last = key;
+                    buffer.add(t);
+                    count++;
+                }
+                if (buffer.size() == leafCapacity || (!more && (!buffer.isEmpty() || level.isEmpty()))) {
+                    int n = next++;
+                    BTreePage leaf = new BTreePage(new HeapPageId(id, n), new byte[pageSize], td, keyField);
+                    leaf.reset(BTreePage.LEAF);
+                    leaf.setTuples(buffer);
+                    if (previous != null) {
+                        leaf.setLeft(previous.getId().pageNumber());
+                        previous.setRight(n);
+                        writeAt(raf, previous, pageSize);
+                    }
+                    previous = leaf;
+                    level.add(n);
+                    maxKeys.add(last);
+                    buffer.clear();
+                }
+                if (!more)
+                    break;
+            }
+            writeAt(raf, previous, pageSize);
+
+            // build each level of internal pages over the one below,
+            // spreading the children evenly
+            while (level.size() > 1) {
+                int nodes = (level.size() + internalCapacity) / (internalCapacity + 1);
+                ArrayList<Integer> up = new ArrayList<Integer>();
+                ArrayList<Field> upKeys = new ArrayList<Field>();
+                int start = 0;
+                for (int j = 0; j < nodes; j++) {
+                    int end = start + (level.size() - start) / (nodes - j);
+                    int n = next++;
+                    BTreePage page = new BTreePage(new HeapPageId(id, n), new byte[pageSize], td, keyField);
+                    page.reset(BTreePage.INTERNAL);
+                    page.setEntries(maxKeys.subList(start, end - 1), level.subList(start, end));
+                    writeAt(raf, page, pageSize);
+                    up.add(n);
+                    upKeys.add(maxKeys.get(end - 1));
+                    start = end;
+                }
+                level = up;
+                maxKeys = upKeys;
+            }
+
+            BTreePage meta = new BTreePage(new HeapPageId(id, META_PAGE), new byte[pageSize], td, keyField);
+            meta.reset(BTreePage.META);
+            meta.setRoot(level.get(0));
+            writeAt(raf, meta, pageSize);
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeAt(RandomAccessFile raf, BTreePage page, int pageSize) throws IOException {
+        raf.seek((long) page.getId().pageNumber() * pageSize);
+        raf.write(page.getPageData());
+    }
+}
@@ -0,0 +1,308 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a {@link BTreeFile}. The first byte of every page says what
+ * kind of page it is:
+ * <ul>
+ * <li>{@link #META}, page 0 only: the number of the root page (4 bytes at
+ * offset 4) and the head of the free page list (at offset 8, 0 if it is
+ * empty);
+ * <li>{@link #LEAF}: the numbers of the left and right sibling leaves (at
+ * offsets 4 and 8, 0 if there is none), the number of tuples (at 12), and
+ * the tuples from offset 16, sorted by key, each taking
+ * {@link TupleDesc#getSize} bytes;
+ * <li>{@link #INTERNAL}: the number of keys <i>n</i> (at 4), the
+ * <i>n + 1</i> child page numbers from offset 8, and the <i>n</i> keys
+ * after room for as many children as the page can hold. All keys in child
+ * <i>i</i> are at most key <i>i</i>, and all keys in child <i>i + 1</i>
+ * are at least key <i>i</i>;
+ * <li>{@link #FREE}: the next page on the free list (at 4).
+ * </ul>
+ * An all-zero image is a free page at the end of the free list.
+ */
+public class BTreePage implements Page {
+
+    public static final byte FREE = 0;
+    public static final byte LEAF = 1;
+    public static final byte INTERNAL = 2;
+    public static final byte META = 3;
+
+    private static final int LEAF_HEADER = 16;
+    private static final int INTERNAL_HEADER = 8;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int keyField;
+    private final byte[] m_data;
+    private final ByteBuffer m_bb;
+
+    private byte[] m_oldData;
+    private final Object m_oldDataLock = new Object();
+    private TransactionId m_dirtyTid;
+
+    /**
+     * @param id the page's id
+     * @param data the page image; the page uses the array itself
+     * @param td the schema of the tuples in the tree
+     * @param keyField the index of the key field in td
+     */
+    public BTreePage(HeapPageId id, byte[] data, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+        m_data = data;
+        m_bb = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtyTid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtyTid = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return m_data.clone();
+    }
+
+    public BTreePage getBeforeImage() {
+        synchronized (m_oldDataLock) {
+            return new BTreePage(pid, m_oldData.clone(), td, keyField);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (m_oldDataLock) {
+            m_oldData = m_data.clone();
+        }
+    }
+
+    /** @return the kind of this page: FREE, LEAF, INTERNAL or META */
+    public byte getKind() {
+        return m_data[0];
+    }
+
+    /** Clears the page and makes it an empty page of the given kind. */
+    void reset(byte kind) {
+        Arrays.fill(m_data, (byte) 0);
+        m_data[0] = kind;
+    }
+
+    // META and FREE pages
+
+    int getRoot() {
+        return m_bb.getInt(4);
+    }
+
+    void setRoot(int page) {
+        m_bb.putInt(4, page);
+    }
+
+    int getFreeHead() {
+        return m_bb.getInt(8);
+    }
+
+    void setFreeHead(int page) {
+        m_bb.putInt(8, page);
+    }
+
+    int getNextFree() {
+        return m_bb.getInt(4);
+    }
+
+    void setNextFree(int page) {
+        m_bb.putInt(4, page);
+    }
+
+    // LEAF pages
+
+    /** @return the number of tuples a leaf page of the given size holds */
+    static int leafCapacity(int pageSize, TupleDesc td) {
+        return (pageSize - LEAF_HEADER) / td.getSize();
+    }
+
+    int leafCapacity() {
+        return leafCapacity(m_data.length, td);
+    }
+
+    int getLeft() {
+        return m_bb.getInt(4);
+    }
+
+    void setLeft(int page) {
+        m_bb.putInt(4, page);
+    }
+
+    int getRight() {
+        return m_bb.getInt(8);
+    }
+
+    void setRight(int page) {
+        m_bb.putInt(8, page);
+    }
+
+    /** @return the number of tuples on a leaf, or keys on an internal page */
+    int getCount() {
+        return m_bb.getInt(getKind() == LEAF ? 12 : 4);
+    }
+
+    private void setCount(int count) {
+        m_bb.putInt(getKind() == LEAF ? 12 : 4, count);
+    }
+
+    private int tupleOffset(int i) {
+        return LEAF_HEADER + i * td.getSize();
+    }
+
+    private Field parse(Type type, int offset) {
+        ByteBuffer bb = m_bb.duplicate();
+        bb.position(offset);
+        try {
+            return type.parse(bb);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    private void put(Field f, int offset) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, m_data, offset, f.getType().getLen());
+    }
+
+    /** @return the key of tuple i of a leaf */
+    Field getLeafKey(int i) {
+        return parse(td.getFieldType(keyField), tupleOffset(i) + td.getFieldOffset(keyField));
+    }
+
+    /** @return tuple i of a leaf, with its RecordId set */
+    Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, parse(td.getFieldType(j), tupleOffset(i) + td.getFieldOffset(j)));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the tuples of a leaf, in key order */
+    ArrayList<Tuple> getTuples() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < getCount(); i++)
+            tuples.add(getTuple(i));
+        return tuples;
+    }
+
+    /** Inserts a tuple at position i of a leaf, which must not be full. */
+    void insertTuple(int i, Tuple t) {
+        int count = getCount();
+        System.arraycopy(m_data, tupleOffset(i), m_data, tupleOffset(i + 1),
+                (count - i) * td.getSize());
+        for (int j = 0; j < td.numFields(); j++)
+            put(t.getField(j), tupleOffset(i) + td.getFieldOffset(j));
+        setCount(count + 1);
+    }
+
+    /** Removes the tuple at position i of a leaf. */
+    void removeTuple(int i) {
+        int count = getCount();
+        System.arraycopy(m_data, tupleOffset(i + 1), m_data, tupleOffset(i),
+                (count - i - 1) * td.getSize());
+        Arrays.fill(m_data, tupleOffset(count - 1), tupleOffset(count), (byte) 0);
+        setCount(count - 1);
+    }
+
+    /** Replaces the tuples of a leaf, keeping its sibling pointers. */
+    void setTuples(List<Tuple> tuples) {
+        Arrays.fill(m_data, LEAF_HEADER, m_data.length, (byte) 0);
+        setCount(0);
+        for (int i = 0; i < tuples.size(); i++)
+            insertTuple(i, tuples.get(i));
+    }
+
+    // INTERNAL pages
+
+    /** @return the number of keys an internal page of the given size holds */
+    static int internalCapacity(int pageSize, Type keyType) {
+        return (pageSize - INTERNAL_HEADER - 4) / (4 + keyType.getLen());
+    }
+
+    int internalCapacity() {
+        return internalCapacity(m_data.length, td.getFieldType(keyField));
+    }
+
+    private int keyOffset(int i) {
+        return INTERNAL_HEADER + 4 * (internalCapacity() + 1)
+                + i * td.getFieldType(keyField).getLen();
+    }
+
+    /** @return key i of an internal page */
+    Field getKey(int i) {
+        return parse(td.getFieldType(keyField), keyOffset(i));
+    }
+
+    /** @return child i of an internal page */
+    int getChild(int i) {
+        return m_bb.getInt(INTERNAL_HEADER + 4 * i);
+    }
+
+    /** @return the keys of an internal page */
+    ArrayList<Field> getKeys() {
+        ArrayList<Field> keys = new ArrayList<Field>();
+        for (int i = 0; i < getCount(); i++)
+            keys.add(getKey(i));
+        return keys;
+    }
+
+    /** @return the children of an internal page */
+    ArrayList<Integer> getChildren() {
+        ArrayList<Integer> children = new ArrayList<Integer>();
+        for (int i = 0; i <= getCount(); i++)
+            children.add(getChild(i));
+        return children;
+    }
+
+    /**
+     * Replaces the entries of an internal page.
+     *
+     * @param keys the keys, at most {@link #internalCapacity}
+     * @param children one more child than there are keys
+     */
+    void setEntries(List<Field> keys, List<Integer> children) {
+        Arrays.fill(m_data, INTERNAL_HEADER, m_data.length, (byte) 0);
+        setCount(keys.size());
+        for (int i = 0; i < children.size(); i++)
+            m_bb.putInt(INTERNAL_HEADER + 4 * i, children.get(i));
+        for (int i = 0; i < keys.size(); i++)
+            put(keys.get(i), keyOffset(i));
+    }
+
+    /**
+     * Makes a page the internal page of a new root with two children.
+     */
+    void setRootEntries(int left, Field key, int right) {
+        ArrayList<Field> keys = new ArrayList<Field>();
+        keys.add(key);
+        ArrayList<Integer> children = new ArrayList<Integer>();
+        children.add(left);
+        children.add(right);
+        setEntries(keys, children);
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}, computing the
+ * same results as an {@link IntegerAggregator} or a
+ * {@link StringAggregator} would. Each batch is handled in two passes:
+ * one finds the group of every selected row in an open-addressing hash
+ * table keyed on the group field's vector, and one folds the aggregate
+ * field into per-group accumulators in a loop chosen by the operator.
+ * The groups are returned in the order they were first seen.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator m_child;
+    private final int m_afield;
+    private final int m_gfield;
+    private final Aggregator.Op m_op;
+    private final TupleDesc m_td;
+
+    // the group field's value of each group, as field 0 of a batch
+    private transient TupleBatch m_keys;
+    private transient int m_numGroups;
+    // hash table of group numbers, -1 marking an empty slot
+    private transient int[] m_table;
+    // per group: the min, max or sum so far, and the number of rows
+    private transient int[] m_acc;
+    private transient int[] m_count;
+    // the group of each selected row of the batch being merged
+    private transient int[] m_groupOf;
+    private transient TupleBatch m_out;
+    // the first group not returned yet
+    private transient int m_next;
+
+    /**
+     * @param child the BatchIterator that is feeding us rows
+     * @param afield the column over which we are computing an aggregate
+     * @param gfield the column over which we are grouping the result, or
+     *            {@link Aggregator#NO_GROUPING} if there is no grouping
+     * @param aop the aggregation operator to use; only COUNT is computed
+     *            for a string column
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        m_child = child;
+        m_afield = afield;
+        m_gfield = gfield;
+        m_op = aop;
+        if (gfield == Aggregator.NO_GROUPING)
+            m_td = new TupleDesc(new Type[] { Type.INT_TYPE },
+                    new String[] { "aggregateValue" });
+        else
+            m_td = new TupleDesc(new Type[] {
+                    child.getTupleDesc().getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { "groupValue", "aggregateValue" });
+    }
+
+    public BatchIterator getChild() {
+        return m_child;
+    }
+
+    public int groupField() {
+        return m_gfield;
+    }
+
+    public int aggregateField() {
+        return m_afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return m_op;
+    }
+
+    /**
+     * @return the TupleDesc of the aggregator's results: (groupValue,
+     *   aggregateValue), or (aggregateValue) with no grouping
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        TupleDesc childtd = m_child.getTupleDesc();
+        Type keyType = m_gfield == Aggregator.NO_GROUPING ? Type.INT_TYPE
+                : childtd.getFieldType(m_gfield);
+        m_keys = new TupleBatch(new TupleDesc(new Type[] { keyType }), 16);
+        m_numGroups = 0;
+        m_table = new int[32];
+        Arrays.fill(m_table, -1);
+        m_acc = new int[16];
+        m_count = new int[16];
+        m_groupOf = new int[TupleBatch.DEFAULT_CAPACITY];
+        TupleBatch b;
+        while ((b = m_child.nextBatch()) != null)
+            merge(b);
+        m_out = new TupleBatch(m_td);
+        m_next = 0;
+    }
+
+    /** @return the result of a group */
+    private int result(int g) {
+        if (m_op == Aggregator.Op.AVG && isIntAggregate())
+            return m_acc[g] / m_count[g];
+        return m_acc[g];
+    }
+
+    private boolean isIntAggregate() {
+        return m_child.getTupleDesc().getFieldType(m_afield) == Type.INT_TYPE;
+    }
+
+    /** @return the group of a row of b, adding a new group if needed */
+    private int groupOf(TupleBatch b, int row) {
+        if (m_gfield == Aggregator.NO_GROUPING)
+            return m_numGroups == 0 ? addGroup(b, row) : 0;
+        int mask = m_table.length - 1;
+        int slot = b.hash(m_gfield, row) & mask;
+        int g;
+        while ((g = m_table[slot]) >= 0) {
+            if (m_keys.valueEquals(0, g, b, m_gfield, row))
+                return g;
+            slot = (slot + 1) & mask;
+        }
+        g = addGroup(b, row);
+        m_table[slot] = g;
+        if (2 * m_numGroups > m_table.length)
+            rehash();
+        return g;
+    }
+
+    private int addGroup(TupleBatch b, int row) {
+        int g = m_numGroups++;
+        m_keys.ensureCapacity(m_numGroups);
+        if (m_gfield != Aggregator.NO_GROUPING)
+            m_keys.copyValue(0, g, b, m_gfield, row);
+        if (g == m_acc.length) {
+            m_acc = Arrays.copyOf(m_acc, 2 * g);
+            m_count = Arrays.copyOf(m_count, 2 * g);
+        }
+        switch (m_op) {
+        case MIN:
+            m_acc[g] = Integer.MAX_VALUE;
+            break;
+        case MAX:
+            m_acc[g] = Integer.MIN_VALUE;
+            break;
+        default:
+            m_acc[g] = 0;
+            break;
+        }
+        m_count[g] = 0;
+        return g;
+    }
+
+    private void rehash() {
+        m_table = new int[2 * m_table.length];
+        Arrays.fill(m_table, -1);
+        int mask = m_table.length - 1;
+        for (int g = 0; g < m_numGroups; g++) {
+            int slot = m_keys.hash(0, g) & mask;
+            while (m_table[slot] >= 0)
+                slot = (slot + 1) & mask;
+            m_table[slot] = g;
+        }
+    }
+
+    /** Merges the selected rows of a batch into the groups. */
+    private void merge(TupleBatch b) {
+        int n = b.numSelected();
+        int[] rows = b.selection();
+        if (m_groupOf.length < n)
+            m_groupOf = new int[n];
+        int[] groupOf = m_groupOf;
+        for (int i = 0; i < n; i++)
+            groupOf[i] = groupOf(b, rows[i]);
+        int[] acc = m_acc, count = m_count;
+        if (!isIntAggregate()) {
+            // a StringAggregator counts whatever its operator
+            for (int i = 0; i < n; i++)
+                acc[groupOf[i]]++;
+            return;
+        }
+        int[] v = b.ints(m_afield);
+        switch (m_op) {
+        case MIN:
+            for (int i = 0; i < n; i++) {
+                int g = groupOf[i];
+                acc[g] = Math.min(acc[g], v[rows[i]]);
+            }
+            break;
+        case MAX:
+            for (int i = 0; i < n; i++) {
+                int g = groupOf[i];
+                acc[g] = Math.max(acc[g], v[rows[i]]);
+            }
+            break;
+        case SUM:
+        case AVG:
+            for (int i = 0; i < n; i++) {
+                int g = groupOf[i];
+                acc[g] += v[rows[i]];
+                count[g]++;
+            }
+            break;
+        case COUNT:
+            for (int i = 0; i < n; i++)
+                acc[groupOf[i]]++;
+            break;
+        default:
+            break;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_out == null)
+            throw new IllegalStateException("aggregate not open");
+        int n = Math.min(m_numGroups - m_next, m_out.capacity());
+        if (n == 0)
+            return null;
+        m_out.clear();
+        int value = m_gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        for (int i = 0; i < n; i++) {
+            int g = m_next + i;
+            if (value == 1)
+                m_out.copyValue(0, i, m_keys, 0, g);
+            m_out.putInt(value, i, result(g));
+        }
+        m_out.setSize(n);
+        m_next += n;
+        return m_out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_next = 0;
+    }
+
+    public void close() {
+        m_child.close();
+        m_keys = null;
+        m_table = null;
+        m_out = null;
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. It narrows the
+ * selection of each batch of its child to the rows that satisfy its
+ * predicate, in one loop per batch chosen by the predicate's operator, so
+ * an int comparison costs a load and a compare per row.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate m_pred;
+    private BatchIterator m_child;
+    // the operand of an equality on a string field as stored on pages, or
+    // null if string rows are compared as StringFields
+    private final byte[] m_bytes;
+    private transient int[] m_sel;
+
+    public BatchFilter(Predicate p, BatchIterator child) {
+        m_pred = p;
+        m_child = child;
+        byte[] bytes = null;
+        Predicate.Op op = p.getOp();
+        if (p.getOperand() instanceof StringField
+                && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            String s = ((StringField) p.getOperand()).getValue();
+            bytes = TupleBatch.bytesOf(s);
+            // other characters do not survive the trip through a page
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) >= 0x80)
+                    bytes = null;
+            }
+        }
+        m_bytes = bytes;
+    }
+
+    public Predicate getPredicate() {
+        return m_pred;
+    }
+
+    public BatchIterator getChild() {
+        return m_child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_sel = new int[TupleBatch.DEFAULT_CAPACITY];
+    }
+
+    public void close() {
+        m_child.close();
+        m_sel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = m_child.nextBatch()) != null) {
+            if (select(b) > 0)
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Narrows the selection of a batch to the rows that satisfy the
+     * predicate; the filter need not be open.
+     *
+     * @return the number of rows left selected
+     */
+    int select(TupleBatch b) {
+        int n = b.numSelected();
+        if (m_sel == null || m_sel.length < n)
+            m_sel = new int[Math.max(n, m_sel == null ? TupleBatch.DEFAULT_CAPACITY
+                    : 2 * m_sel.length)];
+        int k = b.ints(m_pred.getField()) != null ? filterInts(b, n) : filterStrings(b, n);
+        b.setSelection(m_sel, k);
+        return k;
+    }
+
+    /** Writes the selected rows of b that pass to m_sel. @return their number */
+    private int filterInts(TupleBatch b, int n) {
+        int[] in = b.selection();
+        int[] out = m_sel;
+        int[] v = b.ints(m_pred.getField());
+        int c = ((IntField) m_pred.getOperand()).getValue();
+        int k = 0;
+        switch (m_pred.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] == c ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] != c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] > c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] >= c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] < c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                out[k] = r;
+                k += v[r] <= c ? 1 : 0;
+            }
+            break;
+        }
+        return k;
+    }
+
+    /** Like {@link #filterInts}, for a predicate on a string field. */
+    private int filterStrings(TupleBatch b, int n) {
+        int[] in = b.selection();
+        int[] out = m_sel;
+        int f = m_pred.getField();
+        int k = 0;
+        if (m_bytes != null) {
+            boolean equals = m_pred.getOp() == Predicate.Op.EQUALS;
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                if (b.stringEquals(f, r, m_bytes) == equals)
+                    out[k++] = r;
+            }
+        } else {
+            Field operand = m_pred.getOperand();
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                if (b.getField(f, r).compare(m_pred.getOp(), operand))
+                    out[k++] = r;
+            }
+        }
+        return k;
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. It copies
+ * the rows of its left child into one batch, up to
+ * {@link HashEquiJoin#MAP_SIZE} of them at a time, and chains them in a
+ * hash table on the join field. Each batch of the right child is then
+ * probed row by row, and the matching pairs are gathered into the output
+ * batch one column at a time. Like HashEquiJoin it joins on equality,
+ * whatever the predicate's operator, and its rows are the fields of the
+ * left row followed by those of the right row.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate m_pred;
+    private BatchIterator m_child1, m_child2;
+    private final TupleDesc m_td;
+
+    // the rows of the left child in the hash table
+    private transient TupleBatch m_build;
+    private transient int m_buildRows;
+    // the first build row of each hash bucket, and the next row of each
+    // build row's bucket; -1 ends a chain
+    private transient int[] m_heads;
+    private transient int[] m_chain;
+    // true once the left child has no more rows
+    private transient boolean m_leftDone;
+
+    // the right child's batch being probed, the index into its selection
+    // of the row being probed, and the next build row to check for it
+    private transient TupleBatch m_probe;
+    private transient int m_probeIdx;
+    private transient int m_candidate;
+
+    // the build and probe rows of the output rows
+    private transient int[] m_outBuild;
+    private transient int[] m_outProbe;
+    private transient TupleBatch m_out;
+
+    /**
+     * @param p the predicate to join on
+     * @param child1 the left (build) input
+     * @param child2 the right (probe) input
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        m_pred = p;
+        m_child1 = child1;
+        m_child2 = child2;
+        m_td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_pred;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { m_child1, m_child2 };
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child1.open();
+        m_child2.open();
+        m_out = new TupleBatch(m_td);
+        m_outBuild = new int[m_out.capacity()];
+        m_outProbe = new int[m_out.capacity()];
+        m_build = new TupleBatch(m_child1.getTupleDesc());
+        m_leftDone = false;
+        loadTable();
+    }
+
+    public void close() {
+        m_child2.close();
+        m_child1.close();
+        m_build = null;
+        m_heads = null;
+        m_chain = null;
+        m_probe = null;
+        m_out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child1.rewind();
+        m_child2.rewind();
+        m_leftDone = false;
+        loadTable();
+    }
+
+    /**
+     * Fills the hash table with the next rows of the left child.
+     *
+     * @return false if the left child had no more rows
+     */
+    private boolean loadTable() throws DbException, TransactionAbortedException {
+        m_buildRows = 0;
+        m_probe = null;
+        m_candidate = -1;
+        TupleDesc td = m_child1.getTupleDesc();
+        TupleBatch b = null;
+        while (m_buildRows < HashEquiJoin.MAP_SIZE && !m_leftDone) {
+            b = m_child1.nextBatch();
+            if (b == null) {
+                m_leftDone = true;
+                break;
+            }
+            int n = b.numSelected();
+            int[] rows = b.selection();
+            m_build.ensureCapacity(m_buildRows + n);
+            for (int c = 0; c < td.numFields(); c++) {
+                for (int i = 0; i < n; i++)
+                    m_build.copyValue(c, m_buildRows + i, b, c, rows[i]);
+            }
+            m_buildRows += n;
+        }
+        m_build.setSize(m_buildRows);
+
+        int buckets = Integer.highestOneBit(Math.max(1, m_buildRows)) * 2;
+        if (m_heads == null || m_heads.length != buckets)
+            m_heads = new int[buckets];
+        Arrays.fill(m_heads, -1);
+        if (m_chain == null || m_chain.length < m_buildRows)
+            m_chain = new int[Math.max(m_buildRows, 16)];
+        int f = m_pred.getField1();
+        // insert in reverse so that each chain lists rows in input order
+        for (int r = m_buildRows - 1; r >= 0; r--) {
+            int bucket = m_build.hash(f, r) & (buckets - 1);
+            m_chain[r] = m_heads[bucket];
+            m_heads[bucket] = r;
+        }
+        return m_buildRows > 0;
+    }
+
+    /** @return the first build row from r on matching a probe row, or -1 */
+    private int match(int r, int probeRow) {
+        int f1 = m_pred.getField1(), f2 = m_pred.getField2();
+        while (r >= 0 && !m_build.valueEquals(f1, r, m_probe, f2, probeRow))
+            r = m_chain[r];
+        return r;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_out == null)
+            throw new IllegalStateException("join not open");
+        int n = 0;
+        int capacity = m_outBuild.length;
+        while (n < capacity) {
+            if (m_candidate >= 0) {
+                int probeRow = m_probe.selection()[m_probeIdx];
+                m_outBuild[n] = m_candidate;
+                m_outProbe[n] = probeRow;
+                n++;
+                m_candidate = match(m_chain[m_candidate], probeRow);
+                if (m_candidate < 0)
+                    m_probeIdx++;
+            } else if (m_probe != null && m_probeIdx < m_probe.numSelected()) {
+                int probeRow = m_probe.selection()[m_probeIdx];
+                int bucket = m_probe.hash(m_pred.getField2(), probeRow) & (m_heads.length - 1);
+                m_candidate = match(m_heads[bucket], probeRow);
+                if (m_candidate < 0)
+                    m_probeIdx++;
+            } else {
+                // the output refers to rows of the batch being probed, so
+                // it is returned before that batch is replaced
+                if (n > 0 && m_probe != null)
+                    break;
+                m_probe = m_buildRows == 0 ? null : m_child2.nextBatch();
+                m_probeIdx = 0;
+                if (m_probe == null) {
+                    // the right child is done: advance the left child
+                    if (m_leftDone)
+                        break;
+                    m_child2.rewind();
+                    if (!loadTable() && m_leftDone)
+                        break;
+                }
+            }
+        }
+        if (n == 0)
+            return null;
+        gather(n);
+        return m_out;
+    }
+
+    /** Copies the n output rows' fields into the output batch. */
+    private void gather(int n) {
+        m_out.clear();
+        int left = m_child1.getTupleDesc().numFields();
+        for (int c = 0; c < left; c++) {
+            for (int i = 0; i < n; i++)
+                m_out.copyValue(c, i, m_build, c, m_outBuild[i]);
+        }
+        for (int c = 0; c < m_child2.getTupleDesc().numFields(); c++) {
+            for (int i = 0; i < n; i++)
+                m_out.copyValue(left + c, i, m_probe, c, m_outProbe[i]);
+        }
+        m_out.setSize(n);
+    }
+}
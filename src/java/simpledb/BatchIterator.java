@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the iterator interface of the batch (vectorized)
+ * operators. Where a {@link DbIterator} hands out one Tuple per call, a
+ * BatchIterator hands out a {@link TupleBatch} of up to about
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows, stored as column vectors, so
+ * that operators work on whole columns in tight loops instead of making a
+ * virtual call and a Tuple per row.
+ * <p>
+ * Batch operators can be mixed with tuple operators through
+ * {@link TupleToBatchIterator} and {@link BatchToTupleIterator}.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch, which has at least one selected row. The
+     * batch belongs to the iterator and is only valid until the next call;
+     * the caller may narrow its selection, but must not change its rows.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of this iterator's batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch version of {@link Project}. It copies nothing:
+ * its batches are views of its child's batches that show only the
+ * projected fields (see {@link TupleBatch#viewOf}).
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] m_fields;
+    private BatchIterator m_child;
+    private final TupleDesc m_td;
+    private transient TupleBatch m_batch;
+
+    /**
+     * @param fieldList the ids of the fields of child's TupleDesc to
+     *            project out
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchIterator child) {
+        m_child = child;
+        m_fields = new int[fieldList.size()];
+        Type[] types = new Type[m_fields.length];
+        String[] names = new String[m_fields.length];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < m_fields.length; i++) {
+            m_fields[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(m_fields[i]);
+            names[i] = childtd.getFieldName(m_fields[i]);
+        }
+        m_td = new TupleDesc(types, names);
+    }
+
+    public BatchIterator getChild() {
+        return m_child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_batch = new TupleBatch(m_td, 1);
+    }
+
+    public void close() {
+        m_child.close();
+        m_batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = m_child.nextBatch();
+        if (b == null)
+            return null;
+        m_batch.viewOf(b, m_fields);
+        return m_batch;
+    }
+}
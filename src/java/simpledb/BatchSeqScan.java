@@ -0,0 +1,112 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan}. On a
+ * {@link HeapFile} it copies the fields it returns straight from each page
+ * image into the column vectors of its batches, a whole page at a time,
+ * without making a Tuple or a Field per row; like SeqScan it skips the
+ * pages that its predicates rule out (see
+ * {@link HeapFile#iterator(TransactionId, Predicate[])}).
+ * Other tables are read through a SeqScan.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SeqScan m_scan;
+    // the scan's fields as fields of the table
+    private final int[] m_fields;
+    // set if the table is not a HeapFile
+    private final TupleToBatchIterator m_tuples;
+    private transient TupleBatch m_batch;
+    private transient PageScan m_pages;
+
+    /**
+     * Creates a batch scan returning what the given scan would.
+     */
+    public BatchSeqScan(SeqScan scan) {
+        m_scan = scan;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        int[] columns = scan.getColumns();
+        if (columns == null) {
+            columns = new int[f.getTupleDesc().numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = i;
+        }
+        m_fields = columns;
+        m_tuples = f instanceof HeapFile ? null : new TupleToBatchIterator(scan);
+    }
+
+    /**
+     * @see SeqScan#SeqScan(TransactionId, int, String, int[], Predicate[])
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            Predicate[] preds) {
+        this(new SeqScan(tid, tableid, tableAlias, columns, preds));
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null, null);
+    }
+
+    public String getTableName() {
+        return m_scan.getTableName();
+    }
+
+    public String getAlias() {
+        return m_scan.getAlias();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (m_tuples != null) {
+            m_tuples.open();
+            return;
+        }
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(m_scan.getTableId());
+        m_batch = new TupleBatch(getTupleDesc());
+        m_pages = new PageScan(m_scan.getTransactionId(), hf, m_scan.getPredicates());
+    }
+
+    /**
+     * Reads whole pages into the batch until the next one would probably
+     * not fit.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_tuples != null)
+            return m_tuples.nextBatch();
+        if (m_pages == null)
+            throw new IllegalStateException("scan not open");
+        m_batch.clear();
+        int rows = 0, last = 0;
+        while (rows + last <= TupleBatch.DEFAULT_CAPACITY) {
+            HeapPage page = m_pages.next();
+            if (page == null)
+                break;
+            last = page.readBatch(m_fields, m_batch, rows);
+            rows += last;
+        }
+        m_batch.setSize(rows);
+        return rows == 0 ? null : m_batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (m_tuples != null) {
+            m_tuples.rewind();
+            return;
+        }
+        m_pages.rewind();
+    }
+
+    public void close() {
+        if (m_tuples != null) {
+            m_tuples.close();
+            return;
+        }
+        m_pages = null;
+        m_batch = null;
+    }
+}
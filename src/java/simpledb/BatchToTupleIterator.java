@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * BatchToTupleIterator hands out the selected rows of the batches of a
+ * batch operator as tuples, so that a plan of batch operators can be used
+ * wherever a {@link DbIterator} is expected.
+ *
+ * @see TupleToBatchIterator
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator m_child;
+    // the plan of tuple operators this runs, kept only so that plans can
+    // be inspected as before; null if this was made from a batch operator
+    private DbIterator m_plan;
+    private transient TupleBatch m_batch;
+    // the index into m_batch's selection of the next row to return
+    private transient int m_next;
+
+    public BatchToTupleIterator(BatchIterator child) {
+        m_child = child;
+    }
+
+    /**
+     * Runs a plan of tuple operators as batch operators where it can (see
+     * {@link TupleToBatchIterator#of}), returning the same tuples.
+     */
+    public static DbIterator vectorize(DbIterator plan) {
+        if (plan instanceof BatchToTupleIterator)
+            return plan;
+        BatchToTupleIterator it = new BatchToTupleIterator(TupleToBatchIterator.of(plan));
+        it.m_plan = plan;
+        return it;
+    }
+
+    public BatchIterator getChild() {
+        return m_child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+        m_batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (m_batch == null || m_next == m_batch.numSelected()) {
+            m_batch = m_child.nextBatch();
+            m_next = 0;
+            if (m_batch == null)
+                return null;
+        }
+        return m_batch.getTuple(m_batch.selection()[m_next++]);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        if (m_plan == null)
+            return new DbIterator[0];
+        return new DbIterator[] { m_plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (m_plan != null)
+            m_plan = children[0];
+    }
+}
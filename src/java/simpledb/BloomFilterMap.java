@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * BloomFilterMap keeps a Bloom filter of the values of some fields on each
+ * page of a HeapFile, so that a scan with an equality predicate on one of
+ * those fields can skip the pages that certainly do not hold the value
+ * without reading them (see {@link HeapFile#iterator(TransactionId,
+ * Predicate[])}). It is meant for fields such as names or titles, with
+ * too many distinct values for a {@link ZoneMap} to rule pages out.
+ * <p>
+ * The fields are chosen with {@link HeapFile#setBloomFields}. Each filter
+ * has {@link #bitsPerPage} bits, about {@link #BITS_PER_TUPLE} per tuple
+ * that fits on a page, and sets {@link #NUM_HASHES} of them per value, so
+ * that about one page in a hundred that lacks a value is read anyway.
+ * <p>
+ * The map is kept in a sidecar file next to the table
+ * (<tt>table.dat.bf</tt>): a 4 byte page count, the number of fields and
+ * their indices, the filter size in bits, then each page's filters in page
+ * order, one per field. Like a zone map it may only err by letting a page
+ * through, and a sidecar that cannot be used, e.g. one made for other
+ * fields, is rebuilt in the background (see {@link PageMap}).
+ */
+class BloomFilterMap extends PageMap {
+
+    /** the number of filter bits per tuple a page can hold */
+    static final int BITS_PER_TUPLE = 10;
+    /** the number of bits each value sets */
+    static final int NUM_HASHES = 7;
+
+    private final int[] m_fields;
+    // field i of the table -> its position in m_fields, or -1
+    private final int[] m_position;
+    private final int m_bits;
+    // the filter of field position f of page p starts at word
+    // (p * m_fields.length + f) * m_words
+    private final int m_words;
+    private long[] m_filters;
+
+    /**
+     * Loads the Bloom filters of some fields of hf, rebuilding them from
+     * the table's pages in the background if its sidecar file cannot be
+     * used.
+     */
+    BloomFilterMap(HeapFile hf, int[] fields) {
+        super(hf, sidecarFor(hf.getFile()));
+        TupleDesc td = hf.getTupleDesc();
+        m_fields = fields.clone();
+        m_position = new int[td.numFields()];
+        Arrays.fill(m_position, -1);
+        for (int i = 0; i < m_fields.length; i++)
+            m_position[m_fields[i]] = i;
+        m_bits = bitsPerPage(hf.getPageSize(), td);
+        m_words = m_bits / 64;
+        m_filters = new long[0];
+        load();
+    }
+
+    /** @return the sidecar file that holds the Bloom filters of a table file */
+    static File sidecarFor(File tableFile) {
+        return new File(tableFile.getPath() + ".bf");
+    }
+
+    /**
+     * @return the size in bits of the filter of one field of one page, a
+     *   multiple of 64
+     */
+    static int bitsPerPage(int pageSize, TupleDesc td) {
+        int tuples = pageSize * 8 / (td.getSize() * 8 + 1);
+        return Math.max(64, (tuples * BITS_PER_TUPLE + 63) / 64 * 64);
+    }
+
+    /** @return true if the sidecar was made for these fields and pages */
+    protected boolean read(int pages) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(m_file)));
+        try {
+            if (dis.readInt() != pages || dis.readInt() != m_fields.length)
+                return false;
+            for (int f : m_fields) {
+                if (dis.readInt() != f)
+                    return false;
+            }
+            if (dis.readInt() != m_bits)
+                return false;
+            m_numPages = 0;
+            cover(pages - 1);
+            for (int i = 0; i < pages * m_fields.length * m_words; i++)
+                m_filters[i] = dis.readLong();
+            return true;
+        } finally {
+            dis.close();
+        }
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(m_numPages);
+        dos.writeInt(m_fields.length);
+        for (int f : m_fields)
+            dos.writeInt(f);
+        dos.writeInt(m_bits);
+        for (int i = 0; i < m_numPages * m_fields.length * m_words; i++)
+            dos.writeLong(m_filters[i]);
+    }
+
+    protected void cover(int page) {
+        if (page < m_numPages)
+            return;
+        int size = (page + 1) * m_fields.length * m_words;
+        if (size > m_filters.length)
+            m_filters = Arrays.copyOf(m_filters, Math.max(size, 2 * m_filters.length));
+        m_numPages = page + 1;
+    }
+
+    protected void clear(int page) {
+        int base = page * m_fields.length * m_words;
+        Arrays.fill(m_filters, base, base + m_fields.length * m_words, 0L);
+    }
+
+    /**
+     * Computes the NUM_HASHES bit positions of a value, from two hashes of
+     * it combined as h1 + i * h2.
+     */
+    private int[] positions(Field value) {
+        int h1 = value.hashCode();
+        int h2 = h1 * 0x9e3779b9;
+        h2 ^= h2 >>> 15;
+        h2 = (h2 * 0x85ebca6b) | 1;
+        h1 ^= h1 >>> 16;
+        int[] positions = new int[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i++)
+            positions[i] = ((h1 + i * h2) & 0x7fffffff) % m_bits;
+        return positions;
+    }
+
+    /** Sets the bits of the values of a tuple in the filters of a page. */
+    protected void add(int page, Tuple t) {
+        for (int f = 0; f < m_fields.length; f++) {
+            int base = (page * m_fields.length + f) * m_words;
+            for (int bit : positions(t.getField(m_fields[f])))
+                m_filters[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    protected boolean summaryMayMatch(int page, Predicate[] preds) {
+        for (Predicate p : preds) {
+            int f = m_position[p.getField()];
+            if (f < 0 || p.getOp() != Predicate.Op.EQUALS)
+                continue;
+            int base = (page * m_fields.length + f) * m_words;
+            for (int bit : positions(p.getOperand())) {
+                if ((m_filters[base + (bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,7 +3,17 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +23,27 @@ import java.util.HashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Resident pages live in a ConcurrentHashMap keyed on PageId, so cache hits
+ * never take the buffer pool's monitor; misses, evictions and flushes are
+ * serialized on it. Each resident page sits in a {@link Frame} that counts
+ * how many callers have it pinned (see {@link #pin} and {@link #unpin});
+ * pinned frames are never evicted.
+ * <p>
+ * Misses that walk forward through a table trigger asynchronous read-ahead
+ * of the next pages (see {@link #setReadAheadWindow}), so sequential scans
+ * overlap their disk reads with query processing. Dirty pages are written
+ * back in the background (see {@link #setBackgroundWriterInterval}); all
+ * writes are sorted by table and page number, coalesced into multi-page
+ * writes where pages are adjacent, and preceded by forcing their update
+ * records to the log.
+ * <p>
+ * Tables may have different page sizes (see {@link DbFile#getPageSize}).
+ * The pool's capacity is a number of bytes, numPages times
+ * {@link #getPageSize()}, and each resident page takes up as many of them
+ * as its table's page size (a column segment its own encoded size, see
+ * {@link ColumnFile#getPageSize(PageId)}), so a pool holds fewer large
+ * pages than small ones.
  * 
  * @Threadsafe, all fields are final
  */
@@ -22,22 +53,276 @@ public class BufferPool {
 
     private static int pageSize = PAGE_SIZE;
    
-    private HashMap<PageId, Page> m_cache;
-    private int m_maxNumPages;
+    /**
+     * A slot of the buffer pool: the resident page plus the number of
+     * callers that currently have it pinned.
+     */
+    static class Frame {
+        /** pinCount value of a frame that is being evicted */
+        private static final int EVICTING = -1;
+
+        volatile Page page;
+        final AtomicInteger pinCount;
+        /** bytes of the pool's capacity the frame takes up */
+        final int size;
+
+        Frame(Page page, int size, int pins) {
+            this.page = page;
+            this.pinCount = new AtomicInteger(pins);
+            this.size = size;
+        }
+
+        /** @return false if the frame is being evicted and cannot be pinned */
+        boolean tryPin() {
+            while (true) {
+                int c = pinCount.get();
+                if (c == EVICTING)
+                    return false;
+                if (pinCount.compareAndSet(c, c + 1))
+                    return true;
+            }
+        }
+
+        /** @return false if the frame was not pinned */
+        boolean unpin() {
+            while (true) {
+                int c = pinCount.get();
+                if (c <= 0)
+                    return false;
+                if (pinCount.compareAndSet(c, c - 1))
+                    return true;
+            }
+        }
+
+        /**
+         * Reserves an unpinned frame for eviction so that nobody can pin it
+         * between the pin check and its removal from the page table.
+         */
+        boolean claim() {
+            return pinCount.compareAndSet(0, EVICTING);
+        }
+
+        /** Undoes {@link #claim} if the eviction did not go through. */
+        void unclaim() {
+            pinCount.compareAndSet(EVICTING, 0);
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> m_frames;
+    private final int m_maxNumPages;
+    private final long m_capacity;
+    private long m_usedBytes; // guarded by this
+    private final ReplacementPolicy m_policy;
+    private final ReentrantLock m_policyLock;
+    private final AtomicLong m_hits;
+    private final AtomicLong m_misses;
+    private volatile double m_scanRingThreshold;
+    private final Prefetcher m_prefetcher;
+    private final PageWriter m_writer;
+    // pages dirtied through insertTuple/deleteTuple and not yet written
+    private final Set<PageId> m_dirty;
+    // frames discarded while pinned, which keep their bytes until the last
+    // pin is released; guarded by this
+    private final HashMap<PageId, ArrayList<Frame>> m_discarded;
+    private long m_readAheadBase;
     
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Replacement policy used when none is given to the constructor. */
+    public static final String DEFAULT_POLICY = "lru";
+
+    /** Default value for {@link #setScanRingThreshold}. */
+    public static final double DEFAULT_SCAN_RING_THRESHOLD = 1.0;
+
+    /** Default value for {@link #setReadAheadWindow}. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** Default value for {@link #setBackgroundWriterInterval}, in milliseconds. */
+    public static final long DEFAULT_WRITER_INTERVAL_MS = 100;
+
+    /** Number of pages a bulk insert packs before writing them out. */
+    public static final int BULK_WRITE_PAGES = 64;
+
+    /** Orders pages the way they are laid out on disk. */
+    private static final Comparator<PageId> DISK_ORDER = new Comparator<PageId>() {
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId())
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            return a.pageNumber() < b.pageNumber() ? -1
+                    : (a.pageNumber() == b.pageNumber() ? 0 : 1);
+        }
+    };
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, createPolicy(DEFAULT_POLICY, numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to pick pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *   buffer pool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         m_maxNumPages = numPages;
-        m_cache = new HashMap<PageId, Page>();        
+        m_capacity = (long) numPages * getPageSize();
+        m_usedBytes = 0;
+        m_frames = new ConcurrentHashMap<PageId, Frame>();
+        m_policy = policy;
+        m_policyLock = new ReentrantLock();
+        m_hits = new AtomicLong(0);
+        m_misses = new AtomicLong(0);
+        m_scanRingThreshold = DEFAULT_SCAN_RING_THRESHOLD;
+        m_prefetcher = new Prefetcher(this, DEFAULT_READ_AHEAD_PAGES);
+        m_writer = new PageWriter(this, DEFAULT_WRITER_INTERVAL_MS);
+        m_dirty = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+        m_discarded = new HashMap<PageId, ArrayList<Frame>>();
+    }
+
+    /**
+     * Creates one of the built in replacement policies by name.
+     *
+     * @param name one of "lru", "clock", "lru-k" (or "lru-2") and "2q",
+     *   case insensitive.
+     * @param numPages the size of the buffer pool the policy is for.
+     * @throws NoSuchElementException if the name is not recognized.
+     */
+    public static ReplacementPolicy createPolicy(String name, int numPages)
+        throws NoSuchElementException {
+        String n = name.trim().toLowerCase();
+        if (n.equals("lru"))
+            return new LRUPolicy();
+        if (n.equals("clock"))
+            return new ClockPolicy();
+        if (n.equals("lru-k") || n.equals("lru-2") || n.equals("lruk"))
+            return new LRUKPolicy(numPages);
+        if (n.equals("2q"))
+            return new TwoQPolicy(numPages);
+        throw new NoSuchElementException("Unknown replacement policy " + name);
+    }
+
+    /**
+     * @return the maximum number of pages of {@link #getPageSize()} bytes
+     *   this buffer pool holds.
+     */
+    public int getNumPages() {
+        return m_maxNumPages;
+    }
+
+    /** @return the replacement policy this buffer pool evicts with. */
+    public ReplacementPolicy getReplacementPolicy() {
+        return m_policy;
+    }
+
+    /** @return the number of getPage calls served from memory. */
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk. */
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    /**
+     * @return the number of misses that found their page already read by
+     *   the read-ahead threads. These are included in {@link #getMissCount}.
+     */
+    public synchronized long getReadAheadCount() {
+        return m_prefetcher.getUsedCount() - m_readAheadBase;
+    }
+
+    /** Zero the hit, miss and read-ahead counters. */
+    public synchronized void resetStats() {
+        m_hits.set(0);
+        m_misses.set(0);
+        m_readAheadBase = m_prefetcher.getUsedCount();
+    }
+
+    /**
+     * Sets how many pages past a sequential reader's current page are read
+     * in the background. Read-ahead starts once a table's misses move
+     * forward through its pages.
+     *
+     * @param pages the read-ahead window; 0 turns read-ahead off.
+     */
+    public synchronized void setReadAheadWindow(int pages) {
+        m_prefetcher.setWindow(pages);
+    }
+
+    /** @return the current read-ahead window, see {@link #setReadAheadWindow}. */
+    public int getReadAheadWindow() {
+        return m_prefetcher.getWindow();
+    }
+
+    /**
+     * Sets how often the background writer wakes up to write a batch of
+     * dirty pages while there are any.
+     *
+     * @param millis the interval; 0 turns the background writer off.
+     */
+    public void setBackgroundWriterInterval(long millis) {
+        m_writer.setInterval(millis);
+    }
+
+    /** @return the background writer interval, see {@link #setBackgroundWriterInterval}. */
+    public long getBackgroundWriterInterval() {
+        return m_writer.getInterval();
+    }
+
+    /** @return true if the page is in the buffer pool. */
+    boolean isResident(PageId pid) {
+        return m_frames.containsKey(pid);
+    }
+
+    /**
+     * Sets how large a table must be, as a fraction of the number of pages in
+     * this buffer pool, before sequential scans over it read through a
+     * private {@link ScanRing}.
+     *
+     * @param fraction the threshold; a value above 1 only lets scans of
+     *   tables that could never fit in the pool use a ring, and
+     *   Double.POSITIVE_INFINITY turns ring mode off.
+     */
+    public void setScanRingThreshold(double fraction) {
+        m_scanRingThreshold = fraction;
+    }
+
+    /** @return the current scan ring threshold, see {@link #setScanRingThreshold}. */
+    public double getScanRingThreshold() {
+        return m_scanRingThreshold;
+    }
+
+    /**
+     * Returns a ring for a sequential scan over a table of the given size,
+     * or null if the table is small enough to be cached normally.
+     *
+     * @param tablePages the number of pages the scan is going to read
+     */
+    public ScanRing getScanRing(int tablePages) {
+        return getScanRing(tablePages, getPageSize());
+    }
+
+    /**
+     * Like {@link #getScanRing(int)}, for a table whose pages are pageSize
+     * bytes long.
+     */
+    public ScanRing getScanRing(int tablePages, int pageSize) {
+        int poolPages = (int) Math.max(1, m_capacity / pageSize);
+        if (tablePages <= poolPages * m_scanRingThreshold)
+            return null;
+        int size = Math.min(ScanRing.DEFAULT_RING_PAGES, poolPages / 8);
+        return new ScanRing(Math.max(2, Math.min(size, poolPages)));
     }
     
     public static int getPageSize() {
@@ -66,21 +351,261 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-    	if (m_cache.containsKey(pid)) {
-    		return m_cache.get(pid);
+    	return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan that reads
+     * through a private ring of frames. Behaves like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that on a
+     * miss the page is read into the ring, throwing out the oldest page the
+     * ring holds instead of a page chosen by the replacement policy.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to use the pool normally
+     * @see #getScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+    	return fetch(pid, ring, false);
+    }
+
+    /**
+     * Retrieve the specified page like
+     * {@link #getPage(TransactionId, PageId, Permissions)} and pin it: the
+     * page will not be evicted until a matching {@link #unpin} call, so the
+     * caller may keep using the returned object (and the tuples in it)
+     * without copying. Every pin must be paired with exactly one unpin.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pin(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+    	return fetch(pid, null, true);
+    }
+
+    /**
+     * Pinning version of {@link #getPage(TransactionId, PageId, Permissions, ScanRing)}.
+     * A page pinned by the scan stays resident even when the ring wraps
+     * around to its frame.
+     */
+    public Page pin(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+    	return fetch(pid, ring, true);
+    }
+
+    /**
+     * Pins a page only if it is already resident; never reads from disk.
+     *
+     * @param pid the ID of the page to pin
+     * @return true if the page was resident and is now pinned
+     */
+    public boolean pin(PageId pid) {
+    	Frame frame = m_frames.get(pid);
+    	if (frame == null || !frame.tryPin())
+    		return false;
+    	if (m_frames.get(pid) == frame)
+    		return true;
+    	unpinStale(pid, frame);
+    	return false;
+    }
+
+    /**
+     * Releases one pin on a page obtained from one of the pin methods.
+     *
+     * @param pid the ID of the page to unpin
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpin(PageId pid) {
+    	Frame frame = m_frames.get(pid);
+    	if (frame != null && frame.unpin())
+    		return;
+    	if (!unpinDiscarded(pid))
+    		throw new IllegalStateException("page " + pid.pageNumber() + " of table "
+    				+ pid.getTableId() + " is not pinned");
+    }
+
+    /**
+     * Releases a pin on a frame discarded while it was pinned, giving its
+     * bytes back once the last pin is gone.
+     *
+     * @return false if no discarded frame of the page is pinned
+     */
+    private synchronized boolean unpinDiscarded(PageId pid) {
+    	ArrayList<Frame> frames = m_discarded.get(pid);
+    	if (frames == null)
+    		return false;
+    	for (Frame frame : frames) {
+    		if (frame.unpin()) {
+    			releaseDiscarded(pid, frame);
+    			return true;
+    		}
     	}
-    	else {
-    		if (m_cache.size() >= m_maxNumPages){
-    			evictPage();
+    	return false;
+    }
+
+    /**
+     * Drops a pin taken on a frame that turned out to have left the page
+     * table, e.g. because it was discarded meanwhile.
+     */
+    private void unpinStale(PageId pid, Frame frame) {
+    	frame.unpin();
+    	releaseDiscarded(pid, frame);
+    }
+
+    /** Gives back the bytes of a discarded frame if it is no longer pinned. */
+    private synchronized void releaseDiscarded(PageId pid, Frame frame) {
+    	ArrayList<Frame> frames = m_discarded.get(pid);
+    	if (frames == null || !frames.contains(frame) || !frame.claim())
+    		return;
+    	frames.remove(frame);
+    	if (frames.isEmpty())
+    		m_discarded.remove(pid);
+    	m_usedBytes -= frame.size;
+    }
+
+    /** @return the number of outstanding pins on the page, 0 if it is not resident. */
+    public int getPinCount(PageId pid) {
+    	Frame frame = m_frames.get(pid);
+    	return frame == null ? 0 : Math.max(0, frame.pinCount.get());
+    }
+
+    /**
+     * Lookup shared by getPage and pin. The hit path only touches the
+     * concurrent page table; a hit that races with the eviction of the same
+     * frame falls through to the miss path.
+     */
+    private Page fetch(PageId pid, ScanRing ring, boolean pin) throws DbException {
+    	Frame frame = m_frames.get(pid);
+    	if (frame != null && (!pin || frame.tryPin())) {
+    		if (m_frames.get(pid) == frame) {
+    			m_hits.incrementAndGet();
+    			policyAccessed(pid);
+    			return frame.page;
     		}
-			DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-			Page newPage = dbfile.readPage(pid);
-			m_cache.put(pid, newPage);
-			return newPage;
+    		if (pin)
+    			unpinStale(pid, frame);
+    	}
+    	return loadPage(pid, ring, pin);
+    }
+
+    /**
+     * Miss path of getPage: reads the page into a free frame, evicting a
+     * page first if the pool is full.
+     */
+    private synchronized Page loadPage(PageId pid, ScanRing ring, boolean pin) throws DbException {
+        // another thread may have read the page while we waited for the lock;
+        // evictions only happen under this lock, so the frame cannot be
+        // claimed from under us here
+        Frame frame = m_frames.get(pid);
+        if (frame != null) {
+            if (pin && !frame.tryPin())
+                throw new DbException("page " + pid.pageNumber() + " of table "
+                        + pid.getTableId() + " is being evicted");
+            m_hits.incrementAndGet();
+            policyAccessed(pid);
+            return frame.page;
+        }
+        m_misses.incrementAndGet();
+        if (ring != null) {
+            PageId recycled = ring.add(pid);
+            if (recycled != null && m_frames.containsKey(recycled))
+                removePage(recycled);
+        }
+        int size = frameSize(pid);
+        makeRoom(size);
+        m_prefetcher.missed(pid);
+        Page newPage = m_prefetcher.take(pid);
+        if (newPage == null) {
+            DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            newPage = dbfile.readPage(pid);
+        }
+        frame = new Frame(newPage, size, pin ? 1 : 0);
+        m_frames.put(pid, frame);
+        m_usedBytes += size;
+        policyLoaded(pid);
+        return newPage;
+    }
+
+    /**
+     * Marks a page dirtied by tid and puts it into the cache if it is not
+     * there yet (e.g. a freshly appended page), evicting another page if
+     * necessary. Marking happens under the pool's monitor so the background
+     * writer cannot mark the page clean again from a stale image.
+     */
+    private synchronized void cacheDirtyPage(Page page, TransactionId tid) throws DbException {
+    	PageId pid = page.getId();
+    	page.markDirty(true, tid);
+    	m_dirty.add(pid);
+    	m_writer.wake();
+    	m_prefetcher.invalidate(pid);
+    	Frame frame = m_frames.get(pid);
+    	if (frame != null) {
+    		frame.page = page;
+    		policyAccessed(pid);
+    		return;
+    	}
+    	int size = frameSize(pid);
+    	makeRoom(size);
+    	m_frames.put(pid, new Frame(page, size, 0));
+    	m_usedBytes += size;
+    	policyLoaded(pid);
+    }
+
+    /** @return the number of bytes a page of pid's table takes up */
+    private static int frameSize(PageId pid) {
+    	DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    	// column segments vary in size
+    	if (f instanceof ColumnFile)
+    		return ((ColumnFile) f).getPageSize(pid);
+    	return f.getPageSize();
+    }
+
+    /**
+     * Evicts pages until a page of size bytes fits. A page larger than the
+     * whole pool is let in once the pool is empty.
+     */
+    private synchronized void makeRoom(int size) throws DbException {
+    	while (m_usedBytes + size > m_capacity && !m_frames.isEmpty())
+    		evictPage();
+    }
+
+    /**
+     * Tells the replacement policy about a hit. Hits do not wait for the
+     * policy: if another thread is using it the access is simply not
+     * recorded, which costs a little precision but keeps hits from
+     * serializing on the policy lock.
+     */
+    private void policyAccessed(PageId pid) {
+    	if (m_policyLock.tryLock()) {
+    		try {
+    			m_policy.pageAccessed(pid);
+    		} finally {
+    			m_policyLock.unlock();
+    		}
+    	}
+    }
+
+    private void policyLoaded(PageId pid) {
+    	m_policyLock.lock();
+    	try {
+    		m_policy.pageLoaded(pid);
+    	} finally {
+    		m_policyLock.unlock();
+    	}
+    }
+
+    private void policyRemoved(PageId pid) {
+    	m_policyLock.lock();
+    	try {
+    		m_policy.pageRemoved(pid);
+    	} finally {
+    		m_policyLock.unlock();
     	}
-    		
-        // some code goes here
-        // return null;
     }
 
     /**
@@ -148,12 +673,135 @@ public class BufferPool {
     	DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
     	ArrayList<Page> modifiedPages = databaseFile.insertTuple(tid, t);
     	for (Page page : modifiedPages)
-    	{
-    		page.markDirty(true, tid);
-    		m_cache.put(page.getId(), page);
+    		cacheDirtyPage(page, tid);
+    	updateIndexes(tid, tableId, t, t.getRecordId(), true);
+    }
+
+    /**
+     * Adds a tuple to, or removes it from, the secondary indexes of its
+     * table (see {@link Catalog#addIndex}).
+     *
+     * @param rid where the tuple is, or was, stored
+     */
+    private void updateIndexes(TransactionId tid, int tableId, Tuple t, RecordId rid,
+    		boolean insert) throws DbException, IOException, TransactionAbortedException {
+    	for (Map.Entry<Integer, IndexFile> e : Database.getCatalog().getIndexes(tableId).entrySet()) {
+    		IndexFile index = e.getValue();
+    		Tuple entry = Catalog.indexEntry(index.getTupleDesc(), t.getField(e.getKey()), rid);
+    		ArrayList<Page> modifiedPages = insert ? index.insertTuple(tid, entry)
+    				: index.deleteTuple(tid, entry);
+    		for (Page page : modifiedPages)
+    			cacheDirtyPage(page, tid);
     	}
     }
 
+    /**
+     * Add all tuples from an iterator to the specified table on behalf of
+     * transaction tid, packing them into new pages that are appended to the
+     * end of the table rather than looking for free space in existing pages.
+     * Pages are filled in memory and written {@link #BULK_WRITE_PAGES} at a
+     * time, each batch in a single sequential write. The new pages are not
+     * logged, as they replace no earlier contents, and not cached; like any
+     * other page they are read into the pool when they are next used.
+     * <p>
+     * Tables that are not HeapFiles fall back to inserting one tuple at a
+     * time. HeapFiles in a format other than {@link PageFormat#FIXED} are
+     * filled through their pages' insertTuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add; must already be open
+     * @return the number of tuples added
+     */
+    public int bulkInsert(TransactionId tid, int tableId, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+    	DbFile databaseFile = Database.getCatalog().getDatabaseFile(tableId);
+    	int count = 0;
+    	if (!(databaseFile instanceof HeapFile)) {
+    		while (tuples.hasNext()) {
+    			insertTuple(tid, tableId, tuples.next());
+    			count++;
+    		}
+    		return count;
+    	}
+    	HeapFile hf = (HeapFile) databaseFile;
+    	if (hf.getPageFormat() != PageFormat.FIXED)
+    		return bulkInsertPages(hf, tid, tuples);
+    	TupleDesc td = hf.getTupleDesc();
+    	Type[] types = new Type[td.numFields()];
+    	for (int i = 0; i < types.length; i++)
+    		types[i] = td.getFieldType(i);
+    	HeapFileEncoder.PageBuilder builder = new HeapFileEncoder.PageBuilder(hf.getPageSize(), types);
+
+    	ArrayList<Page> batch = new ArrayList<Page>();
+    	int pageNo = hf.numPages();
+    	while (tuples.hasNext()) {
+    		Tuple t = tuples.next();
+    		if (!td.equals(t.getTupleDesc()))
+    			throw new DbException("TupleDesc mismatch.");
+    		int slot = builder.addTuple(t);
+    		t.setRecordId(new RecordId(new HeapPageId(tableId, pageNo), slot));
+    		updateIndexes(tid, tableId, t, t.getRecordId(), true);
+    		count++;
+    		if (builder.isFull()) {
+    			batch.add(new HeapPage(new HeapPageId(tableId, pageNo++), builder.finishPage()));
+    			if (batch.size() >= BULK_WRITE_PAGES) {
+    				appendPages(hf, batch);
+    				batch.clear();
+    			}
+    		}
+    	}
+    	if (builder.numRecords() > 0)
+    		batch.add(new HeapPage(new HeapPageId(tableId, pageNo), builder.finishPage()));
+    	appendPages(hf, batch);
+    	return count;
+    }
+
+    /**
+     * bulkInsert for formats that PageBuilder does not write: fills empty
+     * pages of the file's format one tuple at a time.
+     */
+    private int bulkInsertPages(HeapFile hf, TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+    	ArrayList<Page> batch = new ArrayList<Page>();
+    	int pageNo = hf.numPages();
+    	int count = 0;
+    	HeapPage page = null;
+    	while (tuples.hasNext()) {
+    		Tuple t = tuples.next();
+    		if (page == null)
+    			page = hf.newPage(new HeapPageId(hf.getId(), pageNo++),
+    					HeapPage.createEmptyPageData(hf.getPageSize()));
+    		page.insertTuple(t);
+    		updateIndexes(tid, hf.getId(), t, t.getRecordId(), true);
+    		count++;
+    		if (page.getNumEmptySlots() == 0) {
+    			batch.add(page);
+    			page = null;
+    			if (batch.size() >= BULK_WRITE_PAGES) {
+    				appendPages(hf, batch);
+    				batch.clear();
+    			}
+    		}
+    	}
+    	if (page != null)
+    		batch.add(page);
+    	appendPages(hf, batch);
+    	return count;
+    }
+
+    /**
+     * Writes a batch of new pages for bulkInsert.
+     */
+    private synchronized void appendPages(HeapFile hf, List<Page> pages)
+        throws IOException {
+    	if (pages.isEmpty())
+    		return;
+    	hf.appendPages(pages);
+    	for (Page page : pages)
+    		m_prefetcher.invalidate(page.getId());
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -170,13 +818,12 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-    	DbFile databaseFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+    	RecordId rid = t.getRecordId();
+    	DbFile databaseFile = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
     	ArrayList<Page> modifiedPages = databaseFile.deleteTuple(tid, t);
     	for (Page page : modifiedPages)
-    	{
-    		page.markDirty(true, tid);
-    		m_cache.put(page.getId(), page);
-    	}
+    		cacheDirtyPage(page, tid);
+    	updateIndexes(tid, rid.getPageId().getTableId(), t, rid, false);
     }
 
     /**
@@ -187,18 +834,38 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    	for (PageId pid : m_cache.keySet())
-    		flushPage(pid);
+    	writePages(new ArrayList<PageId>(m_frames.keySet()));
+    	// a checkpoint: the page maps now match the table files
+    	Database.getCatalog().saveMaps();
     }
 
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
         cache.
+        A pinned page is dropped from the page table right away, so that
+        later lookups read it again, but its bytes stay charged to the pool
+        until its last pin is released.
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+    	m_prefetcher.invalidate(pid);
+    	m_dirty.remove(pid);
+    	Frame frame = m_frames.remove(pid);
+    	if (frame == null)
+    		return;
+    	policyRemoved(pid);
+    	if (frame.claim()) {
+    		m_usedBytes -= frame.size;
+    		return;
+    	}
+    	ArrayList<Frame> frames = m_discarded.get(pid);
+    	if (frames == null) {
+    		frames = new ArrayList<Frame>();
+    		m_discarded.put(pid, frames);
+    	}
+    	frames.add(frame);
     }
 
     /**
@@ -208,13 +875,86 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	Page pageToFlush = m_cache.get(pid);
-    	TransactionId dirtyTransactionId = pageToFlush.isDirty();
-    	if (dirtyTransactionId != null)
-    	{
-    		DbFile databaseFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-    		databaseFile.writePage(pageToFlush);
-    		pageToFlush.markDirty(false, dirtyTransactionId);
+    	writePages(Collections.singletonList(pid));
+    }
+
+    /** @return true if pages dirtied through this pool are waiting to be written. */
+    boolean hasDirtyPages() {
+    	return !m_dirty.isEmpty();
+    }
+
+    /**
+     * Writes up to max of the dirty pages that are not pinned; called by the
+     * background writer.
+     */
+    synchronized void writeDirtyBatch(int max) throws IOException {
+    	ArrayList<PageId> batch = new ArrayList<PageId>();
+    	for (PageId pid : m_dirty) {
+    		Frame frame = m_frames.get(pid);
+    		if (frame == null)
+    			m_dirty.remove(pid);
+    		else if (frame.pinCount.get() == 0 && batch.size() < max)
+    			batch.add(pid);
+    	}
+    	writePages(batch);
+    }
+
+    /**
+     * Writes the dirty pages among pids. Following the write-ahead rule, an
+     * update record for every page dirtied by a live transaction (see
+     * {@link LogFile#isLive}) is logged and the log forced before any page
+     * is written; pages dirtied under a bare TransactionId, which the log
+     * does not know, are written unlogged. Pages are then written in disk
+     * order, and runs of adjacent pages of a HeapFile go out in a single
+     * write.
+     */
+    private synchronized void writePages(List<PageId> pids) throws IOException {
+    	ArrayList<PageId> sorted = new ArrayList<PageId>(pids);
+    	Collections.sort(sorted, DISK_ORDER);
+    	ArrayList<Page> dirty = new ArrayList<Page>();
+    	for (PageId pid : sorted) {
+    		Frame frame = m_frames.get(pid);
+    		if (frame == null)
+    			continue;
+    		if (frame.page.isDirty() != null)
+    			dirty.add(frame.page);
+    		else
+    			m_dirty.remove(pid);
+    	}
+    	if (dirty.isEmpty())
+    		return;
+
+    	LogFile log = Database.getLogFile();
+    	boolean logged = false;
+    	for (Page page : dirty) {
+    		if (log.isLive(page.isDirty())) {
+    			log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+    			logged = true;
+    		}
+    	}
+    	if (logged)
+    		log.force();
+
+    	int start = 0;
+    	while (start < dirty.size()) {
+    		PageId first = dirty.get(start).getId();
+    		DbFile databaseFile = Database.getCatalog().getDatabaseFile(first.getTableId());
+    		int end = start + 1;
+    		if (databaseFile instanceof HeapFile) {
+    			while (end < dirty.size()
+    					&& dirty.get(end).getId().getTableId() == first.getTableId()
+    					&& dirty.get(end).getId().pageNumber() == first.pageNumber() + end - start)
+    				end++;
+    			((HeapFile) databaseFile).writePages(dirty.subList(start, end));
+    		}
+    		else
+    			databaseFile.writePage(dirty.get(start));
+    		for (Page page : dirty.subList(start, end)) {
+    			page.markDirty(false, null);
+    			m_dirty.remove(page.getId());
+    			m_prefetcher.invalidate(page.getId());
+    		}
+    		start = end;
     	}
     }
 
@@ -225,6 +965,28 @@ public class BufferPool {
         // not necessary for lab1|lab2
     }
 
+    /**
+     * Flushes a page and drops it from the buffer pool without consulting
+     * the replacement policy. Pinned pages are left alone.
+     */
+    private synchronized void removePage(PageId pid) throws DbException {
+    	Frame frame = m_frames.get(pid);
+    	if (frame == null || !frame.claim())
+    		return;
+    	try
+    	{
+    		flushPage(pid);
+    	}
+    	catch (IOException e)
+    	{
+    		frame.unclaim();
+    		throw new DbException("Error trying to flush page during eviction.");
+    	}
+    	m_frames.remove(pid);
+    	m_usedBytes -= frame.size;
+    	policyRemoved(pid);
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
@@ -232,23 +994,49 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-    	boolean pageEvicted = false;
-    	for (PageId pid : m_cache.keySet())
-    	{
-    		try 
-    		{
-        		flushPage(pid);
-        		m_cache.remove(pid);
-        		pageEvicted = true;
-        		break;
+    	PageId pid = null;
+    	final Frame[] claimed = new Frame[1];
+    	// the policy passes over pinned pages, leaving their history alone
+    	ReplacementPolicy.Candidates unpinned = new ReplacementPolicy.Candidates() {
+    		public boolean accept(PageId candidate) {
+    			Frame frame = m_frames.get(candidate);
+    			if (frame == null)
+    				return true;
+    			if (!frame.claim())
+    				return false;
+    			claimed[0] = frame;
+    			return true;
     		}
-    		catch (IOException e)
-    		{
-    			throw new DbException("Error trying to flush page during eviction.");
+    	};
+    	m_policyLock.lock();
+    	try {
+    		// a page the policy tracks but the pool no longer holds is dropped
+    		while (pid == null) {
+    			PageId candidate = m_policy.evict(unpinned);
+    			if (candidate == null)
+    				break;
+    			if (claimed[0] != null)
+    				pid = candidate;
     		}
+    	} finally {
+    		m_policyLock.unlock();
     	}
-    	if (!pageEvicted)
+    	Frame victim = claimed[0];
+    	if (pid == null)
     		throw new DbException("no pages could be evicted");
+    	try
+    	{
+    		flushPage(pid);
+    	}
+    	catch (IOException e)
+    	{
+    		// keep the page resident (and tracked) since it never made it to disk
+    		victim.unclaim();
+    		policyLoaded(pid);
+    		throw new DbException("Error trying to flush page during eviction.");
+    	}
+    	m_frames.remove(pid);
+    	m_usedBytes -= victim.size;
     }
 
 }
@@ -38,6 +38,17 @@ public class Catalog {
     }
     private HashMap<String,Table> NameHash;
     private HashMap<Integer,Table> IdHash;
+    // secondary indexes: table id -> indexed field -> index
+    private HashMap<Integer,HashMap<Integer,IndexFile>> IndexHash;
+    // the same indexes by their own ids, for getDatabaseFile
+    private HashMap<Integer,IndexFile> IndexFiles;
+
+    /** Default limit on the number of table files kept open at once. */
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    // HeapFiles that currently hold an open file handle; guarded by itself
+    private HashSet<HeapFile> OpenFiles;
+    private int MaxOpenFiles;
 
     /**
      * Constructor.
@@ -47,6 +58,10 @@ public class Catalog {
         // some code goes here
         this.NameHash = new HashMap<String,Table>();
         this.IdHash = new HashMap<Integer,Table>();
+        this.IndexHash = new HashMap<Integer,HashMap<Integer,IndexFile>>();
+        this.IndexFiles = new HashMap<Integer,IndexFile>();
+        this.OpenFiles = new HashSet<HeapFile>();
+        this.MaxOpenFiles = DEFAULT_MAX_OPEN_FILES;
     }
 
     /**
@@ -63,6 +78,12 @@ public class Catalog {
         Table data = new Table(name,file,pkeyField);
         this.NameHash.put(name,data);
         this.IdHash.put(file.getId(),data);
+        // a table added again starts without indexes
+        HashMap<Integer,IndexFile> indexes = this.IndexHash.remove(file.getId());
+        if (indexes != null) {
+            for (IndexFile index : indexes.values())
+                this.IndexFiles.remove(index.getId());
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -122,6 +143,9 @@ public class Catalog {
         // some code goes here
         Table match = this.IdHash.get(tableid);
         if (match == null) {
+            IndexFile index = this.IndexFiles.get(tableid);
+            if (index != null)
+                return index;
             throw new NoSuchElementException();
         } else {
             return match.getDbFile();
@@ -138,6 +162,152 @@ public class Catalog {
         }
     }
 
+    /**
+     * @return the TupleDesc of the entries of a secondary index on a field
+     *   of the given type: the key, then the page number and tuple number
+     *   of the tuple's RecordId
+     */
+    public static TupleDesc indexTupleDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "tuple" });
+    }
+
+    /** @return the entry of a secondary index for a tuple with key key stored at rid */
+    static Tuple indexEntry(TupleDesc entryTd, Field key, RecordId rid) {
+        Tuple entry = new Tuple(entryTd);
+        entry.setField(0, key);
+        entry.setField(1, new IntField(rid.getPageId().pageNumber()));
+        entry.setField(2, new IntField(rid.tupleno()));
+        return entry;
+    }
+
+    /** @return the file a table's B+ tree index on a field is kept in */
+    public static File indexFileFor(File tableFile, int field) {
+        return new File(tableFile.getPath() + ".idx" + field);
+    }
+
+    /** @return the file a table's hash index on a field is kept in */
+    public static File hashIndexFileFor(File tableFile, int field) {
+        return new File(tableFile.getPath() + ".hash" + field);
+    }
+
+    /**
+     * Records a secondary index on a field of a HeapFile table. The index
+     * is an {@link IndexFile}, a {@link BTreeFile} or a
+     * {@link HashIndexFile}, keyed on field 0 of entries laid out as
+     * {@link #indexTupleDesc}; from now on {@link BufferPool#insertTuple}
+     * and {@link BufferPool#deleteTuple} keep it up to date, and the
+     * planner may read the table through it with an {@link IndexScan}.
+     * It replaces any index already on the field.
+     */
+    public void addIndex(int tableid, int field, IndexFile index) {
+        DbFile file = getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("only heap tables can be indexed");
+        if (!index.getTupleDesc().equals(indexTupleDesc(file.getTupleDesc().getFieldType(field)))
+                || index.getKeyField() != 0)
+            throw new IllegalArgumentException("index entries must be laid out as indexTupleDesc");
+        HashMap<Integer,IndexFile> indexes = this.IndexHash.get(tableid);
+        if (indexes == null) {
+            indexes = new HashMap<Integer,IndexFile>();
+            this.IndexHash.put(tableid, indexes);
+        }
+        IndexFile old = indexes.put(field, index);
+        if (old != null)
+            this.IndexFiles.remove(old.getId());
+        this.IndexFiles.put(index.getId(), index);
+    }
+
+    /** @return true if index file f is missing or older than the table's file */
+    private static boolean isStale(File f, HeapFile hf) {
+        return !f.exists() || (hf.getFile().exists() && f.lastModified() < hf.getFile().lastModified());
+    }
+
+    /** @return the index entries for a field of every tuple in a table */
+    private static ArrayList<Tuple> indexEntries(HeapFile hf, TupleDesc td, int field,
+            TransactionId tid) throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        if (hf.getFile().exists()) {
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                entries.add(indexEntry(td, t.getField(field), t.getRecordId()));
+            }
+            it.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Opens the B+ tree index on a field of a table kept in file f and
+     * records it with {@link #addIndex}. If f is missing or older than the
+     * table's file, the index is first rebuilt from the table.
+     */
+    public BTreeFile openIndex(int tableid, int field, File f)
+        throws IOException, DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) getDatabaseFile(tableid);
+        TupleDesc td = indexTupleDesc(hf.getTupleDesc().getFieldType(field));
+        if (isStale(f, hf)) {
+            TransactionId tid = new TransactionId();
+            ArrayList<Tuple> entries = indexEntries(hf, td, field, tid);
+            Collections.sort(entries, new Comparator<Tuple>() {
+                public int compare(Tuple a, Tuple b) {
+                    if (a.getField(0).compare(Predicate.Op.LESS_THAN, b.getField(0)))
+                        return -1;
+                    return a.getField(0).equals(b.getField(0)) ? 0 : 1;
+                }
+            });
+            TupleIterator sorted = new TupleIterator(td, entries);
+            sorted.open();
+            BTreeFile.bulkLoad(f, td, 0, sorted);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        BTreeFile index = new BTreeFile(f, 0, td);
+        addIndex(tableid, field, index);
+        return index;
+    }
+
+    /**
+     * Opens the hash index on a field of a table kept in file f, like
+     * {@link #openIndex}. A hash index only answers equality predicates,
+     * but needs no sort to build and reads fewer pages per lookup.
+     */
+    public HashIndexFile openHashIndex(int tableid, int field, File f)
+        throws IOException, DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) getDatabaseFile(tableid);
+        TupleDesc td = indexTupleDesc(hf.getTupleDesc().getFieldType(field));
+        if (isStale(f, hf)) {
+            TransactionId tid = new TransactionId();
+            TupleIterator entries = new TupleIterator(td, indexEntries(hf, td, field, tid));
+            entries.open();
+            HashIndexFile.bulkLoad(f, td, 0, entries);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        HashIndexFile index = new HashIndexFile(f, 0, td);
+        addIndex(tableid, field, index);
+        return index;
+    }
+
+    /**
+     * @return the index on a field of a table, or null if there is none
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        HashMap<Integer,IndexFile> indexes = this.IndexHash.get(tableid);
+        return indexes == null ? null : indexes.get(field);
+    }
+
+    /**
+     * @return the secondary indexes of a table by the field they index;
+     *   empty if it has none
+     */
+    public Map<Integer,IndexFile> getIndexes(int tableid) {
+        HashMap<Integer,IndexFile> indexes = this.IndexHash.get(tableid);
+        if (indexes == null)
+            return Collections.emptyMap();
+        return Collections.unmodifiableMap(indexes);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         Set<Integer> keys = this.IdHash.keySet();
@@ -159,10 +329,139 @@ public class Catalog {
         // some code goes here
         this.IdHash.clear();
         this.NameHash.clear();
+        for (IndexFile index : this.IndexFiles.values()) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.IndexHash.clear();
+        this.IndexFiles.clear();
+        closeFiles(0);
+    }
+
+    /**
+     * Saves the changed page maps of the tables, e.g. their zone maps, to
+     * their sidecar files.
+     *
+     * @see HeapFile#saveMaps
+     */
+    public void saveMaps() {
+        ArrayList<Table> tables = new ArrayList<Table>(this.IdHash.values());
+        for (Table t : tables) {
+            if (t.getDbFile() instanceof HeapFile)
+                ((HeapFile) t.getDbFile()).saveMaps();
+        }
+    }
+
+    /**
+     * Sets how many HeapFiles may hold an open file handle at the same time.
+     * When a file is opened beyond this limit, the one that has gone longest
+     * without a page read or write is closed.
+     */
+    public void setMaxOpenFiles(int max) {
+        synchronized (OpenFiles) {
+            this.MaxOpenFiles = Math.max(1, max);
+        }
+        closeFiles(this.MaxOpenFiles);
+    }
+
+    public int getMaxOpenFiles() {
+        synchronized (OpenFiles) {
+            return this.MaxOpenFiles;
+        }
+    }
+
+    /**
+     * Called by a HeapFile right after it opens its file handle.
+     */
+    void fileOpened(HeapFile f) {
+        synchronized (OpenFiles) {
+            OpenFiles.add(f);
+        }
+        closeFiles(getMaxOpenFiles());
+    }
+
+    /**
+     * Closes the least recently used open files until at most keep remain.
+     */
+    private void closeFiles(int keep) {
+        ArrayList<HeapFile> victims = new ArrayList<HeapFile>();
+        synchronized (OpenFiles) {
+            // forget files that were closed directly
+            Iterator<HeapFile> it = OpenFiles.iterator();
+            while (it.hasNext()) {
+                if (!it.next().isOpen())
+                    it.remove();
+            }
+            while (OpenFiles.size() > keep) {
+                HeapFile idle = null;
+                for (HeapFile f : OpenFiles) {
+                    if (idle == null || f.lastAccessTime() < idle.lastAccessTime())
+                        idle = f;
+                }
+                OpenFiles.remove(idle);
+                victims.add(idle);
+            }
+        }
+        for (HeapFile f : victims) {
+            try {
+                f.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
     
+    /**
+     * @return the page size a <tt>pagesize=</tt> table option asks for, or
+     *   -1 if it is not one of {@link HeapFile#PAGE_SIZES}
+     */
+    private static int parsePageSize(String s) {
+        s = s.toLowerCase();
+        int size;
+        try {
+            if (s.endsWith("k"))
+                size = Integer.parseInt(s.substring(0, s.length() - 1)) * 1024;
+            else
+                size = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        for (int allowed : HeapFile.PAGE_SIZES) {
+            if (size == allowed)
+                return size;
+        }
+        return -1;
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format <tt>name (field type [pk] [index|hashindex] [bloom], ...) [options]</tt>.
+     * The primary key field gets no index unless it is annotated <tt>index</tt> too.
+     * Fields annotated <tt>index</tt> get a B+ tree index (see
+     * {@link #openIndex}) in <tt>name.dat.idx</tt><i>n</i>, where
+     * <i>n</i> is the field's position; fields annotated <tt>hashindex</tt>
+     * get a hash index (see {@link #openHashIndex}) in
+     * <tt>name.dat.hash</tt><i>n</i> instead. Columnar tables cannot be indexed.
+     * Fields annotated <tt>bloom</tt> get per-page Bloom filters (see
+     * {@link HeapFile#setBloomFields}) in <tt>name.dat.bf</tt>.
+     * The options are whitespace separated table storage annotations:
+     * <ul>
+     * <li><tt>mapped</tt> reads the table through a {@link MappedHeapFile}
+     * <li><tt>compressed</tt> stores the table's pages compressed, in a
+     * {@link CompressedHeapFile}; cannot be combined with <tt>mapped</tt>
+     * <li><tt>slotted</tt> stores the table in {@link PageFormat#SLOTTED}
+     * pages, with variable-length strings
+     * <li><tt>pax</tt> stores the table in {@link PageFormat#PAX} pages,
+     * column by column within each page
+     * <li><tt>columnar</tt> stores the table in a {@link ColumnFile}, one
+     * file per column; cannot be combined with the other options
+     * <li><tt>pagesize=</tt><i>n</i> sets the table's page size to one of
+     * {@link HeapFile#PAGE_SIZES}, given in bytes or as <tt>4k</tt>,
+     * <tt>8k</tt>, <tt>16k</tt> or <tt>64k</tt>
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -180,6 +479,10 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                ArrayList<Integer> hashed = new ArrayList<Integer>();
+                ArrayList<Integer> bloom = new ArrayList<Integer>();
+                boolean anyIndex = false;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -191,20 +494,97 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    boolean treeIndex = false;
+                    boolean hashIndex = false;
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().equals("index"))
+                            anyIndex = treeIndex = true;
+                        else if (els2[a].trim().equals("hashindex"))
+                            anyIndex = hashIndex = true;
+                        else if (els2[a].trim().equals("bloom"))
+                            bloom.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
+                    if (hashIndex)
+                        hashed.add(names.size() - 1);
+                    else if (treeIndex)
+                        indexed.add(names.size() - 1);
+                }
+                boolean mapped = false;
+                boolean compressed = false;
+                boolean columnar = false;
+                PageFormat format = PageFormat.FIXED;
+                int pageSize = BufferPool.getPageSize();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String opt : options.split("\\s+")) {
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.toLowerCase().equals("mapped"))
+                        mapped = true;
+                    else if (opt.toLowerCase().equals("compressed"))
+                        compressed = true;
+                    else if (opt.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else if (opt.toLowerCase().equals("slotted"))
+                        format = PageFormat.SLOTTED;
+                    else if (opt.toLowerCase().equals("pax"))
+                        format = PageFormat.PAX;
+                    else if (opt.toLowerCase().startsWith("pagesize=")
+                            && parsePageSize(opt.substring(9)) > 0)
+                        pageSize = parsePageSize(opt.substring(9));
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                if (mapped && compressed) {
+                    System.out.println("Table " + name + " cannot be both mapped and compressed");
+                    System.exit(0);
+                }
+                if (columnar && anyIndex) {
+                    System.out.println("Table " + name + " cannot index a columnar table");
+                    System.exit(0);
+                }
+                if (columnar && !bloom.isEmpty()) {
+                    System.out.println("Table " + name + " cannot keep Bloom filters of a columnar table");
+                    System.exit(0);
+                }
+                if (columnar && (mapped || compressed || format != PageFormat.FIXED
+                        || pageSize != BufferPool.getPageSize())) {
+                    System.out.println("Table " + name + " cannot combine columnar with other options");
+                    System.exit(0);
+                }
+                DbFile tabHf;
+                if (columnar)
+                    tabHf = new ColumnFile(dataFile, t);
+                else if (mapped)
+                    tabHf = new MappedHeapFile(dataFile, t, format, pageSize);
+                else if (compressed)
+                    tabHf = new CompressedHeapFile(dataFile, t, format, pageSize);
+                else
+                    tabHf = new HeapFile(dataFile, t, format, pageSize);
+                if (!bloom.isEmpty()) {
+                    int[] bloomFields = new int[bloom.size()];
+                    for (int i = 0; i < bloomFields.length; i++)
+                        bloomFields[i] = bloom.get(i);
+                    ((HeapFile) tabHf).setBloomFields(bloomFields);
+                }
                 addTable(tabHf,name,primaryKey);
+                if (!columnar) {
+                    for (int field : indexed)
+                        openIndex(tabHf.getId(), field, indexFileFor(dataFile, field));
+                    for (int field : hashed)
+                        openHashIndex(tabHf.getId(), field, hashIndexFileFor(dataFile, field));
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -213,6 +593,12 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         }
     }
 }
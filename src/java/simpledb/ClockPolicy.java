@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list
+ * with a reference bit each; a hit just sets the bit, and the clock hand
+ * sweeps forward clearing bits until it finds a page whose bit is already
+ * clear. Hits are O(1) and eviction is amortized O(1).
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        boolean referenced;
+        Frame prev, next;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private HashMap<PageId, Frame> m_frames;
+    private Frame m_hand;
+
+    public ClockPolicy() {
+        m_frames = new HashMap<PageId, Frame>();
+        m_hand = null;
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (m_frames.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Frame f = new Frame(pid);
+        m_frames.put(pid, f);
+        if (m_hand == null) {
+            f.prev = f;
+            f.next = f;
+            m_hand = f;
+        } else {
+            // insert just behind the hand so the new page gets a full sweep
+            f.next = m_hand;
+            f.prev = m_hand.prev;
+            m_hand.prev.next = f;
+            m_hand.prev = f;
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = m_frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Frame f = m_frames.remove(pid);
+        if (f != null)
+            unlink(f);
+    }
+
+    public PageId evict() {
+        return evict(ALL);
+    }
+
+    public PageId evict(Candidates c) {
+        if (m_hand == null)
+            return null;
+        // after one sweep every bit is clear, so within two sweeps every
+        // page is offered to c; rejected pages are passed over
+        for (int i = 2 * m_frames.size(); i >= 0; i--) {
+            if (m_hand.referenced) {
+                m_hand.referenced = false;
+            } else if (c.accept(m_hand.pid)) {
+                Frame victim = m_hand;
+                m_frames.remove(victim.pid);
+                unlink(victim);
+                return victim.pid;
+            }
+            m_hand = m_hand.next;
+        }
+        return null;
+    }
+
+    private void unlink(Frame f) {
+        if (f.next == f) {
+            m_hand = null;
+        } else {
+            f.prev.next = f.next;
+            f.next.prev = f.prev;
+            if (m_hand == f)
+                m_hand = f.next;
+        }
+        f.prev = null;
+        f.next = null;
+    }
+
+    public String getName() {
+        return "clock";
+    }
+}
@@ -0,0 +1,379 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column, in one file
+ * per column, for read-mostly reporting tables. The rows are split into
+ * row groups of {@link #getRowsPerGroup} rows, and each column of a group
+ * is stored as one {@link ColumnSegment} in whatever encoding
+ * (run-length, frame-of-reference, dictionary or plain) makes it
+ * smallest.
+ * <p>
+ * Each segment is one page: page <i>g * numColumns + c</i> holds column
+ * <i>c</i> of row group <i>g</i>. Pages are read through the buffer pool
+ * like any others, so a scan that needs only some of the columns reads
+ * only their files. {@link #iterator(TransactionId, int[])} stitches the
+ * columns back together into tuples one row at a time, and an
+ * {@link Aggregate} directly over a scan of a column table merges whole
+ * segments without building tuples at all (see
+ * {@link IntegerAggregator#mergeSegment}).
+ * <p>
+ * The table file itself (<tt>table.dat</tt>) only holds the layout: a
+ * magic number, the number of columns, the rows per group, the number of
+ * rows, and then the 8 byte offset and 4 byte length of every segment in
+ * page order. Column <i>c</i>'s segments are in <tt>table.dat.col</tt><i>c</i>.
+ * Column tables are written in one go by {@link #write}; they cannot be
+ * updated through insertTuple or deleteTuple.
+ * <p>
+ * Select it per table by adding the <tt>columnar</tt> option after the
+ * field list in a catalog file.
+ *
+ * @see Catalog#loadSchema
+ */
+public class ColumnFile implements DbFile {
+
+    private static final int MAGIC = 0x434f4c31;
+
+    private final File m_file;
+    private final TupleDesc m_td;
+
+    // the layout, read on first use; guarded by this
+    private boolean m_loaded;
+    private int m_rowsPerGroup;
+    private long m_numRows;
+    private long[] m_offsets;
+    private int[] m_lengths;
+    private FileChannel[] m_channels;
+
+    /**
+     * Opens a column table.
+     *
+     * @param f the table file written by {@link #write}; the column files
+     *            are found next to it. A missing file is an empty table.
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        m_file = f;
+        m_td = td;
+    }
+
+    /** @return the file holding the values of one column of a table */
+    public static File columnFileFor(File tableFile, int column) {
+        return new File(tableFile.getPath() + ".col" + column);
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    public int getId() {
+        return m_file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * Column pages vary in size, so this is only the default page size, for
+     * callers that need one size for the whole file; the buffer pool charges
+     * each page its own size (see {@link #getPageSize(PageId)}).
+     */
+    public int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
+    /** @return the size in bytes of the encoded segment a page holds */
+    public synchronized int getPageSize(PageId pid) {
+        ensureLoaded();
+        return m_lengths[pid.pageNumber()];
+    }
+
+    /** Reads the table layout on first use. */
+    private synchronized void load() throws IOException {
+        if (m_loaded)
+            return;
+        int columns = m_td.numFields();
+        m_channels = new FileChannel[columns];
+        m_offsets = new long[0];
+        m_lengths = new int[0];
+        m_rowsPerGroup = defaultRowsPerGroup();
+        if (m_file.exists() && m_file.length() > 0) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(m_file)));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(m_file + " is not a column table");
+                if (in.readInt() != columns)
+                    throw new IOException(m_file + " does not have " + columns + " columns");
+                m_rowsPerGroup = in.readInt();
+                m_numRows = in.readLong();
+                int pages = (int) ((m_numRows + m_rowsPerGroup - 1) / m_rowsPerGroup) * columns;
+                m_offsets = new long[pages];
+                m_lengths = new int[pages];
+                for (int i = 0; i < pages; i++) {
+                    m_offsets[i] = in.readLong();
+                    m_lengths[i] = in.readInt();
+                }
+            } finally {
+                in.close();
+            }
+        }
+        m_loaded = true;
+    }
+
+    private synchronized void ensureLoaded() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int defaultRowsPerGroup() {
+        return BufferPool.getPageSize() / Type.INT_TYPE.getLen();
+    }
+
+    /** @return the number of rows in the table */
+    public synchronized long numRows() {
+        ensureLoaded();
+        return m_numRows;
+    }
+
+    /** @return the number of rows in every row group but the last */
+    public synchronized int getRowsPerGroup() {
+        ensureLoaded();
+        return m_rowsPerGroup;
+    }
+
+    /** @return the number of row groups */
+    public synchronized int numGroups() {
+        ensureLoaded();
+        return m_offsets.length / m_td.numFields();
+    }
+
+    /** @return the number of pages (segments) in the table */
+    public int numPages() {
+        return numGroups() * m_td.numFields();
+    }
+
+    /** @return the id of the page holding a column of a row group */
+    public HeapPageId pageId(int group, int column) {
+        return new HeapPageId(getId(), group * m_td.numFields() + column);
+    }
+
+    private synchronized FileChannel channel(int column) throws IOException {
+        if (m_channels[column] == null || !m_channels[column].isOpen())
+            m_channels[column] = new RandomAccessFile(columnFileFor(m_file, column), "r").getChannel();
+        return m_channels[column];
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            long offset;
+            int length;
+            FileChannel channel;
+            int column = pid.pageNumber() % m_td.numFields();
+            synchronized (this) {
+                load();
+                if (pid.pageNumber() < 0 || pid.pageNumber() >= m_offsets.length)
+                    throw new IllegalArgumentException("Page offset exceeds max size: " + pid);
+                offset = m_offsets[pid.pageNumber()];
+                length = m_lengths[pid.pageNumber()];
+                channel = channel(column);
+            }
+            ByteBuffer bb = ByteBuffer.allocate(length);
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, offset + bb.position());
+                if (n < 0)
+                    throw new IOException("unexpected end of " + columnFileFor(m_file, column));
+            }
+            return new ColumnPage(new HeapPageId(pid.getTableId(), pid.pageNumber()),
+                    m_td.getFieldType(column), bb.array());
+        } catch (IOException e) {
+            System.err.println("Caught IOException: " + e.getMessage());
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /** Column pages are never dirtied, so they are never written back. */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("column table " + m_file + " is read-only");
+    }
+
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column table " + m_file + " is read-only");
+    }
+
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("column table " + m_file + " is read-only");
+    }
+
+    /**
+     * Closes the column files; any later access reopens them.
+     */
+    public synchronized void close() throws IOException {
+        if (m_channels == null)
+            return;
+        for (int i = 0; i < m_channels.length; i++) {
+            if (m_channels[i] != null) {
+                m_channels[i].close();
+                m_channels[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Reads a column of a row group through the buffer pool.
+     */
+    public ColumnSegment getSegment(TransactionId tid, int group, int column)
+        throws DbException, TransactionAbortedException {
+        ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                pageId(group, column), Permissions.READ_ONLY);
+        return page.getSegment();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator that reads only some of the table's columns. Its
+     * tuples have the table's TupleDesc, but only the given fields are
+     * set; the others are null.
+     *
+     * @param columns the fields to read, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        if (columns == null) {
+            columns = new int[m_td.numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = i;
+        }
+        return new ColumnFileIterator(tid, columns);
+    }
+
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId m_tid;
+        private final int[] m_columns;
+        private final ColumnSegment[] m_segments;
+        private boolean m_open;
+        private int m_group;
+        private int m_row;
+
+        ColumnFileIterator(TransactionId tid, int[] columns) {
+            m_tid = tid;
+            m_columns = columns;
+            m_segments = new ColumnSegment[columns.length];
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            m_open = true;
+            m_group = -1;
+            m_row = 0;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            m_open = false;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!m_open)
+                return null;
+            while (m_group < 0 || m_row >= m_segments[0].size()) {
+                if (m_group + 1 >= numGroups())
+                    return null;
+                m_group++;
+                m_row = 0;
+                for (int i = 0; i < m_columns.length; i++)
+                    m_segments[i] = getSegment(m_tid, m_group, m_columns[i]);
+            }
+            Tuple t = new Tuple(m_td);
+            for (int i = 0; i < m_columns.length; i++)
+                t.setField(m_columns[i], m_segments[i].get(m_row));
+            t.setRecordId(new RecordId(pageId(m_group, 0), m_row));
+            m_row++;
+            return t;
+        }
+    }
+
+    /**
+     * Writes a column table: the table file f and one column file per
+     * field next to it.
+     *
+     * @param f the table file to create
+     * @param td the schema of the tuples
+     * @param tuples the rows of the table; must already be open
+     * @return the number of rows written
+     */
+    public static long write(File f, TupleDesc td, DbIterator tuples)
+        throws IOException, DbException, TransactionAbortedException {
+        int columns = td.numFields();
+        int rowsPerGroup = defaultRowsPerGroup();
+        OutputStream[] outs = new OutputStream[columns];
+        long[] written = new long[columns];
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        Field[][] group = new Field[columns][rowsPerGroup];
+        long rows = 0;
+        try {
+            for (int c = 0; c < columns; c++)
+                outs[c] = new BufferedOutputStream(new FileOutputStream(columnFileFor(f, c)));
+            int n = 0;
+            while (true) {
+                boolean more = tuples.hasNext();
+                if (more) {
+                    Tuple t = tuples.next();
+                    if (!td.equals(t.getTupleDesc()))
+                        throw new DbException("TupleDesc mismatch.");
+                    for (int c = 0; c < columns; c++)
+                        group[c][n] = t.getField(c);
+                    n++;
+                    rows++;
+                }
+                if (n == rowsPerGroup || (!more && n > 0)) {
+                    for (int c = 0; c < columns; c++) {
+                        byte[] segment = ColumnSegment.encode(td.getFieldType(c), group[c], n);
+                        outs[c].write(segment);
+                        indexOut.writeLong(written[c]);
+                        indexOut.writeInt(segment.length);
+                        written[c] += segment.length;
+                    }
+                    n = 0;
+                }
+                if (!more)
+                    break;
+            }
+        } finally {
+            for (OutputStream out : outs) {
+                if (out != null)
+                    out.close();
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(columns);
+            out.writeInt(rowsPerGroup);
+            out.writeLong(rows);
+            index.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * A page of a {@link ColumnFile}: the encoded values of one column for one
+ * row group. Column tables are read-only, so these pages are never
+ * dirtied.
+ */
+public class ColumnPage implements Page {
+
+    private final HeapPageId m_pid;
+    private final byte[] m_data;
+    private final ColumnSegment m_segment;
+
+    /**
+     * @param id the page's id; see {@link ColumnFile#pageId}
+     * @param type the type of the page's column
+     * @param data the encoded segment, as read from the column's file
+     */
+    public ColumnPage(HeapPageId id, Type type, byte[] data) throws IOException {
+        m_pid = id;
+        m_data = data;
+        m_segment = new ColumnSegment(type, data);
+    }
+
+    /** @return the column values on this page */
+    public ColumnSegment getSegment() {
+        return m_segment;
+    }
+
+    public HeapPageId getId() {
+        return m_pid;
+    }
+
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            throw new UnsupportedOperationException("column pages are read-only");
+    }
+
+    /** @return the encoded segment; its length varies from page to page */
+    public byte[] getPageData() {
+        return m_data.clone();
+    }
+
+    public Page getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+}
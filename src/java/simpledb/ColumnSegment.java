@@ -0,0 +1,341 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * The values of one column for one row group of a {@link ColumnFile},
+ * stored in whichever encoding makes them smallest:
+ * <ul>
+ * <li>{@link #PLAIN}: the values one after another (ints as 4 bytes,
+ * strings as a 2 byte length and their bytes);
+ * <li>{@link #RLE}: ints as runs of equal values, each a value and a
+ * length;
+ * <li>{@link #FOR}: ints as a base (the smallest value) and the offset of
+ * every value from it, bit-packed in as few bits as the largest offset
+ * needs;
+ * <li>{@link #DICT}: strings as a dictionary of the distinct values and a
+ * bit-packed dictionary code per row.
+ * </ul>
+ * The encoded image starts with a 1 byte encoding and a 4 byte row count.
+ * Integer segments can be summed and searched for their smallest and
+ * largest value without decoding them row by row; see
+ * {@link IntegerAggregator#mergeSegment}.
+ */
+public class ColumnSegment {
+
+    public static final byte PLAIN = 0;
+    public static final byte RLE = 1;
+    public static final byte FOR = 2;
+    public static final byte DICT = 3;
+
+    private final Type m_type;
+    private final byte m_encoding;
+    private final int m_rows;
+
+    // PLAIN ints, RLE run values, or the FOR base in m_ints[0]
+    private int[] m_ints;
+    // RLE: the row after the end of each run
+    private int[] m_runEnds;
+    // FOR offsets or DICT codes
+    private long[] m_packed;
+    private int m_bits;
+    // PLAIN strings, or the DICT dictionary
+    private StringField[] m_strings;
+
+    /**
+     * Decodes the header and arrays of an encoded segment.
+     *
+     * @param type the type of the column
+     * @param data an image written by {@link #encode}
+     */
+    public ColumnSegment(Type type, byte[] data) throws IOException {
+        m_type = type;
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        m_encoding = bb.get();
+        m_rows = bb.getInt();
+        try {
+            switch (m_encoding) {
+            case PLAIN:
+                if (type == Type.INT_TYPE) {
+                    m_ints = new int[m_rows];
+                    bb.asIntBuffer().get(m_ints);
+                } else {
+                    m_strings = readStrings(bb, m_rows);
+                }
+                break;
+            case RLE:
+                int runs = bb.getInt();
+                m_ints = new int[runs];
+                m_runEnds = new int[runs];
+                for (int i = 0, end = 0; i < runs; i++) {
+                    m_ints[i] = bb.getInt();
+                    end += bb.getInt();
+                    m_runEnds[i] = end;
+                }
+                break;
+            case FOR:
+                m_ints = new int[] { bb.getInt() };
+                readPacked(bb);
+                break;
+            case DICT:
+                m_strings = readStrings(bb, bb.getInt());
+                readPacked(bb);
+                break;
+            default:
+                throw new IOException("unknown column encoding " + m_encoding);
+            }
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("truncated column segment");
+        }
+    }
+
+    private static StringField[] readStrings(ByteBuffer bb, int n) {
+        StringField[] strings = new StringField[n];
+        for (int i = 0; i < n; i++) {
+            byte[] s = new byte[bb.getShort() & 0xffff];
+            bb.get(s);
+            strings[i] = new StringField(new String(s), Type.STRING_LEN);
+        }
+        return strings;
+    }
+
+    private void readPacked(ByteBuffer bb) {
+        m_bits = bb.get();
+        m_packed = new long[words(m_rows, m_bits)];
+        bb.asLongBuffer().get(m_packed);
+    }
+
+    private static int words(int rows, int bits) {
+        return (int) (((long) rows * bits + 63) / 64);
+    }
+
+    /** @return the encoding this segment is stored in */
+    public byte getEncoding() {
+        return m_encoding;
+    }
+
+    /** @return the number of rows in this segment */
+    public int size() {
+        return m_rows;
+    }
+
+    /** @return the value of a row */
+    public Field get(int row) {
+        if (row < 0 || row >= m_rows)
+            throw new IndexOutOfBoundsException("row " + row + " of " + m_rows);
+        switch (m_encoding) {
+        case RLE:
+            return new IntField(m_ints[run(row)]);
+        case FOR:
+            return new IntField(m_ints[0] + (int) unpack(row));
+        case DICT:
+            return m_strings[(int) unpack(row)];
+        default:
+            return m_type == Type.INT_TYPE ? new IntField(m_ints[row]) : m_strings[row];
+        }
+    }
+
+    /** @return the index of the run holding a row */
+    private int run(int row) {
+        int lo = 0, hi = m_runEnds.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (m_runEnds[mid] <= row)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private long unpack(int row) {
+        if (m_bits == 0)
+            return 0;
+        long bit = (long) row * m_bits;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long v = m_packed[word] >>> shift;
+        if (shift + m_bits > 64)
+            v |= m_packed[word + 1] << (64 - shift);
+        return m_bits == 64 ? v : v & ((1L << m_bits) - 1);
+    }
+
+    /**
+     * @return the sum of an int segment, with the same overflow as adding
+     *   the values one at a time
+     */
+    int sum() {
+        int sum = 0;
+        switch (m_encoding) {
+        case RLE:
+            for (int i = 0, start = 0; i < m_ints.length; start = m_runEnds[i++])
+                sum += m_ints[i] * (m_runEnds[i] - start);
+            return sum;
+        case FOR:
+            for (int row = 0; row < m_rows; row++)
+                sum += (int) unpack(row);
+            return sum + m_ints[0] * m_rows;
+        default:
+            for (int v : m_ints)
+                sum += v;
+            return sum;
+        }
+    }
+
+    /** @return the smallest value of a non-empty int segment */
+    int min() {
+        if (m_encoding == FOR)
+            return m_ints[0];
+        int min = Integer.MAX_VALUE;
+        for (int v : m_ints)
+            min = Math.min(min, v);
+        return min;
+    }
+
+    /** @return the largest value of a non-empty int segment */
+    int max() {
+        if (m_encoding == FOR) {
+            long max = 0;
+            for (int row = 0; row < m_rows; row++)
+                max = Math.max(max, unpack(row));
+            return m_ints[0] + (int) max;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int v : m_ints)
+            max = Math.max(max, v);
+        return max;
+    }
+
+    /**
+     * Encodes a column's values for one row group in the smallest of the
+     * encodings that apply to its type.
+     *
+     * @param type the type of the column
+     * @param values the values; only the first rows are used
+     * @param rows the number of rows in the group
+     * @return the encoded image
+     */
+    public static byte[] encode(Type type, Field[] values, int rows) throws IOException {
+        if (type == Type.INT_TYPE) {
+            int[] ints = new int[rows];
+            for (int i = 0; i < rows; i++)
+                ints[i] = ((IntField) values[i]).getValue();
+            return encodeInts(ints);
+        }
+        String[] strings = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            String s = ((StringField) values[i]).getValue();
+            strings[i] = s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+        }
+        return encodeStrings(strings);
+    }
+
+    private static byte[] encodeInts(int[] ints) throws IOException {
+        int rows = ints.length;
+        int runs = 0;
+        long min = 0, max = 0;
+        for (int i = 0; i < rows; i++) {
+            if (i == 0 || ints[i] != ints[i - 1])
+                runs++;
+            min = i == 0 ? ints[i] : Math.min(min, ints[i]);
+            max = i == 0 ? ints[i] : Math.max(max, ints[i]);
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(max - min);
+        long plainSize = 4L * rows;
+        long rleSize = 4 + 8L * runs;
+        long forSize = 4 + 1 + 8L * words(rows, bits);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        if (rleSize <= plainSize && rleSize <= forSize) {
+            header(dos, RLE, rows);
+            dos.writeInt(runs);
+            for (int i = 0; i < rows;) {
+                int j = i;
+                while (j < rows && ints[j] == ints[i])
+                    j++;
+                dos.writeInt(ints[i]);
+                dos.writeInt(j - i);
+                i = j;
+            }
+        } else if (forSize < plainSize) {
+            header(dos, FOR, rows);
+            dos.writeInt((int) min);
+            long[] offsets = new long[rows];
+            for (int i = 0; i < rows; i++)
+                offsets[i] = ints[i] - min;
+            writePacked(dos, offsets, bits);
+        } else {
+            header(dos, PLAIN, rows);
+            for (int v : ints)
+                dos.writeInt(v);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static byte[] encodeStrings(String[] strings) throws IOException {
+        int rows = strings.length;
+        HashMap<String, Integer> codes = new HashMap<String, Integer>();
+        String[] dict = new String[rows];
+        long[] rowCodes = new long[rows];
+        long plainSize = 0, dictSize = 0;
+        for (int i = 0; i < rows; i++) {
+            plainSize += 2 + strings[i].length();
+            Integer code = codes.get(strings[i]);
+            if (code == null) {
+                code = codes.size();
+                codes.put(strings[i], code);
+                dict[code] = strings[i];
+                dictSize += 2 + strings[i].length();
+            }
+            rowCodes[i] = code;
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(codes.size() - 1, 0));
+        dictSize += 4 + 1 + 8L * words(rows, bits);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        if (dictSize < plainSize) {
+            header(dos, DICT, rows);
+            dos.writeInt(codes.size());
+            for (int i = 0; i < codes.size(); i++)
+                writeString(dos, dict[i]);
+            writePacked(dos, rowCodes, bits);
+        } else {
+            header(dos, PLAIN, rows);
+            for (String s : strings)
+                writeString(dos, s);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static void header(DataOutputStream dos, byte encoding, int rows) throws IOException {
+        dos.writeByte(encoding);
+        dos.writeInt(rows);
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] b = s.getBytes();
+        dos.writeShort(b.length);
+        dos.write(b);
+    }
+
+    private static void writePacked(DataOutputStream dos, long[] values, int bits) throws IOException {
+        dos.writeByte(bits);
+        long[] words = new long[words(values.length, bits)];
+        for (int i = 0; i < values.length && bits > 0; i++) {
+            long bit = (long) i * bits;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= values[i] << shift;
+            if (shift + bits > 64)
+                words[word + 1] |= values[i] >>> (64 - shift);
+        }
+        for (long w : words)
+            dos.writeLong(w);
+    }
+}
@@ -0,0 +1,27 @@
+package simpledb;
+
+/**
+ * The superclass of the classes {@link TupleCompiler} generates at run
+ * time to apply a chain of filters and a projection to tuples. It is
+ * public, as are the members the generated code uses, because generated
+ * classes are defined by their own class loaders and so are not part of
+ * this package at run time.
+ */
+public abstract class CompiledTupleFunction {
+
+    /** the predicates, in the order they are applied */
+    protected final Predicate[] m_preds;
+    /** the TupleDesc of projected tuples, or null if there is no projection */
+    protected final TupleDesc m_td;
+
+    protected CompiledTupleFunction(Predicate[] preds, TupleDesc td) {
+        m_preds = preds;
+        m_td = td;
+    }
+
+    /**
+     * @return null if t fails one of the predicates; otherwise the
+     *   projection of t, or t itself if there is no projection
+     */
+    public abstract Tuple apply(Tuple t);
+}
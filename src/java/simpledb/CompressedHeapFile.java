@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile that keeps every page compressed on
+ * disk. Pages are compressed (with the JDK's built-in deflate codec) when
+ * they are written, and decompressed into a full page image when they are
+ * read, so the buffer pool and the rest of the system only ever see normal
+ * pages. It suits cold tables that are mostly scanned: fixed-width ints and
+ * zero-padded strings shrink to a fraction of their size, which cuts the
+ * I/O of a scan at the cost of some CPU.
+ * <p>
+ * Compressed pages vary in size, so the data file is a sequence of
+ * compressed page images in no particular order, found through a page
+ * index kept in a sidecar file (<tt>table.dat.idx</tt>) holding an 8 byte
+ * offset and a 4 byte length per page, in page number order. Rewriting a
+ * page appends its new image to the data file and updates its index entry;
+ * the old image is left behind as garbage, so the format is meant for
+ * tables that are rarely updated. {@link #compress} builds a compressed
+ * table from a plain heap file.
+ * <p>
+ * Select it per table by adding the <tt>compressed</tt> option after the
+ * field list in a catalog file.
+ *
+ * @see Catalog#loadSchema
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final File m_indexFile;
+    // the page index; guarded by m_indexLock, which is never held during
+    // data file I/O (opening the data file may close other tables)
+    private final Object m_indexLock = new Object();
+    private long[] m_offsets;
+    private int[] m_lengths;
+    private int m_numPages;
+    private long m_end;
+    private RandomAccessFile m_indexRaf;
+
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED, BufferPool.getPageSize());
+    }
+
+    public CompressedHeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
+        super(f, td, format, pageSize);
+        m_indexFile = indexFor(f);
+    }
+
+    /** @return the sidecar file that holds the page index of a table file */
+    public static File indexFor(File tableFile) {
+        return new File(tableFile.getPath() + ".idx");
+    }
+
+    /** Loads the page index on first use. Call with m_indexLock held. */
+    private void loadIndex() throws IOException {
+        if (m_offsets != null)
+            return;
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        int pages = 0;
+        long end = 0;
+        if (m_indexFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(m_indexFile)));
+            try {
+                pages = (int) (m_indexFile.length() / ENTRY_SIZE);
+                offsets = new long[Math.max(16, pages)];
+                lengths = new int[offsets.length];
+                for (int i = 0; i < pages; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    end = Math.max(end, offsets[i] + lengths[i]);
+                }
+            } finally {
+                in.close();
+            }
+        } else if (getFile().length() > 0) {
+            throw new IOException("page index " + m_indexFile + " is missing");
+        }
+        m_offsets = offsets;
+        m_lengths = lengths;
+        m_numPages = pages;
+        m_end = Math.max(end, getFile().length());
+    }
+
+    /** Records where page n is stored, in memory and in the index file. */
+    private void setEntry(int n, long offset, int length) throws IOException {
+        if (n >= m_offsets.length) {
+            int size = Math.max(n + 1, m_offsets.length * 2);
+            m_offsets = Arrays.copyOf(m_offsets, size);
+            m_lengths = Arrays.copyOf(m_lengths, size);
+        }
+        m_offsets[n] = offset;
+        m_lengths[n] = length;
+        m_numPages = Math.max(m_numPages, n + 1);
+        if (m_indexRaf == null)
+            m_indexRaf = new RandomAccessFile(m_indexFile, "rw");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(ENTRY_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(offset);
+        dos.writeInt(length);
+        m_indexRaf.seek((long) n * ENTRY_SIZE);
+        m_indexRaf.write(baos.toByteArray());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            long offset;
+            int length;
+            synchronized (m_indexLock) {
+                loadIndex();
+                int n = pid.pageNumber();
+                if (n < 0 || n >= m_numPages)
+                    throw new IllegalArgumentException("Page offset exceeds max size: " + pid);
+                offset = m_offsets[n];
+                length = m_lengths[n];
+            }
+            byte[] packed = new byte[length];
+            readFully(packed, offset);
+            return newPage((HeapPageId) pid, inflate(packed, getPageSize()));
+        } catch (IOException e) {
+            System.err.println("Caught IOException: " + e.getMessage());
+            throw new IllegalArgumentException();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Compresses a run of pages and appends them to the data file in one
+     * write, then points their index entries at the new images.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        int first = pages.get(0).getId().pageNumber();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] lengths = new int[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.getId().pageNumber() != first + i)
+                throw new IllegalArgumentException("pages are not consecutive");
+            byte[] packed = deflate(page.getPageData());
+            lengths[i] = packed.length;
+            out.write(packed);
+        }
+        byte[] data = out.toByteArray();
+        pagesWriting();
+        long offset;
+        synchronized (m_indexLock) {
+            loadIndex();
+            if (first > m_numPages)
+                throw new IOException("page " + first + " is past the end of " + getFile());
+            offset = m_end;
+            m_end += data.length;
+        }
+        writeFully(data, offset);
+        synchronized (m_indexLock) {
+            for (int i = 0; i < lengths.length; i++) {
+                setEntry(first + i, offset, lengths[i]);
+                offset += lengths[i];
+            }
+        }
+        pagesWritten(pages);
+    }
+
+    /**
+     * Returns the number of pages in this file, according to its page index.
+     */
+    public int numPages() {
+        synchronized (m_indexLock) {
+            try {
+                loadIndex();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return m_numPages;
+        }
+    }
+
+    /**
+     * Closes the data and index files; any later access reopens them.
+     */
+    public void close() throws IOException {
+        super.close();
+        synchronized (m_indexLock) {
+            if (m_indexRaf != null) {
+                m_indexRaf.close();
+                m_indexRaf = null;
+            }
+        }
+    }
+
+    static byte[] deflate(byte[] page) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(page);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(page.length / 4);
+            byte[] buf = new byte[page.length];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] packed, int pageSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            byte[] page = new byte[pageSize];
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int k = inflater.inflate(page, n, pageSize - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != pageSize)
+                throw new IOException("compressed page is " + n + " bytes, expected " + pageSize);
+            return page;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a compressed copy of a plain heap file: the data file out and
+     * its page index next to it.
+     *
+     * @param in a HeapFile data file
+     * @param out the compressed data file to create
+     * @param pageSize the page size of in
+     */
+    public static void compress(File in, File out, int pageSize) throws IOException {
+        DataInputStream src = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(in)));
+        OutputStream data = new BufferedOutputStream(new FileOutputStream(out));
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFor(out))));
+        try {
+            byte[] page = new byte[pageSize];
+            long offset = 0;
+            for (long i = 0; i < in.length() / pageSize; i++) {
+                src.readFully(page);
+                byte[] packed = deflate(page);
+                data.write(packed);
+                index.writeLong(offset);
+                index.writeInt(packed.length);
+                offset += packed.length;
+            }
+        } finally {
+            src.close();
+            data.close();
+            index.close();
+        }
+    }
+}
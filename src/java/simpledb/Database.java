@@ -21,9 +21,15 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    /**
+     * System property naming the buffer pool replacement policy, see
+     * {@link BufferPool#createPolicy}.
+     */
+    public final static String POLICY_PROPERTY = "simpledb.bufferpool.policy";
+
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = newBufferPool(BufferPool.DEFAULT_PAGES);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -35,6 +41,15 @@ public class Database {
         // startControllerThread();
     }
 
+    /**
+     * Create a buffer pool of the given size using the replacement policy
+     * named by the {@link #POLICY_PROPERTY} system property.
+     */
+    private static BufferPool newBufferPool(int pages) {
+        String policy = System.getProperty(POLICY_PROPERTY, BufferPool.DEFAULT_POLICY);
+        return new BufferPool(pages, BufferPool.createPolicy(policy, pages));
+    }
+
     /** Return the log file of the static Database instance */
     public static LogFile getLogFile() {
         return _instance.get()._logfile;
@@ -55,11 +70,23 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(newBufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool pool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -88,4 +88,10 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile; the buffer pool
+     * charges a frame of this size for each of its pages.
+     */
+    public int getPageSize();
 }
@@ -11,6 +11,12 @@ public class Filter extends Operator {
 
     private Predicate m_pred;
     private DbIterator m_it;
+    // set by open: the chain of filters compiled by TupleCompiler, and the
+    // first operator below it, or null to apply m_pred to m_it
+    private transient CompiledTupleFunction m_code;
+    private transient DbIterator m_source;
+    private boolean m_compiled = TupleCompiler.ENABLED;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -41,6 +47,36 @@ public class Filter extends Operator {
         // some code goes here
     	super.open();
     	m_it.open();
+    	m_code = null;
+    	if (m_compiled) {
+    	    ArrayList<Predicate> preds = new ArrayList<Predicate>();
+    	    m_source = chain(this, preds);
+    	    m_code = TupleCompiler.tryCompile(m_source.getTupleDesc(),
+    	            preds.toArray(new Predicate[0]), null, null);
+    	}
+    }
+
+    /**
+     * Sets whether open compiles the chain of filters, by default
+     * {@link TupleCompiler#ENABLED}; for tests and benchmarks.
+     */
+    void setCompiled(boolean compiled) {
+        m_compiled = compiled;
+    }
+
+    /**
+     * Collects the predicates of the Filters stacked at the top of a plan,
+     * innermost first.
+     *
+     * @return the first operator below them
+     */
+    static DbIterator chain(DbIterator it, ArrayList<Predicate> preds) {
+        if (it.getClass() != Filter.class)
+            return it;
+        Filter f = (Filter) it;
+        DbIterator source = chain(f.m_it, preds);
+        preds.add(f.m_pred);
+        return source;
     }
 
     public void close() {
@@ -58,6 +94,9 @@ public class Filter extends Operator {
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
      * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * Once open, a Filter applies the predicates of the Filters directly
+     * below it too, through code generated by {@link TupleCompiler}, and
+     * reads from the operator below them.
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -66,6 +105,14 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+    	if (m_code != null) {
+    	    while (m_source.hasNext()) {
+    	        Tuple tup = m_code.apply(m_source.next());
+    	        if (tup != null)
+    	            return tup;
+    	    }
+    	    return null;
+    	}
     	while (m_it.hasNext())
     	{
     		Tuple tup = m_it.next();
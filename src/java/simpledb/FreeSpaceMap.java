@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have at least one empty
+ * slot, so that inserts find a page with room without reading every page of
+ * the file. It is a bitmap with one bit per page, kept in a sidecar file
+ * next to the table (<tt>table.dat.fsm</tt>): a 4 byte page count followed
+ * by the bitmap, lowest page in the lowest bit.
+ * <p>
+ * The map is a hint. A page marked free may turn out to be full (the caller
+ * checks and clears the bit), and a page with room that is not marked free
+ * only costs space until a tuple is deleted from it. If the sidecar is
+ * missing, or covers fewer pages than the file has, the missing part is
+ * rebuilt by reading the pages when the map is loaded.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    private final File m_file;
+    private final BitSet m_free;
+    private int m_numPages;
+    // no page below the cursor is marked free
+    private int m_cursor;
+    private boolean m_dirty;
+
+    /**
+     * Loads the free-space map of hf, rebuilding whatever part of it is
+     * missing from its sidecar file.
+     */
+    FreeSpaceMap(HeapFile hf) {
+        m_file = sidecarFor(hf.getFile());
+        m_free = new BitSet();
+        m_numPages = 0;
+        try {
+            read();
+        } catch (IOException e) {
+            // unreadable map: rebuild it from the pages
+            m_free.clear();
+            m_numPages = 0;
+        }
+        int pages = hf.numPages();
+        if (m_numPages > pages) {
+            // the file was truncated or replaced
+            m_free.clear();
+            m_numPages = 0;
+        }
+        for (int p = m_numPages; p < pages; p++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), p));
+            m_free.set(p, page.getNumEmptySlots() > 0);
+            m_dirty = true;
+        }
+        m_numPages = pages;
+        m_cursor = 0;
+    }
+
+    /** @return the sidecar file that holds the free-space map of a table file */
+    static File sidecarFor(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    private void read() throws IOException {
+        if (!m_file.exists())
+            return;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(m_file)));
+        try {
+            int pages = dis.readInt();
+            for (int i = 0; i < (pages + 7) / 8; i++) {
+                int b = dis.readUnsignedByte();
+                for (int bit = 0; bit < 8; bit++) {
+                    if ((b & (1 << bit)) != 0)
+                        m_free.set(i * 8 + bit);
+                }
+            }
+            m_numPages = pages;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since it was loaded
+     * or last saved.
+     */
+    synchronized void save() throws IOException {
+        if (!m_dirty)
+            return;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(m_file)));
+        try {
+            dos.writeInt(m_numPages);
+            for (int i = 0; i < (m_numPages + 7) / 8; i++) {
+                int b = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    if (m_free.get(i * 8 + bit))
+                        b |= 1 << bit;
+                }
+                dos.writeByte(b);
+            }
+        } finally {
+            dos.close();
+        }
+        m_dirty = false;
+    }
+
+    /**
+     * @return the lowest page number marked free, or -1 if there is none.
+     */
+    synchronized int firstFreePage() {
+        int p = m_free.nextSetBit(m_cursor);
+        m_cursor = p < 0 ? m_numPages : p;
+        return p;
+    }
+
+    /**
+     * Records whether a page has an empty slot. Page numbers past the end of
+     * the map extend it.
+     */
+    synchronized void setFree(int page, boolean free) {
+        if (page >= m_numPages) {
+            m_numPages = page + 1;
+            m_dirty = true;
+        }
+        if (m_free.get(page) == free)
+            return;
+        m_free.set(page, free);
+        if (free && page < m_cursor)
+            m_cursor = page;
+        m_dirty = true;
+    }
+}
@@ -53,11 +53,39 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    /**
+     * Pages holding the tuples currently in the hash table. They are pinned
+     * so the table keeps referring to the resident copies instead of pages
+     * that were evicted and may be re-read; at most a quarter of the buffer
+     * pool is pinned this way.
+     */
+    transient private HashSet<PageId> pinned = new HashSet<PageId>();
+    transient private BufferPool pinnedPool = null;
+
+    private void pinPageOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid == null || pinned.contains(rid.getPageId()))
+            return;
+        if (pinnedPool == null)
+            pinnedPool = Database.getBufferPool();
+        if (pinned.size() < pinnedPool.getNumPages() / 4 && pinnedPool.pin(rid.getPageId()))
+            pinned.add(rid.getPageId());
+    }
+
+    private void unpinAll() {
+        for (PageId pid : pinned)
+            pinnedPool.unpin(pid);
+        pinned.clear();
+        pinnedPool = null;
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        unpinAll();
         while (child1.hasNext()) {
             t1 = child1.next();
+            pinPageOf(t1);
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
@@ -77,6 +105,7 @@ public class HashEquiJoin extends Operator {
         child1.open();
         child2.open();
         loadMap();
+        super.open();
     }
 
     public void close() {
@@ -87,6 +116,7 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        unpinAll();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
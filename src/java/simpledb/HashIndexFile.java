@@ -0,0 +1,605 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * HashIndexFile is a DbFile that keeps a table's tuples in a linear hash
+ * table on one key field, so an equality predicate on the key reads just
+ * the pages of one bucket (see {@link #indexIterator}). Other predicates
+ * scan every bucket. Keys may be int or string fields, and duplicate keys
+ * are allowed.
+ * <p>
+ * Each bucket is a primary page followed by a chain of overflow pages. The
+ * table starts with one bucket and grows one bucket at a time: whenever
+ * the buckets are on average more than {@link #MAX_LOAD} full, the next
+ * bucket in turn is split, so no insert ever rehashes more than one
+ * bucket. Page 0 is a meta page holding the number of buckets and tuples,
+ * the head of a list of free pages, and the directory pages that map
+ * buckets to their primary pages. The page layouts are described in
+ * {@link HashPage}. All pages are read and written through the buffer pool.
+ * <p>
+ * Buckets are never merged: deletes only give back overflow pages that
+ * become empty.
+ *
+ * @see HashPage
+ */
+public class HashIndexFile implements IndexFile {
+
+    private static final int META_PAGE = 0;
+
+    /** the average fraction of a bucket page in use at which a bucket is split */
+    public static final double MAX_LOAD = 0.75;
+
+    private final File m_file;
+    private final TupleDesc m_td;
+    private final int m_keyField;
+    private final int m_pageSize;
+
+    // serializes changes to the table's structure
+    private final Object m_treeLock = new Object();
+    // guards m_raf; never held while calling the buffer pool
+    private final Object m_ioLock = new Object();
+    private RandomAccessFile m_raf;
+
+    /**
+     * Opens a hash index with the default page size.
+     *
+     * @param f the file backing the index; a missing or empty file is an
+     *            empty index
+     * @param keyField the index of the key field in td
+     * @param td the schema of the tuples
+     */
+    public HashIndexFile(File f, int keyField, TupleDesc td) {
+        this(f, keyField, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Opens a hash index whose pages are pageSize bytes.
+     */
+    public HashIndexFile(File f, int keyField, TupleDesc td, int pageSize) {
+        m_file = f;
+        m_keyField = keyField;
+        m_td = td;
+        m_pageSize = pageSize;
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    public int getId() {
+        return m_file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public int getPageSize() {
+        return m_pageSize;
+    }
+
+    public int getKeyField() {
+        return m_keyField;
+    }
+
+    /** @return false: only equality predicates avoid a full scan */
+    public boolean isOrdered() {
+        return false;
+    }
+
+    private HeapPageId pid(int pageNumber) {
+        return new HeapPageId(getId(), pageNumber);
+    }
+
+    /** @return the most buckets an index with the given page size can have */
+    static int maxBuckets(int pageSize) {
+        return HashPage.maxDirectoryPages(pageSize) * HashPage.bucketsPerDirectoryPage(pageSize);
+    }
+
+    /**
+     * @return the non-negative hash of a key; the bits of Field.hashCode
+     *   are mixed since the bucket is taken from the low bits only
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+    /**
+     * @return the bucket of a hash when there are numBuckets buckets:
+     *   the hash modulo the largest power of two 2^L not above numBuckets,
+     *   or modulo 2^(L+1) for buckets that have already been split
+     */
+    static int bucketOf(int hash, int numBuckets) {
+        int low = Integer.highestOneBit(numBuckets);
+        int b = hash & (low - 1);
+        if (b < numBuckets - low)
+            b = hash & (2 * low - 1);
+        return b;
+    }
+
+    /**
+     * Opens the file, first writing an empty index (a meta page, one
+     * directory page and one empty bucket) if it is empty. Call with
+     * m_ioLock held.
+     */
+    private RandomAccessFile raf() throws IOException {
+        if (m_raf == null) {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            if (m_raf.length() == 0) {
+                HashPage meta = new HashPage(pid(META_PAGE), new byte[m_pageSize], m_td);
+                meta.reset(HashPage.META);
+                meta.setNumBuckets(1);
+                meta.addDirectoryPage(1);
+                HashPage dir = new HashPage(pid(1), new byte[m_pageSize], m_td);
+                dir.reset(HashPage.DIRECTORY);
+                dir.setBucketPage(0, 2);
+                HashPage bucket = new HashPage(pid(2), new byte[m_pageSize], m_td);
+                bucket.reset(HashPage.BUCKET);
+                m_raf.write(meta.getPageData());
+                m_raf.write(dir.getPageData());
+                m_raf.write(bucket.getPageData());
+            }
+        }
+        return m_raf;
+    }
+
+    /** @return the number of pages in the file, including free ones */
+    public int numPages() {
+        synchronized (m_ioLock) {
+            try {
+                return (int) (raf().length() / m_pageSize);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[m_pageSize];
+        synchronized (m_ioLock) {
+            try {
+                RandomAccessFile raf = raf();
+                long offset = (long) pid.pageNumber() * m_pageSize;
+                if (pid.pageNumber() < 0 || offset + m_pageSize > raf.length())
+                    throw new IllegalArgumentException("Page offset exceeds max size: " + pid);
+                raf.seek(offset);
+                raf.readFully(data);
+            } catch (IOException e) {
+                System.err.println("Caught IOException: " + e.getMessage());
+                throw new IllegalArgumentException();
+            }
+        }
+        return new HashPage(pid(pid.pageNumber()), data, m_td);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        synchronized (m_ioLock) {
+            RandomAccessFile raf = raf();
+            raf.seek((long) page.getId().pageNumber() * m_pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Closes the file; any later access reopens it.
+     */
+    public void close() throws IOException {
+        synchronized (m_ioLock) {
+            if (m_raf != null) {
+                m_raf.close();
+                m_raf = null;
+            }
+        }
+    }
+
+    private HashPage getPage(TransactionId tid, int pageNumber, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, pid(pageNumber), perm);
+    }
+
+    /**
+     * Marks a page dirty right away, so that it is not evicted unwritten
+     * while the rest of a split is still reading pages in, and adds it to
+     * the pages to hand back to the buffer pool.
+     */
+    private static void dirty(TransactionId tid, HashPage page, ArrayList<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    /** @return the directory page mapping a bucket */
+    private HashPage directoryFor(TransactionId tid, int bucket, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        HashPage meta = getPage(tid, META_PAGE, Permissions.READ_ONLY);
+        int dir = meta.getDirectoryPage(bucket / HashPage.bucketsPerDirectoryPage(m_pageSize));
+        return getPage(tid, dir, perm);
+    }
+
+    /** @return the primary page of a bucket */
+    private HashPage bucketPage(TransactionId tid, int bucket, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        HashPage dir = directoryFor(tid, bucket, Permissions.READ_ONLY);
+        int page = dir.getBucketPage(bucket % HashPage.bucketsPerDirectoryPage(m_pageSize));
+        return getPage(tid, page, perm);
+    }
+
+    /**
+     * Takes a page off the free list, or adds one to the end of the file,
+     * and makes it an empty page of the given kind.
+     */
+    private HashPage allocate(TransactionId tid, byte kind, ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+        HashPage page;
+        int free = meta.getFreeHead();
+        if (free != 0) {
+            page = getPage(tid, free, Permissions.READ_WRITE);
+            meta.setFreeHead(page.getNext());
+            dirty(tid, meta, dirtied);
+        } else {
+            int n;
+            synchronized (m_ioLock) {
+                RandomAccessFile raf = raf();
+                n = (int) (raf.length() / m_pageSize);
+                raf.seek((long) n * m_pageSize);
+                raf.write(new byte[m_pageSize]);
+            }
+            page = getPage(tid, n, Permissions.READ_WRITE);
+        }
+        page.reset(kind);
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Puts an overflow page that is no longer in a chain on the free list. */
+    private void free(TransactionId tid, HashPage page, ArrayList<Page> dirtied)
+        throws DbException, TransactionAbortedException {
+        HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+        page.reset(HashPage.FREE);
+        page.setNext(meta.getFreeHead());
+        meta.setFreeHead(page.getId().pageNumber());
+        dirty(tid, page, dirtied);
+        dirty(tid, meta, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc mismatch.");
+        synchronized (m_treeLock) {
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            int numBuckets = meta.getNumBuckets();
+            int bucket = bucketOf(hash(t.getField(m_keyField)), numBuckets);
+            HashPage page = bucketPage(tid, bucket, Permissions.READ_WRITE);
+            while (page.getCount() >= page.capacity()) {
+                if (page.getNext() == 0) {
+                    HashPage overflow = allocate(tid, HashPage.BUCKET, dirtied);
+                    page.setNext(overflow.getId().pageNumber());
+                    dirty(tid, page, dirtied);
+                    page = overflow;
+                    break;
+                }
+                page = getPage(tid, page.getNext(), Permissions.READ_WRITE);
+            }
+            page.addTuple(t);
+            dirty(tid, page, dirtied);
+            t.setRecordId(new RecordId(page.getId(), page.getCount() - 1));
+
+            meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            int numTuples = meta.getNumTuples() + 1;
+            meta.setNumTuples(numTuples);
+            dirty(tid, meta, dirtied);
+            if (numTuples > MAX_LOAD * numBuckets * page.capacity()
+                    && numBuckets < maxBuckets(m_pageSize))
+                split(tid, numBuckets, dirtied);
+            return dirtied;
+        }
+    }
+
+    /**
+     * Adds bucket numBuckets to the table by splitting bucket
+     * numBuckets - 2^L, the next bucket in turn, between the two: each of
+     * its tuples stays or moves according to one more bit of its hash.
+     */
+    private void split(TransactionId tid, int numBuckets, ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        int perDir = HashPage.bucketsPerDirectoryPage(m_pageSize);
+        if (numBuckets % perDir == 0) {
+            HashPage dir = allocate(tid, HashPage.DIRECTORY, dirtied);
+            HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            meta.addDirectoryPage(dir.getId().pageNumber());
+            dirty(tid, meta, dirtied);
+        }
+        HashPage primary = allocate(tid, HashPage.BUCKET, dirtied);
+        HashPage dir = directoryFor(tid, numBuckets, Permissions.READ_WRITE);
+        dir.setBucketPage(numBuckets % perDir, primary.getId().pageNumber());
+        dirty(tid, dir, dirtied);
+        HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+        meta.setNumBuckets(numBuckets + 1);
+        dirty(tid, meta, dirtied);
+
+        int old = numBuckets - Integer.highestOneBit(numBuckets);
+        ArrayList<HashPage> chain = new ArrayList<HashPage>();
+        ArrayList<Tuple> stay = new ArrayList<Tuple>();
+        ArrayList<Tuple> move = new ArrayList<Tuple>();
+        for (HashPage p = bucketPage(tid, old, Permissions.READ_WRITE); p != null;
+                p = p.getNext() == 0 ? null : getPage(tid, p.getNext(), Permissions.READ_WRITE)) {
+            chain.add(p);
+            for (Tuple t : p.getTuples()) {
+                if (bucketOf(hash(t.getField(m_keyField)), numBuckets + 1) == old)
+                    stay.add(t);
+                else
+                    move.add(t);
+            }
+        }
+        fill(tid, chain, stay, dirtied);
+        ArrayList<HashPage> newChain = new ArrayList<HashPage>();
+        newChain.add(primary);
+        fill(tid, newChain, move, dirtied);
+    }
+
+    /**
+     * Rewrites a bucket's chain with the given tuples, adding overflow
+     * pages as needed and freeing those left over.
+     */
+    private void fill(TransactionId tid, ArrayList<HashPage> chain, ArrayList<Tuple> tuples,
+            ArrayList<Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        int capacity = HashPage.capacity(m_pageSize, m_td);
+        int pages = Math.max(1, (tuples.size() + capacity - 1) / capacity);
+        while (chain.size() < pages) {
+            HashPage overflow = allocate(tid, HashPage.BUCKET, dirtied);
+            HashPage last = chain.get(chain.size() - 1);
+            last.setNext(overflow.getId().pageNumber());
+            dirty(tid, last, dirtied);
+            chain.add(overflow);
+        }
+        for (int i = 0; i < chain.size(); i++) {
+            HashPage p = chain.get(i);
+            if (i < pages) {
+                int from = Math.min(tuples.size(), i * capacity);
+                p.setTuples(tuples.subList(from, Math.min(tuples.size(), from + capacity)));
+                if (i == pages - 1)
+                    p.setNext(0);
+                dirty(tid, p, dirtied);
+            } else {
+                free(tid, p, dirtied);
+            }
+        }
+    }
+
+    /**
+     * Removes a tuple from the index. The tuple is found by its field
+     * values rather than its RecordId, since splits move tuples between
+     * pages; if several tuples are equal, one of them is removed.
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc mismatch.");
+        synchronized (m_treeLock) {
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            HashPage meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            Field key = t.getField(m_keyField);
+            int bucket = bucketOf(hash(key), meta.getNumBuckets());
+            HashPage previous = null;
+            HashPage page = bucketPage(tid, bucket, Permissions.READ_WRITE);
+            while (true) {
+                int i = position(page, key, t);
+                if (i >= 0) {
+                    page.removeTuple(i);
+                    dirty(tid, page, dirtied);
+                    if (page.getCount() == 0 && previous != null) {
+                        previous.setNext(page.getNext());
+                        dirty(tid, previous, dirtied);
+                        free(tid, page, dirtied);
+                    }
+                    break;
+                }
+                if (page.getNext() == 0)
+                    throw new DbException("tuple is not in " + m_file);
+                previous = page;
+                page = getPage(tid, page.getNext(), Permissions.READ_WRITE);
+            }
+            meta = getPage(tid, META_PAGE, Permissions.READ_WRITE);
+            meta.setNumTuples(meta.getNumTuples() - 1);
+            dirty(tid, meta, dirtied);
+            t.setRecordId(null);
+            return dirtied;
+        }
+    }
+
+    /** @return the position of a tuple on a bucket page, or -1 if it is not there */
+    private int position(HashPage page, Field key, Tuple t) {
+        for (int i = 0; i < page.getCount(); i++) {
+            if (!page.getField(i, m_keyField).equals(key))
+                continue;
+            Tuple candidate = page.getTuple(i);
+            boolean same = true;
+            for (int j = 0; j < m_td.numFields() && same; j++)
+                same = candidate.getField(j).equals(t.getField(j));
+            if (same)
+                return i;
+        }
+        return -1;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate,
+     * in no particular order. An equality predicate reads only the chain
+     * of the key's bucket; any other predicate reads every bucket.
+     *
+     * @param ipred the predicate on the key, or null for all tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashIndexIterator(tid, ipred);
+    }
+
+    private class HashIndexIterator extends AbstractDbFileIterator {
+
+        private final TransactionId m_tid;
+        private final IndexPredicate m_ipred;
+        private boolean m_open;
+        // the next bucket to read, and the last one to
+        private int m_bucket;
+        private int m_lastBucket;
+        private HashPage m_page;
+        private int m_pos;
+
+        HashIndexIterator(TransactionId tid, IndexPredicate ipred) {
+            m_tid = tid;
+            m_ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashPage meta = getPage(m_tid, META_PAGE, Permissions.READ_ONLY);
+            int numBuckets = meta.getNumBuckets();
+            if (m_ipred != null && m_ipred.getOp() == Predicate.Op.EQUALS) {
+                m_bucket = bucketOf(hash(m_ipred.getField()), numBuckets);
+                m_lastBucket = m_bucket;
+            } else {
+                m_bucket = 0;
+                m_lastBucket = numBuckets - 1;
+            }
+            m_page = null;
+            m_open = true;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            m_open = false;
+            m_page = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!m_open)
+                return null;
+            while (true) {
+                while (m_page == null || m_pos >= m_page.getCount()) {
+                    if (m_page != null && m_page.getNext() != 0) {
+                        m_page = getPage(m_tid, m_page.getNext(), Permissions.READ_ONLY);
+                    } else if (m_bucket <= m_lastBucket) {
+                        m_page = bucketPage(m_tid, m_bucket++, Permissions.READ_ONLY);
+                    } else {
+                        m_open = false;
+                        return null;
+                    }
+                    m_pos = 0;
+                }
+                int i = m_pos++;
+                if (m_ipred == null || m_ipred.matches(m_page.getField(i, m_keyField)))
+                    return m_page.getTuple(i);
+            }
+        }
+    }
+
+    /**
+     * Writes a hash index with the default page size. See
+     * {@link #bulkLoad(File, TupleDesc, int, DbIterator, int)}.
+     */
+    public static int bulkLoad(File f, TupleDesc td, int keyField, DbIterator tuples)
+        throws IOException, DbException, TransactionAbortedException {
+        return bulkLoad(f, td, keyField, tuples, BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes a hash index from tuples in any order, much faster than
+     * inserting them one at a time: the tuples are counted and bucketed in
+     * memory, and every page is written once, with as many buckets as
+     * inserting them would have ended up with. The file is overwritten and
+     * should not be open in the buffer pool.
+     *
+     * @param f the file to write
+     * @param td the schema of the tuples
+     * @param keyField the index of the key field in td
+     * @param tuples the tuples; must already be open
+     * @param pageSize the page size of the index
+     * @return the number of tuples written
+     */
+    public static int bulkLoad(File f, TupleDesc td, int keyField, DbIterator tuples, int pageSize)
+        throws IOException, DbException, TransactionAbortedException {
+        int id = f.getAbsoluteFile().hashCode();
+        int capacity = HashPage.capacity(pageSize, td);
+        int perDir = HashPage.bucketsPerDirectoryPage(pageSize);
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!td.equals(t.getTupleDesc()))
+                throw new DbException("TupleDesc mismatch.");
+            all.add(t);
+        }
+        int numBuckets = (int) Math.ceil(all.size() / (MAX_LOAD * capacity));
+        numBuckets = Math.max(1, Math.min(numBuckets, maxBuckets(pageSize)));
+        ArrayList<ArrayList<Tuple>> buckets = new ArrayList<ArrayList<Tuple>>();
+        for (int b = 0; b < numBuckets; b++)
+            buckets.add(new ArrayList<Tuple>());
+        for (Tuple t : all)
+            buckets.get(bucketOf(hash(t.getField(keyField)), numBuckets)).add(t);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            HashPage meta = new HashPage(new HeapPageId(id, META_PAGE), new byte[pageSize], td);
+            meta.reset(HashPage.META);
+            meta.setNumBuckets(numBuckets);
+            meta.setNumTuples(all.size());
+            int dirs = (numBuckets + perDir - 1) / perDir;
+            ArrayList<HashPage> directory = new ArrayList<HashPage>();
+            int next = 1;
+            for (int d = 0; d < dirs; d++) {
+                HashPage dir = new HashPage(new HeapPageId(id, next), new byte[pageSize], td);
+                dir.reset(HashPage.DIRECTORY);
+                meta.addDirectoryPage(next++);
+                directory.add(dir);
+            }
+            for (int b = 0; b < numBuckets; b++) {
+                ArrayList<Tuple> bucket = buckets.get(b);
+                directory.get(b / perDir).setBucketPage(b % perDir, next);
+                int pages = Math.max(1, (bucket.size() + capacity - 1) / capacity);
+                for (int i = 0; i < pages; i++) {
+                    HashPage page = new HashPage(new HeapPageId(id, next++), new byte[pageSize], td);
+                    page.reset(HashPage.BUCKET);
+                    page.setTuples(bucket.subList(i * capacity,
+                            Math.min(bucket.size(), (i + 1) * capacity)));
+                    if (i < pages - 1)
+                        page.setNext(next);
+                    writeAt(raf, page, pageSize);
+                }
+            }
+            writeAt(raf, meta, pageSize);
+            for (HashPage dir : directory)
+                writeAt(raf, dir, pageSize);
+            return all.size();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeAt(RandomAccessFile raf, HashPage page, int pageSize) throws IOException {
+        raf.seek((long) page.getId().pageNumber() * pageSize);
+        raf.write(page.getPageData());
+    }
+}
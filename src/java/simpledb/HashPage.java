@@ -0,0 +1,254 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a {@link HashIndexFile}. The first byte of every page says what
+ * kind of page it is:
+ * <ul>
+ * <li>{@link #META}, page 0 only: the number of buckets (4 bytes at offset
+ * 4), the number of tuples (at 8), the head of the free page list (at 12,
+ * 0 if it is empty), the number of directory pages (at 16), and their page
+ * numbers from offset 20;
+ * <li>{@link #DIRECTORY}: the page numbers of the primary pages of
+ * consecutive buckets, from offset 4;
+ * <li>{@link #BUCKET}: the next page of the bucket's overflow chain (at 4,
+ * 0 if there is none), the number of tuples (at 8), and the tuples from
+ * offset 12, each taking {@link TupleDesc#getSize} bytes;
+ * <li>{@link #FREE}: the next page on the free list (at 4).
+ * </ul>
+ */
+public class HashPage implements Page {
+
+    public static final byte FREE = 0;
+    public static final byte BUCKET = 1;
+    public static final byte DIRECTORY = 2;
+    public static final byte META = 3;
+
+    private static final int BUCKET_HEADER = 12;
+    private static final int META_HEADER = 20;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] m_data;
+    private final ByteBuffer m_bb;
+
+    private byte[] m_oldData;
+    private final Object m_oldDataLock = new Object();
+    private TransactionId m_dirtyTid;
+
+    /**
+     * @param id the page's id
+     * @param data the page image; the page uses the array itself
+     * @param td the schema of the tuples in the file
+     */
+    public HashPage(HeapPageId id, byte[] data, TupleDesc td) {
+        this.pid = id;
+        this.td = td;
+        m_data = data;
+        m_bb = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return m_dirtyTid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        m_dirtyTid = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return m_data.clone();
+    }
+
+    public HashPage getBeforeImage() {
+        synchronized (m_oldDataLock) {
+            return new HashPage(pid, m_oldData.clone(), td);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (m_oldDataLock) {
+            m_oldData = m_data.clone();
+        }
+    }
+
+    /** @return the kind of this page: FREE, BUCKET, DIRECTORY or META */
+    public byte getKind() {
+        return m_data[0];
+    }
+
+    /** Clears the page and makes it an empty page of the given kind. */
+    void reset(byte kind) {
+        Arrays.fill(m_data, (byte) 0);
+        m_data[0] = kind;
+    }
+
+    // META pages
+
+    int getNumBuckets() {
+        return m_bb.getInt(4);
+    }
+
+    void setNumBuckets(int n) {
+        m_bb.putInt(4, n);
+    }
+
+    int getNumTuples() {
+        return m_bb.getInt(8);
+    }
+
+    void setNumTuples(int n) {
+        m_bb.putInt(8, n);
+    }
+
+    int getFreeHead() {
+        return m_bb.getInt(12);
+    }
+
+    void setFreeHead(int page) {
+        m_bb.putInt(12, page);
+    }
+
+    int getNumDirectoryPages() {
+        return m_bb.getInt(16);
+    }
+
+    int getDirectoryPage(int i) {
+        return m_bb.getInt(META_HEADER + 4 * i);
+    }
+
+    void addDirectoryPage(int page) {
+        int n = getNumDirectoryPages();
+        m_bb.putInt(META_HEADER + 4 * n, page);
+        m_bb.putInt(16, n + 1);
+    }
+
+    /** @return the most directory pages a meta page of the given size lists */
+    static int maxDirectoryPages(int pageSize) {
+        return (pageSize - META_HEADER) / 4;
+    }
+
+    // DIRECTORY pages
+
+    /** @return the number of buckets a directory page of the given size maps */
+    static int bucketsPerDirectoryPage(int pageSize) {
+        return (pageSize - 4) / 4;
+    }
+
+    int getBucketPage(int i) {
+        return m_bb.getInt(4 + 4 * i);
+    }
+
+    void setBucketPage(int i, int page) {
+        m_bb.putInt(4 + 4 * i, page);
+    }
+
+    // BUCKET and FREE pages
+
+    int getNext() {
+        return m_bb.getInt(4);
+    }
+
+    void setNext(int page) {
+        m_bb.putInt(4, page);
+    }
+
+    /** @return the number of tuples a bucket page of the given size holds */
+    static int capacity(int pageSize, TupleDesc td) {
+        return (pageSize - BUCKET_HEADER) / td.getSize();
+    }
+
+    int capacity() {
+        return capacity(m_data.length, td);
+    }
+
+    int getCount() {
+        return m_bb.getInt(8);
+    }
+
+    private void setCount(int count) {
+        m_bb.putInt(8, count);
+    }
+
+    private int tupleOffset(int i) {
+        return BUCKET_HEADER + i * td.getSize();
+    }
+
+    private Field parse(Type type, int offset) {
+        ByteBuffer bb = m_bb.duplicate();
+        bb.position(offset);
+        try {
+            return type.parse(bb);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    private void put(Field f, int offset) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, m_data, offset, f.getType().getLen());
+    }
+
+    /** @return one field of tuple i of a bucket page */
+    Field getField(int i, int field) {
+        return parse(td.getFieldType(field), tupleOffset(i) + td.getFieldOffset(field));
+    }
+
+    /** @return tuple i of a bucket page, with its RecordId set */
+    Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, getField(i, j));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /** @return the tuples of a bucket page */
+    ArrayList<Tuple> getTuples() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < getCount(); i++)
+            tuples.add(getTuple(i));
+        return tuples;
+    }
+
+    /** Adds a tuple to a bucket page, which must not be full. */
+    void addTuple(Tuple t) {
+        int count = getCount();
+        for (int j = 0; j < td.numFields(); j++)
+            put(t.getField(j), tupleOffset(count) + td.getFieldOffset(j));
+        setCount(count + 1);
+    }
+
+    /** Removes tuple i of a bucket page, moving the last tuple into its place. */
+    void removeTuple(int i) {
+        int count = getCount();
+        System.arraycopy(m_data, tupleOffset(count - 1), m_data, tupleOffset(i), td.getSize());
+        Arrays.fill(m_data, tupleOffset(count - 1), tupleOffset(count), (byte) 0);
+        setCount(count - 1);
+    }
+
+    /** Replaces the tuples of a bucket page, keeping its next pointer. */
+    void setTuples(List<Tuple> tuples) {
+        Arrays.fill(m_data, BUCKET_HEADER, m_data.length, (byte) 0);
+        setCount(0);
+        for (Tuple t : tuples)
+            addTuple(t);
+    }
+}
@@ -1,14 +1,34 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
- * size, and the file is simply a collection of those pages. HeapFile works
- * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * size, and the file is simply a collection of those pages. The page size is
+ * chosen per file (see {@link #PAGE_SIZES}) and defaults to
+ * {@link BufferPool#getPageSize()}. HeapFile works closely with HeapPage.
+ * The format of HeapPages is described in the HeapPage constructor; a file
+ * may instead use another {@link PageFormat}.
+ * <p>
+ * Page I/O goes through one long-lived FileChannel per file using positional
+ * reads and writes, so concurrent readers never race on a shared file
+ * pointer. The channel is opened on first use and may be closed again by the
+ * Catalog when too many tables have open files; it is reopened transparently.
+ * <p>
+ * Inserts find a page with room through a {@link FreeSpaceMap}, which is
+ * loaded on the first insert or delete. A {@link ZoneMap} of each page's
+ * int field ranges, kept up to date by inserts and page writes, lets scans
+ * with predicates skip pages (see
+ * {@link #iterator(TransactionId, Predicate[])}), as do per-page Bloom
+ * filters of the fields chosen with {@link #setBloomFields}, kept in a
+ * {@link BloomFilterMap}. All three are saved as pages are written, at
+ * most every {@link #MAP_SAVE_INTERVAL} ms, and by {@link #saveMaps}; those
+ * of scratch files in the temporary-file directory are kept in memory only.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -25,11 +45,72 @@ public class HeapFile implements DbFile {
     private int id;
     private File file;
     private TupleDesc td;
+
+    private RandomAccessFile m_raf;
+    private FileChannel m_channel;
+    // I/O holds the read lock; opening and closing the channel take the write lock
+    private final ReentrantReadWriteLock m_channelLock = new ReentrantReadWriteLock();
+    private volatile long m_lastAccess;
+    private FreeSpaceMap m_fsm;
+    private ZoneMap m_zoneMap;
+    private int[] m_bloomFields;
+    private BloomFilterMap m_bloomMap;
+    private final PageFormat m_format;
+    private final int m_pageSize;
+    // when the maps were last saved, in ms
+    private volatile long m_mapsSaved;
+    // set for a scratch file in the temporary-file directory, whose maps
+    // are not saved
+    private final boolean m_temporary;
+
+    /** How often, in ms, page writes save the maps of a file at most. */
+    static final long MAP_SAVE_INTERVAL = 1000;
+
+    /** The page sizes, in bytes, a HeapFile may be created with. */
+    public static final int[] PAGE_SIZES = { 4096, 8192, 16384, 65536 };
+
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file whose pages are stored in the given format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file whose pages are stored in the given format and
+     * are pageSize bytes long.
+     *
+     * @param pageSize the page size in bytes, normally one of {@link #PAGE_SIZES}
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
         // some code goes here
         this.file = f;
         this.id = f.getAbsoluteFile().hashCode();
         this.td = td;
+        this.m_format = format;
+        this.m_pageSize = pageSize;
+        File dir = f.getAbsoluteFile().getParentFile();
+        m_temporary = dir != null && dir.equals(
+                new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile());
+    }
+
+    /** @return the size in bytes of the pages of this file */
+    public int getPageSize() {
+        return m_pageSize;
+    }
+
+    /** @return the format this file's pages are stored in */
+    public PageFormat getPageFormat() {
+        return m_format;
+    }
+
+    /** Creates a page of this file's format over a page image. */
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return m_format.newPage(pid, ByteBuffer.wrap(data));
     }
 
     /**
@@ -68,21 +149,245 @@ public class HeapFile implements DbFile {
         //throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Acquires the channel read lock, opening the channel first if needed.
+     * The caller must release m_channelLock.readLock() when done.
+     */
+    private FileChannel lockChannel() throws IOException {
+        while (true) {
+            m_channelLock.readLock().lock();
+            if (m_channel != null && m_channel.isOpen()) {
+                m_lastAccess = System.nanoTime();
+                return m_channel;
+            }
+            m_channelLock.readLock().unlock();
+
+            boolean opened = false;
+            m_channelLock.writeLock().lock();
+            try {
+                if (m_channel == null || !m_channel.isOpen()) {
+                    closeChannel();
+                    try {
+                        m_raf = new RandomAccessFile(this.file, "rw");
+                    } catch (FileNotFoundException e) {
+                        // read-only table file
+                        m_raf = new RandomAccessFile(this.file, "r");
+                    }
+                    m_channel = m_raf.getChannel();
+                    m_lastAccess = System.nanoTime();
+                    opened = true;
+                }
+            } finally {
+                m_channelLock.writeLock().unlock();
+            }
+            // no channel lock may be held here: the catalog may close other files
+            if (opened)
+                Database.getCatalog().fileOpened(this);
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (m_raf != null) {
+            m_raf.close();
+            m_raf = null;
+            m_channel = null;
+        }
+    }
+
+    /**
+     * Closes the file handle backing this HeapFile, if it is open. Any later
+     * page access reopens it.
+     */
+    public void close() throws IOException {
+        m_channelLock.writeLock().lock();
+        try {
+            closeChannel();
+        } finally {
+            m_channelLock.writeLock().unlock();
+        }
+        saveMaps();
+    }
+
+    /**
+     * Saves the maps of this file that are loaded and changed since they
+     * were last saved to their sidecar files. Called as pages are written,
+     * at a checkpoint ({@link BufferPool#flushAllPages}) and when the file
+     * is closed.
+     */
+    void saveMaps() {
+        FreeSpaceMap fsm;
+        ZoneMap zoneMap;
+        BloomFilterMap bloomMap;
+        synchronized (this) {
+            fsm = m_fsm;
+            zoneMap = m_zoneMap;
+            bloomMap = m_bloomMap;
+        }
+        m_mapsSaved = System.currentTimeMillis();
+        if (!savesMaps())
+            return;
+        try {
+            if (fsm != null)
+                fsm.save();
+            if (zoneMap != null)
+                zoneMap.save();
+            if (bloomMap != null)
+                bloomMap.save();
+        } catch (IOException e) {
+            // e.g. a read-only table directory; the maps are rebuilt on load
+        }
+    }
+
+    /**
+     * @return false if the maps of this file are kept in memory only: if
+     *   the file is gone, e.g. a dropped table's, or is a scratch file in
+     *   the temporary-file directory, as made by File.createTempFile
+     */
+    boolean savesMaps() {
+        return !m_temporary && file.exists();
+    }
+
+    /** @return the free-space map of this file, loading it on first use. */
+    private synchronized FreeSpaceMap freeSpaceMap() {
+        if (m_fsm == null)
+            m_fsm = new FreeSpaceMap(this);
+        return m_fsm;
+    }
+
+    /** @return the zone map of this file, loading it on first use. */
+    synchronized ZoneMap zoneMap() {
+        if (m_zoneMap == null)
+            m_zoneMap = new ZoneMap(this);
+        return m_zoneMap;
+    }
+
+    /**
+     * Keeps per-page Bloom filters of some fields of this file, so that
+     * scans with an equality predicate on one of them skip the pages that
+     * do not hold the value. Meant for fields with many distinct values,
+     * e.g. names; set them when the table is opened, before it is
+     * modified, since pages already changed in the buffer pool are not
+     * seen when the filters are first built.
+     *
+     * @param fields the indices of the fields, or none to keep no filters
+     */
+    public synchronized void setBloomFields(int... fields) {
+        m_bloomFields = fields.length == 0 ? null : fields.clone();
+        m_bloomMap = null;
+    }
+
+    /** @return the fields this file keeps Bloom filters of, or null */
+    public synchronized int[] getBloomFields() {
+        return m_bloomFields == null ? null : m_bloomFields.clone();
+    }
+
+    /**
+     * @return the Bloom filters of this file, loading them on first use;
+     *   null if it keeps none
+     */
+    synchronized BloomFilterMap bloomMap() {
+        if (m_bloomMap == null && m_bloomFields != null)
+            m_bloomMap = new BloomFilterMap(this, m_bloomFields);
+        return m_bloomMap;
+    }
+
+    /**
+     * @return false if the zone map or the Bloom filters show that no tuple
+     *   on a page satisfies all of the predicates
+     */
+    boolean mayMatch(int page, Predicate[] preds) {
+        if (!zoneMap().mayMatch(page, preds))
+            return false;
+        BloomFilterMap bloomMap = bloomMap();
+        return bloomMap == null || bloomMap.mayMatch(page, preds);
+    }
+
+    /**
+     * Loads the zone map and Bloom filters before pages are written, so
+     * that maps first loaded by a write need not be rebuilt from the pages
+     * it writes. Subclasses that override {@link #writePages} must call
+     * this before writing, and {@link #pagesWritten} after.
+     */
+    void pagesWriting() {
+        zoneMap();
+        bloomMap();
+    }
+
+    /**
+     * Records pages that were just written in the zone map and Bloom
+     * filters, saving them if they were last saved more than
+     * {@link #MAP_SAVE_INTERVAL} ms ago. Subclasses that override
+     * {@link #writePages} must call this too.
+     */
+    void pagesWritten(List<Page> pages) {
+        ZoneMap zoneMap = zoneMap();
+        BloomFilterMap bloomMap = bloomMap();
+        for (Page page : pages) {
+            zoneMap.pageWritten((HeapPage) page);
+            if (bloomMap != null)
+                bloomMap.pageWritten((HeapPage) page);
+        }
+        if (System.currentTimeMillis() - m_mapsSaved >= MAP_SAVE_INTERVAL)
+            saveMaps();
+    }
+
+    /** @return true if this HeapFile currently holds an open file handle. */
+    public boolean isOpen() {
+        m_channelLock.readLock().lock();
+        try {
+            return m_channel != null && m_channel.isOpen();
+        } finally {
+            m_channelLock.readLock().unlock();
+        }
+    }
+
+    /** @return System.nanoTime() of the last page read or write. */
+    long lastAccessTime() {
+        return m_lastAccess;
+    }
+
+    /**
+     * Reads exactly data.length bytes starting at the given file offset.
+     */
+    void readFully(byte[] data, long offset) throws IOException {
+        FileChannel ch = lockChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    throw new EOFException("Page offset exceeds max size");
+            }
+        } finally {
+            m_channelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all of data starting at the given file offset.
+     */
+    void writeFully(byte[] data, long offset) throws IOException {
+        FileChannel ch = lockChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+        } finally {
+            m_channelLock.readLock().unlock();
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         try {
-            RandomAccessFile f = new RandomAccessFile(this.file,"r");
-            int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-            byte[] data = new byte[BufferPool.PAGE_SIZE];
-            if (offset + BufferPool.PAGE_SIZE > f.length()) {
+            long offset = (long) m_pageSize * pid.pageNumber();
+            byte[] data = new byte[m_pageSize];
+            if (offset + m_pageSize > this.file.length()) {
                 System.err.println("Page offset exceeds max size, error!");
                 System.exit(1);
             }
-            f.seek(offset);
-            f.readFully(data);
-            f.close();
-            return new HeapPage((HeapPageId) pid, data);
+            readFully(data, offset);
+            return newPage((HeapPageId) pid, data);
         } catch (FileNotFoundException e) {
             System.err.println("FileNotFoundException: " + e.getMessage());
             throw new IllegalArgumentException();
@@ -96,12 +401,56 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
     	PageId pid = page.getId();
-    	int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-    	raf.seek(offset);
-    	raf.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
-    	raf.close();
+    	long offset = (long) m_pageSize * pid.pageNumber();
+    	pagesWriting();
+    	writeFully(page.getPageData(), offset);
+    	pagesWritten(Collections.singletonList(page));
+    }
+
+    /**
+     * Writes a run of pages with consecutive page numbers in a single write.
+     *
+     * @param pages the pages to write, in ascending page number order with
+     *   no gaps
+     * @throws IllegalArgumentException if the pages are not consecutive
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        int first = pages.get(0).getId().pageNumber();
+        byte[] data = new byte[m_pageSize * pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.getId().pageNumber() != first + i)
+                throw new IllegalArgumentException("pages are not consecutive");
+            System.arraycopy(page.getPageData(), 0, data, i * m_pageSize, m_pageSize);
+        }
+        pagesWriting();
+        writeFully(data, (long) m_pageSize * first);
+        pagesWritten(pages);
+    }
+
+    /**
+     * Appends a run of new pages to the end of the file in one write and
+     * records their free space. Used for bulk loading; the caller is
+     * responsible for logging the pages first.
+     *
+     * @param pages new pages numbered consecutively from numPages()
+     * @throws IOException if the first page does not start at the current
+     *   end of the file, e.g. because another insert appended a page
+     */
+    public void appendPages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        int first = pages.get(0).getId().pageNumber();
+        if (first != numPages())
+            throw new IOException("append at page " + first + " but file has "
+                    + numPages() + " pages");
+        writePages(pages);
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (Page page : pages)
+            fsm.setFree(page.getId().pageNumber(), ((HeapPage) page).getNumEmptySlots() > 0);
     }
 
     /**
@@ -109,17 +458,21 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(this.file.length()/BufferPool.PAGE_SIZE);
+        return (int) (this.file.length() / m_pageSize);
     }
 
     private HeapPage getFreePage(TransactionId tid) throws TransactionAbortedException, DbException
     {
-    	for (int i = 0; i < this.numPages(); i++)
+    	FreeSpaceMap fsm = freeSpaceMap();
+    	int numPages = this.numPages();
+    	for (int i = fsm.firstFreePage(); i >= 0 && i < numPages; i = fsm.firstFreePage())
     	{
     		PageId pid = new HeapPageId(this.getId(), i);
     		HeapPage hpage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         	if (hpage.getNumEmptySlots() > 0)
         		return hpage;
+        	// stale entry
+        	fsm.setFree(i, false);
     	}
     	return null;
     }
@@ -133,20 +486,21 @@ public class HeapFile implements DbFile {
         if (hpage != null)
         {
         	hpage.insertTuple(t);
+        	freeSpaceMap().setFree(hpage.getId().pageNumber(), hpage.getNumEmptySlots() > 0);
+        	zoneMap().tupleInserted(hpage.getId().pageNumber(), t);
+        	BloomFilterMap bloomMap = bloomMap();
+        	if (bloomMap != null)
+        		bloomMap.tupleInserted(hpage.getId().pageNumber(), t);
         	return new ArrayList<Page> (Arrays.asList(hpage));
         }
         
         // no empty pages found, so create a new one
         HeapPageId newHeapPageId = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newHeapPage = new HeapPage(newHeapPageId, HeapPage.createEmptyPageData());
+        HeapPage newHeapPage = newPage(newHeapPageId, new byte[m_pageSize]);
         newHeapPage.insertTuple(t);
         
-        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
-        int offset = BufferPool.PAGE_SIZE * this.numPages();
-        raf.seek(offset);
-        byte[] newHeapPageData = newHeapPage.getPageData();
-        raf.write(newHeapPageData, 0, BufferPool.PAGE_SIZE);
-        raf.close();
+        writePage(newHeapPage);
+        freeSpaceMap().setFree(newHeapPageId.pageNumber(), newHeapPage.getNumEmptySlots() > 0);
         
         return new ArrayList<Page> (Arrays.asList(newHeapPage));
         // not necessary for lab1
@@ -159,6 +513,7 @@ public class HeapFile implements DbFile {
         PageId pid = t.getRecordId().getPageId();
         HeapPage hpage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         hpage.deleteTuple(t);
+        freeSpaceMap().setFree(pid.pageNumber(), true);
         return new ArrayList<Page> (Arrays.asList(hpage));
         // not necessary for lab1
     }
@@ -166,7 +521,20 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages that may hold a tuple
+     * satisfying all of the given predicates: pages the {@link ZoneMap} or
+     * the Bloom filters (see {@link #setBloomFields}) rule out are skipped
+     * without being read. The tuples returned are
+     * not filtered, so some of them may not satisfy the predicates.
+     *
+     * @param preds predicates on fields of this file's tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+        return new HeapFileIterator(this, tid, preds);
     }
 
     /**
@@ -194,14 +562,40 @@ public class HeapFile implements DbFile {
          */
         HeapFile m_heapFile;
 
+        /**
+         * Private ring of buffer pool frames used when the file is large
+         * relative to the buffer pool; null if the scan uses the pool normally.
+         */
+        ScanRing m_ring;
+
+        /**
+         * The page m_tupleIt walks over. It stays pinned in the buffer pool
+         * until the iterator moves past it, so its tuples can be handed out
+         * without copying.
+         */
+        HeapPageId m_pinnedPid;
+
+        /**
+         * The buffer pool holding the pin (tests may swap the pool mid-scan).
+         */
+        BufferPool m_pinnedPool;
+
+        /**
+         * Predicates that pages must be able to satisfy to be read, or null
+         * to read every page.
+         */
+        Predicate[] m_preds;
+
         /**
          * Set local variables for HeapFile and Transactionid
          * @param hf The underlying HeapFile.
          * @param tid The transaction ID.
+         * @param preds The predicates pages are skipped by, or null.
          */
-        public HeapFileIterator(HeapFile hf, TransactionId tid) {            
+        public HeapFileIterator(HeapFile hf, TransactionId tid, Predicate[] preds) {            
         	m_heapFile = hf;
             m_tid = tid;
+            m_preds = preds;
         }
 
         /**
@@ -209,6 +603,8 @@ public class HeapFile implements DbFile {
          */
         public void open() throws DbException, TransactionAbortedException {
             m_currentPageNumber = -1;
+            m_ring = Database.getBufferPool().getScanRing(m_heapFile.numPages(),
+                    m_heapFile.getPageSize());
         }
 
         @Override
@@ -217,22 +613,30 @@ public class HeapFile implements DbFile {
         	// If the current tuple iterator has no more tuples.
         	if (m_tupleIt != null && !m_tupleIt.hasNext()) {	
                 m_tupleIt = null;
+                releasePin();
             }
 
         	// Keep trying to open a tuple iterator until we find one of run out of pages.
             while (m_tupleIt == null && m_currentPageNumber < m_heapFile.numPages() - 1) {
                 m_currentPageNumber++;		// Go to next page.
+                if (m_preds != null
+                        && !m_heapFile.mayMatch(m_currentPageNumber, m_preds))
+                    continue;
                 
                 // Get the iterator for the current page
                 HeapPageId currentPageId = new HeapPageId(m_heapFile.getId(), m_currentPageNumber);
                                 
-                HeapPage currentPage = (HeapPage) Database.getBufferPool().getPage(m_tid,
-                        currentPageId, Permissions.READ_ONLY);
+                m_pinnedPool = Database.getBufferPool();
+                HeapPage currentPage = (HeapPage) m_pinnedPool.pin(m_tid,
+                        currentPageId, Permissions.READ_ONLY, m_ring);
+                m_pinnedPid = currentPageId;
                 m_tupleIt = currentPage.iterator();
                 
                 // Make sure the iterator has tuples in it
-                if (!m_tupleIt.hasNext())
+                if (!m_tupleIt.hasNext()) {
                     m_tupleIt = null;
+                    releasePin();
+                }
             }
 
             // Make sure we found a tuple iterator
@@ -243,6 +647,17 @@ public class HeapFile implements DbFile {
             return m_tupleIt.next();
         }
 
+        /**
+         * Unpins the page the iterator was walking, if any.
+         */
+        private void releasePin() {
+            if (m_pinnedPid != null) {
+                m_pinnedPool.unpin(m_pinnedPid);
+                m_pinnedPid = null;
+                m_pinnedPool = null;
+            }
+        }
+
         /**
          * Rewind closes the current iterator and then opens it again.
          */
@@ -257,6 +672,8 @@ public class HeapFile implements DbFile {
         public void close() {
             super.close();
             m_tupleIt = null;
+            releasePin();
+            m_ring = null;
             m_currentPageNumber = Integer.MAX_VALUE;
         }
     }
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.*;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +15,90 @@ import java.util.ArrayList;
 
 public class HeapFileEncoder {
 
+  /**
+   * Packs records into heap pages, one page at a time. The fields of each
+   * record are written to {@link #out()} (or a whole tuple is added with
+   * {@link #addTuple}); {@link #finishPage} then returns the page image with
+   * its header filled in and the unused slots zeroed.
+   */
+  static class PageBuilder {
+      private final int npagebytes;
+      private final int nrecbytes;
+      private final int nrecords;
+      private final int nheaderbytes;
+      private final ByteArrayOutputStream pageBAOS;
+      private final DataOutputStream pageStream;
+      private int recordcount;
+
+      PageBuilder(int npagebytes, Type[] typeAr) {
+          this.npagebytes = npagebytes;
+          int recbytes = 0;
+          for (Type t : typeAr)
+              recbytes += t.getLen();
+          this.nrecbytes = recbytes;
+          this.nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+          // per record, we need one bit; there are nrecords per page, so we
+          // need nrecords bits, i.e., ceiling(nrecords/8) bytes.
+          int headerbytes = (nrecords / 8);
+          if (headerbytes * 8 < nrecords)
+              headerbytes++;  //ceiling
+          this.nheaderbytes = headerbytes;
+          this.pageBAOS = new ByteArrayOutputStream(npagebytes);
+          this.pageStream = new DataOutputStream(pageBAOS);
+          this.recordcount = 0;
+      }
+
+      /** @return the stream the fields of the current record are written to */
+      DataOutputStream out() {
+          return pageStream;
+      }
+
+      /** Marks the fields written since the last record as a complete record. */
+      void endRecord() {
+          recordcount++;
+      }
+
+      /**
+       * Writes the fields of t as the next record.
+       * @return the slot the record occupies on the current page
+       */
+      int addTuple(Tuple t) throws IOException {
+          for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+              t.getField(i).serialize(pageStream);
+          endRecord();
+          return recordcount - 1;
+      }
+
+      /** @return the number of records on the current page */
+      int numRecords() {
+          return recordcount;
+      }
+
+      /** @return true if the current page has no room for another record */
+      boolean isFull() {
+          return recordcount >= nrecords;
+      }
+
+      /**
+       * Returns the image of the current page and starts a new one.
+       *
+       * In the header, write a 1 for bits that correspond to records we've
+       * written and 0 for empty slots; pad the rest of the page with zeroes.
+       */
+      byte[] finishPage() throws IOException {
+          byte[] page = new byte[npagebytes];
+          for (int i = 0; i < recordcount; i++)
+              page[i / 8] |= (1 << (i % 8));
+          pageStream.flush();
+          byte[] body = pageBAOS.toByteArray();
+          System.arraycopy(body, 0, page, nheaderbytes,
+                  Math.min(body.length, npagebytes - nheaderbytes));
+          pageBAOS.reset();
+          recordcount = 0;
+          return page;
+      }
+  }
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -91,48 +177,175 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+    PageBuilder builder = new PageBuilder(npagebytes, typeAr);
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+    try {
+        encode(br, typeAr, fieldSeparator, builder, os, true);
+    } finally {
+        br.close();
+        os.close();
+    }
+  }
+
+  /** Number of output pages packed by one task of a parallel conversion. */
+  static final int CHUNK_PAGES = 64;
+
+  /**
+   * Like {@link #convert(File, File, int, int, Type[], char)}, but parses
+   * the input and packs pages on <tt>threads</tt> threads. The input is read
+   * as a stream and cut into chunks of whole lines holding
+   * {@link #CHUNK_PAGES} pages worth of records; each chunk is encoded on its
+   * own and the pages are written in input order. At most two chunks per
+   * thread are in memory at a time, so memory use does not grow with the
+   * size of the input. The output is identical to that of the sequential
+   * conversion.
+   *
+   * @param threads the number of encoding threads; 1 or less converts on
+   *   the calling thread
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 int threads) throws IOException {
+      if (threads <= 1) {
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
+      convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, threads,
+              CHUNK_PAGES);
+  }
+
+  static void convert(File inFile, File outFile, final int npagebytes,
+                 final Type[] typeAr, final char fieldSeparator, int threads,
+                 int chunkPages) throws IOException {
+    int chunkRecords = chunkPages
+            * new PageBuilder(npagebytes, typeAr).nrecords;
+    int maxInFlight = 2 * threads;
 
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-convert");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
     BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+    try {
+        long written = 0;
+        char block[] = new char[64 * 1024];
+        CharArrayWriter chunk = new CharArrayWriter();
+        int records = 0;
+        boolean lineHasData = false;
+        int n;
+        while ((n = br.read(block)) > 0) {
+            int from = 0;
+            for (int i = 0; i < n; i++) {
+                char c = block[i];
+                // the same notion of a record as encode(): blank lines and
+                // carriage returns do not count
+                if (c == '\n') {
+                    if (!lineHasData)
+                        continue;
+                    lineHasData = false;
+                    if (++records < chunkRecords)
+                        continue;
+                    chunk.write(block, from, i + 1 - from);
+                    from = i + 1;
+                    inFlight.add(pool.submit(encodeTask(chunk.toCharArray(),
+                            npagebytes, typeAr, fieldSeparator)));
+                    chunk.reset();
+                    records = 0;
+                    while (inFlight.size() >= maxInFlight)
+                        written += writeChunk(inFlight.removeFirst(), os);
+                } else if (c != '\r') {
+                    lineHasData = true;
+                }
+            }
+            chunk.write(block, from, n - from);
+        }
+        if (chunk.size() > 0)
+            inFlight.add(pool.submit(encodeTask(chunk.toCharArray(),
+                    npagebytes, typeAr, fieldSeparator)));
+        while (!inFlight.isEmpty())
+            written += writeChunk(inFlight.removeFirst(), os);
+
+        // like the sequential conversion, an empty input makes one empty page
+        if (written == 0)
+            os.write(new PageBuilder(npagebytes, typeAr).finishPage());
+    } finally {
+        pool.shutdownNow();
+        br.close();
+        os.close();
+    }
+  }
+
+  private static Callable<byte[]> encodeTask(final char[] chunk,
+          final int npagebytes, final Type[] typeAr, final char fieldSeparator) {
+      return new Callable<byte[]>() {
+          public byte[] call() throws IOException {
+              ByteArrayOutputStream out = new ByteArrayOutputStream();
+              encode(new CharArrayReader(chunk), typeAr, fieldSeparator,
+                      new PageBuilder(npagebytes, typeAr), out, false);
+              return out.toByteArray();
+          }
+      };
+  }
+
+  /** Waits for an encoded chunk and writes its pages; returns the bytes written. */
+  private static int writeChunk(Future<byte[]> f, OutputStream os)
+          throws IOException {
+      byte[] pages;
+      try {
+          pages = f.get();
+      } catch (InterruptedException e) {
+          throw new InterruptedIOException("conversion interrupted");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          if (e.getCause() instanceof RuntimeException)
+              throw (RuntimeException) e.getCause();
+          throw new RuntimeException(e.getCause());
+      }
+      os.write(pages);
+      return pages.length;
+  }
+
+  /**
+   * Parses records from in and writes them to os as heap pages. A trailing
+   * line without a newline is ignored.
+   *
+   * @param emptyPage whether to write one empty page if in has no records
+   * @return the number of pages written
+   */
+  private static int encode(Reader in, Type[] typeAr, char fieldSeparator,
+          PageBuilder builder, OutputStream os, boolean emptyPage)
+          throws IOException {
+    DataOutputStream pageStream = builder.out();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
 
     int curpos = 0;
-    int recordcount = 0;
     int npages = 0;
     int fieldNo = 0;
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
     boolean done = false;
     boolean first = true;
     while (!done) {
-        int c = br.read();
+        int c = in.read();
         
         // Ignore Windows/Notepad special line endings
         if (c == '\r')
             continue;
 
+        boolean endOfRecord = false;
         if (c == '\n') {
             if (first)
                 continue;
-            recordcount++;
+            endOfRecord = true;
             first = true;
         } else
             first = false;
@@ -162,6 +375,8 @@ public class HeapFileEncoder {
                 fieldNo = 0;
             else
                 fieldNo++;
+            if (endOfRecord)
+                builder.endRecord();
             
         } else if (c == -1) {
             done = true;
@@ -172,55 +387,18 @@ public class HeapFileEncoder {
         }
         
         // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
+        // write out the page.
         //
         // when we're done, also flush the page to disk, but only if it has
         // records on it.  however, if this file is empty, do flush an empty
         // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
+        if (builder.isFull()
+            || done && builder.numRecords() > 0
+            || done && npages == 0 && emptyPage) {
+            os.write(builder.finishPage());
             npages++;
         }
     }
-    br.close();
-    os.close();
+    return npages;
   }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,12 +16,21 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final int pageSize;
     final int numSlots;
+    final int headerSize;
 
+    // The page image. Until the first modification it is shared with
+    // whoever handed it to the constructor (e.g. a read-only slice of a
+    // mapped file), so modifications copy it first.
+    private ByteBuffer m_data;
+    private boolean m_private;
+    // tuples handed out so far, by slot; allocated on first use
+    private Tuple m_tuples[];
+
+    // the before image, or null if it is the same as the current image
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
     
     private boolean m_isDirty;
     private TransactionId m_dirtyTid;
@@ -30,40 +40,46 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table's file.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps the array as its image rather than decoding it up
+     * front; fields are read from it when tuples ask for them. The caller
+     * must not modify the array afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see DbFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the page image, e.g. a slice
+     * of a memory-mapped file, starting at the buffer's current position.
+     * The buffer's contents are never written to and must not change while
+     * the page uses them; the page copies them the first time it is
+     * modified.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getDatabaseFile(id.getTableId()).getPageSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < pageSize)
+            throw new IOException("short page: " + data.remaining() + " bytes");
+        m_data = data.slice();
+        m_private = false;
 
-        setBeforeImage();
-    	
     	this.m_isDirty = false;
     	this.m_dirtyTid = null;
     }
@@ -73,7 +89,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-    	return (int) Math.floor((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+    	return (int) Math.floor((pageSize*8) / (td.getSize() * 8 + 1));
     }
 
     /**
@@ -92,8 +108,10 @@ public class HeapPage implements Page {
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                if (oldDataRef == null)
+                    oldDataRef = getPageData();
             }
-            return new HeapPage(pid,oldDataRef);
+            return copyOf(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,13 +120,44 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * @return a page of the same class as this one over the given image
+     */
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
         }
     }
 
+    /**
+     * Must be called before every change to the page image: saves the
+     * before image if it is still the current image, and takes a private
+     * copy of a shared image.
+     */
+    void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+        if (!m_private) {
+            m_data = ByteBuffer.wrap(getPageData());
+            m_private = true;
+        }
+    }
+
+    /**
+     * @return the page image; call {@link #beforeWrite} before changing it.
+     */
+    ByteBuffer image() {
+        return m_data;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -119,109 +168,222 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of a field of a slot's tuple in the page image;
+     *   tuples are stored whole, one after another after the header
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    int fieldOffset(int slotId, int fieldIndex) {
+        return headerSize + slotId * td.getSize() + td.getFieldOffset(fieldIndex);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Reads one field of the tuple in a slot straight from the page image.
+     */
+    Field readField(int slotId, int fieldIndex) {
+        ByteBuffer data = m_data;
+        int offset = fieldOffset(slotId, fieldIndex);
+        Type type = td.getFieldType(fieldIndex);
+        if (type == Type.INT_TYPE)
+            return new IntField(data.getInt(offset));
+        ByteBuffer bb = data.duplicate();
+        bb.position(offset);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(bb);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
+    /**
+     * Returns the tuple in a slot, or null if the slot is empty. The tuple
+     * reads its fields from the page as they are asked for.
+     */
+    synchronized Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId))
+            return null;
+        Tuple t = m_tuples != null && slotId < m_tuples.length ? m_tuples[slotId] : null;
+        if (t == null) {
+            t = new PageTuple(this, slotId);
+            remember(slotId, t);
+        }
         return t;
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the HeapPage constructor and
-     * have it produce an identical HeapPage object.
+     * Copies some fields of the tuples on this page into a batch, as rows
+     * from, from + 1, ... of it, one column at a time.
      *
-     * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * @param fields the fields to copy; field fields[i] of the tuples goes
+     *            to field i of the batch
+     * @return the number of rows copied, one per used slot
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+    synchronized int readBatch(int[] fields, TupleBatch batch, int from) {
+        int[] slots = new int[slotCount()];
+        int n = usedSlots(slots);
+        batch.ensureCapacity(from + n);
+        for (int c = 0; c < fields.length; c++)
+            readColumn(slots, n, fields[c], batch, c, from);
+        return n;
+    }
+
+    /**
+     * Lists the used slots in ascending order, reading the header a byte
+     * at a time.
+     *
+     * @return the number of used slots
+     */
+    int usedSlots(int[] slots) {
+        ByteBuffer data = m_data;
+        int n = 0;
+        for (int b = 0; b < headerSize; b++) {
+            int bits = data.get(b) & 0xff;
+            while (bits != 0) {
+                int slot = b * 8 + Integer.numberOfTrailingZeros(bits);
+                if (slot < numSlots)
+                    slots[n++] = slot;
+                bits &= bits - 1;
             }
         }
+        return n;
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    /**
+     * Copies one field of the tuples in the first n of some slots into
+     * field c of a batch, straight from the page image.
+     */
+    void readColumn(int[] slots, int n, int field, TupleBatch batch, int c, int from) {
+        ByteBuffer data = m_data;
+        // a field's offset grows by the same amount from slot to slot
+        int first = fieldOffset(0, field);
+        int stride = fieldOffset(1, field) - first;
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            int[] column = batch.ints(c);
+            for (int i = 0; i < n; i++)
+                column[from + i] = data.getInt(first + slots[i] * stride);
+        } else {
+            for (int i = 0; i < n; i++) {
+                int offset = first + slots[i] * stride;
+                int len = Math.min(data.getInt(offset), Type.STRING_LEN);
+                batch.putString(c, from + i, data, offset + 4, len);
+            }
+        }
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /** @return the number of slots, used or not, on this page */
+    int slotCount() {
+        return numSlots;
+    }
 
-                }
-                continue;
+    /** Caches the tuple stored in a slot. */
+    void remember(int slotId, Tuple t) {
+        if (m_tuples == null || slotId >= m_tuples.length)
+            m_tuples = Arrays.copyOf(m_tuples == null ? new Tuple[0] : m_tuples,
+                    Math.max(slotId + 1, slotCount()));
+        m_tuples[slotId] = t;
+    }
+
+    /**
+     * Drops a slot's cached tuple, and makes t and any tuple still reading
+     * from the slot stop before its bytes change.
+     */
+    void forget(int slotId, Tuple t) {
+        if (t instanceof PageTuple)
+            ((PageTuple) t).detach();
+        if (m_tuples != null && slotId < m_tuples.length) {
+            if (m_tuples[slotId] instanceof PageTuple)
+                ((PageTuple) m_tuples[slotId]).detach();
+            m_tuples[slotId] = null;
+        }
+    }
+
+    /**
+     * A tuple whose fields are decoded from its page on first access. The
+     * page detaches it (decoding the remaining fields) before the bytes it
+     * reads from can change, so it behaves like an ordinary Tuple.
+     */
+    private static final class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient HeapPage m_page;
+        private final int m_slot;
+
+        PageTuple(HeapPage page, int slot) {
+            super(page.td, true);
+            m_page = page;
+            m_slot = slot;
+        }
+
+        public RecordId getRecordId() {
+            RecordId rid = super.getRecordId();
+            if (rid == null && m_page != null) {
+                rid = new RecordId(m_page.pid, m_slot);
+                super.setRecordId(rid);
             }
+            return rid;
+        }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            HeapPage page = m_page;
+            if (f == null && page != null) {
+                f = page.readField(m_slot, i);
+                super.setField(i, f);
             }
+            return f;
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        /** Decodes every field that has not been read yet. */
+        private void load() {
+            for (int i = 0; i < getTupleDesc().numFields(); i++)
+                getField(i);
         }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+        /** Decodes the remaining fields and stops reading from the page. */
+        void detach() {
+            load();
+            getRecordId();
+            m_page = null;
+        }
+
+        public String toString() {
+            load();
+            return super.toString();
+        }
+
+        public Iterator<Field> fields() {
+            load();
+            return super.fields();
         }
 
-        return baos.toByteArray();
+        public void resetTupleDesc(TupleDesc td) {
+            detach();
+            super.resetTupleDesc(td);
+        }
+
+        private Object writeReplace() {
+            detach();
+            return this;
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HeapPage constructor and
+     * have it produce an identical HeapPage object.
+     *
+     * @see #HeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer bb = m_data.duplicate();
+        bb.position(0);
+        bb.get(data);
+        return data;
     }
 
     /**
@@ -234,8 +396,14 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Like {@link #createEmptyPageData()}, for a table with the given page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -245,7 +413,7 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
     	RecordId ridToDelete = t.getRecordId();
@@ -258,8 +426,13 @@ public class HeapPage implements Page {
     	{
     		throw new DbException("Tuple slot already empty.");
     	}
+    	forget(slotToEmpty, t);
     	markSlotUsed(slotToEmpty, false);
-    	tuples[slotToEmpty] = null;
+    	for (int j = 0; j < td.numFields(); j++) {
+    		int offset = fieldOffset(slotToEmpty, j);
+    		for (int i = 0; i < td.getFieldType(j).getLen(); i++)
+    			m_data.put(offset + i, (byte) 0);
+    	}
     }
 
     /**
@@ -269,7 +442,7 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
     	if (!td.equals(t.getTupleDesc()))
@@ -277,26 +450,36 @@ public class HeapPage implements Page {
     		throw new DbException("TupleDesc mismatch.");
     	}
     	int freeSlotNum = -1;
-    	boolean freeSlotFound = false;
-    	for (int i = 0; i < header.length; i++)
+    	for (int i = 0; i < numSlots; i++)
     	{
-    		for (int bitNum = 0; bitNum < 8; bitNum++)
+    		if (!isSlotUsed(i))
     		{
-    			freeSlotNum = (i * 8) + bitNum;
-    			if (!isSlotUsed(freeSlotNum))
-    			{
-    				freeSlotFound = true;
-    				break;
-    			}
+    			freeSlotNum = i;
+    			break;
     		}
-    		if (freeSlotFound) break;
     	}
-    	
-    	if (!freeSlotFound || freeSlotNum == -1)
+    	if (freeSlotNum == -1)
     		throw new DbException("Page is full.");
-    	t.setRecordId(new RecordId(this.pid, freeSlotNum));
-    	tuples[freeSlotNum] = t;
+
+    	ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+    	DataOutputStream dos = new DataOutputStream(baos);
+    	try {
+    		for (int j = 0; j < td.numFields(); j++)
+    			t.getField(j).serialize(dos);
+    		dos.flush();
+    	} catch (IOException e) {
+    		throw new DbException("could not serialize tuple: " + e.getMessage());
+    	}
+    	byte[] record = baos.toByteArray();
     	markSlotUsed(freeSlotNum, true);
+    	ByteBuffer bb = m_data.duplicate();
+    	for (int j = 0; j < td.numFields(); j++) {
+    		bb.position(fieldOffset(freeSlotNum, j));
+    		bb.put(record, td.getFieldOffset(j), td.getFieldType(j).getLen());
+    	}
+
+    	t.setRecordId(new RecordId(this.pid, freeSlotNum));
+    	remember(freeSlotNum, t);
     }
 
     /**
@@ -326,7 +509,7 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         int count = 0; 
-        for (int i = 0; i< this.getNumTuples(); i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (!this.isSlotUsed(i)) {
                 count++;
             }
@@ -346,14 +529,14 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-    	int byteNum = i / 8;
-    	int bitNum = i % 8;
-        if (byteNum >= header.length || byteNum < 0) {
+        if (i < 0 || i >= numSlots) {
             return false;
         }
-    	byte byteWithSlot = header[byteNum];
+    	int byteNum = i / 8;
+    	int bitNum = i % 8;
+    	byte byteWithSlot = m_data.get(byteNum);
     	int bitmask = 1 << bitNum;
-        return (byteWithSlot&bitmask) > 0;
+        return (byteWithSlot&bitmask) != 0;
     }
 
     /**
@@ -366,7 +549,8 @@ public class HeapPage implements Page {
     	int bitNum = i % 8;
     	// ^ = exclusive or
     	if (isSlotUsed(i) ^ value){
-    		header[byteNum] ^= (1 << bitNum);
+    		beforeWrite();
+    		m_data.put(byteNum, (byte) (m_data.get(byteNum) ^ (1 << bitNum)));
     	}
     }
 
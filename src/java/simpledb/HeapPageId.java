@@ -40,8 +40,9 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        String toHash = "" + m_tableId + m_pageNum;
-        return toHash.hashCode();
+        // combine arithmetically; building a String here made every buffer
+        // pool lookup allocate
+        return 31 * m_tableId + m_pageNum;
     }
 
     /**
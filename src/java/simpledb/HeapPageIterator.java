@@ -2,24 +2,30 @@ package simpledb;
 
 import java.util.*;
 
+/**
+ * Iterates over the tuples in the used slots of a HeapPage.
+ */
 public class HeapPageIterator implements Iterator<Tuple> {
 
     public HeapPageIterator(HeapPage heapPage) {
         this.heapPage = heapPage;
-        this.curTuple = 0;
-        this.numTuples = heapPage.availableTuples();
+        this.curSlot = 0;
+        this.nextTuple = null;
     }
 
     public boolean hasNext() {
-        if (this.curTuple < this.numTuples) {
-            return true;
-        } else {
-            return false;
+        while (this.nextTuple == null && this.curSlot < this.heapPage.slotCount()) {
+            this.nextTuple = this.heapPage.getTuple(this.curSlot++);
         }
+        return this.nextTuple != null;
     }
 
     public Tuple next() {
-        return heapPage.tuples[this.curTuple++];
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = this.nextTuple;
+        this.nextTuple = null;
+        return t;
     }
 
     public void remove() throws UnsupportedOperationException {
@@ -27,6 +33,6 @@ public class HeapPageIterator implements Iterator<Tuple> {
     }
 
     private HeapPage heapPage; 
-    private int numTuples;
-    private int curTuple;
+    private int curSlot;
+    private Tuple nextTuple;
 }
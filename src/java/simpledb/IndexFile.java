@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * An IndexFile is a DbFile that keeps its tuples organized on one key field,
+ * so that it can find the tuples whose key satisfies a predicate without
+ * reading the whole file. Secondary indexes (see {@link Catalog#addIndex})
+ * are IndexFiles.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the index of the key field in the file's tuples */
+    public int getKeyField();
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate.
+     *
+     * @param ipred the predicate on the key, or null for all tuples
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+
+    /**
+     * @return true if range predicates are answered without a full scan,
+     *   with tuples in key order; false if only equality lookups are
+     */
+    public boolean isOrdered();
+
+    /** Closes the file; any later access reopens it. */
+    public void close() throws IOException;
+}
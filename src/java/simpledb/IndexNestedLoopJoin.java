@@ -0,0 +1,104 @@
+package simpledb;
+
+/**
+ * IndexNestedLoopJoin is an equality {@link Join} whose inner relation is a
+ * table with a secondary index on the join field (see
+ * {@link Catalog#addIndex}). Instead of rescanning the inner table for
+ * every outer tuple, it looks up the outer tuple's join value in the index
+ * and fetches just the matching inner tuples.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator m_outer;
+    private IndexScan m_probe;
+    private Tuple m_currentLeftTuple;
+
+    /**
+     * @param p the predicate to join on; must be an equality
+     * @param child1 the outer relation
+     * @param child2 a scan of the inner relation, whose table must have an
+     *            index on the join field (see {@link #canProbe})
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, SeqScan child2) {
+        super(p, child1, child2);
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("an index nested loop join needs an equality predicate");
+        m_outer = child1;
+        m_probe = probe(child2, p.getField2());
+    }
+
+    /** @return the field of the scanned table that a scan returns as field i */
+    private static int tableField(SeqScan scan, int i) {
+        int[] columns = scan.getColumns();
+        return columns == null ? i : columns[i];
+    }
+
+    /**
+     * @return true if the table a scan reads has an index on the scan's
+     *   field i, so that it can be the inner relation of an
+     *   IndexNestedLoopJoin on that field
+     */
+    public static boolean canProbe(SeqScan scan, int i) {
+        return Database.getCatalog().getIndex(scan.getTableId(), tableField(scan, i)) != null;
+    }
+
+    /** @return an index scan returning the same tuples as scan, for one key at a time */
+    private static IndexScan probe(SeqScan scan, int i) {
+        return new IndexScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias(),
+                tableField(scan, i), null, scan.getColumns());
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        m_currentLeftTuple = null;
+    }
+
+    public void close() {
+        super.close();
+        m_probe.close();
+        m_currentLeftTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        m_probe.close();
+        m_currentLeftTuple = null;
+    }
+
+    /**
+     * Returns the next joined tuple: for each outer tuple in turn, the
+     * index is probed with its join field, and each inner tuple found is
+     * concatenated to it as in {@link Join#fetchNext}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        JoinPredicate p = getJoinPredicate();
+        while (true) {
+            if (m_currentLeftTuple == null) {
+                if (!m_outer.hasNext())
+                    return null;
+                m_currentLeftTuple = m_outer.next();
+                m_probe.setIndexPredicate(new IndexPredicate(Predicate.Op.EQUALS,
+                        m_currentLeftTuple.getField(p.getField1())));
+                m_probe.rewind();
+            }
+            while (m_probe.hasNext()) {
+                Tuple rightTuple = m_probe.next();
+                if (p.filter(m_currentLeftTuple, rightTuple))
+                    return joinTuples(m_currentLeftTuple, rightTuple);
+            }
+            m_currentLeftTuple = null;
+        }
+    }
+
+    /**
+     * @param children the outer relation, then a {@link SeqScan} of an
+     *            indexed inner table
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        super.setChildren(children);
+        m_outer = children[0];
+        m_probe = probe((SeqScan) children[1], getJoinPredicate().getField2());
+    }
+}
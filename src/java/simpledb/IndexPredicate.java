@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index against a constant,
+ * e.g. to restrict a {@link BTreeFile#indexIterator} to a key range.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op m_op;
+    private final Field m_fieldvalue;
+
+    /**
+     * @param op the comparison; keys are on the left, so
+     *            <tt>LESS_THAN</tt> selects keys less than fvalue
+     * @param fvalue the constant to compare the keys against
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        m_op = op;
+        m_fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return m_fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return m_op;
+    }
+
+    /** @return true if key satisfies this predicate */
+    public boolean matches(Field key) {
+        return key.compare(m_op, m_fieldvalue);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate ipd = (IndexPredicate) o;
+        return m_op.equals(ipd.m_op) && m_fieldvalue.equals(ipd.m_fieldvalue);
+    }
+
+    public int hashCode() {
+        return 31 * m_op.hashCode() + m_fieldvalue.hashCode();
+    }
+
+    public String toString() {
+        return "key " + m_op + " " + m_fieldvalue;
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan reads the tuples of a heap table whose indexed field satisfies
+ * a predicate, by probing the table's secondary index (see
+ * {@link Catalog#addIndex}) and fetching each matching RecordId from its
+ * heap page, instead of scanning the whole table. Tuples come out in the
+ * order of the indexed field if the index is ordered (see
+ * {@link IndexFile#isOrdered}).
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId m_transId;
+    private final int m_tableId;
+    private final String m_tableAlias;
+    private final int m_field;
+    private IndexPredicate m_ipred;
+    // the table's fields this scan returns, or null for all of them
+    private final int[] m_columns;
+    private TupleDesc m_projectedTd;
+    private transient DbFileIterator m_entries;
+    private Tuple m_next;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan; must have an index on field
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *            fields named tableAlias.fieldName, as for a {@link SeqScan}
+     * @param field the indexed field
+     * @param ipred the predicate the field must satisfy
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field,
+            IndexPredicate ipred) {
+        this(tid, tableid, tableAlias, field, ipred, null);
+    }
+
+    /**
+     * Creates an index scan that returns only some of the table's fields.
+     *
+     * @param columns the indices of the table fields to return, in the
+     *            order they should appear in the output; null for all fields
+     * @see SeqScan#SeqScan(TransactionId, int, String, int[])
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field,
+            IndexPredicate ipred, int[] columns) {
+        if (Database.getCatalog().getIndex(tableid, field) == null)
+            throw new IllegalArgumentException("no index on field " + field + " of table " + tableid);
+        m_transId = tid;
+        m_tableId = tableid;
+        m_tableAlias = tableAlias;
+        m_field = field;
+        m_ipred = ipred;
+        m_columns = columns;
+    }
+
+    /** @return the name of the table this operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(m_tableId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return m_tableAlias;
+    }
+
+    /** @return the index of the indexed field in the table */
+    public int getField() {
+        return m_field;
+    }
+
+    /** @return the name of the indexed field, without the alias */
+    public String getFieldName() {
+        return Database.getCatalog().getTupleDesc(m_tableId).getFieldName(m_field);
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return m_ipred;
+    }
+
+    /**
+     * Changes the predicate the scan looks up; takes effect the next time
+     * the scan is opened or rewound. Lets an {@link IndexNestedLoopJoin}
+     * probe the index once per outer tuple with a single scan.
+     */
+    void setIndexPredicate(IndexPredicate ipred) {
+        m_ipred = ipred;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, or of the chosen columns, with
+     * field names prefixed with the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc origTupleDesc = Database.getCatalog().getTupleDesc(m_tableId);
+        int tdSize = m_columns == null ? origTupleDesc.numFields() : m_columns.length;
+        Type[] newTypes = new Type[tdSize];
+        String[] newFields = new String[tdSize];
+        for (int i = 0; i < tdSize; i++) {
+            int field = m_columns == null ? i : m_columns[i];
+            newTypes[i] = origTupleDesc.getFieldType(field);
+            newFields[i] = m_tableAlias + "." + origTupleDesc.getFieldName(field);
+        }
+        return new TupleDesc(newTypes, newFields);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        IndexFile index = Database.getCatalog().getIndex(m_tableId, m_field);
+        if (index == null)
+            throw new DbException("the index on field " + m_field + " has been dropped");
+        m_entries = index.indexIterator(m_transId, m_ipred);
+        m_entries.open();
+        m_next = null;
+    }
+
+    /**
+     * Fetches the tuple the next index entry points at. Entries whose slot
+     * has since been emptied, or now holds a tuple that does not match,
+     * are skipped.
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_entries.hasNext()) {
+            Tuple entry = m_entries.next();
+            int page = ((IntField) entry.getField(1)).getValue();
+            int slot = ((IntField) entry.getField(2)).getValue();
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(m_transId,
+                    new HeapPageId(m_tableId, page), Permissions.READ_ONLY);
+            Tuple t = p.getTuple(slot);
+            if (t != null && m_ipred.matches(t.getField(m_field)))
+                return t;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (m_entries == null)
+            throw new IllegalStateException("IndexScan not open");
+        if (m_next == null)
+            m_next = fetchNext();
+        return m_next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = m_next;
+        m_next = null;
+        if (m_columns == null)
+            return t;
+        if (m_projectedTd == null)
+            m_projectedTd = getTupleDesc();
+        Tuple out = new Tuple(m_projectedTd);
+        for (int i = 0; i < m_columns.length; i++)
+            out.setField(i, t.getField(m_columns[i]));
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    public void close() {
+        if (m_entries != null)
+            m_entries.close();
+        m_entries = null;
+        m_next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -14,6 +14,7 @@ public class Insert extends Operator {
     private DbIterator m_it;
     private int m_tableId;
     private boolean m_inserted;
+    private boolean m_bulk;
     private TupleDesc m_resultTupleDesc;
     
     /**
@@ -31,7 +32,21 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
-        // some code goes here
+        this(t, child, tableid, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bulk
+     *            if true, the tuples are packed into new pages appended to
+     *            the end of the table (see {@link BufferPool#bulkInsert})
+     *            instead of being inserted one at a time.
+     * @see #Insert(TransactionId, DbIterator, int)
+     */
+    public Insert(TransactionId t, DbIterator child, int tableid, boolean bulk)
+            throws DbException {
+    	m_bulk = bulk;
     	m_transactionId = t;
     	m_it = child;
     	m_tableId = tableid;
@@ -83,19 +98,54 @@ public class Insert extends Operator {
         // some code goes here
     	if (m_inserted) return null;
     	int insertedCount = 0;
-    	while (m_it.hasNext())
+    	BufferPool bp = Database.getBufferPool();
+    	if (m_bulk)
     	{
-    		Tuple tup = m_it.next();
-    		try 
+    		try
     		{
-        		Database.getBufferPool().insertTuple(m_transactionId, m_tableId, tup);    			
+    			insertedCount = bp.bulkInsert(m_transactionId, m_tableId, m_it);
     		}
     		catch (IOException e)
     		{
-    			throw new DbException("IO Exception on tuple insertion");
+    			throw new DbException("IO Exception on bulk insertion");
     		}
-    		insertedCount++;
+    		return insertedResult(insertedCount);
     	}
+    	// keep the page we are filling pinned, so reading the child cannot
+    	// evict it between two inserts
+    	PageId pinned = null;
+    	try
+    	{
+	    	while (m_it.hasNext())
+	    	{
+	    		Tuple tup = m_it.next();
+	    		try 
+	    		{
+	        		bp.insertTuple(m_transactionId, m_tableId, tup);    			
+	    		}
+	    		catch (IOException e)
+	    		{
+	    			throw new DbException("IO Exception on tuple insertion");
+	    		}
+	    		insertedCount++;
+	    		RecordId rid = tup.getRecordId();
+	    		if (rid != null && !rid.getPageId().equals(pinned))
+	    		{
+	    			if (pinned != null)
+	    				bp.unpin(pinned);
+	    			pinned = bp.pin(rid.getPageId()) ? rid.getPageId() : null;
+	    		}
+	    	}
+    	}
+    	finally
+    	{
+    		if (pinned != null)
+    			bp.unpin(pinned);
+    	}
+    	return insertedResult(insertedCount);
+    }
+
+    private Tuple insertedResult(int insertedCount) {
     	Tuple resultTuple = new Tuple(m_resultTupleDesc);
     	resultTuple.setField(0, new IntField(insertedCount));
     	m_inserted = true;
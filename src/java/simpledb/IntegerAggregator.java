@@ -99,6 +99,49 @@ public class IntegerAggregator implements Aggregator {
     	m_aggregateData.put(tupleGroupByField, newValue);
     }
 
+    /**
+     * Merges a whole column segment of the aggregate field into the
+     * aggregate, working on its encoded form (e.g. summing run-length
+     * encoded runs as value times length) instead of row by row. Only for
+     * aggregates with no grouping.
+     *
+     * @param seg the values of the aggregate field for some rows
+     * @see ColumnFile
+     */
+    public void mergeSegment(ColumnSegment seg) {
+        if (m_groupByFieldIndex != Aggregator.NO_GROUPING)
+            throw new IllegalStateException("segments can only be merged without grouping");
+        if (seg.size() == 0)
+            return;
+        Field group = null;
+        if (!m_aggregateData.containsKey(group))
+        {
+            m_aggregateData.put(group, initialData());
+            m_count.put(group, 0);
+        }
+        int currentValue = m_aggregateData.get(group);
+        int newValue = currentValue;
+        switch(m_op)
+        {
+            case MIN:
+                newValue = Math.min(currentValue, seg.min());
+                break;
+            case MAX:
+                newValue = Math.max(currentValue, seg.max());
+                break;
+            case SUM: case AVG:
+                m_count.put(group, m_count.get(group) + seg.size());
+                newValue = currentValue + seg.sum();
+                break;
+            case COUNT:
+                newValue = currentValue + seg.size();
+                break;
+            default:
+                break;
+        }
+        m_aggregateData.put(group, newValue);
+    }
+
     private TupleDesc createGroupByTupleDesc()
     {
     	String[] names;
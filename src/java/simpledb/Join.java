@@ -137,7 +137,7 @@ public class Join extends Operator {
         return null;
     }
 
-    private Tuple joinTuples(Tuple leftTuple, Tuple rightTuple)
+    Tuple joinTuples(Tuple leftTuple, Tuple rightTuple)
     {
 		int leftTupleSize = leftTuple.getTupleDesc().numFields();
 		int rightTupleSize = rightTuple.getTupleDesc().numFields();
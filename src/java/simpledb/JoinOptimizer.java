@@ -34,6 +34,10 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * An equality join whose plan2 is a scan of a table with an index on
+     * the join field becomes an {@link IndexNestedLoopJoin}; any other
+     * join is a nested loop {@link Join}.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +72,14 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // probe an index on the inner table rather than rescanning it
+        // for every outer tuple
+        if (!(lj instanceof LogicalSubplanJoinNode) && lj.p == Predicate.Op.EQUALS
+                && plan2 instanceof SeqScan
+                && IndexNestedLoopJoin.canProbe((SeqScan) plan2, t2id))
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -232,6 +243,9 @@ public class JoinOptimizer {
         // should work.
 
         // some code goes here
+        // a single-table query has nothing to order
+        if (joins.isEmpty())
+            return new Vector<LogicalJoinNode>();
         PlanCache cache = new PlanCache();
         Set<LogicalJoinNode> hash = new HashSet<LogicalJoinNode>(joins);
         Set<Set<LogicalJoinNode>> join = enumerateSubsets(joins,1);
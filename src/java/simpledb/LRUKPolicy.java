@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent reference is the oldest; pages that have been referenced
+ * fewer than K times have an infinite backward K-distance and go first, in
+ * plain LRU order. Because a page touched once by a big scan never reaches K
+ * references, scans cannot push frequently used pages out of the pool.
+ * <p>
+ * The reference history of recently evicted pages is retained (up to the
+ * capacity of the pool) so that a page that is re-read soon after eviction
+ * keeps its history.
+ * <p>
+ * Hits and loads are O(log n) because the resident pages are kept sorted by
+ * backward K-distance; eviction is O(log n) as well.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+
+    /** Default K; LRU-2 already gives most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        // ring of the last K reference times, newest at refs[(next-1) % K]
+        final long[] refs;
+        int count;
+        int next;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void reference(long time) {
+            refs[next] = time;
+            next = (next + 1) % refs.length;
+            if (count < refs.length)
+                count++;
+        }
+
+        long last() {
+            return refs[(next - 1 + refs.length) % refs.length];
+        }
+
+        /** @return the K-th most recent reference time, or -1 if there is none */
+        long kth() {
+            return count < refs.length ? -1 : refs[next];
+        }
+    }
+
+    private static final Comparator<History> BY_K_DISTANCE = new Comparator<History>() {
+        public int compare(History a, History b) {
+            long ka = a.kth(), kb = b.kth();
+            if (ka != kb)
+                return ka < kb ? -1 : 1;
+            long la = a.last(), lb = b.last();
+            if (la != lb)
+                return la < lb ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private final int m_k;
+    private long m_clock;
+    private HashMap<PageId, History> m_resident;
+    private TreeSet<History> m_order;
+    private LinkedHashMap<PageId, History> m_retained;
+
+    /**
+     * @param k the number of references to remember for each page
+     * @param retainedPages how many evicted pages' histories to keep around
+     */
+    public LRUKPolicy(int k, final int retainedPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        m_k = k;
+        m_clock = 0;
+        m_resident = new HashMap<PageId, History>();
+        m_order = new TreeSet<History>(BY_K_DISTANCE);
+        m_retained = new LinkedHashMap<PageId, History>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedPages;
+            }
+        };
+    }
+
+    public LRUKPolicy(int retainedPages) {
+        this(DEFAULT_K, retainedPages);
+    }
+
+    public void pageLoaded(PageId pid) {
+        History h = m_resident.get(pid);
+        if (h != null) {
+            pageAccessed(pid);
+            return;
+        }
+        h = m_retained.remove(pid);
+        if (h == null)
+            h = new History(pid, m_k);
+        h.reference(++m_clock);
+        m_resident.put(pid, h);
+        m_order.add(h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = m_resident.get(pid);
+        if (h == null)
+            return;
+        m_order.remove(h);
+        h.reference(++m_clock);
+        m_order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = m_resident.remove(pid);
+        if (h != null)
+            m_order.remove(h);
+    }
+
+    public PageId evict() {
+        return evict(ALL);
+    }
+
+    public PageId evict(Candidates c) {
+        Iterator<History> it = m_order.iterator();
+        while (it.hasNext()) {
+            History victim = it.next();
+            if (!c.accept(victim.pid))
+                continue;
+            it.remove();
+            m_resident.remove(victim.pid);
+            m_retained.put(victim.pid, victim);
+            return victim.pid;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "lru-k";
+    }
+}
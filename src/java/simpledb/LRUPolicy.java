@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used replacement. Resident pages are kept in an
+ * access-ordered LinkedHashMap, so every operation (including picking a
+ * victim) is O(1).
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    private LinkedHashMap<PageId, Boolean> m_pages;
+
+    public LRUPolicy() {
+        m_pages = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    public void pageLoaded(PageId pid) {
+        m_pages.put(pid, Boolean.TRUE);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // get() moves the entry to the most recently used end
+        m_pages.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        m_pages.remove(pid);
+    }
+
+    public PageId evict() {
+        return evict(ALL);
+    }
+
+    public PageId evict(Candidates c) {
+        // iterating does not reorder an access-ordered map
+        Iterator<PageId> it = m_pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (c.accept(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "lru";
+    }
+}
@@ -36,6 +36,8 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private boolean vectorized = false;
+    private boolean fused = true;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -60,6 +62,24 @@ public class LogicalPlan {
         this.query = query;
     }
       
+    /** Set whether {@link #physicalPlan} runs the plan as batch operators
+        where it can (see {@link BatchToTupleIterator#vectorize}).  The tuples
+        of such a plan carry no RecordIds, so this is only for plans whose
+        output is not deleted or updated.
+    */
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    /** Set whether {@link #physicalPlan} runs a scan with only filters and
+        the projection above it as one {@link ScanPipeline} (see
+        {@link ScanPipeline#fuse}), which it does by default.  Unfused, the
+        plan keeps a separate operator for each filter and the projection.
+    */
+    public void setFused(boolean fused) {
+        this.fused = fused;
+    }
+
     /** Get the query text associated with this plan via {@link #setQuery}.
      */
     public String getQuery() {
@@ -271,6 +291,145 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Works out which fields of a scanned table the plan uses anywhere: in
+     * the select list, filters, joins, aggregate, GROUP BY or ORDER BY.
+     * The table's scan returns only those, so that unused fields are never
+     * decoded (see {@link SeqScan#SeqScan(TransactionId, int, String, int[])}).
+     *
+     * @return the indices of the used fields in table order, or null if
+     *   every field is needed (e.g. the select list contains <tt>*</tt>)
+     */
+    private int[] usedColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        boolean[] used = new boolean[td.numFields()];
+        int count = 0;
+        String prefix = table.alias + ".";
+        for (String name : names) {
+            if (name == null)
+                continue;
+            if (name.endsWith("*"))
+                return null;
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                int i = td.fieldNameToIndex(name.substring(prefix.length()));
+                if (!used[i]) {
+                    used[i] = true;
+                    count++;
+                }
+            } catch (NoSuchElementException e) {
+                // reported when the plan resolves the name
+            }
+        }
+        if (count == 0 || count == used.length)
+            return null;
+        int[] columns = new int[count];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i])
+                columns[j++] = i;
+        }
+        return columns;
+    }
+
+    /** @return the constant of a filter as a field of the given type */
+    private static Field filterConstant(LogicalFilterNode lf, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /**
+     * Picks the filter an {@link IndexScan} of a table should apply
+     * instead of a full scan: among the filters on the table's indexed
+     * fields (see {@link Catalog#getIndex}), leaving out range filters on
+     * fields with only a hash index, the one whose matching tuples
+     * {@link TableStats#estimateIndexScanCost} says are cheapest to fetch,
+     * if that is cheaper than scanning the table.
+     *
+     * @return the filter, or null if the table should be scanned
+     */
+    private LogicalFilterNode indexFilter(LogicalScanNode table, TableStats stats) {
+        if (stats == null || Database.getCatalog().getIndexes(table.t).isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        LogicalFilterNode best = null;
+        double bestCost = stats.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            switch (lf.p) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                break;
+            default:
+                continue;
+            }
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            IndexFile index = Database.getCatalog().getIndex(table.t, field);
+            if (index == null || (lf.p != Predicate.Op.EQUALS && !index.isOrdered()))
+                continue;
+            double sel = stats.estimateSelectivity(field, lf.p,
+                    filterConstant(lf, td.getFieldType(field)));
+            double cost = stats.estimateIndexScanCost(sel);
+            if (cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the filters on a table's int fields, and the equality filters
+     *   on its other fields, as predicates on the table's fields, for a
+     *   {@link SeqScan} to skip pages by; null if there are none
+     */
+    private Predicate[] scanPredicates(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            Type type = td.getFieldType(field);
+            if (type != Type.INT_TYPE && lf.p != Predicate.Op.EQUALS)
+                continue;
+            try {
+                preds.add(new Predicate(field, lf.p, filterConstant(lf, type)));
+            } catch (NumberFormatException e) {
+                // reported when the filter itself is planned
+            }
+        }
+        return preds.isEmpty() ? null : preds.toArray(new Predicate[0]);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -290,17 +449,32 @@ public class LogicalPlan {
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        // filters applied by an IndexScan rather than by a Filter
+        ArrayList<LogicalFilterNode> indexFilters = new ArrayList<LogicalFilterNode>();
+
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
+            String baseTableName;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                baseTableName = Database.getCatalog().getTableName(table.t);
+                LogicalFilterNode lf = indexFilter(table, baseTableStats.get(baseTableName));
+                if (lf != null) {
+                    TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+                    int field = td.fieldNameToIndex(lf.fieldPureName);
+                    ss = new IndexScan(t, table.t, table.alias, field,
+                            new IndexPredicate(lf.p, filterConstant(lf, td.getFieldType(field))),
+                            usedColumns(table));
+                    indexFilters.add(lf);
+                } else {
+                    ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                            usedColumns(table), scanPredicates(table));
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -323,10 +497,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,11 +505,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are by table field, the scan may return fewer
+            double sel= s.estimateSelectivity(Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -478,7 +651,10 @@ public class LogicalPlan {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        // a scan with only filters and the projection above it runs fused
+        DbIterator plan = fused ? ScanPipeline.fuse(project) : project;
+        return vectorized ? BatchToTupleIterator.vectorize(plan) : plan;
     }
 
     public static void main(String argv[]) {
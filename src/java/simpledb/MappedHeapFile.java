@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedHeapFile is a HeapFile whose pages are read through a read-only
+ * memory mapping of the whole file instead of through positional reads into
+ * a fresh byte array. Each HeapPage is decoded straight from a slice of the
+ * mapping, so a page read costs no system call and no intermediate copy once
+ * the OS has the file cached. It suits read-mostly tables that are scanned
+ * repeatedly.
+ * <p>
+ * The on-disk format is identical to HeapFile's, and writes still go through
+ * HeapFile's channel; the shared mapping sees them. When the file grows past
+ * the mapped region it is mapped again.
+ * <p>
+ * Select it per table by adding the <tt>mapped</tt> option after the field
+ * list in a catalog file, e.g. <tt>movies (id int pk, title string) mapped</tt>.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private volatile MappedByteBuffer m_map;
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format) {
+        super(f, td, format);
+    }
+
+    public MappedHeapFile(File f, TupleDesc td, PageFormat format, int pageSize) {
+        super(f, td, format, pageSize);
+    }
+
+    /**
+     * Returns a mapping that covers at least the first end bytes of the file,
+     * mapping the file again if it has grown.
+     */
+    private synchronized MappedByteBuffer mapping(long end) throws IOException {
+        if (m_map != null && m_map.capacity() >= end)
+            return m_map;
+        RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("file too large to map: " + getFile());
+            // the mapping stays valid after the file is closed
+            m_map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return m_map;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            long offset = (long) getPageSize() * pid.pageNumber();
+            long end = offset + getPageSize();
+            MappedByteBuffer map = m_map;
+            if (map == null || map.capacity() < end)
+                map = mapping(end);
+            if (map.capacity() < end)
+                throw new IllegalArgumentException("Page offset exceeds max size: " + pid);
+            ByteBuffer page = map.duplicate();
+            page.position((int) offset);
+            page.limit((int) end);
+            return getPageFormat().newPage((HeapPageId) pid, page.slice());
+        } catch (IOException e) {
+            System.err.println("Caught IOException: " + e.getMessage());
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Drops the mapping along with the file handle. The mapped memory is
+     * released once it is garbage collected.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            m_map = null;
+        }
+        super.close();
+    }
+}
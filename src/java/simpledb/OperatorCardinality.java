@@ -32,6 +32,8 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof ScanPipeline) {
+            return updateScanPipelineCardinality((ScanPipeline) o, tableStats);
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -45,6 +47,9 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof IndexScan) {
+                    childC = indexScanCardinality((IndexScan) children[0],
+                            tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -82,12 +87,33 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof IndexScan) {
+                f.setEstimatedCardinality((int) (indexScanCardinality(
+                        (IndexScan) child, tableStats) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
         return false;
     }
 
+    /** Estimates a fused pipeline as the filters it replaces over its scan. */
+    private static boolean updateScanPipelineCardinality(ScanPipeline p,
+            Map<String, TableStats> tableStats) {
+        SeqScan scan = (SeqScan) p.getChildren()[0];
+        TableStats stats = tableStats.get(scan.getTableName());
+        int[] columns = scan.getColumns();
+        double selectivity = 1.0;
+        for (Predicate pred : p.getPredicates()) {
+            int field = columns == null ? pred.getField() : columns[pred.getField()];
+            selectivity *= stats.estimateSelectivity(field, pred.getOp(),
+                    pred.getOperand());
+        }
+        int card = (int) (stats.estimateTableCardinality(1.0) * selectivity);
+        p.setEstimatedCardinality(p.getPredicates().length > 0 ? card + 1 : card);
+        return false;
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -123,6 +149,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,6 +163,8 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -180,6 +210,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -192,6 +224,8 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -222,6 +256,8 @@ public class OperatorCardinality {
         if (child instanceof SeqScan) {
             childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
                     .estimateTableCardinality(1.0));
+        } else if (child instanceof IndexScan) {
+            childCard = indexScanCardinality((IndexScan) child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -244,4 +280,13 @@ public class OperatorCardinality {
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /** @return the estimated number of tuples an index scan returns */
+    private static int indexScanCardinality(IndexScan s,
+            Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        IndexPredicate ipred = s.getIndexPredicate();
+        return stats.estimateTableCardinality(stats.estimateSelectivity(
+                s.getField(), ipred.getOp(), ipred.getField()));
+    }
 }
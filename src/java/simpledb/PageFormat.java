@@ -0,0 +1,36 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The layouts a HeapFile can store its pages in. A table's format is
+ * chosen in the catalog (see {@link Catalog#loadSchema}) and applies to
+ * every page of its file.
+ */
+public enum PageFormat {
+    /** Fixed-size slots and a used-slot bitmap; see {@link HeapPage}. */
+    FIXED {
+        HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new HeapPage(id, data);
+        }
+    },
+    /** Variable-length records behind a slot directory; see {@link SlottedHeapPage}. */
+    SLOTTED {
+        HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new SlottedHeapPage(id, data);
+        }
+    },
+    /** Fixed-size slots stored column by column; see {@link PaxHeapPage}. */
+    PAX {
+        HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new PaxHeapPage(id, data);
+        }
+    };
+
+    /**
+     * Creates a page of this format over a page image.
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    abstract HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException;
+}
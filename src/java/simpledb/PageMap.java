@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * PageMap is the base of the per-page summaries of a HeapFile's tuples
+ * that let scans skip pages, such as a {@link ZoneMap}, kept in a sidecar
+ * file next to the table. A summary may only err by letting a page
+ * through: an insert adds its tuple to its page's summary right away, a
+ * delete leaves it alone, and writing a page out rebuilds its summary
+ * from the page's contents.
+ * <p>
+ * If the sidecar is missing, cannot be read, or is older than the table
+ * file (the table was written after the map was last saved), the map is
+ * rebuilt from the table's pages by a background thread, so that loading
+ * it never reads the table on the query path. Until the rebuild has read
+ * a page, the page may match anything. The rebuild adds the page it read
+ * to the page's summary rather than replacing it, so a page written or
+ * inserted into meanwhile keeps its newer tuples too.
+ *
+ * @see HeapFile#saveMaps
+ */
+abstract class PageMap {
+
+    protected final File m_file;
+    private final HeapFile m_hf;
+    protected int m_numPages;
+    private boolean m_dirty;
+    // pages from m_rebuilt up to m_rebuildEnd have not been read by the
+    // rebuild yet
+    private int m_rebuilt;
+    private int m_rebuildEnd;
+    private Thread m_rebuilder;
+
+    PageMap(HeapFile hf, File file) {
+        m_hf = hf;
+        m_file = file;
+    }
+
+    /**
+     * Loads the map from its sidecar file, or starts rebuilding it if the
+     * sidecar cannot be used. Called by subclass constructors once their
+     * own fields are set.
+     */
+    protected void load() {
+        int pages = m_hf.numPages();
+        boolean loaded = false;
+        if (m_file.exists() && m_file.lastModified() >= m_hf.getFile().lastModified()) {
+            try {
+                loaded = read(pages);
+            } catch (IOException e) {
+                // unreadable map: rebuild it from the pages
+            }
+        }
+        if (loaded || pages == 0) {
+            m_numPages = pages;
+            return;
+        }
+        m_numPages = 0;
+        if (pages > 0)
+            cover(pages - 1);
+        m_rebuilt = 0;
+        m_rebuildEnd = pages;
+        m_dirty = true;
+        m_rebuilder = new Thread(new Runnable() {
+            public void run() {
+                rebuild();
+            }
+        }, "simpledb-" + getClass().getSimpleName());
+        m_rebuilder.setDaemon(true);
+        m_rebuilder.start();
+    }
+
+    /** Reads the pages the map has not seen yet, in order, then saves it. */
+    private void rebuild() {
+        try {
+            for (int p = 0; p < m_rebuildEnd; p++) {
+                // a truncated or deleted table file ends the rebuild
+                if (p >= m_hf.numPages())
+                    return;
+                HeapPage page = (HeapPage) m_hf.readPage(new HeapPageId(m_hf.getId(), p));
+                synchronized (this) {
+                    addPage(p, page);
+                    m_rebuilt = p + 1;
+                }
+            }
+            if (m_hf.savesMaps())
+                save();
+        } catch (RuntimeException e) {
+            // the pages not read yet keep matching anything
+        } catch (IOException e) {
+            // saved again by the next save
+        }
+    }
+
+    /**
+     * Waits until the map has been rebuilt, if it is being rebuilt; for
+     * tests.
+     */
+    void awaitRebuild() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = m_rebuilder;
+        }
+        if (t != null)
+            t.join();
+    }
+
+    /** @return true if the sidecar covers exactly the given number of pages */
+    protected abstract boolean read(int pages) throws IOException;
+
+    /** Writes the whole map in the format read by {@link #read}. */
+    protected abstract void write(DataOutputStream dos) throws IOException;
+
+    /** Extends the map to cover a page, the pages in between being empty. */
+    protected abstract void cover(int page);
+
+    /** Empties the summary of a page. */
+    protected abstract void clear(int page);
+
+    /** Adds a tuple to the summary of a page. */
+    protected abstract void add(int page, Tuple t);
+
+    /**
+     * @return false if the summary of a page shows that no tuple on it can
+     *   satisfy all of the predicates
+     */
+    protected abstract boolean summaryMayMatch(int page, Predicate[] preds);
+
+    private void addPage(int p, HeapPage page) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            add(p, it.next());
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since it was loaded
+     * or last saved, and is not being rebuilt.
+     */
+    synchronized void save() throws IOException {
+        if (!m_dirty || m_rebuilt < m_rebuildEnd)
+            return;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(m_file)));
+        try {
+            write(dos);
+        } finally {
+            dos.close();
+        }
+        m_dirty = false;
+    }
+
+    /** Sets the summary of a page to the tuples on it, as it is written out. */
+    synchronized void pageWritten(HeapPage page) {
+        int p = page.getId().pageNumber();
+        cover(p);
+        clear(p);
+        addPage(p, page);
+        m_dirty = true;
+    }
+
+    /** Adds a tuple inserted into a page to the page's summary. */
+    synchronized void tupleInserted(int page, Tuple t) {
+        cover(page);
+        add(page, t);
+        m_dirty = true;
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all of the
+     *   predicates, whose fields are fields of the table; true if one may
+     */
+    synchronized boolean mayMatch(int page, Predicate[] preds) {
+        if (page >= m_numPages || (page >= m_rebuilt && page < m_rebuildEnd))
+            return true;
+        return summaryMayMatch(page, preds);
+    }
+}
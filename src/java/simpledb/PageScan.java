@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * PageScan walks the pages of a HeapFile in order, through a scan ring of
+ * the buffer pool, skipping the pages that some predicates rule out (see
+ * {@link HeapFile#mayMatch}). It is the page loop of the operators that
+ * read a page at a time, {@link BatchSeqScan} and {@link ScanPipeline}.
+ */
+class PageScan {
+
+    private final TransactionId m_tid;
+    private final HeapFile m_file;
+    private final Predicate[] m_preds;
+    private final ScanRing m_ring;
+    // the number of the last page returned
+    private int m_page;
+
+    /**
+     * @param preds predicates on fields of the table that pages must be
+     *            able to satisfy to be read, or null to read every page
+     */
+    PageScan(TransactionId tid, HeapFile hf, Predicate[] preds) {
+        m_tid = tid;
+        m_file = hf;
+        m_preds = preds != null && preds.length > 0 ? preds : null;
+        m_ring = Database.getBufferPool().getScanRing(hf.numPages(), hf.getPageSize());
+        m_page = -1;
+    }
+
+    /**
+     * @return the next page that may hold a tuple satisfying the
+     *   predicates, or null if there are no more pages
+     */
+    HeapPage next() throws DbException, TransactionAbortedException {
+        while (m_page < m_file.numPages() - 1) {
+            m_page++;
+            if (m_preds != null && !m_file.mayMatch(m_page, m_preds))
+                continue;
+            return (HeapPage) Database.getBufferPool().getPage(m_tid,
+                    new HeapPageId(m_file.getId(), m_page), Permissions.READ_ONLY, m_ring);
+        }
+        return null;
+    }
+
+    /** Starts over from the first page. */
+    void rewind() {
+        m_page = -1;
+    }
+}
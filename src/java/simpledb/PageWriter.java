@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Background writer for a BufferPool. While the pool holds dirty pages, a
+ * daemon thread wakes up every interval and writes a batch of them out (see
+ * {@link BufferPool#writeDirtyBatch}), so that by the time the replacement
+ * policy picks a victim it is usually clean and eviction does not have to
+ * wait for a write. The thread is started when a page is dirtied and exits
+ * once the pool has no dirty pages left.
+ */
+class PageWriter implements Runnable {
+
+    /** Maximum number of pages written per round. */
+    static final int BATCH_PAGES = 32;
+
+    private final BufferPool m_pool;
+    private volatile long m_interval;
+    private boolean m_running; // guarded by this
+
+    /**
+     * @param pool the buffer pool to write for
+     * @param interval milliseconds between rounds, 0 to disable
+     */
+    PageWriter(BufferPool pool, long interval) {
+        m_pool = pool;
+        m_interval = Math.max(0, interval);
+    }
+
+    void setInterval(long millis) {
+        m_interval = Math.max(0, millis);
+        if (m_interval > 0)
+            wake();
+    }
+
+    long getInterval() {
+        return m_interval;
+    }
+
+    /** Starts the writer thread if it is enabled, not running, and needed. */
+    void wake() {
+        synchronized (this) {
+            if (m_running || m_interval == 0 || !m_pool.hasDirtyPages())
+                return;
+            m_running = true;
+        }
+        Thread t = new Thread(this, "simpledb-writer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void run() {
+        while (true) {
+            long interval = m_interval;
+            // a pool that has been replaced (see Database.resetBufferPool)
+            // is dead; do not write its pages behind the new one's back
+            if (interval > 0 && Database.getBufferPool() == m_pool) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    // write early
+                }
+                try {
+                    m_pool.writeDirtyBatch(BATCH_PAGES);
+                } catch (IOException e) {
+                    // leave the pages to eviction; a later dirty page retries
+                    e.printStackTrace();
+                    synchronized (this) {
+                        m_running = false;
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. the table was removed from the catalog
+                    e.printStackTrace();
+                    synchronized (this) {
+                        m_running = false;
+                        return;
+                    }
+                }
+            }
+            // a page dirtied after this check finds m_running false and
+            // starts a new thread
+            synchronized (this) {
+                if (m_interval == 0 || !m_pool.hasDirtyPages()
+                        || Database.getBufferPool() != m_pool) {
+                    m_running = false;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static boolean vectorize = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -280,6 +281,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setVectorized(vectorize);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -596,9 +598,10 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-vectorize] [-f queryFile]";
 
     protected void shutdown() {
+        Database.getCatalog().saveMaps();
         System.out.println("Bye");
     }
 
@@ -616,6 +619,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-vectorize")) {
+                    vectorize = true;
+                    System.out.println("Vectorized execution enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage in the PAX (Partition Attributes Across) layout: the page has
+ * the same used-slot bitmap and number of slots as a {@link HeapPage}, but
+ * after the header it stores each column contiguously in its own
+ * "minipage" rather than each tuple contiguously. Column j's minipage
+ * starts at
+ * <pre>
+ *     header size + number of slots * (offset of field j in a tuple)
+ * </pre>
+ * and holds that field of every slot in slot order. A scan that only asks
+ * for some fields of its tuples (see {@link SeqScan#SeqScan(TransactionId,
+ * int, String, int[])}) then only touches the minipages of those columns.
+ *
+ * @see PageFormat#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+    }
+
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    int fieldOffset(int slotId, int fieldIndex) {
+        return headerSize + numSlots * td.getFieldOffset(fieldIndex)
+                + slotId * td.getFieldType(fieldIndex).getLen();
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous read-ahead for a BufferPool. The pool reports every miss to
+ * {@link #missed}; once a table's misses move forward through its pages the
+ * prefetcher starts reading the next pages (up to the read-ahead window) on
+ * a small pool of background threads. Finished reads are held in a staging
+ * area outside the page table, and the miss path picks them up with
+ * {@link #take} instead of reading the page itself, so a scan's disk reads
+ * overlap with the work the operators above it do.
+ * <p>
+ * Staged pages never enter the page table on their own: the page still goes
+ * through the normal miss path (scan ring, replacement policy, pinning), so
+ * prefetching cannot push the working set out of the pool. Any page the pool
+ * writes or caches from elsewhere must be {@link #invalidate}d so that a
+ * stale staged copy is never handed out.
+ * <p>
+ * All methods are called with the buffer pool's monitor held; only the
+ * staging area is shared with the reader threads.
+ */
+class Prefetcher {
+
+    /** Number of background reader threads. */
+    static final int THREADS = 2;
+
+    /** Seconds an idle reader thread lingers before exiting. */
+    private static final long IDLE_SECONDS = 30;
+
+    /** Forward progress through one table, as seen by the miss path. */
+    private static class Stream {
+        int lastPage;
+        int highestIssued;
+
+        Stream(int page) {
+            lastPage = page;
+            highestIssued = page;
+        }
+    }
+
+    private final BufferPool m_pool;
+    private final HashMap<Integer, Stream> m_streams;
+    // insertion ordered so abandoned reads age out first; guarded by itself
+    private final LinkedHashMap<PageId, Future<Page>> m_staged;
+    private ThreadPoolExecutor m_executor;
+    private volatile int m_window;
+    private long m_used;
+
+    /**
+     * @param pool the buffer pool the prefetcher reads ahead for
+     * @param window the initial read-ahead window, see {@link #setWindow}
+     */
+    Prefetcher(BufferPool pool, int window) {
+        m_pool = pool;
+        m_streams = new HashMap<Integer, Stream>();
+        m_staged = new LinkedHashMap<PageId, Future<Page>>();
+        m_window = Math.max(0, window);
+    }
+
+    /** Sets how many pages ahead of a sequential reader to read; 0 disables. */
+    void setWindow(int pages) {
+        m_window = Math.max(0, pages);
+        if (m_window == 0) {
+            m_streams.clear();
+            synchronized (m_staged) {
+                for (Future<Page> f : m_staged.values())
+                    f.cancel(false);
+                m_staged.clear();
+            }
+        }
+    }
+
+    int getWindow() {
+        return m_window;
+    }
+
+    /** @return the number of misses served from a read-ahead page */
+    long getUsedCount() {
+        return m_used;
+    }
+
+    /**
+     * Records a miss on pid and issues reads for the following pages if the
+     * table is being read sequentially.
+     */
+    void missed(PageId pid) {
+        int window = m_window;
+        if (window == 0)
+            return;
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(file instanceof HeapFile))
+            return;
+        int page = pid.pageNumber();
+        Stream s = m_streams.get(pid.getTableId());
+        if (s == null) {
+            m_streams.put(pid.getTableId(), new Stream(page));
+            return;
+        }
+        // pages that were already resident do not show up as misses, so any
+        // step forward within the window still counts as sequential
+        boolean sequential = page > s.lastPage && page <= s.lastPage + window + 1;
+        s.lastPage = page;
+        if (!sequential) {
+            s.highestIssued = page;
+            return;
+        }
+        int last = Math.min(page + window, ((HeapFile) file).numPages() - 1);
+        for (int p = Math.max(s.highestIssued, page) + 1; p <= last; p++)
+            issue((HeapFile) file, new HeapPageId(pid.getTableId(), p));
+        s.highestIssued = Math.max(s.highestIssued, last);
+    }
+
+    private void issue(final HeapFile file, final PageId pid) {
+        if (m_pool.isResident(pid))
+            return;
+        synchronized (m_staged) {
+            if (m_staged.containsKey(pid))
+                return;
+            // bound the staging area in case readers abandon their scans
+            int cap = Math.max(m_window * 4, m_pool.getNumPages());
+            Iterator<Future<Page>> it = m_staged.values().iterator();
+            while (m_staged.size() >= cap && it.hasNext()) {
+                it.next().cancel(false);
+                it.remove();
+            }
+            m_staged.put(pid, executor().submit(new Callable<Page>() {
+                public Page call() {
+                    // the file may have shrunk or gone since the read was
+                    // issued, and reading past its end is fatal
+                    if (pid.pageNumber() >= file.numPages())
+                        throw new NoSuchElementException("no page " + pid);
+                    return file.readPage(pid);
+                }
+            }));
+        }
+    }
+
+    private ThreadPoolExecutor executor() {
+        if (m_executor == null) {
+            m_executor = new ThreadPoolExecutor(THREADS, THREADS, IDLE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "simpledb-prefetch");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            // let an idle pool (e.g. of a discarded BufferPool) go away
+            m_executor.allowCoreThreadTimeOut(true);
+        }
+        return m_executor;
+    }
+
+    /**
+     * Returns the read-ahead copy of pid, waiting for the read to finish if
+     * it is still in flight, or null if there is none (or the read failed).
+     */
+    Page take(PageId pid) {
+        Future<Page> f;
+        synchronized (m_staged) {
+            f = m_staged.remove(pid);
+        }
+        if (f == null)
+            return null;
+        try {
+            Page page = f.get();
+            m_used++;
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // fall back to a synchronous read
+        } catch (CancellationException e) {
+            // likewise
+        }
+        return null;
+    }
+
+    /** Drops any read-ahead copy of pid; it may no longer match the disk. */
+    void invalidate(PageId pid) {
+        synchronized (m_staged) {
+            Future<Page> f = m_staged.remove(pid);
+            if (f != null)
+                f.cancel(false);
+        }
+    }
+}
@@ -11,6 +11,11 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    // set by open: the projection and the filters below it compiled by
+    // TupleCompiler, and the first operator below the filters
+    private transient CompiledTupleFunction code;
+    private transient DbIterator source;
+    private boolean compiled = TupleCompiler.ENABLED;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,10 +50,33 @@ public class Project extends Operator {
         return td;
     }
 
+    /** @return the ids of the child's fields this projects out */
+    ArrayList<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
         super.open();
+        code = null;
+        if (compiled) {
+            ArrayList<Predicate> preds = new ArrayList<Predicate>();
+            source = Filter.chain(child, preds);
+            int[] fields = new int[outFieldIds.size()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = outFieldIds.get(i);
+            code = TupleCompiler.tryCompile(source.getTupleDesc(),
+                    preds.toArray(new Predicate[0]), fields, td);
+        }
+    }
+
+    /**
+     * Sets whether open compiles the projection and the filters below it,
+     * by default {@link TupleCompiler#ENABLED}; for tests and benchmarks.
+     */
+    void setCompiled(boolean compiled) {
+        this.compiled = compiled;
     }
 
     public void close() {
@@ -62,12 +90,23 @@ public class Project extends Operator {
 
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the child
-     * operator, projecting out the fields from the tuple
+     * operator, projecting out the fields from the tuple. Once open, a
+     * Project applies the Filters directly below it too, through code
+     * generated by {@link TupleCompiler}, and reads from the operator below
+     * them.
      * 
      * @return The next tuple, or null if there are no more tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (code != null) {
+            while (source.hasNext()) {
+                Tuple t = code.apply(source.next());
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
         while (child.hasNext()) {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool should throw out when
+ * it runs out of frames. The BufferPool tells the policy about every page it
+ * loads, every cache hit and every page it drops; in return the policy hands
+ * back a victim when one is needed.
+ * <p>
+ * Implementations are not thread safe on their own; the BufferPool calls
+ * them while holding its own lock.
+ *
+ * @see BufferPool
+ * @see LRUPolicy
+ * @see ClockPolicy
+ * @see LRUKPolicy
+ * @see TwoQPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Says which pages {@link #evict(Candidates)} may pick; the BufferPool
+     * uses it to pass over pinned pages.
+     */
+    public interface Candidates {
+        /**
+         * @return true if the page may be evicted; a page the BufferPool
+         *   accepts is claimed for eviction
+         */
+        public boolean accept(PageId pid);
+    }
+
+    /** Accepts every page. */
+    public static final Candidates ALL = new Candidates() {
+        public boolean accept(PageId pid) {
+            return true;
+        }
+    };
+
+    /**
+     * Called when a page has just been read from disk (or created) and
+     * placed in the buffer pool.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit.
+     *
+     * @param pid the id of the page that was requested
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool for a reason other than
+     * {@link #evict} choosing it (e.g. discardPage).
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks a victim and stops tracking it.
+     *
+     * @return the id of the page to evict, or null if the policy is not
+     *   tracking any pages
+     */
+    public PageId evict();
+
+    /**
+     * Picks the victim {@link #evict()} would if the pages c rejects were
+     * not there, and stops tracking it. The pages passed over keep their
+     * place and reference history.
+     *
+     * @return the id of the page to evict, or null if c rejects every page
+     *   the policy is tracking
+     */
+    public PageId evict(Candidates c);
+
+    /**
+     * @return the name of this policy, as accepted by
+     *   {@link BufferPool#createPolicy}
+     */
+    public String getName();
+}
@@ -0,0 +1,272 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ScanPipeline fuses a {@link SeqScan}, the {@link Filter}s stacked on it
+ * and the {@link Project} above them into one operator. On a
+ * {@link HeapFile} it works a page at a time: it copies the fields the
+ * predicates use, for all of the page's tuples, straight from the page
+ * image into a {@link TupleBatch}, narrows the batch's selection by each
+ * predicate as a {@link BatchFilter} does, and then decodes the projected
+ * fields of only the tuples that passed. No Tuple or Field is made for a
+ * tuple that fails, and there are no intermediate Tuples between the
+ * scan, the filters and the projection. Like the scan, it skips the pages
+ * that the scan's predicates rule out (see
+ * {@link HeapFile#iterator(TransactionId, Predicate[])}). Other tables are
+ * read through the scan.
+ * <p>
+ * The scan stays the operator's child, so that plans can be inspected as
+ * before, but it is only opened for tables that are not HeapFiles.
+ *
+ * @see LogicalPlan#physicalPlan
+ */
+public class ScanPipeline extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private SeqScan m_scan;
+    // predicates on fields of the scan's output, applied in order
+    private final Predicate[] m_preds;
+    // the fields of the scan's output to return
+    private final int[] m_fields;
+    private final TupleDesc m_td;
+
+    // the table fields the predicates use, the predicates as filters on a
+    // batch of those fields, and the table fields to return
+    private transient int[] m_predColumns;
+    private transient BatchFilter[] m_filters;
+    private transient int[] m_outColumns;
+    private transient TupleBatch m_predBatch;
+    // the projected fields of the tuples of the last page read that passed
+    private transient TupleBatch m_outBatch;
+    private transient int[] m_slots;
+    private transient int[] m_outSlots;
+    private transient PageScan m_pages;
+    // false if the table is not a HeapFile, and is read through the scan
+    private transient boolean m_heap;
+    // the last page read, and the next of its rows to return
+    private transient HeapPageId m_pid;
+    private transient int m_rows;
+    private transient int m_next;
+
+    /**
+     * @param scan the scan to read
+     * @param preds predicates on fields of the scan's output, as a
+     *            {@link Filter} would apply them
+     * @param fields the fields of the scan's output to return, as a
+     *            {@link Project} would
+     * @param td the TupleDesc of the returned tuples
+     */
+    public ScanPipeline(SeqScan scan, Predicate[] preds, int[] fields, TupleDesc td) {
+        m_scan = scan;
+        m_preds = preds;
+        m_fields = fields;
+        m_td = td;
+    }
+
+    /**
+     * Fuses a projection of a chain of Filters over a SeqScan of a
+     * HeapFile, or of such a scan itself, into a ScanPipeline.
+     *
+     * @return the pipeline, or p if its child is not such a plan
+     */
+    static DbIterator fuse(Project p) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator source = Filter.chain(p.getChildren()[0], preds);
+        if (!(source instanceof SeqScan))
+            return p;
+        SeqScan scan = (SeqScan) source;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile))
+            return p;
+        ArrayList<Integer> fieldList = p.getFieldList();
+        int[] fields = new int[fieldList.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = fieldList.get(i);
+        return new ScanPipeline(scan, preds.toArray(new Predicate[0]), fields,
+                p.getTupleDesc());
+    }
+
+    /** @return the predicates, on fields of the scan's output */
+    public Predicate[] getPredicates() {
+        return m_preds;
+    }
+
+    /** @return the fields of the scan's output this returns */
+    public int[] getFields() {
+        return m_fields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    private DbFile file() {
+        return Database.getCatalog().getDatabaseFile(m_scan.getTableId());
+    }
+
+    /** @return the table field a field of the scan's output comes from */
+    private int tableField(int field) {
+        int[] columns = m_scan.getColumns();
+        return columns == null ? field : columns[field];
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        DbFile f = file();
+        m_heap = f instanceof HeapFile;
+        if (!m_heap) {
+            m_scan.open();
+            return;
+        }
+        TupleDesc tableTd = f.getTupleDesc();
+
+        // each field the predicates use is read once
+        ArrayList<Integer> predColumns = new ArrayList<Integer>();
+        m_filters = new BatchFilter[m_preds.length];
+        for (int i = 0; i < m_preds.length; i++) {
+            Integer column = tableField(m_preds[i].getField());
+            int c = predColumns.indexOf(column);
+            if (c < 0) {
+                c = predColumns.size();
+                predColumns.add(column);
+            }
+            m_filters[i] = new BatchFilter(new Predicate(c, m_preds[i].getOp(),
+                    m_preds[i].getOperand()), null);
+        }
+        m_predColumns = new int[predColumns.size()];
+        Type[] predTypes = new Type[m_predColumns.length];
+        for (int c = 0; c < m_predColumns.length; c++) {
+            m_predColumns[c] = predColumns.get(c);
+            predTypes[c] = tableTd.getFieldType(m_predColumns[c]);
+        }
+        m_outColumns = new int[m_fields.length];
+        Type[] outTypes = new Type[m_fields.length];
+        for (int c = 0; c < m_fields.length; c++) {
+            m_outColumns[c] = tableField(m_fields[c]);
+            outTypes[c] = tableTd.getFieldType(m_outColumns[c]);
+        }
+        m_predBatch = new TupleBatch(new TupleDesc(predTypes));
+        m_outBatch = new TupleBatch(new TupleDesc(outTypes));
+        m_slots = new int[TupleBatch.DEFAULT_CAPACITY];
+        m_outSlots = new int[TupleBatch.DEFAULT_CAPACITY];
+        m_pages = new PageScan(m_scan.getTransactionId(), (HeapFile) f,
+                m_scan.getPredicates());
+        m_pid = null;
+        m_rows = 0;
+        m_next = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (!m_heap) {
+            m_scan.close();
+            return;
+        }
+        m_predBatch = null;
+        m_outBatch = null;
+        m_pages = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!m_heap) {
+            m_scan.rewind();
+            return;
+        }
+        m_pages.rewind();
+        m_pid = null;
+        m_rows = 0;
+        m_next = 0;
+    }
+
+    /**
+     * Reads the pages after the last one read until one has a tuple that
+     * passes the predicates, leaving the projected fields of the tuples
+     * that pass in m_outBatch.
+     *
+     * @return false if there are no more pages
+     */
+    private boolean readPage() throws DbException, TransactionAbortedException {
+        HeapPage page;
+        while ((page = m_pages.next()) != null) {
+            m_pid = page.getId();
+            int k;
+            synchronized (page) {
+                if (m_slots.length < page.slotCount()) {
+                    m_slots = new int[page.slotCount()];
+                    m_outSlots = new int[page.slotCount()];
+                }
+                int n = page.usedSlots(m_slots);
+                m_predBatch.clear();
+                m_predBatch.ensureCapacity(n);
+                for (int c = 0; c < m_predColumns.length; c++)
+                    page.readColumn(m_slots, n, m_predColumns[c], m_predBatch, c, 0);
+                m_predBatch.setSize(n);
+                k = n;
+                for (int i = 0; i < m_filters.length && k > 0; i++)
+                    k = m_filters[i].select(m_predBatch);
+                if (k == 0)
+                    continue;
+                int[] sel = m_predBatch.selection();
+                for (int i = 0; i < k; i++)
+                    m_outSlots[i] = m_slots[sel[i]];
+                m_outBatch.clear();
+                m_outBatch.ensureCapacity(k);
+                for (int c = 0; c < m_outColumns.length; c++)
+                    page.readColumn(m_outSlots, k, m_outColumns[c], m_outBatch, c, 0);
+                m_outBatch.setSize(k);
+            }
+            m_rows = k;
+            m_next = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Operator.fetchNext implementation.
+     *
+     * @return the projection of the next tuple of the scan that passes
+     *   the predicates, or null if there are no more
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!m_heap) {
+            while (m_scan.hasNext()) {
+                Tuple t = m_scan.next();
+                boolean pass = true;
+                for (int i = 0; i < m_preds.length && pass; i++)
+                    pass = m_preds[i].filter(t);
+                if (!pass)
+                    continue;
+                Tuple out = new Tuple(m_td);
+                for (int i = 0; i < m_fields.length; i++)
+                    out.setField(i, t.getField(m_fields[i]));
+                out.setRecordId(t.getRecordId());
+                return out;
+            }
+            return null;
+        }
+        while (m_next == m_rows) {
+            if (!readPage())
+                return null;
+        }
+        int row = m_next++;
+        Tuple t = new Tuple(m_td);
+        for (int c = 0; c < m_fields.length; c++)
+            t.setField(c, m_outBatch.getField(c, row));
+        t.setRecordId(new RecordId(m_pid, m_outSlots[row]));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_scan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_scan = (SeqScan) children[0];
+    }
+}
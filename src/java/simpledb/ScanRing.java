@@ -0,0 +1,53 @@
+package simpledb;
+
+/**
+ * ScanRing is a small private set of buffer pool frames used by one large
+ * sequential scan (similar to PostgreSQL's BufferAccessStrategy). Once the
+ * ring is full, every page the scan misses on replaces the oldest page the
+ * scan itself brought in, rather than whatever page the pool's replacement
+ * policy would pick. A scan over a table much larger than the pool therefore
+ * only ever occupies {@link #size()} frames and leaves the rest of the working
+ * set alone.
+ * <p>
+ * Pages that were already resident when the scan reached them are not taken
+ * into the ring; they are shared with other queries.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ * @see BufferPool#getScanRing
+ */
+public class ScanRing {
+
+    /** Default upper bound on the number of frames in a ring. */
+    public static final int DEFAULT_RING_PAGES = 16;
+
+    private final PageId[] m_slots;
+    private int m_next;
+
+    /**
+     * @param size the number of frames in the ring; must be at least 1
+     */
+    public ScanRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring size must be at least 1");
+        m_slots = new PageId[size];
+        m_next = 0;
+    }
+
+    /** @return the number of frames in the ring */
+    public int size() {
+        return m_slots.length;
+    }
+
+    /**
+     * Records that the scan read pid into the ring.
+     *
+     * @return the page that pid displaces from the ring, or null if the ring
+     *   still had room
+     */
+    PageId add(PageId pid) {
+        PageId displaced = m_slots[m_next];
+        m_slots[m_next] = pid;
+        m_next = (m_next + 1) % m_slots.length;
+        return displaced;
+    }
+}
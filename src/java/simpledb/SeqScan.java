@@ -16,6 +16,11 @@ public class SeqScan implements DbIterator {
     private String m_tableAlias;
     private DbFile m_hFile;
     private DbFileIterator m_dbiterator;
+    // the table's fields this scan returns, or null for all of them
+    private int[] m_columns;
+    private TupleDesc m_projectedTd;
+    // predicates on table fields used to skip pages, or null
+    private Predicate[] m_preds;
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -34,12 +39,51 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the table's
+     * fields. Tuples are read lazily from their pages, so the fields that
+     * are left out are never decoded; on {@link PageFormat#PAX} pages their
+     * columns are not even touched, and a {@link ColumnFile} does not read
+     * their files.
+     *
+     * @param columns the indices of the table fields to return, in the
+     *            order they should appear in the output; null for all fields
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan that may skip the pages of a
+     * {@link HeapFile} that its zone map shows cannot hold a tuple
+     * satisfying all of the given predicates (see
+     * {@link HeapFile#iterator(TransactionId, Predicate[])}). The scan
+     * does not filter the tuples it returns; a {@link Filter} above it
+     * still has to apply the predicates.
+     *
+     * @param preds predicates on fields of the table (not of the scan's
+     *            output), or null
+     * @see #SeqScan(TransactionId, int, String, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            Predicate[] preds) {
         m_transId = tid;
         m_tableAlias = tableAlias;
         m_tableId = tableid;
+        m_columns = columns;
+        m_preds = preds;
         m_hFile = Database.getCatalog().getDatabaseFile(tableid);
         //m_dbiterator = new HeapFileIterator(m_hFile.getId(), m_transId, m_hFile.numPages());
-        m_dbiterator = m_hFile.iterator(m_transId);
+        if (m_hFile instanceof ColumnFile)
+            m_dbiterator = ((ColumnFile) m_hFile).iterator(m_transId, columns);
+        else if (m_hFile instanceof HeapFile && preds != null && preds.length > 0)
+            m_dbiterator = ((HeapFile) m_hFile).iterator(m_transId, preds);
+        else
+            m_dbiterator = m_hFile.iterator(m_transId);
     }
 
     /**
@@ -51,6 +95,16 @@ public class SeqScan implements DbIterator {
     	return Database.getCatalog().getTableName(m_tableId);
     }
     
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return m_tableId;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return m_transId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -74,6 +128,7 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         m_tableId = tableid;
         m_tableAlias = tableAlias;
+        m_projectedTd = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -96,23 +151,69 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
     	TupleDesc origTupleDesc = Database.getCatalog().getTupleDesc(m_tableId);
-    	int tdSize = origTupleDesc.numFields();
+    	int tdSize = m_columns == null ? origTupleDesc.numFields() : m_columns.length;
     	Type [] newTypes = new Type[tdSize];
     	String [] newFields = new String[tdSize];
     	for (int i = 0; i < tdSize; i++){
-    		newTypes[i] = origTupleDesc.getFieldType(i);
-    		newFields[i] = m_tableAlias + "." + origTupleDesc.getFieldName(i);
+    		int field = m_columns == null ? i : m_columns[i];
+    		newTypes[i] = origTupleDesc.getFieldType(field);
+    		newFields[i] = m_tableAlias + "." + origTupleDesc.getFieldName(field);
     	}
     	return new TupleDesc(newTypes, newFields);
     }
 
+    /**
+     * @return the indices of the table fields this scan returns, or null if
+     *   it returns all of them
+     */
+    public int[] getColumns() {
+        return m_columns;
+    }
+
+    /**
+     * @return the predicates this scan skips pages by, or null if it reads
+     *   every page
+     */
+    public Predicate[] getPredicates() {
+        return m_preds;
+    }
+
+    /**
+     * Merges one of this scan's output fields into an aggregate straight
+     * from the table's encoded column segments, if the table is a
+     * {@link ColumnFile}, without producing any tuples.
+     *
+     * @param field the index of an int field in this scan's TupleDesc
+     * @return true if the column was merged, false (having done nothing)
+     *   if the table is not a ColumnFile
+     */
+    boolean mergeColumn(int field, IntegerAggregator agg)
+        throws DbException, TransactionAbortedException {
+        if (!(m_hFile instanceof ColumnFile))
+            return false;
+        ColumnFile cf = (ColumnFile) m_hFile;
+        int column = m_columns == null ? field : m_columns[field];
+        for (int g = 0; g < cf.numGroups(); g++)
+            agg.mergeSegment(cf.getSegment(m_transId, g, column));
+        return true;
+    }
+
     public boolean hasNext() throws TransactionAbortedException, DbException {
         return m_dbiterator.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return m_dbiterator.next();
+        Tuple t = m_dbiterator.next();
+        if (m_columns == null)
+            return t;
+        if (m_projectedTd == null)
+            m_projectedTd = getTupleDesc();
+        Tuple out = new Tuple(m_projectedTd);
+        for (int i = 0; i < m_columns.length; i++)
+            out.setField(i, t.getField(m_columns[i]));
+        out.setRecordId(t.getRecordId());
+        return out;
     }
 
     public void close() {
@@ -7,6 +7,29 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // convert [--threads n] [--pagesize bytes] [--columnar] file.txt numAttrs [types [separator]]
+            int threads = 1;
+            int pageSize = BufferPool.getPageSize();
+            boolean columnar = false;
+            while (args.length > 2 && args[1].startsWith("--")) {
+                int used = 2;
+                if (args[1].equals("--threads"))
+                    threads = Integer.parseInt(args[2]);
+                else if (args[1].equals("--pagesize"))
+                    pageSize = Integer.parseInt(args[2]);
+                else if (args[1].equals("--columnar")) {
+                    columnar = true;
+                    used = 1;
+                }
+                else {
+                    System.err.println("Unknown option " + args[1]);
+                    return;
+                }
+                String[] rest = new String[args.length - used];
+                rest[0] = args[0];
+                System.arraycopy(args, 1 + used, rest, 1, args.length - 1 - used);
+                args = rest;
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -43,8 +66,25 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (columnar) {
+                // encode a heap file first, then split it into columns
+                File heapFile = File.createTempFile("convert", ".dat");
+                heapFile.deleteOnExit();
+                HeapFileEncoder.convert(sourceTxtFile,heapFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator,threads);
+                HeapFile hf = new HeapFile(heapFile, new TupleDesc(ts), PageFormat.FIXED, pageSize);
+                Database.getCatalog().addTable(hf, "convert");
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, hf.getId());
+                scan.open();
+                ColumnFile.write(targetDatFile, hf.getTupleDesc(), scan);
+                scan.close();
+                Database.getBufferPool().transactionComplete(tid);
+                hf.close();
+            } else {
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator,threads);
+            }
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,241 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A HeapPage that stores variable-length records behind a slot directory,
+ * so that short strings do not take up the full {@link Type#STRING_LEN}
+ * bytes of a fixed-length slot. The page image is laid out as:
+ * <ul>
+ * <li>a 4 byte count of directory entries, and the 4 byte offset where the
+ * record area starts (0 meaning the end of the page);
+ * <li>one 4 byte directory entry per slot: the 2 byte offset and 2 byte
+ * length of the record, both unsigned, offset 0 marking an empty slot;
+ * <li>free space;
+ * <li>the records, packed towards the end of the page in the
+ * variable-length encoding of {@link Type#serialize(Field, DataOutputStream,
+ * boolean)}.
+ * </ul>
+ * An all-zero image is an empty page. Slot numbers (and so RecordIds) do
+ * not change when records are moved to reclaim the space of deleted ones.
+ * <p>
+ * A slot counts as empty in {@link #getNumEmptySlots} only while a record
+ * of the largest possible size still fits, so the count is what can
+ * always be inserted; shorter records may fit after it reaches 0.
+ *
+ * @see PageFormat#SLOTTED
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 4;
+
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+    }
+
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    int slotCount() {
+        return image().getInt(0);
+    }
+
+    /** @return the offset of the first byte of the record area */
+    private int dataStart() {
+        int start = image().getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    private int recordOffset(int slotId) {
+        return image().getShort(HEADER_SIZE + slotId * ENTRY_SIZE) & 0xffff;
+    }
+
+    private int recordLength(int slotId) {
+        return image().getShort(HEADER_SIZE + slotId * ENTRY_SIZE + 2) & 0xffff;
+    }
+
+    private void setEntry(int slotId, int offset, int length) {
+        ByteBuffer data = image();
+        data.putShort(HEADER_SIZE + slotId * ENTRY_SIZE, (short) offset);
+        data.putShort(HEADER_SIZE + slotId * ENTRY_SIZE + 2, (short) length);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < slotCount() && recordOffset(i) != 0;
+    }
+
+    /** Fields are found by walking the record, since their sizes vary. */
+    synchronized Field readField(int slotId, int fieldIndex) {
+        ByteBuffer bb = image().duplicate();
+        bb.position(recordOffset(slotId));
+        try {
+            for (int i = 0; i < fieldIndex; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    bb.position(bb.position() + 4);
+                else
+                    bb.position(bb.position() + 2 + (bb.getShort() & 0xffff));
+            }
+            return td.getFieldType(fieldIndex).parse(bb, true);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    int usedSlots(int[] slots) {
+        int n = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (isSlotUsed(i))
+                slots[n++] = i;
+        }
+        return n;
+    }
+
+    void readColumn(int[] slots, int n, int field, TupleBatch batch, int c, int from) {
+        for (int i = 0; i < n; i++)
+            batch.putField(c, from + i, readField(slots[i], field));
+    }
+
+    /**
+     * @return the bytes not used by the header, the directory or live
+     *   records, including the holes left by deleted records
+     */
+    private int freeBytes() {
+        int count = slotCount();
+        int used = HEADER_SIZE + count * ENTRY_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (recordOffset(i) != 0)
+                used += recordLength(i);
+        }
+        return pageSize - used;
+    }
+
+    public synchronized int getNumEmptySlots() {
+        int count = slotCount();
+        int emptyEntries = 0;
+        for (int i = 0; i < count; i++) {
+            if (recordOffset(i) == 0)
+                emptyEntries++;
+        }
+        int free = freeBytes();
+        int n = 0;
+        while (true) {
+            int need = td.getSize() + (n < emptyEntries ? 0 : ENTRY_SIZE);
+            if (free < need)
+                return n;
+            free -= need;
+            n++;
+        }
+    }
+
+    public int availableTuples() {
+        int n = 0;
+        for (int i = 0; i < slotCount(); i++) {
+            if (isSlotUsed(i))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Moves the live records to the end of the page, closing the holes
+     * left by deleted records.
+     */
+    private void compact() {
+        ByteBuffer data = image();
+        byte[] records = new byte[pageSize];
+        int end = records.length;
+        int count = slotCount();
+        for (int i = 0; i < count; i++) {
+            int offset = recordOffset(i);
+            if (offset == 0)
+                continue;
+            int length = recordLength(i);
+            end -= length;
+            ByteBuffer src = data.duplicate();
+            src.position(offset);
+            src.get(records, end, length);
+            setEntry(i, end, length);
+        }
+        int dirEnd = HEADER_SIZE + count * ENTRY_SIZE;
+        ByteBuffer dst = data.duplicate();
+        dst.position(dirEnd);
+        dst.put(records, dirEnd, records.length - dirEnd);
+        data.putInt(4, end);
+    }
+
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !this.pid.equals(rid.getPageId()))
+            throw new DbException("Tuple not on page.");
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("Tuple slot already empty.");
+        forget(slot, t);
+        beforeWrite();
+        ByteBuffer data = image();
+        int offset = recordOffset(slot);
+        for (int i = 0; i < recordLength(slot); i++)
+            data.put(offset + i, (byte) 0);
+        setEntry(slot, 0, 0);
+        // trailing empty entries are not referenced by any RecordId
+        int count = slotCount();
+        while (count > 0 && recordOffset(count - 1) == 0)
+            count--;
+        data.putInt(0, count);
+        if (count == 0)
+            data.putInt(4, 0);
+    }
+
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc mismatch.");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                td.getFieldType(j).serialize(t.getField(j), dos, true);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+        byte[] record = baos.toByteArray();
+
+        int count = slotCount();
+        int slot = count;
+        for (int i = 0; i < count; i++) {
+            if (recordOffset(i) == 0) {
+                slot = i;
+                break;
+            }
+        }
+        int dirEnd = HEADER_SIZE + (slot == count ? count + 1 : count) * ENTRY_SIZE;
+        if (freeBytes() - (dirEnd - HEADER_SIZE - count * ENTRY_SIZE) < record.length)
+            throw new DbException("Page is full.");
+
+        beforeWrite();
+        if (dataStart() - dirEnd < record.length)
+            compact();
+        ByteBuffer data = image();
+        int offset = dataStart() - record.length;
+        ByteBuffer dst = data.duplicate();
+        dst.position(offset);
+        dst.put(record);
+        data.putInt(4, offset);
+        if (slot == count)
+            data.putInt(0, count + 1);
+        setEntry(slot, offset, record.length);
+
+        t.setRecordId(new RecordId(this.pid, slot));
+        remember(slot, t);
+    }
+}
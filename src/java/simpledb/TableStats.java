@@ -227,9 +227,30 @@ public class TableStats {
         // some code goes here
         // replace this.file with the db_file variable
         // replace this.iocostperpage
+        if (this.file instanceof ColumnFile)
+            return ((ColumnFile)this.file).numPages() * this.iocostperpage;
+        if (this.file instanceof BTreeFile)
+            return ((BTreeFile)this.file).numPages() * this.iocostperpage;
+        if (this.file instanceof HashIndexFile)
+            return ((HashIndexFile)this.file).numPages() * this.iocostperpage;
         return ((HeapFile)this.file).numPages() * this.iocostperpage;
     }
 
+    /**
+     * Estimates the cost of fetching the tuples that satisfy a predicate
+     * through a secondary index instead of scanning the table: one page
+     * read per matching tuple, as they may all be on different pages, plus
+     * one for the index.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index applies
+     * @return The estimated cost of the index scan, comparable with
+     *         {@link #estimateScanCost}
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        return (estimateTableCardinality(selectivityFactor) + 1) * this.iocostperpage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
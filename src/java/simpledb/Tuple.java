@@ -32,6 +32,17 @@ public class Tuple implements Serializable {
         // some code goes here
     }
 
+    /**
+     * Create a new tuple whose field array is only allocated when the first
+     * field is set. Used by tuples that decode their fields on demand.
+     */
+    Tuple(TupleDesc td, boolean deferFields) {
+    	assert (td.numFields() > 0);
+    	m_td = td;
+    	if (!deferFields)
+    		m_fields = new Field[td.numFields()];
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -71,7 +82,9 @@ public class Tuple implements Serializable {
     public void setField(int i, Field f) {
         // some code goes here
     	assert (i >= 0);
-    	assert (i < m_fields.length);
+    	assert (i < m_td.numFields());
+    	if (m_fields == null)
+    		m_fields = new Field[m_td.numFields()];
     	m_fields[i] = f;
     }
 
@@ -84,8 +97,8 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // some code goes here
     	assert (i >= 0);
-    	assert (i < m_fields.length);
-        return m_fields[i];
+    	assert (i < m_td.numFields());
+        return m_fields == null ? null : m_fields[i];
     }
 
     /**
@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds a batch of rows of a TupleDesc column by column, for
+ * the batch operators (see {@link BatchIterator}). Each int field is an
+ * <tt>int[]</tt> vector with one entry per row; each string field is one
+ * byte array holding the strings of all rows back to back, with an array
+ * of offsets saying where each row's string starts. Batches are passed
+ * from operator to operator without making a Tuple or a Field per row.
+ * <p>
+ * A batch also has a selection vector: the ascending indices of the rows
+ * that are still part of it. A filter narrows the selection instead of
+ * moving rows, and operators only look at the selected rows. A batch with
+ * no selection vector has all of its rows selected.
+ * <p>
+ * Rows are written through the <tt>put</tt> methods, in row order for
+ * string fields, and then {@link #setSize} makes them part of the batch.
+ */
+public class TupleBatch {
+
+    /** the number of rows operators put in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc m_td;
+    // m_ints[c][r] is int field c of row r; null for string fields
+    private int[][] m_ints;
+    // string field c of row r is m_chars[c][m_offsets[c][r] .. m_offsets[c][r + 1])
+    private byte[][] m_chars;
+    private int[][] m_offsets;
+    private int m_capacity;
+    private int m_size;
+    // the selected rows, or null if all are
+    private int[] m_sel;
+    private int m_numSelected;
+    // 0, 1, 2, ...: the selection of a batch with no selection vector
+    private int[] m_identity;
+
+    /**
+     * Creates an empty batch with room for the given number of rows; it
+     * grows if more are put in it.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        m_td = td;
+        int n = td.numFields();
+        m_ints = new int[n][];
+        m_chars = new byte[n][];
+        m_offsets = new int[n][];
+        m_capacity = 0;
+        ensureCapacity(Math.max(1, capacity));
+    }
+
+    /** Creates an empty batch with room for {@link #DEFAULT_CAPACITY} rows. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the number of rows the batch holds without growing */
+    public int capacity() {
+        return m_capacity;
+    }
+
+    /** Makes room for the given number of rows, keeping the rows there are. */
+    public void ensureCapacity(int rows) {
+        if (rows <= m_capacity)
+            return;
+        int capacity = Math.max(rows, 2 * m_capacity);
+        for (int c = 0; c < m_td.numFields(); c++) {
+            if (m_td.getFieldType(c) == Type.INT_TYPE) {
+                m_ints[c] = m_ints[c] == null ? new int[capacity]
+                        : Arrays.copyOf(m_ints[c], capacity);
+            } else {
+                m_offsets[c] = m_offsets[c] == null ? new int[capacity + 1]
+                        : Arrays.copyOf(m_offsets[c], capacity + 1);
+                if (m_chars[c] == null)
+                    m_chars[c] = new byte[capacity * 8];
+            }
+        }
+        m_capacity = capacity;
+    }
+
+    /** Empties the batch, so that rows can be put in it from row 0. */
+    public void clear() {
+        m_size = 0;
+        m_sel = null;
+        m_numSelected = 0;
+    }
+
+    /**
+     * Sets the number of rows in the batch, all of which are selected.
+     */
+    public void setSize(int rows) {
+        m_size = rows;
+        m_sel = null;
+        m_numSelected = rows;
+    }
+
+    /** @return the number of rows in the batch, selected or not */
+    public int size() {
+        return m_size;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return m_numSelected;
+    }
+
+    /**
+     * @return the indices of the selected rows in ascending order; only
+     *   the first {@link #numSelected} entries are meaningful. The array
+     *   must not be changed.
+     */
+    public int[] selection() {
+        if (m_sel != null)
+            return m_sel;
+        if (m_identity == null || m_identity.length < m_size) {
+            m_identity = new int[Math.max(m_size, m_capacity)];
+            for (int i = 0; i < m_identity.length; i++)
+                m_identity[i] = i;
+        }
+        return m_identity;
+    }
+
+    /**
+     * Narrows the selection to the first n rows listed in sel, which must
+     * be selected rows in ascending order. The batch keeps the array, so
+     * the caller must not change it until the batch is cleared.
+     */
+    public void setSelection(int[] sel, int n) {
+        m_sel = sel;
+        m_numSelected = n;
+    }
+
+    /**
+     * Makes this batch show some fields of another, without copying them:
+     * field i of this batch is field fields[i] of src, and the rows and
+     * selection are those of src. The view is only valid until src
+     * changes.
+     */
+    public void viewOf(TupleBatch src, int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            m_ints[i] = src.m_ints[fields[i]];
+            m_chars[i] = src.m_chars[fields[i]];
+            m_offsets[i] = src.m_offsets[fields[i]];
+        }
+        m_capacity = src.m_capacity;
+        m_size = src.m_size;
+        m_sel = src.selection();
+        m_numSelected = src.m_numSelected;
+    }
+
+    /**
+     * @return the vector of an int field, indexed by row; null for a
+     *   string field
+     */
+    public int[] ints(int field) {
+        return m_ints[field];
+    }
+
+    public int getInt(int field, int row) {
+        return m_ints[field][row];
+    }
+
+    public void putInt(int field, int row, int value) {
+        m_ints[field][row] = value;
+    }
+
+    /** @return the length in bytes of a row's string field */
+    public int stringLength(int field, int row) {
+        return m_offsets[field][row + 1] - m_offsets[field][row];
+    }
+
+    public String getString(int field, int row) {
+        int start = m_offsets[field][row];
+        return new String(m_chars[field], start, m_offsets[field][row + 1] - start);
+    }
+
+    /** Makes room for len more bytes of a string field after those of row. */
+    private byte[] reserve(int field, int row, int len) {
+        int end = m_offsets[field][row] + len;
+        if (end > m_chars[field].length)
+            m_chars[field] = Arrays.copyOf(m_chars[field],
+                    Math.max(end, 2 * m_chars[field].length));
+        m_offsets[field][row + 1] = end;
+        return m_chars[field];
+    }
+
+    /**
+     * Sets a row's string field to bytes of a buffer, leaving the buffer's
+     * position alone. Rows must be put in order.
+     */
+    public void putString(int field, int row, ByteBuffer data, int offset, int len) {
+        byte[] chars = reserve(field, row, len);
+        int start = m_offsets[field][row];
+        if (data.hasArray()) {
+            System.arraycopy(data.array(), data.arrayOffset() + offset, chars, start, len);
+        } else {
+            for (int i = 0; i < len; i++)
+                chars[start + i] = data.get(offset + i);
+        }
+    }
+
+    /** Sets a row's string field to some bytes. Rows must be put in order. */
+    public void putString(int field, int row, byte[] value, int offset, int len) {
+        byte[] chars = reserve(field, row, len);
+        System.arraycopy(value, offset, chars, m_offsets[field][row], len);
+    }
+
+    /**
+     * @return a string as it is stored on a page: the low byte of each
+     *   character, cut to {@link Type#STRING_LEN} characters
+     */
+    static byte[] bytesOf(String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    /** Sets a row's field to a Field's value. Rows must be put in order. */
+    public void putField(int field, int row, Field f) {
+        if (m_ints[field] != null) {
+            m_ints[field][row] = ((IntField) f).getValue();
+        } else {
+            byte[] b = bytesOf(((StringField) f).getValue());
+            putString(field, row, b, 0, b.length);
+        }
+    }
+
+    /**
+     * Sets a row's field to a field of a row of another batch, of the same
+     * type. Rows must be put in order.
+     */
+    public void copyValue(int field, int row, TupleBatch src, int srcField, int srcRow) {
+        if (m_ints[field] != null) {
+            m_ints[field][row] = src.m_ints[srcField][srcRow];
+        } else {
+            int start = src.m_offsets[srcField][srcRow];
+            putString(field, row, src.m_chars[srcField], start,
+                    src.m_offsets[srcField][srcRow + 1] - start);
+        }
+    }
+
+    /** @return true if a row's string field holds exactly the given bytes */
+    public boolean stringEquals(int field, int row, byte[] value) {
+        int start = m_offsets[field][row];
+        if (m_offsets[field][row + 1] - start != value.length)
+            return false;
+        byte[] chars = m_chars[field];
+        for (int i = 0; i < value.length; i++) {
+            if (chars[start + i] != value[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a row's field equals a field of a row of another
+     *   batch, of the same type
+     */
+    public boolean valueEquals(int field, int row, TupleBatch other, int otherField, int otherRow) {
+        if (m_ints[field] != null)
+            return m_ints[field][row] == other.m_ints[otherField][otherRow];
+        int start = other.m_offsets[otherField][otherRow];
+        int len = other.m_offsets[otherField][otherRow + 1] - start;
+        int mine = m_offsets[field][row];
+        if (m_offsets[field][row + 1] - mine != len)
+            return false;
+        byte[] a = m_chars[field], b = other.m_chars[otherField];
+        for (int i = 0; i < len; i++) {
+            if (a[mine + i] != b[start + i])
+                return false;
+        }
+        return true;
+    }
+
+    /** @return a hash of a row's field; equal values hash alike in any batch */
+    public int hash(int field, int row) {
+        int h;
+        if (m_ints[field] != null) {
+            h = m_ints[field][row];
+        } else {
+            h = 0;
+            byte[] chars = m_chars[field];
+            for (int i = m_offsets[field][row]; i < m_offsets[field][row + 1]; i++)
+                h = 31 * h + chars[i];
+        }
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return a row's field as a Field */
+    public Field getField(int field, int row) {
+        if (m_ints[field] != null)
+            return new IntField(m_ints[field][row]);
+        return new StringField(getString(field, row), Type.STRING_LEN);
+    }
+
+    /** @return a row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(m_td);
+        for (int c = 0; c < m_td.numFields(); c++)
+            t.setField(c, getField(c, row));
+        return t;
+    }
+}
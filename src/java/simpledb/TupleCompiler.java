@@ -0,0 +1,453 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TupleCompiler generates classes at run time that apply a chain of
+ * filters and a projection to tuples (see {@link CompiledTupleFunction}),
+ * so that a query does not go through {@link Predicate#filter} and the
+ * <tt>switch</tt> on its operator in {@link Field#compare} for every row
+ * and every predicate. A predicate on an int field with an IntField
+ * operand becomes an inlined load and a single compare-and-branch
+ * against a final field holding the constant; a projection becomes a
+ * straight run of <tt>setField</tt> calls. Other predicates call
+ * {@link Predicate#filter}.
+ * <p>
+ * The class file is written by hand, with no library, and defined through
+ * a {@link ClassLoader} of its own. It has class file version 49, which
+ * needs no stack map frames. Classes are cached by the shape of the chain
+ * (the fields, types and operators, not the constants), so running the
+ * same query again, or with other constants, reuses its class. The cache
+ * holds the classes of the {@link #MAX_CACHED} most recently used shapes;
+ * a class dropped from it can be unloaded once no operator uses it.
+ * <p>
+ * Compilation is on unless the {@link #COMPILE_PROPERTY} system property
+ * is <tt>false</tt>. If a class cannot be generated or loaded, the
+ * operators log the error once and interpret their predicates.
+ *
+ * @see Filter
+ * @see Project
+ */
+public class TupleCompiler {
+
+    /**
+     * System property that, set to <tt>false</tt>, makes Filter and Project
+     * interpret their predicates.
+     */
+    public static final String COMPILE_PROPERTY = "simpledb.compile";
+
+    /** Whether Filter and Project compile their predicates by default. */
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty(COMPILE_PROPERTY));
+
+    /** The number of shapes whose classes are cached. */
+    static final int MAX_CACHED = 256;
+
+    // shape of a chain -> the constructor of its class
+    private static final Map<String, Constructor<?>> s_cache =
+        new LinkedHashMap<String, Constructor<?>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Constructor<?>> eldest) {
+                return size() > MAX_CACHED;
+            }
+        };
+    private static int s_classes = 0;
+    // whether a failure to compile has been logged
+    private static boolean s_warned = false;
+
+    private static final String BASE = "simpledb/CompiledTupleFunction";
+    private static final String TUPLE = "simpledb/Tuple";
+    private static final String PREDICATE = "simpledb/Predicate";
+    private static final String INT_FIELD = "simpledb/IntField";
+
+    /**
+     * @return true if a predicate on a tuple of td is compiled into a
+     *   compare instruction rather than a call to Predicate.filter
+     */
+    private static boolean inlined(TupleDesc td, Predicate p) {
+        return td.getFieldType(p.getField()) == Type.INT_TYPE
+                && p.getOperand() instanceof IntField;
+    }
+
+    /**
+     * Returns a function applying some predicates, in order, and then a
+     * projection to tuples of a TupleDesc.
+     *
+     * @param td the TupleDesc of the tuples the function is applied to
+     * @param preds the predicates
+     * @param projection the fields of td to project out, or null for none
+     * @param outTd the TupleDesc of projected tuples; ignored if projection
+     *            is null
+     * @throws DbException if the class cannot be generated
+     */
+    public static CompiledTupleFunction compile(TupleDesc td, Predicate[] preds,
+            int[] projection, TupleDesc outTd) throws DbException {
+        StringBuilder key = new StringBuilder();
+        for (Predicate p : preds) {
+            key.append(p.getField());
+            key.append(inlined(td, p) ? p.getOp().toString() : "?");
+            key.append(',');
+        }
+        key.append(projection == null ? "*" : Arrays.toString(projection));
+        Constructor<?> ctor;
+        synchronized (s_cache) {
+            ctor = s_cache.get(key.toString());
+            if (ctor == null) {
+                String name = "simpledb/CompiledTupleFunction" + (s_classes++);
+                byte[] code = generate(name, td, preds, projection);
+                try {
+                    Class<?> c = new Loader().define(name.replace('/', '.'), code);
+                    ctor = c.getConstructor(Predicate[].class, TupleDesc.class);
+                } catch (Exception e) {
+                    throw new DbException("could not compile " + Arrays.toString(preds)
+                            + ": " + e);
+                } catch (LinkageError e) {
+                    throw new DbException("could not compile " + Arrays.toString(preds)
+                            + ": " + e);
+                }
+                s_cache.put(key.toString(), ctor);
+            }
+        }
+        try {
+            return (CompiledTupleFunction) ctor.newInstance(preds.clone(),
+                    projection == null ? null : outTd);
+        } catch (Exception e) {
+            throw new DbException("could not instantiate " + ctor.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * Like {@link #compile}, but logs a failure, the first time there is
+     * one, instead of throwing.
+     *
+     * @return the function, or null if the caller should interpret the
+     *   predicates
+     */
+    static CompiledTupleFunction tryCompile(TupleDesc td, Predicate[] preds,
+            int[] projection, TupleDesc outTd) {
+        try {
+            return compile(td, preds, projection, outTd);
+        } catch (DbException e) {
+            warn(e);
+        } catch (RuntimeException e) {
+            warn(e);
+        }
+        return null;
+    }
+
+    private static synchronized void warn(Exception e) {
+        if (s_warned)
+            return;
+        s_warned = true;
+        System.err.println("TupleCompiler: interpreting predicates: " + e.getMessage());
+    }
+
+    /** Each generated class gets a loader, so that it can be unloaded. */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(TupleCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+    /**
+     * @return the class file of a subclass of CompiledTupleFunction with a
+     *   constructor (Predicate[], TupleDesc) and an apply method for the
+     *   chain
+     */
+    private static byte[] generate(String name, TupleDesc td, Predicate[] preds,
+            int[] projection) {
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef(name);
+        int superClass = cp.classRef(BASE);
+        int code = cp.utf8("Code");
+
+        // int constants of the inlined predicates, c0, c1, ...
+        Bytes fields = new Bytes();
+        int numFields = 0;
+        for (int i = 0; i < preds.length; i++) {
+            if (!inlined(td, preds[i]))
+                continue;
+            fields.u2(0x0012); // private final
+            fields.u2(cp.utf8("c" + i));
+            fields.u2(cp.utf8("I"));
+            fields.u2(0);
+            numFields++;
+        }
+
+        // constructor: super(preds, td), then ci = preds[i].getOperand().getValue()
+        Bytes init = new Bytes();
+        init.u1(0x2a); // aload_0
+        init.u1(0x2b); // aload_1
+        init.u1(0x2c); // aload_2
+        init.u1(0xb7); // invokespecial
+        init.u2(cp.methodRef(BASE, "<init>", "([L" + PREDICATE + ";Lsimpledb/TupleDesc;)V"));
+        for (int i = 0; i < preds.length; i++) {
+            if (!inlined(td, preds[i]))
+                continue;
+            init.u1(0x2a); // aload_0
+            init.u1(0x2b); // aload_1
+            init.pushInt(i);
+            init.u1(0x32); // aaload
+            init.u1(0xb6); // invokevirtual
+            init.u2(cp.methodRef(PREDICATE, "getOperand", "()Lsimpledb/Field;"));
+            init.u1(0xc0); // checkcast
+            init.u2(cp.classRef(INT_FIELD));
+            init.u1(0xb6); // invokevirtual
+            init.u2(cp.methodRef(INT_FIELD, "getValue", "()I"));
+            init.u1(0xb5); // putfield
+            init.u2(cp.fieldRef(name, "c" + i, "I"));
+        }
+        init.u1(0xb1); // return
+
+        // apply(t): return null on the first failing predicate, then project
+        Bytes apply = new Bytes();
+        int[] failJumps = new int[preds.length];
+        for (int i = 0; i < preds.length; i++) {
+            Predicate p = preds[i];
+            if (inlined(td, p)) {
+                apply.u1(0x2b); // aload_1
+                apply.pushInt(p.getField());
+                apply.u1(0xb6); // invokevirtual
+                apply.u2(cp.methodRef(TUPLE, "getField", "(I)Lsimpledb/Field;"));
+                apply.u1(0xc0); // checkcast
+                apply.u2(cp.classRef(INT_FIELD));
+                apply.u1(0xb6); // invokevirtual
+                apply.u2(cp.methodRef(INT_FIELD, "getValue", "()I"));
+                apply.u1(0x2a); // aload_0
+                apply.u1(0xb4); // getfield
+                apply.u2(cp.fieldRef(name, "c" + i, "I"));
+                failJumps[i] = apply.size();
+                apply.u1(failIfNot(p.getOp()));
+                apply.u2(0);
+            } else {
+                apply.u1(0x2a); // aload_0
+                apply.u1(0xb4); // getfield
+                apply.u2(cp.fieldRef(BASE, "m_preds", "[L" + PREDICATE + ";"));
+                apply.pushInt(i);
+                apply.u1(0x32); // aaload
+                apply.u1(0x2b); // aload_1
+                apply.u1(0xb6); // invokevirtual
+                apply.u2(cp.methodRef(PREDICATE, "filter", "(L" + TUPLE + ";)Z"));
+                failJumps[i] = apply.size();
+                apply.u1(0x99); // ifeq
+                apply.u2(0);
+            }
+        }
+        if (projection == null) {
+            apply.u1(0x2b); // aload_1
+        } else {
+            apply.u1(0xbb); // new
+            apply.u2(cp.classRef(TUPLE));
+            apply.u1(0x59); // dup
+            apply.u1(0x2a); // aload_0
+            apply.u1(0xb4); // getfield
+            apply.u2(cp.fieldRef(BASE, "m_td", "Lsimpledb/TupleDesc;"));
+            apply.u1(0xb7); // invokespecial
+            apply.u2(cp.methodRef(TUPLE, "<init>", "(Lsimpledb/TupleDesc;)V"));
+            apply.u1(0x4d); // astore_2
+            for (int i = 0; i < projection.length; i++) {
+                apply.u1(0x2c); // aload_2
+                apply.pushInt(i);
+                apply.u1(0x2b); // aload_1
+                apply.pushInt(projection[i]);
+                apply.u1(0xb6); // invokevirtual
+                apply.u2(cp.methodRef(TUPLE, "getField", "(I)Lsimpledb/Field;"));
+                apply.u1(0xb6); // invokevirtual
+                apply.u2(cp.methodRef(TUPLE, "setField", "(ILsimpledb/Field;)V"));
+            }
+            apply.u1(0x2c); // aload_2
+            apply.u1(0x2b); // aload_1
+            apply.u1(0xb6); // invokevirtual
+            apply.u2(cp.methodRef(TUPLE, "getRecordId", "()Lsimpledb/RecordId;"));
+            apply.u1(0xb6); // invokevirtual
+            apply.u2(cp.methodRef(TUPLE, "setRecordId", "(Lsimpledb/RecordId;)V"));
+            apply.u1(0x2c); // aload_2
+        }
+        apply.u1(0xb0); // areturn
+        int fail = apply.size();
+        apply.u1(0x01); // aconst_null
+        apply.u1(0xb0); // areturn
+        for (int at : failJumps)
+            apply.patch2(at + 1, fail - at);
+
+        int initName = cp.utf8("<init>");
+        int initDesc = cp.utf8("([L" + PREDICATE + ";Lsimpledb/TupleDesc;)V");
+        int applyName = cp.utf8("apply");
+        int applyDesc = cp.utf8("(L" + TUPLE + ";)L" + TUPLE + ";");
+
+        Bytes out = new Bytes();
+        out.u4(0xcafebabe);
+        out.u2(0);
+        out.u2(49);
+        cp.writeTo(out);
+        out.u2(0x0031); // public final super
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0); // interfaces
+        out.u2(numFields);
+        out.append(fields);
+        out.u2(2); // methods
+        method(out, 0x0001, initName, initDesc, code, 4, 3, init);
+        method(out, 0x0001, applyName, applyDesc, code, 4, 3, apply);
+        out.u2(0); // attributes
+        return out.toByteArray();
+    }
+
+    /** @return the opcode that branches when a comparison with op fails */
+    private static int failIfNot(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return 0xa0; // if_icmpne
+        case NOT_EQUALS:
+            return 0x9f; // if_icmpeq
+        case GREATER_THAN:
+            return 0xa4; // if_icmple
+        case GREATER_THAN_OR_EQ:
+            return 0xa1; // if_icmplt
+        case LESS_THAN:
+            return 0xa2; // if_icmpge
+        case LESS_THAN_OR_EQ:
+            return 0xa3; // if_icmpgt
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    private static void method(Bytes out, int access, int name, int descriptor, int codeAttr,
+            int maxStack, int maxLocals, Bytes code) {
+        out.u2(access);
+        out.u2(name);
+        out.u2(descriptor);
+        out.u2(1); // attributes
+        out.u2(codeAttr);
+        out.u4(12 + code.size());
+        out.u2(maxStack);
+        out.u2(maxLocals);
+        out.u4(code.size());
+        out.append(code);
+        out.u2(0); // exception table
+        out.u2(0); // attributes
+    }
+
+    /** A growable big-endian byte array. */
+    private static class Bytes {
+        private byte[] m_data = new byte[256];
+        private int m_size = 0;
+
+        int size() {
+            return m_size;
+        }
+
+        void u1(int b) {
+            if (m_size == m_data.length)
+                m_data = Arrays.copyOf(m_data, 2 * m_data.length);
+            m_data[m_size++] = (byte) b;
+        }
+
+        void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void patch2(int at, int v) {
+            m_data[at] = (byte) (v >> 8);
+            m_data[at + 1] = (byte) v;
+        }
+
+        /** Emits the shortest instruction pushing an int from 0 to 32767. */
+        void pushInt(int v) {
+            if (v <= 5) {
+                u1(0x03 + v); // iconst_<v>
+            } else if (v <= Byte.MAX_VALUE) {
+                u1(0x10); // bipush
+                u1(v);
+            } else {
+                u1(0x11); // sipush
+                u2(v);
+            }
+        }
+
+        void append(Bytes b) {
+            for (int i = 0; i < b.m_size; i++)
+                u1(b.m_data[i]);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(m_data, m_size);
+        }
+    }
+
+    /** The constant pool of a class file being written. */
+    private static class ConstantPool {
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+        private final DataOutputStream m_out = new DataOutputStream(m_bytes);
+        private final HashMap<String, Integer> m_index = new HashMap<String, Integer>();
+        private int m_count = 1;
+
+        private int add(String key, int tag, int a, int b, String utf8) {
+            Integer i = m_index.get(key);
+            if (i != null)
+                return i;
+            try {
+                m_out.writeByte(tag);
+                if (utf8 != null) {
+                    m_out.writeUTF(utf8);
+                } else {
+                    m_out.writeShort(a);
+                    if (b >= 0)
+                        m_out.writeShort(b);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e); // cannot happen in memory
+            }
+            m_index.put(key, m_count);
+            return m_count++;
+        }
+
+        int utf8(String s) {
+            return add("U" + s, 1, 0, 0, s);
+        }
+
+        int classRef(String internalName) {
+            return add("C" + internalName, 7, utf8(internalName), -1, null);
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return add("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor), null);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return add("F" + owner + "." + name + " " + descriptor, 9, classRef(owner),
+                    nameAndType(name, descriptor), null);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return add("M" + owner + "." + name + descriptor, 10, classRef(owner),
+                    nameAndType(name, descriptor), null);
+        }
+
+        void writeTo(Bytes out) {
+            out.u2(m_count);
+            byte[] b = m_bytes.toByteArray();
+            for (int i = 0; i < b.length; i++)
+                out.u1(b[i]);
+        }
+    }
+}
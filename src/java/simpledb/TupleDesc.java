@@ -38,6 +38,9 @@ public class TupleDesc implements Serializable {
     }
 
     public Vector<TDItem> m_tdvec;
+
+    // computed on first use by getFieldOffset
+    private transient int[] m_offsets;
     
     /**
      * @return
@@ -171,6 +174,23 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return The byte offset of the ith field within a serialized tuple of
+     *         this TupleDesc.
+     * @param i
+     *            The index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        int[] offsets = m_offsets;
+        if (offsets == null) {
+            offsets = new int[numFields()];
+            for (int j = 1; j < offsets.length; j++)
+                offsets[j] = offsets[j - 1] + getFieldType(j - 1).getLen();
+            m_offsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * TupleToBatchIterator feeds the tuples of a tuple operator to batch
+ * operators, copying them into batches of up to
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ *
+ * @see BatchToTupleIterator
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child;
+    private transient TupleBatch m_batch;
+
+    public TupleToBatchIterator(DbIterator child) {
+        m_child = child;
+    }
+
+    /**
+     * Turns a plan of tuple operators into batch operators: scans, filters,
+     * projections, aggregates and hash joins get their batch versions, and
+     * any other operator is fed to them through a TupleToBatchIterator.
+     */
+    public static BatchIterator of(DbIterator plan) {
+        if (plan instanceof BatchToTupleIterator)
+            return ((BatchToTupleIterator) plan).getChild();
+        if (plan instanceof SeqScan)
+            return new BatchSeqScan((SeqScan) plan);
+        if (plan instanceof ScanPipeline) {
+            ScanPipeline p = (ScanPipeline) plan;
+            BatchIterator it = new BatchSeqScan((SeqScan) p.getChildren()[0]);
+            for (Predicate pred : p.getPredicates())
+                it = new BatchFilter(pred, it);
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int f : p.getFields())
+                fields.add(f);
+            return new BatchProject(fields, it);
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new BatchFilter(f.getPredicate(), of(f.getChildren()[0]));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            return new BatchProject(p.getFieldList(), of(p.getChildren()[0]));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate a = (Aggregate) plan;
+            return new BatchAggregate(of(a.getChild()), a.aggregateField(),
+                    a.groupField(), a.aggregateOp());
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            DbIterator[] children = j.getChildren();
+            return new BatchHashEquiJoin(j.getJoinPredicate(), of(children[0]),
+                    of(children[1]));
+        }
+        return new TupleToBatchIterator(plan);
+    }
+
+    public DbIterator getChild() {
+        return m_child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        m_batch = new TupleBatch(m_child.getTupleDesc());
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (m_batch == null)
+            throw new IllegalStateException("iterator not open");
+        m_batch.clear();
+        TupleDesc td = m_child.getTupleDesc();
+        int rows = 0;
+        while (rows < m_batch.capacity() && m_child.hasNext()) {
+            Tuple t = m_child.next();
+            for (int c = 0; c < td.numFields(); c++)
+                m_batch.putField(c, rows, t.getField(c));
+            rows++;
+        }
+        m_batch.setSize(rows);
+        return rows == 0 ? null : m_batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void close() {
+        m_child.close();
+        m_batch = null;
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha, "full" version). New pages enter a
+ * FIFO queue A1in; when they are evicted from it their ids are remembered in
+ * a ghost queue A1out. A page that is read again while its id is still in
+ * A1out is considered hot and goes into the LRU queue Am. Pages that are only
+ * touched once (e.g. by a sequential scan) therefore never displace pages in
+ * Am. All operations are O(1).
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    private final int m_kin;
+    private final int m_kout;
+
+    private LinkedHashSet<PageId> m_a1in;
+    private LinkedHashSet<PageId> m_a1out;
+    private LinkedHashMap<PageId, Boolean> m_am;
+
+    /**
+     * Creates a 2Q policy with the thresholds suggested in the paper: A1in
+     * holds 25% of the pool and A1out remembers 50% of the pool.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public TwoQPolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param kin the target size of A1in
+     * @param kout the maximum number of ids remembered in A1out
+     */
+    public TwoQPolicy(int kin, int kout) {
+        m_kin = kin;
+        m_kout = kout;
+        m_a1in = new LinkedHashSet<PageId>();
+        m_a1out = new LinkedHashSet<PageId>();
+        m_am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (m_am.containsKey(pid) || m_a1in.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (m_a1out.remove(pid))
+            m_am.put(pid, Boolean.TRUE);
+        else
+            m_a1in.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored (correlated references)
+        m_am.get(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (!m_a1in.remove(pid))
+            m_am.remove(pid);
+    }
+
+    public PageId evict() {
+        return evict(ALL);
+    }
+
+    public PageId evict(Candidates c) {
+        // take from A1in when it is over its target or Am is empty, and
+        // from the other queue if every page of the first is rejected
+        boolean a1inFirst = m_a1in.size() > m_kin || m_am.isEmpty();
+        PageId victim = a1inFirst ? evictA1in(c) : removeFirst(m_am.keySet().iterator(), c);
+        if (victim == null)
+            victim = a1inFirst ? removeFirst(m_am.keySet().iterator(), c) : evictA1in(c);
+        return victim;
+    }
+
+    private PageId evictA1in(Candidates c) {
+        PageId victim = removeFirst(m_a1in.iterator(), c);
+        if (victim != null) {
+            m_a1out.add(victim);
+            if (m_a1out.size() > m_kout)
+                removeFirst(m_a1out.iterator(), ALL);
+        }
+        return victim;
+    }
+
+    /** Removes and returns the first page c accepts, or null. */
+    private static PageId removeFirst(Iterator<PageId> it, Candidates c) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (c.accept(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "2q";
+    }
+}
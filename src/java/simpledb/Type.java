@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,26 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer bb, boolean varLen) throws ParseException {
+            try {
+                return new IntField(bb.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", bb.position());
+            }
+        }
+
+        @Override
+        public void serialize(Field f, DataOutputStream dos, boolean varLen)
+                throws IOException {
+            f.serialize(dos);
+        }
+
+        @Override
+        public int getLen(Field f, boolean varLen) {
+            return 4;
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +64,44 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer bb, boolean varLen) throws ParseException {
+            try {
+                int start = bb.position();
+                int strLen = varLen ? bb.getShort() & 0xffff : bb.getInt();
+                byte bs[] = new byte[strLen];
+                bb.get(bs);
+                if (!varLen)
+                    bb.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (RuntimeException e) {
+                // underflow, or a corrupt length
+                throw new ParseException("couldn't parse", bb.position());
+            }
+        }
+
+        @Override
+        public void serialize(Field f, DataOutputStream dos, boolean varLen)
+                throws IOException {
+            if (!varLen) {
+                f.serialize(dos);
+                return;
+            }
+            String s = value(f);
+            dos.writeShort(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public int getLen(Field f, boolean varLen) {
+            return varLen ? 2 + value(f).length() : getLen();
+        }
+
+        private String value(Field f) {
+            String s = ((StringField) f).getValue();
+            return s.length() > STRING_LEN ? s.substring(0, STRING_LEN) : s;
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +120,37 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer. Exactly
+   *   {@link #getLen()} bytes are consumed.
+   * @param bb The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public Field parse(ByteBuffer bb) throws ParseException {
+        return parse(bb, false);
+    }
+
+  /**
+   * Like {@link #parse(ByteBuffer)}, but varLen selects the variable-length
+   * encoding written by {@link #serialize(Field, DataOutputStream, boolean)},
+   * in which strings are stored as a 2 byte length followed by their bytes,
+   * without padding.
+   */
+    public abstract Field parse(ByteBuffer bb, boolean varLen) throws ParseException;
+
+  /**
+   * Writes a field of this type in the fixed-length encoding (the same as
+   * {@link Field#serialize}) or the variable-length encoding.
+   */
+    public abstract void serialize(Field f, DataOutputStream dos, boolean varLen)
+        throws IOException;
+
+  /**
+   * @return the number of bytes {@link #serialize(Field, DataOutputStream,
+   *   boolean)} writes for f.
+   */
+    public abstract int getLen(Field f, boolean varLen);
+
 }
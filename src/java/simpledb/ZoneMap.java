@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * ZoneMap remembers the smallest and largest value of every int field on
+ * each page of a HeapFile, so that a scan with a predicate on one of those
+ * fields can skip pages that cannot hold a match without reading them (see
+ * {@link HeapFile#iterator(TransactionId, Predicate[])}). On a table that is
+ * clustered on a field, e.g. appended to in order of a date or an id, a
+ * range predicate on that field then reads only the pages of the range.
+ * <p>
+ * The map is kept in a sidecar file next to the table
+ * (<tt>table.dat.zm</tt>): a 4 byte page count and a 4 byte count of int
+ * fields, then the minimum and maximum of each int field of each page, in
+ * page order. An empty page has a minimum above its maximum.
+ * <p>
+ * Unlike a {@link FreeSpaceMap}, the map must never rule out a page that
+ * has a match, so it is only ever too wide: an insert widens the range of
+ * its page right away, a delete leaves it alone, and writing a page out
+ * narrows its ranges to the page's contents. A sidecar that cannot be used
+ * is rebuilt in the background (see {@link PageMap}).
+ *
+ * @see HeapFile#writePage
+ */
+class ZoneMap extends PageMap {
+
+    // the int fields of the table
+    private final int[] m_fields;
+    // field i of the table -> its position in m_fields, or -1
+    private final int[] m_position;
+    // m_min[page * m_fields.length + position], likewise m_max
+    private int[] m_min;
+    private int[] m_max;
+
+    /**
+     * Loads the zone map of hf, rebuilding it from the table's pages in the
+     * background if its sidecar file cannot be used.
+     */
+    ZoneMap(HeapFile hf) {
+        super(hf, sidecarFor(hf.getFile()));
+        TupleDesc td = hf.getTupleDesc();
+        m_position = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            m_position[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        m_fields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (m_position[i] >= 0)
+                m_fields[m_position[i]] = i;
+        }
+        m_min = new int[0];
+        m_max = new int[0];
+        load();
+    }
+
+    /** @return the sidecar file that holds the zone map of a table file */
+    static File sidecarFor(File tableFile) {
+        return new File(tableFile.getPath() + ".zm");
+    }
+
+    protected boolean read(int pages) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(m_file)));
+        try {
+            if (dis.readInt() != pages || dis.readInt() != m_fields.length)
+                return false;
+            ensureCapacity(pages);
+            for (int i = 0; i < pages * m_fields.length; i++) {
+                m_min[i] = dis.readInt();
+                m_max[i] = dis.readInt();
+            }
+            m_numPages = pages;
+            return true;
+        } finally {
+            dis.close();
+        }
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(m_numPages);
+        dos.writeInt(m_fields.length);
+        for (int i = 0; i < m_numPages * m_fields.length; i++) {
+            dos.writeInt(m_min[i]);
+            dos.writeInt(m_max[i]);
+        }
+    }
+
+    /** Makes room for the given number of pages, new pages being empty. */
+    private void ensureCapacity(int pages) {
+        int size = pages * m_fields.length;
+        if (size <= m_min.length)
+            return;
+        int old = m_min.length;
+        size = Math.max(size, 2 * old);
+        m_min = Arrays.copyOf(m_min, size);
+        m_max = Arrays.copyOf(m_max, size);
+        Arrays.fill(m_min, old, size, Integer.MAX_VALUE);
+        Arrays.fill(m_max, old, size, Integer.MIN_VALUE);
+    }
+
+    protected void cover(int page) {
+        if (page >= m_numPages) {
+            ensureCapacity(page + 1);
+            m_numPages = page + 1;
+        }
+    }
+
+    protected void clear(int page) {
+        int base = page * m_fields.length;
+        Arrays.fill(m_min, base, base + m_fields.length, Integer.MAX_VALUE);
+        Arrays.fill(m_max, base, base + m_fields.length, Integer.MIN_VALUE);
+    }
+
+    /** Widens the ranges of a page to include a tuple. */
+    protected void add(int page, Tuple t) {
+        int base = page * m_fields.length;
+        for (int i = 0; i < m_fields.length; i++) {
+            int v = ((IntField) t.getField(m_fields[i])).getValue();
+            if (v < m_min[base + i])
+                m_min[base + i] = v;
+            if (v > m_max[base + i])
+                m_max[base + i] = v;
+        }
+    }
+
+    protected boolean summaryMayMatch(int page, Predicate[] preds) {
+        if (m_fields.length == 0)
+            return true;
+        int base = page * m_fields.length;
+        if (m_min[base] > m_max[base])
+            return false;
+        for (Predicate p : preds) {
+            int pos = m_position[p.getField()];
+            if (pos < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = m_min[base + pos], max = m_max[base + pos];
+            boolean may;
+            switch (p.getOp()) {
+            case EQUALS:
+                may = min <= v && v <= max;
+                break;
+            case NOT_EQUALS:
+                may = min != v || max != v;
+                break;
+            case LESS_THAN:
+                may = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                may = min <= v;
+                break;
+            case GREATER_THAN:
+                may = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                may = max >= v;
+                break;
+            default:
+                may = true;
+                break;
+            }
+            if (!may)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,265 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    // small pages, so that a few thousand tuples make a tree of three levels
+    private static final int PAGE_SIZE = 256;
+    private static final int ROWS = 3000;
+
+    private TupleDesc td;
+    private File file;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "value" });
+        file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private BTreeFile open(int keyField, TupleDesc desc) {
+        BTreeFile bf = new BTreeFile(file, keyField, desc, PAGE_SIZE);
+        Database.getCatalog().addTable(bf, "btree");
+        return bf;
+    }
+
+    private Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Checks that tuples are in key order and returns them sorted by key
+     * and then value, since equal keys may be in any order.
+     */
+    private static ArrayList<Tuple> inKeyOrder(ArrayList<Tuple> tuples) {
+        for (int i = 1; i < tuples.size(); i++)
+            assertTrue(BY_KEY.compare(tuples.get(i - 1), tuples.get(i)) <= 0);
+        ArrayList<Tuple> sorted = new ArrayList<Tuple>(tuples);
+        Collections.sort(sorted, BY_KEY_THEN_VALUE);
+        return sorted;
+    }
+
+    private static String keys(ArrayList<Tuple> tuples) {
+        StringBuilder sb = new StringBuilder();
+        for (Tuple t : tuples)
+            sb.append(t.getField(0)).append(':').append(t.getField(1)).append(' ');
+        return sb.toString();
+    }
+
+    private static final Comparator<Tuple> BY_KEY_THEN_VALUE = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            int c = ((IntField) a.getField(0)).getValue() - ((IntField) b.getField(0)).getValue();
+            if (c != 0)
+                return c;
+            return ((IntField) a.getField(1)).getValue() - ((IntField) b.getField(1)).getValue();
+        }
+    };
+
+    private static final Comparator<Tuple> BY_KEY = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            return ((IntField) a.getField(0)).getValue() - ((IntField) b.getField(0)).getValue();
+        }
+    };
+
+    private ArrayList<Tuple> insertRandom(BTreeFile bf, Random r) throws Exception {
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuple(r.nextInt(ROWS / 3), i);
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            inserted.add(t);
+        }
+        return inserted;
+    }
+
+    /**
+     * Random inserts with duplicate keys split leaves and internal pages,
+     * and a scan returns every tuple in key order.
+     */
+    @Test public void insertAndScan() throws Exception {
+        BTreeFile bf = open(0, td);
+        ArrayList<Tuple> inserted = insertRandom(bf, new Random(5));
+        Collections.sort(inserted, BY_KEY_THEN_VALUE);
+        assertEquals(keys(inserted), keys(inKeyOrder(scan(bf.iterator(tid)))));
+        assertTrue(bf.numPages() > ROWS / BTreePage.leafCapacity(PAGE_SIZE, td));
+    }
+
+    /**
+     * Every comparison returns exactly the tuples a filter would, and pages
+     * written out and read back give the same answers.
+     */
+    @Test public void rangeScans() throws Exception {
+        BTreeFile bf = open(0, td);
+        ArrayList<Tuple> inserted = insertRandom(bf, new Random(7));
+        Collections.sort(inserted, BY_KEY_THEN_VALUE);
+        for (int round = 0; round < 2; round++) {
+            for (Predicate.Op op : Predicate.Op.values()) {
+                for (int v : new int[] { -1, 0, 17, ROWS / 6, ROWS / 3 - 1, ROWS }) {
+                    IndexPredicate ipred = new IndexPredicate(op, new IntField(v));
+                    ArrayList<Tuple> expected = new ArrayList<Tuple>();
+                    for (Tuple t : inserted) {
+                        if (ipred.matches(t.getField(0)))
+                            expected.add(t);
+                    }
+                    assertEquals(ipred.toString(), keys(expected),
+                            keys(inKeyOrder(scan(bf.indexIterator(tid, ipred)))));
+                }
+            }
+            Database.getBufferPool().flushAllPages();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /**
+     * Deleting merges and redistributes pages, reuses freed pages for
+     * later inserts, and deleting everything collapses the tree back to a
+     * single leaf.
+     */
+    @Test public void deletes() throws Exception {
+        BTreeFile bf = open(0, td);
+        Random r = new Random(11);
+        ArrayList<Tuple> live = insertRandom(bf, r);
+        int pages = bf.numPages();
+
+        Collections.shuffle(live, r);
+        for (int i = 0; i < ROWS / 2; i++)
+            Database.getBufferPool().deleteTuple(tid, live.remove(live.size() - 1));
+        Collections.sort(live, BY_KEY_THEN_VALUE);
+        assertEquals(keys(live), keys(inKeyOrder(scan(bf.iterator(tid)))));
+
+        for (int i = 0; i < ROWS / 2; i++) {
+            Tuple t = tuple(r.nextInt(ROWS / 3), ROWS + i);
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            live.add(t);
+        }
+        assertEquals(pages, bf.numPages(), pages / 10.0);
+
+        for (Tuple t : live)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, scan(bf.iterator(tid)).size());
+        BTreePage meta = (BTreePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(bf.getId(), 0), Permissions.READ_ONLY);
+        BTreePage root = (BTreePage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(bf.getId(), meta.getRoot()), Permissions.READ_ONLY);
+        assertEquals(BTreePage.LEAF, root.getKind());
+    }
+
+    /**
+     * Deleting a tuple that is not in the tree fails.
+     */
+    @Test(expected = DbException.class) public void deleteMissing() throws Exception {
+        BTreeFile bf = open(0, td);
+        Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(1, 1));
+        bf.deleteTuple(tid, tuple(1, 2));
+    }
+
+    /**
+     * String keys support equality lookups across many leaves.
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc sd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        BTreeFile bf = new BTreeFile(file, 1, sd, 1024);
+        Database.getCatalog().addTable(bf, "names");
+        Random r = new Random(13);
+        int[] counts = new int[20];
+        for (int i = 0; i < 500; i++) {
+            int n = r.nextInt(counts.length);
+            counts[n]++;
+            Tuple t = new Tuple(sd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + n, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        }
+        for (int n = 0; n < counts.length; n++) {
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS,
+                    new StringField("name" + n, Type.STRING_LEN));
+            ArrayList<Tuple> found = scan(bf.indexIterator(tid, ipred));
+            assertEquals(counts[n], found.size());
+            for (Tuple t : found)
+                assertEquals("name" + n, ((StringField) t.getField(1)).getValue());
+        }
+    }
+
+    /**
+     * A tree bulk loaded from a sorted heap file answers the same as the
+     * heap, and can be updated afterwards.
+     */
+    @Test public void bulkLoad() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(tuple(i / 2, i));
+        File heap = File.createTempFile("sorted", ".dat");
+        heap.deleteOnExit();
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "sorted");
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+
+        SeqScan ss = new SeqScan(tid, hf.getId(), "s");
+        ss.open();
+        assertEquals(ROWS, BTreeFile.bulkLoad(file, td, 0, ss, PAGE_SIZE));
+        ss.close();
+
+        BTreeFile bf = open(0, td);
+        assertEquals(keys(tuples), keys(scan(bf.iterator(tid))));
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(700));
+        assertEquals("700:1400 700:1401 ", keys(scan(bf.indexIterator(tid, ipred))));
+
+        Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(700, -1));
+        DbFileIterator all = bf.iterator(tid);
+        all.open();
+        Database.getBufferPool().deleteTuple(tid, all.next());
+        all.close();
+        assertEquals("700:1400 700:1401 700:-1 ", keys(scan(bf.indexIterator(tid, ipred))));
+        assertEquals(ROWS, scan(bf.iterator(tid)).size());
+    }
+
+    /**
+     * Bulk loading rejects tuples that are not sorted on the key.
+     */
+    @Test(expected = DbException.class) public void bulkLoadUnsorted() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(tuple(2, 0));
+        tuples.add(tuple(1, 0));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        BTreeFile.bulkLoad(file, td, 0, it, PAGE_SIZE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * Compares scan-filter-aggregate queries run by the tuple operators and by
+ * the batch operators (see {@link BatchIterator}), over a heap table that
+ * fits in the buffer pool. Each query runs several times and the best
+ * round is reported.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.BatchIteratorBenchmark [rows]
+ * </pre>
+ */
+public class BatchIteratorBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = Benchmark.intArg(args, 200000);
+        final HeapFile hf = Benchmark.salesTable(rows);
+        for (int g = 0; g < 2; g++) {
+            final boolean grouped = g == 1;
+            double[] best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return query(hf.getId(), grouped, false);
+                }
+            }, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return query(hf.getId(), grouped, true);
+                }
+            });
+            Benchmark.compare(grouped ? "sum(amount) where day < 180 group by store"
+                    : "sum(amount) where day < 180", best[0] * rows, best[1] * rows, "rows/s");
+        }
+    }
+
+    /** @return runs per second of the query */
+    private static double query(int tableId, boolean grouped, boolean batches) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(180)), new SeqScan(tid, tableId, "t")), 2,
+                grouped ? 1 : Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        if (batches)
+            plan = BatchToTupleIterator.vectorize(plan);
+        return Benchmark.runsPerSecond(plan, tid);
+    }
+}
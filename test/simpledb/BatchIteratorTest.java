@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile ints;
+    private HeapFile names;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        // 3 int columns, several pages
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        ints = SystemTestUtil.createRandomHeapFile(3, 5000, 50, spec, null, "f");
+        names = createNames(PageFormat.FIXED);
+    }
+
+    /** @return a table of 700 (id, name) rows with few distinct values */
+    private HeapFile createNames(PageFormat format) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        File data = File.createTempFile("batch", ".dat");
+        data.deleteOnExit();
+        HeapFile hf = new HeapFile(data, td, format);
+        Database.getCatalog().addTable(hf, "names" + format);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(7);
+        for (int i = 0; i < 700; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(50)));
+            t.setField(1, new StringField("name" + r.nextInt(40), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        return hf;
+    }
+
+    /** Checks that a plan returns the same rows run as batch operators. */
+    private static void assertSameRows(DbIterator plan) throws Exception {
+        ArrayList<String> expected = TestUtil.sortedRows(plan);
+        DbIterator vectorized = BatchToTupleIterator.vectorize(plan);
+        assertTrue(vectorized instanceof BatchToTupleIterator);
+        assertEquals(expected, TestUtil.sortedRows(vectorized));
+    }
+
+    private SeqScan scan(HeapFile f) {
+        return new SeqScan(tid, f.getId(), "t");
+    }
+
+    /** Filters on int fields, with every operator, and a projection. */
+    @Test public void scanFilterProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Filter f = new Filter(new Predicate(1, op, new IntField(20)), scan(ints));
+            assertSameRows(f);
+        }
+        Filter both = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(30)),
+                        scan(ints)));
+        assertSameRows(new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, both));
+
+        // nothing passes
+        assertSameRows(new Filter(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new IntField(100)), scan(ints)));
+    }
+
+    /** Filters on string fields compare bytes or whole strings. */
+    @Test public void strings() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Filter f = new Filter(new Predicate(1, op,
+                    new StringField("name17", Type.STRING_LEN)), scan(names));
+            assertSameRows(f);
+        }
+        assertSameRows(new Project(new ArrayList<Integer>(Arrays.asList(1)),
+                new Type[] { Type.STRING_TYPE }, scan(names)));
+    }
+
+    /** Batch scans read PAX and slotted pages too. */
+    @Test public void pageFormats() throws Exception {
+        for (PageFormat format : new PageFormat[] { PageFormat.PAX, PageFormat.SLOTTED }) {
+            HeapFile hf = createNames(format);
+            assertSameRows(scan(hf));
+            assertSameRows(new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                    new StringField("name3", Type.STRING_LEN)), scan(hf)));
+            assertSameRows(new Aggregate(scan(hf), 0, 1, Aggregator.Op.SUM));
+        }
+    }
+
+    /** Every aggregate, grouped by an int field, a string field or not at all. */
+    @Test public void aggregates() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            assertSameRows(new Aggregate(scan(ints), 1, Aggregator.NO_GROUPING, op));
+            assertSameRows(new Aggregate(scan(ints), 1, 0, op));
+            assertSameRows(new Aggregate(new Filter(new Predicate(2, Predicate.Op.LESS_THAN,
+                    new IntField(5)), scan(ints)), 1, 0, op));
+            assertSameRows(new Aggregate(scan(names), 0, 1, op));
+        }
+        assertSameRows(new Aggregate(scan(names), 1, 0, Aggregator.Op.COUNT));
+        // no rows: no groups, even without grouping
+        assertSameRows(new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(0)), scan(ints)), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM));
+    }
+
+    /**
+     * Joins on int and string fields, with enough matches to fill several
+     * output batches.
+     */
+    @Test public void hashJoin() throws Exception {
+        assertSameRows(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan(names), scan(ints)));
+        assertSameRows(new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                        scan(names)), scan(names)));
+        assertSameRows(new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+                        scan(names)), scan(ints)));
+    }
+
+    /**
+     * Operators with no batch version are fed through an adapter, and
+     * batch plans can be rewound.
+     */
+    @Test public void adaptersAndRewind() throws Exception {
+        OrderBy ordered = new OrderBy(0, true, scan(names));
+        BatchIterator b = TupleToBatchIterator.of(new Filter(new Predicate(0,
+                Predicate.Op.EQUALS, new IntField(3)), ordered));
+        assertTrue(b instanceof BatchFilter);
+        assertTrue(((BatchFilter) b).getChild() instanceof TupleToBatchIterator);
+
+        DbIterator it = new BatchToTupleIterator(new BatchAggregate(
+                new BatchSeqScan(tid, ints.getId(), "t"), 1, 0, Aggregator.Op.SUM));
+        it.open();
+        int groups = 0;
+        while (it.hasNext()) {
+            it.next();
+            groups++;
+        }
+        assertEquals(50, groups);
+        it.rewind();
+        for (int i = 0; i < groups; i++)
+            it.next();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A vectorized LogicalPlan runs its fused scan as batch operators,
+     * returning the same rows, and can still be estimated and printed.
+     */
+    @Test public void plannerSwitch() throws Exception {
+        String name = Database.getCatalog().getTableName(ints.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(ints.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ints.getId(), "t");
+        lp.addFilter("t.f1", Predicate.Op.LESS_THAN, "20");
+        lp.addProjectField("t.f2", null);
+        lp.addProjectField("t.f0", null);
+        DbIterator plain = lp.physicalPlan(tid, stats, false);
+        lp.setVectorized(true);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof BatchToTupleIterator);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof ScanPipeline);
+        assertTrue(((BatchToTupleIterator) plan).getChild() instanceof BatchProject);
+        assertEquals(TestUtil.sortedRows(plain), TestUtil.sortedRows(plan));
+
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("t", ints.getId());
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, aliases, stats);
+        assertTrue(((Operator) plan).getEstimatedCardinality() > 0);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.VECTORIZE));
+    }
+
+    /** A batch scan sees tuples inserted into pages still in the buffer pool. */
+    @Test public void seesInserts() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2, -3 });
+        Database.getBufferPool().insertTuple(tid, ints.getId(), t);
+        BatchFilter f = new BatchFilter(new Predicate(0, Predicate.Op.EQUALS, new IntField(-1)),
+                new BatchSeqScan(tid, ints.getId(), "t"));
+        f.open();
+        TupleBatch batch = f.nextBatch();
+        assertEquals(1, batch.numSelected());
+        assertEquals(-3, batch.getInt(2, batch.selection()[0]));
+        assertNull(f.nextBatch());
+        f.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The harness shared by the benchmarks that are run by hand: reading the
+ * command line, timing plans, keeping the best of several rounds, and
+ * printing comparisons. Each benchmark supplies only its workload.
+ */
+public class Benchmark {
+
+    /** One timed run of a workload. */
+    public interface Run {
+        /** @return the throughput of the run, in units per second */
+        double run() throws Exception;
+    }
+
+    /** @return the first argument as an int, or def if there is none */
+    public static int intArg(String[] args, int def) {
+        return args.length > 0 ? Integer.parseInt(args[0]) : def;
+    }
+
+    /**
+     * Runs each workload the given number of rounds, taking turns so that
+     * they run under the same conditions.
+     *
+     * @return the best throughput of each workload
+     */
+    public static double[] best(int rounds, Run... runs) throws Exception {
+        double[] best = new double[runs.length];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < runs.length; i++)
+                best[i] = Math.max(best[i], runs[i].run());
+        }
+        return best;
+    }
+
+    /**
+     * Runs a plan to its end and completes its transaction.
+     *
+     * @return runs per second
+     */
+    public static double runsPerSecond(DbIterator plan, TransactionId tid) throws Exception {
+        long begin = System.nanoTime();
+        drain(plan);
+        long elapsed = System.nanoTime() - begin;
+        Database.getBufferPool().transactionComplete(tid);
+        return 1 / (elapsed / 1e9);
+    }
+
+    /**
+     * Runs a plan to its end and completes its transaction.
+     *
+     * @return tuples returned per second
+     */
+    public static double tuplesPerSecond(DbIterator plan, TransactionId tid) throws Exception {
+        long begin = System.nanoTime();
+        long count = drain(plan);
+        long elapsed = System.nanoTime() - begin;
+        Database.getBufferPool().transactionComplete(tid);
+        return count / (elapsed / 1e9);
+    }
+
+    /** @return the number of tuples the plan returned */
+    private static long drain(DbIterator plan) throws Exception {
+        long count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        return count;
+    }
+
+    /** Prints the throughput of a workload before and after a change. */
+    public static void compare(String label, double before, double after, String unit) {
+        System.out.println(String.format("%-50s %12.0f -> %12.0f %s (%.1fx)",
+                label, before, after, unit, after / before));
+    }
+
+    /**
+     * Creates a table of random (day, store, amount) rows, and a buffer pool
+     * that holds all of it.
+     */
+    public static HeapFile salesTable(int rows) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "day", "store", "amount" });
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(365)));
+            t.setField(1, new IntField(r.nextInt(100)));
+            t.setField(2, new IntField(r.nextInt(10000)));
+            tuples.add(t);
+        }
+        File f = File.createTempFile("bench", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "sales");
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        TransactionId load = new TransactionId();
+        Database.getBufferPool().bulkInsert(load, hf.getId(), it);
+        Database.getBufferPool().transactionComplete(load);
+        Database.resetBufferPool(hf.numPages() + 10);
+        return hf;
+    }
+}
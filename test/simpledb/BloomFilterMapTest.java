@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterMapTest extends SimpleDbTestBase {
+
+    // 30 tuples fit on a page
+    private static final int PAGES = 40;
+    private static final int ROWS = 30 * PAGES;
+
+    private TupleDesc td;
+    private File dir;
+    private File data;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        // not directly in the temporary-file directory, so that the maps are saved
+        dir = TestUtil.createTempDir();
+        data = new File(dir, "bloom.dat");
+        hf = new HeapFile(data, td);
+        hf.setBloomFields(1);
+        Database.getCatalog().addTable(hf, "bloom");
+        tid = new TransactionId();
+
+        // names in no particular order
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(tuple(i, "name" + i));
+        Collections.shuffle(tuples, new Random(3));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    @After public void removeFiles() throws Exception {
+        TestUtil.deleteDir(dir);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static Predicate[] named(String name) {
+        return new Predicate[] { new Predicate(1, Predicate.Op.EQUALS,
+                new StringField(name, Type.STRING_LEN)) };
+    }
+
+    /** @return the ids of the tuples of a scan that satisfy all of the predicates */
+    private ArrayList<Integer> scan(Predicate[] preds) throws Exception {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t", null, preds);
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            boolean match = true;
+            for (Predicate p : preds)
+                match &= p.filter(t);
+            if (match)
+                ids.add(((IntField) t.getField(0)).getValue());
+        }
+        ss.close();
+        return ids;
+    }
+
+    /**
+     * An equality lookup of a name reads the page that holds it and few
+     * others, and finds nothing wrongly skipped.
+     */
+    @Test public void skipsPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long read = 0;
+        for (int i = 0; i < ROWS; i += 37) {
+            bp.resetStats();
+            assertEquals(Arrays.asList(i), scan(named("name" + i)));
+            read += bp.getHitCount() + bp.getMissCount();
+        }
+        int lookups = (ROWS + 36) / 37;
+        assertTrue("read " + read + " pages", read < lookups * 2);
+
+        bp.resetStats();
+        assertEquals(0, scan(named("missing")).size());
+        assertTrue(bp.getHitCount() + bp.getMissCount() < PAGES / 4);
+    }
+
+    /**
+     * A name inserted into a page that has not been written out yet is
+     * found, as are names on pages written since.
+     */
+    @Test public void insertsAreSeen() throws Exception {
+        HeapPage p7 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 7), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, p7.iterator().next());
+        Tuple t = tuple(-1, "needle");
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(7, t.getRecordId().getPageId().pageNumber());
+        assertEquals(Arrays.asList(-1), scan(named("needle")));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(Arrays.asList(-1), scan(named("needle")));
+    }
+
+    /**
+     * The filters survive closing the file, and are rebuilt when the
+     * fields they were made for change.
+     */
+    @Test public void persistAndRebuild() throws Exception {
+        assertEquals(Arrays.asList(5), scan(named("name5")));
+        hf.close();
+        assertTrue(BloomFilterMap.sidecarFor(data).exists());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(data, td);
+        hf.setBloomFields(1);
+        Database.getCatalog().addTable(hf, "bloom");
+        assertEquals(Arrays.asList(5), scan(named("name5")));
+
+        hf.setBloomFields(0, 1);
+        Predicate[] id = new Predicate[] { new Predicate(0, Predicate.Op.EQUALS, new IntField(8)) };
+        assertEquals(Arrays.asList(8), scan(id));
+        assertEquals(Arrays.asList(8), scan(named("name8")));
+        hf.bloomMap().awaitRebuild();
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(Arrays.asList(8), scan(id));
+        assertTrue(bp.getHitCount() + bp.getMissCount() < PAGES / 4);
+    }
+
+    /**
+     * Flushing the pages saves the filters without closing the file.
+     */
+    @Test public void savedOnFlush() throws Exception {
+        assertTrue(BloomFilterMap.sidecarFor(data).exists());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(data, td);
+        hf.setBloomFields(1);
+        Database.getCatalog().addTable(hf, "bloom");
+        assertFalse(hf.bloomMap().mayMatch(0, named("missing")));
+    }
+
+    /** The planner's scans use the Bloom filters. */
+    @Test public void plannerScan() throws Exception {
+        int tableid = hf.getId();
+        String name = "bloom";
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableid, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableid, "t");
+        lp.addFilter("t.name", Predicate.Op.EQUALS, "name123");
+        lp.addProjectField("t.id", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        plan.open();
+        assertEquals(new IntField(123), plan.next().getField(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+        assertTrue(bp.getHitCount() + bp.getMissCount() < PAGES / 4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterMapTest.class);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Multi-threaded throughput benchmark for BufferPool.getPage hits. A table
+ * that fits entirely in the pool is read once to warm the cache, then 1, 2,
+ * 4, ... threads (up to the number of cores) repeatedly fetch random pages of
+ * it. Every fetch after warm-up is a hit, so the numbers show how well the
+ * hit path scales with cores.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.BufferPoolBenchmark [opsPerThread]
+ * </pre>
+ */
+public class BufferPoolBenchmark {
+
+    private static final int PAGES = 40;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final int ops = Benchmark.intArg(args, 2000000);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(1, 1000 * PAGES, null, null);
+        final BufferPool bp = Database.resetBufferPool(f.numPages() + 1);
+        final TransactionId warm = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+
+        System.out.println("policy " + bp.getReplacementPolicy().getName() + ", "
+                + f.numPages() + " pages, " + ops + " getPage calls per thread");
+        double base = 0;
+        for (int t = 1; t <= cores; t *= 2) {
+            final int threads = t;
+            double best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return hits(bp, f, threads, ops);
+                }
+            })[0];
+            if (threads == 1)
+                base = best;
+            System.out.println(String.format("%3d threads: %12.0f hits/s  (%.2fx)",
+                    threads, best, best / base));
+        }
+    }
+
+    /** @return total getPage calls per second across all threads */
+    private static double hits(final BufferPool bp, final HeapFile f, int threads, final int ops)
+            throws InterruptedException {
+        final int pages = f.numPages();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    try {
+                        start.await();
+                        for (int i = 0; i < ops; i++)
+                            bp.getPage(tid, new HeapPageId(f.getId(), r.nextInt(pages)),
+                                    Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * ops / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPinTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 4096, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int n) {
+        return new HeapPageId(f.getId(), n);
+    }
+
+    /**
+     * A pinned page survives a scan that cycles every other page through
+     * the pool, and is the same object afterwards.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3, new LRUPolicy());
+        Page p = bp.pin(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(pid(0)));
+        for (int i = 1; i < f.numPages(); i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertSame(p, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.unpin(pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+    }
+
+    /**
+     * Eviction fails cleanly when every frame is pinned.
+     */
+    @Test public void allFramesPinned() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.pin(tid, pid(0), Permissions.READ_ONLY);
+        bp.pin(tid, pid(1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.unpin(pid(1));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(pid(0)));
+    }
+
+    /**
+     * pin(PageId) only pins resident pages, and pins nest.
+     */
+    @Test public void pinResident() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        assertFalse(bp.pin(pid(0)));
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertTrue(bp.pin(pid(0)));
+        assertTrue(bp.pin(pid(0)));
+        assertEquals(2, bp.getPinCount(pid(0)));
+        bp.unpin(pid(0));
+        bp.unpin(pid(0));
+        try {
+            bp.unpin(pid(0));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Discarding a pinned page drops it from the pool at once but keeps
+     * its frame charged until it is unpinned.
+     */
+    @Test public void discardPinned() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2, new LRUPolicy());
+        Page p = bp.pin(tid, pid(0), Permissions.READ_ONLY);
+        bp.discardPage(pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+
+        // one frame is left while page 0 is pinned
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.resetStats();
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+
+        bp.unpin(pid(0));
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(2, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+        assertNotSame(p, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * A finished scan leaves nothing pinned.
+     */
+    @Test public void scanReleasesPins() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        while (it.hasNext())
+            it.next();
+        for (int i = 0; i < f.numPages(); i++)
+            assertEquals(0, bp.getPinCount(pid(i)));
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPinTest.class);
+    }
+}
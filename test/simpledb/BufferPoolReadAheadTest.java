@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int n) {
+        return new HeapPageId(f.getId(), n);
+    }
+
+    /**
+     * A sequential scan is served mostly from read-ahead pages and still
+     * returns every tuple.
+     */
+    @Test public void sequentialScan() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(BufferPool.DEFAULT_READ_AHEAD_PAGES, bp.getReadAheadWindow());
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(f.numPages(), bp.getMissCount());
+        // only the first two pages of the scan are read synchronously
+        assertEquals(f.numPages() - 2, bp.getReadAheadCount());
+    }
+
+    /**
+     * Read-ahead can be turned off, and does not kick in for random access.
+     */
+    @Test public void disabledAndRandom() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setReadAheadWindow(0);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, bp.getReadAheadCount());
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int[] order = { 5, 1, 12, 3, 0, 9 };
+        for (int n : order)
+            bp.getPage(tid, pid(n), Permissions.READ_ONLY);
+        assertEquals(0, bp.getReadAheadCount());
+    }
+
+    /**
+     * A page that is written after it was read ahead is read again rather
+     * than served from the stale read-ahead copy.
+     */
+    @Test public void writeInvalidates() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        bp.setReadAheadWindow(1);
+        // reading pages 0 and 1 reads page 2 ahead
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        HeapPage p2 = (HeapPage) f.readPage(pid(2));
+        Tuple t = p2.iterator().next();
+        p2.deleteTuple(t);
+        f.writePage(p2);
+        bp.discardPage(pid(2));
+
+        HeapPage reread = (HeapPage) bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertEquals(p2.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertEquals(0, bp.getReadAheadCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadAheadTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolWriterTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        tid = new TransactionId();
+    }
+
+    /** Deletes the first tuple of every page through the buffer pool. */
+    private void dirtyEveryPage(BufferPool bp) throws Exception {
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), i),
+                    Permissions.READ_WRITE);
+            bp.deleteTuple(tid, p.iterator().next());
+        }
+    }
+
+    /** Asserts that every page on disk matches its copy in the pool. */
+    private void assertOnDisk(BufferPool bp) throws Exception {
+        for (int i = 0; i < f.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            Page cached = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertNull(cached.isDirty());
+            assertTrue(Arrays.equals(cached.getPageData(), f.readPage(pid).getPageData()));
+        }
+    }
+
+    /**
+     * The background writer writes dirty pages out on its own, logging
+     * them first if their transaction is in the log.
+     */
+    @Test public void backgroundWriter() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setBackgroundWriterInterval(10);
+        Database.getLogFile().logXactionBegin(tid);
+        int records = Database.getLogFile().getTotalRecords();
+        dirtyEveryPage(bp);
+        for (int wait = 0; bp.hasDirtyPages() && wait < 500; wait++)
+            Thread.sleep(10);
+        assertFalse(bp.hasDirtyPages());
+        assertOnDisk(bp);
+        assertTrue(Database.getLogFile().getTotalRecords() >= records + f.numPages());
+    }
+
+    /**
+     * With the background writer off, pages stay dirty until flushed, and a
+     * flush of adjacent pages writes them all correctly. Pages dirtied
+     * under a TransactionId the log does not know are not logged.
+     */
+    @Test public void coalescedFlush() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setBackgroundWriterInterval(0);
+        int records = Database.getLogFile().getTotalRecords();
+        dirtyEveryPage(bp);
+        Thread.sleep(2 * BufferPool.DEFAULT_WRITER_INTERVAL_MS);
+        assertTrue(bp.hasDirtyPages());
+        bp.flushAllPages();
+        assertFalse(bp.hasDirtyPages());
+        assertOnDisk(bp);
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * HeapFile.writePages only accepts runs of consecutive pages.
+     */
+    @Test public void writePagesNeedsRun() throws Exception {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        pages.add(f.readPage(new HeapPageId(f.getId(), 0)));
+        pages.add(f.readPage(new HeapPageId(f.getId(), 2)));
+        try {
+            f.writePages(pages);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolWriterTest.class);
+    }
+}
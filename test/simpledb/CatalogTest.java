@@ -1,12 +1,19 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,6 +24,8 @@ import simpledb.systemtest.SystemTestUtil;
 public class CatalogTest extends SimpleDbTestBase {
     private static String name = "test";
 	private String nameThisTestRun;
+    // the folder of the catalog file loaded by a test, if any
+    private File dir;
     
     @Before public void addTables() throws Exception {
         Database.getCatalog().clear();
@@ -25,6 +34,12 @@ public class CatalogTest extends SimpleDbTestBase {
         Database.getCatalog().addTable(new SkeletonFile(-2, Utility.getTupleDesc(2)), name);
     }
 
+    /** Deletes the tables, indexes and sidecar files a test loaded. */
+    @After public void removeFiles() throws Exception {
+        if (dir != null)
+            TestUtil.deleteDir(dir);
+    }
+
     /**
      * Unit test for Catalog.getTupleDesc()
      */
@@ -69,6 +84,113 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for the catalog's limit on open table files
+     */
+    @Test public void maxOpenFiles() throws Exception {
+        Database.getCatalog().setMaxOpenFiles(2);
+        HeapFile[] files = new HeapFile[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+            files[i].readPage(new HeapPageId(files[i].getId(), 0));
+        }
+        assertFalse(files[0].isOpen());
+        assertTrue(files[1].isOpen());
+        assertTrue(files[2].isOpen());
+
+        // a closed file reopens on demand
+        files[0].readPage(new HeapPageId(files[0].getId(), 0));
+        assertTrue(files[0].isOpen());
+        assertFalse(files[1].isOpen());
+    }
+
+    /** A catalog line and the table it should load as. */
+    private static class Schema {
+        final String line;
+        final Class<?> type;
+        final PageFormat format;
+        final int pageSize;
+
+        Schema(String line, Class<?> type, PageFormat format, int pageSize) {
+            this.line = line;
+            this.type = type;
+            this.format = format;
+            this.pageSize = pageSize;
+        }
+    }
+
+    /**
+     * Unit test for the table options and field annotations of
+     * Catalog.loadSchema()
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        int def = BufferPool.getPageSize();
+        Schema[] schemas = new Schema[] {
+            new Schema("plain (a int, b int)", HeapFile.class, PageFormat.FIXED, def),
+            new Schema("fast (a int, b int) mapped", MappedHeapFile.class, PageFormat.FIXED, def),
+            new Schema("names (id int, name string) slotted", HeapFile.class,
+                    PageFormat.SLOTTED, def),
+            new Schema("both (id int, name string) mapped slotted", MappedHeapFile.class,
+                    PageFormat.SLOTTED, def),
+            new Schema("wide (a int, b int) pagesize=64k", HeapFile.class,
+                    PageFormat.FIXED, 65536),
+            new Schema("narrow (a int, b int) pagesize=8192 slotted", HeapFile.class,
+                    PageFormat.SLOTTED, 8192),
+            new Schema("packed (a int, b int) compressed", CompressedHeapFile.class,
+                    PageFormat.FIXED, def),
+            new Schema("cols (id int, name string) pax", HeapFile.class, PageFormat.PAX, def),
+            new Schema("columns (a int, name string) columnar", ColumnFile.class, null, def),
+            new Schema("keyed (id int pk, grp int, name string index)", HeapFile.class,
+                    PageFormat.FIXED, def),
+            new Schema("hashed (k int, v int hashindex)", HeapFile.class,
+                    PageFormat.FIXED, def),
+            new Schema("bloomed (id int, name string bloom)", HeapFile.class,
+                    PageFormat.FIXED, def),
+        };
+
+        dir = TestUtil.createTempDir();
+        File catalog = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(catalog);
+        for (Schema s : schemas)
+            w.write(s.line + "\n");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+
+        for (Schema s : schemas) {
+            DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(
+                    s.line.substring(0, s.line.indexOf(" "))));
+            assertEquals(s.line, s.type, f.getClass());
+            assertEquals(s.line, s.pageSize, f.getPageSize());
+            if (s.format != null)
+                assertEquals(s.line, s.format, ((HeapFile) f).getPageFormat());
+        }
+
+        int keyed = Database.getCatalog().getTableId("keyed");
+        assertEquals("id", Database.getCatalog().getPrimaryKey(keyed));
+        // the primary key is not indexed unless annotated index too
+        assertNull(Database.getCatalog().getIndex(keyed, 0));
+        assertNull(Database.getCatalog().getIndex(keyed, 1));
+        assertTrue(Database.getCatalog().getIndex(keyed, 2) instanceof BTreeFile);
+
+        int hashed = Database.getCatalog().getTableId("hashed");
+        assertNull(Database.getCatalog().getIndex(hashed, 0));
+        assertTrue(Database.getCatalog().getIndex(hashed, 1) instanceof HashIndexFile);
+
+        int bloomed = Database.getCatalog().getTableId("bloomed");
+        assertTrue(Arrays.equals(new int[] { 1 },
+                ((HeapFile) Database.getCatalog().getDatabaseFile(bloomed)).getBloomFields()));
+
+        // clear() drops the indexes with their tables
+        IndexFile index = Database.getCatalog().getIndex(keyed, 2);
+        Database.getCatalog().clear();
+        assertNull(Database.getCatalog().getIndex(keyed, 2));
+        try {
+            Database.getCatalog().getDatabaseFile(index.getId());
+            Assert.fail("index still in the catalog");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares SUM and COUNT over a heap table and over the same rows in a
+ * {@link ColumnFile}, where the aggregate runs on the encoded column
+ * segments. The table has a run-length friendly column, a narrow-range
+ * column and a string column. Each query runs through a fresh buffer pool
+ * several times and the best round is reported.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.ColumnFileBenchmark [rows]
+ * </pre>
+ */
+public class ColumnFileBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = Benchmark.intArg(args, 500000);
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "day", "amount", "customer" });
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(1);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i / 5000));
+            t.setField(1, new IntField(r.nextInt(10000)));
+            t.setField(2, new StringField("customer" + r.nextInt(1000), Type.STRING_LEN));
+            tuples.add(t);
+        }
+
+        File heap = File.createTempFile("bench", ".dat");
+        heap.deleteOnExit();
+        final HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "heap");
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        TransactionId load = new TransactionId();
+        Database.getBufferPool().bulkInsert(load, hf.getId(), it);
+        Database.getBufferPool().transactionComplete(load);
+
+        File columns = File.createTempFile("bench", ".dat");
+        columns.deleteOnExit();
+        for (int c = 0; c < td.numFields(); c++)
+            ColumnFile.columnFileFor(columns, c).deleteOnExit();
+        it.rewind();
+        ColumnFile.write(columns, td, it);
+        final ColumnFile cf = new ColumnFile(columns, td);
+        Database.getCatalog().addTable(cf, "columns");
+
+        long columnBytes = columns.length();
+        for (int c = 0; c < td.numFields(); c++)
+            columnBytes += ColumnFile.columnFileFor(columns, c).length();
+        System.out.println(String.format("%d rows: heap %d bytes, columns %d bytes",
+                rows, heap.length(), columnBytes));
+
+        for (final Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+            for (int f = 0; f < 2; f++) {
+                final int field = f;
+                double[] best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+                    public double run() throws Exception {
+                        return aggregate(hf.getId(), field, op);
+                    }
+                }, new Benchmark.Run() {
+                    public double run() throws Exception {
+                        return aggregate(cf.getId(), field, op);
+                    }
+                });
+                Benchmark.compare(op + "(" + td.getFieldName(field) + ")", best[0] * rows,
+                        best[1] * rows, "rows/s");
+            }
+        }
+    }
+
+    /** @return runs per second of an ungrouped aggregate over a table */
+    private static double aggregate(int tableId, int field, Aggregator.Op op) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        return Benchmark.runsPerSecond(new Aggregate(new SeqScan(tid, tableId, "t"), field,
+                Aggregator.NO_GROUPING, op), tid);
+    }
+}
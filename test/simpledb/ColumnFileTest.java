@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private ArrayList<Tuple> tuples;
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "region", "amount", "name" });
+        tuples = new ArrayList<Tuple>();
+        Random r = new Random(17);
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i / 700));
+            t.setField(1, new IntField(1000 + r.nextInt(500)));
+            t.setField(2, new StringField("customer" + r.nextInt(20), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        file = File.createTempFile("columns", ".dat");
+        file.deleteOnExit();
+        for (int c = 0; c < td.numFields(); c++)
+            ColumnFile.columnFileFor(file, c).deleteOnExit();
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        assertEquals(ROWS, ColumnFile.write(file, td, it));
+    }
+
+    private ColumnFile open() {
+        ColumnFile cf = new ColumnFile(file, td);
+        Database.getCatalog().addTable(cf, "columns");
+        return cf;
+    }
+
+    private ColumnSegment segment(Type type, Field... values) throws Exception {
+        return new ColumnSegment(type, ColumnSegment.encode(type, values, values.length));
+    }
+
+    /**
+     * Each segment picks the smallest encoding for its values and decodes
+     * back to them.
+     */
+    @Test public void encodings() throws Exception {
+        Field[] runs = new Field[1000];
+        Field[] narrow = new Field[1000];
+        Field[] wide = new Field[1000];
+        Field[] repeated = new Field[1000];
+        Field[] unique = new Field[1000];
+        Random r = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            runs[i] = new IntField(i / 100 - 5);
+            narrow[i] = new IntField(-70000 + r.nextInt(16));
+            wide[i] = new IntField(r.nextInt());
+            repeated[i] = new StringField("v" + r.nextInt(3), Type.STRING_LEN);
+            unique[i] = new StringField("s" + i, Type.STRING_LEN);
+        }
+        assertEquals(ColumnSegment.RLE, segment(Type.INT_TYPE, runs).getEncoding());
+        assertEquals(ColumnSegment.FOR, segment(Type.INT_TYPE, narrow).getEncoding());
+        assertEquals(ColumnSegment.PLAIN, segment(Type.INT_TYPE, wide).getEncoding());
+        assertEquals(ColumnSegment.DICT, segment(Type.STRING_TYPE, repeated).getEncoding());
+        assertEquals(ColumnSegment.PLAIN, segment(Type.STRING_TYPE, unique).getEncoding());
+
+        for (Field[] values : new Field[][] { runs, narrow, wide }) {
+            ColumnSegment seg = segment(Type.INT_TYPE, values);
+            int sum = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], seg.get(i));
+                int v = ((IntField) values[i]).getValue();
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            assertEquals(sum, seg.sum());
+            assertEquals(min, seg.min());
+            assertEquals(max, seg.max());
+        }
+        for (Field[] values : new Field[][] { repeated, unique }) {
+            ColumnSegment seg = segment(Type.STRING_TYPE, values);
+            for (int i = 0; i < values.length; i++)
+                assertEquals(values[i], seg.get(i));
+        }
+    }
+
+    /**
+     * A scan stitches the columns back into the original rows, and a scan
+     * of some columns returns just those.
+     */
+    @Test public void scan() throws Exception {
+        ColumnFile cf = open();
+        assertEquals(ROWS, cf.numRows());
+        assertEquals((ROWS + cf.getRowsPerGroup() - 1) / cf.getRowsPerGroup(), cf.numGroups());
+        assertTrue(file.length() + ColumnFile.columnFileFor(file, 0).length()
+                < ROWS * Type.INT_TYPE.getLen() / 10);
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, cf.getId(), "c");
+        ss.open();
+        for (Tuple expected : tuples) {
+            assertTrue(ss.hasNext());
+            Tuple t = ss.next();
+            for (int i = 0; i < td.numFields(); i++)
+                assertEquals(expected.getField(i), t.getField(i));
+        }
+        assertFalse(ss.hasNext());
+        ss.rewind();
+        assertTrue(ss.hasNext());
+        ss.close();
+
+        ss = new SeqScan(tid, cf.getId(), "c", new int[] { 2 });
+        ss.open();
+        for (Tuple expected : tuples)
+            assertEquals(expected.getField(2), ss.next().getField(0));
+        assertFalse(ss.hasNext());
+        ss.close();
+    }
+
+    /**
+     * Ungrouped aggregates over a column table, computed from the encoded
+     * segments, match aggregating the rows; grouped ones still work.
+     */
+    @Test public void aggregates() throws Exception {
+        ColumnFile cf = open();
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG }) {
+            for (int field = 0; field < 2; field++) {
+                IntegerAggregator expected = new IntegerAggregator(Aggregator.NO_GROUPING,
+                        null, field, op);
+                for (Tuple t : tuples)
+                    expected.mergeTupleIntoGroup(t);
+                Aggregate agg = new Aggregate(new SeqScan(tid, cf.getId(), "c"),
+                        field, Aggregator.NO_GROUPING, op);
+                agg.open();
+                DbIterator want = expected.iterator();
+                want.open();
+                assertEquals(want.next().getField(0), agg.next().getField(0));
+                assertFalse(agg.hasNext());
+                agg.close();
+            }
+        }
+
+        Aggregate grouped = new Aggregate(new SeqScan(tid, cf.getId(), "c"),
+                1, 0, Aggregator.Op.COUNT);
+        grouped.open();
+        int groups = 0, rows = 0;
+        while (grouped.hasNext()) {
+            rows += ((IntField) grouped.next().getField(1)).getValue();
+            groups++;
+        }
+        grouped.close();
+        assertEquals((ROWS + 699) / 700, groups);
+        assertEquals(ROWS, rows);
+    }
+
+    /**
+     * The buffer pool charges each segment its encoded size, so a pool of
+     * one page holds all of the run-length encoded segments of a column.
+     */
+    @Test public void segmentSizes() throws Exception {
+        ColumnFile cf = open();
+        for (int g = 0; g < cf.numGroups(); g++) {
+            PageId pid = cf.pageId(g, 0);
+            assertEquals(((ColumnPage) cf.readPage(pid)).getPageData().length,
+                    cf.getPageSize(pid));
+            assertTrue(cf.getPageSize(pid) < BufferPool.getPageSize() / cf.numGroups());
+        }
+        BufferPool bp = Database.resetBufferPool(1);
+        TransactionId tid = new TransactionId();
+        for (int g = 0; g < cf.numGroups(); g++)
+            bp.getPage(tid, cf.pageId(g, 0), Permissions.READ_ONLY);
+        bp.resetStats();
+        for (int g = 0; g < cf.numGroups(); g++)
+            bp.getPage(tid, cf.pageId(g, 0), Permissions.READ_ONLY);
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Column tables cannot be updated in place.
+     */
+    @Test(expected = DbException.class) public void readOnly() throws Exception {
+        ColumnFile cf = open();
+        Database.getBufferPool().insertTuple(new TransactionId(), cf.getId(), tuples.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
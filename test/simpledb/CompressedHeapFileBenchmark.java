@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Compares disk footprint and sequential scan throughput of plain and
+ * compressed heap files for every table of a catalog, by default the IMDB
+ * sample. Each table is compressed into a temporary file with
+ * {@link CompressedHeapFile#compress}, then both copies are scanned through a
+ * fresh buffer pool several times and the best round is reported.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.CompressedHeapFileBenchmark [catalog]
+ * </pre>
+ */
+public class CompressedHeapFileBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String schema = args.length > 0 ? args[0] : "imdb_data/0.01/imdb.schema";
+        Database.getCatalog().loadSchema(schema);
+
+        ArrayList<HeapFile> tables = new ArrayList<HeapFile>();
+        for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext();) {
+            HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(it.next());
+            // the larger samples leave out some tables
+            if (hf.getFile().exists())
+                tables.add(hf);
+        }
+
+        long plainBytes = 0, packedBytes = 0;
+        for (final HeapFile hf : tables) {
+            File packed = File.createTempFile("bench", ".dat");
+            packed.deleteOnExit();
+            CompressedHeapFile.indexFor(packed).deleteOnExit();
+            CompressedHeapFile.compress(hf.getFile(), packed, hf.getPageSize());
+            final CompressedHeapFile cf = new CompressedHeapFile(packed, hf.getTupleDesc(),
+                    hf.getPageFormat(), hf.getPageSize());
+            Database.getCatalog().addTable(cf, "bench_" + cf.getId());
+
+            long onDisk = packed.length() + CompressedHeapFile.indexFor(packed).length();
+            plainBytes += hf.getFile().length();
+            packedBytes += onDisk;
+            double[] best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return scan(hf);
+                }
+            }, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return scan(cf);
+                }
+            });
+            System.out.println(String.format(
+                    "%-16s %10d -> %10d bytes (%4.1f%%)   SeqScan %12.0f -> %12.0f tuples/s",
+                    Database.getCatalog().getTableName(hf.getId()), hf.getFile().length(),
+                    onDisk, 100.0 * onDisk / hf.getFile().length(), best[0], best[1]));
+        }
+        System.out.println(String.format("total %d -> %d bytes (%4.1f%%)",
+                plainBytes, packedBytes, 100.0 * packedBytes / plainBytes));
+    }
+
+    /** @return tuples per second returned by a SeqScan over the table */
+    private static double scan(HeapFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        return Benchmark.tuplesPerSecond(new SeqScan(tid, f.getId(), ""), tid);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File plain;
+    private File packed;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        plain = SystemTestUtil.createRandomHeapFileUnopened(3, 5000, 1000, null, tuples);
+        packed = File.createTempFile("compressed", ".dat");
+        packed.deleteOnExit();
+        CompressedHeapFile.indexFor(packed).deleteOnExit();
+        CompressedHeapFile.compress(plain, packed, BufferPool.getPageSize());
+    }
+
+    private CompressedHeapFile open() {
+        CompressedHeapFile cf = new CompressedHeapFile(packed, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /**
+     * Compressed pages decompress to the original page images, and the
+     * compressed file is smaller.
+     */
+    @Test public void readPage() throws Exception {
+        HeapFile hf = Utility.openHeapFile(3, plain);
+        CompressedHeapFile cf = new CompressedHeapFile(packed, hf.getTupleDesc());
+        assertEquals(hf.numPages(), cf.numPages());
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            assertTrue(Arrays.equals(hf.readPage(pid).getPageData(),
+                    cf.readPage(pid).getPageData()));
+        }
+        // random ints below 1000 have two zero bytes each
+        assertTrue(packed.length() < plain.length() * 3 / 5);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * Updated and appended pages are written compressed, and the page index
+     * survives reopening the file.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        CompressedHeapFile cf = open();
+        TransactionId tid = new TransactionId();
+        HeapPage p0 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(cf.getId(), 0), Permissions.READ_WRITE);
+        Tuple first = p0.iterator().next();
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        Database.getBufferPool().deleteTuple(tid, first);
+        int pages = cf.numPages();
+        for (int i = 0; cf.numPages() <= pages; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(i, 3));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i, i)));
+        }
+        Database.getBufferPool().flushAllPages();
+        cf.close();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().clear();
+        SystemTestUtil.matchTuples(open(), tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File dir;
+    private File data;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 10 full pages
+        // not directly in the temporary-file directory, so that the map is saved
+        dir = TestUtil.createTempDir();
+        data = new File(dir, "fsm.dat");
+        assertTrue(SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10, 1000, null, null)
+                .renameTo(data));
+        hf = open();
+        tid = new TransactionId();
+    }
+
+    @After public void removeFiles() throws Exception {
+        TestUtil.deleteDir(dir);
+    }
+
+    private HeapFile open() {
+        return Utility.openHeapFile(2, data);
+    }
+
+    private int insert(HeapFile f) throws Exception {
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        return t.getRecordId().getPageId().pageNumber();
+    }
+
+    /**
+     * Once the map is built, inserts into a file with no free space do not
+     * read the full pages again.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        assertEquals(10, hf.numPages());
+        assertEquals(10, insert(hf));
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < 100; i++)
+            assertEquals(10, insert(hf));
+        // only the page being filled was read
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * A page that a tuple was deleted from is used by the next insert.
+     */
+    @Test public void deleteMarksFree() throws Exception {
+        HeapPage p3 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, p3.iterator().next());
+        assertEquals(3, insert(hf));
+        assertEquals(10, insert(hf));
+    }
+
+    /**
+     * The map is saved when the pages are flushed, and is rebuilt from the
+     * pages when the sidecar is missing.
+     */
+    @Test public void persistAndRebuild() throws Exception {
+        HeapPage p5 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, p5.iterator().next());
+        Database.getBufferPool().flushAllPages();
+        assertTrue(FreeSpaceMap.sidecarFor(data).exists());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = open();
+        assertEquals(5, insert(reopened));
+        assertEquals(10, insert(reopened));
+
+        // undo the first insert on disk, drop the map and reopen
+        Database.getBufferPool().flushAllPages();
+        HeapPage again = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(reopened.getId(), 5), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, again.iterator().next());
+        Database.getBufferPool().flushAllPages();
+        reopened.close();
+        assertTrue(FreeSpaceMap.sidecarFor(data).delete());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(5, insert(open()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
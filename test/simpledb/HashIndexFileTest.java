@@ -0,0 +1,283 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    // small pages, so that a few thousand tuples need many buckets
+    private static final int PAGE_SIZE = 256;
+    private static final int ROWS = 3000;
+
+    private TupleDesc td;
+    private File file;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "value" });
+        file = File.createTempFile("hash", ".dat");
+        file.deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private HashIndexFile open() {
+        HashIndexFile hf = new HashIndexFile(file, 0, td, PAGE_SIZE);
+        Database.getCatalog().addTable(hf, "hash");
+        return hf;
+    }
+
+    private Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /** @return the tuples with the given key, as sorted strings */
+    private static ArrayList<String> withKey(ArrayList<Tuple> tuples, int key) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Tuple t : tuples) {
+            if (((IntField) t.getField(0)).getValue() == key)
+                rows.add(t.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private ArrayList<Tuple> insertRandom(HashIndexFile hf, Random r) throws Exception {
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuple(r.nextInt(ROWS / 3), i);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        return inserted;
+    }
+
+    private int numBuckets(HashIndexFile hf) throws Exception {
+        HashPage meta = (HashPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        return meta.getNumBuckets();
+    }
+
+    /**
+     * Inserts split buckets one at a time as the table fills, and every
+     * equality lookup returns exactly the tuples with that key, before and
+     * after the pages are written out and read back.
+     */
+    @Test public void insertsAndLookups() throws Exception {
+        HashIndexFile hf = open();
+        ArrayList<Tuple> inserted = insertRandom(hf, new Random(5));
+        int capacity = HashPage.capacity(PAGE_SIZE, td);
+        assertTrue(numBuckets(hf) >= ROWS / capacity);
+        assertTrue(hf.numPages() < 2 * ROWS / capacity);
+        for (int round = 0; round < 2; round++) {
+            for (int key = -1; key <= ROWS / 3; key++) {
+                IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(key));
+                assertEquals(withKey(inserted, key), TestUtil.sortedRows(hf.indexIterator(tid, ipred)));
+            }
+            assertEquals(ROWS, TestUtil.sortedRows(hf.iterator(tid)).size());
+            Database.getBufferPool().flushAllPages();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+
+        // other comparisons scan every bucket
+        IndexPredicate lt = new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(50));
+        int expected = 0;
+        for (Tuple t : inserted) {
+            if (lt.matches(t.getField(0)))
+                expected++;
+        }
+        assertEquals(expected, TestUtil.sortedRows(hf.indexIterator(tid, lt)).size());
+    }
+
+    /**
+     * Deletes remove exactly one equal tuple each and give back empty
+     * overflow pages for later inserts.
+     */
+    @Test public void deletes() throws Exception {
+        HashIndexFile hf = open();
+        Random r = new Random(11);
+        ArrayList<Tuple> live = insertRandom(hf, r);
+        int pages = hf.numPages();
+        Collections.shuffle(live, r);
+        for (int i = 0; i < ROWS / 2; i++)
+            Database.getBufferPool().deleteTuple(tid, live.remove(live.size() - 1));
+        for (int key = 0; key < ROWS / 3; key += 7) {
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(key));
+            assertEquals(withKey(live, key), TestUtil.sortedRows(hf.indexIterator(tid, ipred)));
+        }
+        for (int i = 0; i < ROWS / 2; i++) {
+            Tuple t = tuple(r.nextInt(ROWS / 3), ROWS + i);
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            live.add(t);
+        }
+        assertEquals(pages, hf.numPages(), pages / 10.0);
+        assertEquals(ROWS, TestUtil.sortedRows(hf.iterator(tid)).size());
+    }
+
+    /**
+     * Deleting a tuple that is not in the index fails.
+     */
+    @Test(expected = DbException.class) public void deleteMissing() throws Exception {
+        HashIndexFile hf = open();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1, 1));
+        hf.deleteTuple(tid, tuple(1, 2));
+    }
+
+    /**
+     * String keys support equality lookups.
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc sd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        HashIndexFile hf = new HashIndexFile(file, 1, sd, 1024);
+        Database.getCatalog().addTable(hf, "names");
+        Random r = new Random(13);
+        int[] counts = new int[20];
+        for (int i = 0; i < 500; i++) {
+            int n = r.nextInt(counts.length);
+            counts[n]++;
+            Tuple t = new Tuple(sd);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + n, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        for (int n = 0; n < counts.length; n++) {
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS,
+                    new StringField("name" + n, Type.STRING_LEN));
+            assertEquals(counts[n], TestUtil.sortedRows(hf.indexIterator(tid, ipred)).size());
+        }
+    }
+
+    /**
+     * A bulk loaded index answers like one built by inserts, and can be
+     * updated afterwards.
+     */
+    @Test public void bulkLoad() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(17);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(tuple(r.nextInt(ROWS / 3), i));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        assertEquals(ROWS, HashIndexFile.bulkLoad(file, td, 0, it, PAGE_SIZE));
+
+        HashIndexFile hf = open();
+        assertEquals(ROWS, TestUtil.sortedRows(hf.iterator(tid)).size());
+        for (int key = 0; key < ROWS / 3; key += 5) {
+            IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(key));
+            assertEquals(withKey(tuples, key), TestUtil.sortedRows(hf.indexIterator(tid, ipred)));
+        }
+        Tuple t = tuple(42, -1);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        tuples.add(t);
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(42));
+        assertEquals(withKey(tuples, 42), TestUtil.sortedRows(hf.indexIterator(tid, ipred)));
+    }
+
+    private HeapFile table(String name, int rows, int mod) throws Exception {
+        File f = File.createTempFile(name, ".dat");
+        f.deleteOnExit();
+        Catalog.hashIndexFileFor(f, 0).deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, name);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(tuple(i % mod, i));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        Database.getBufferPool().flushAllPages();
+        return hf;
+    }
+
+    /**
+     * An equality join whose inner table has a hash index on the join
+     * field probes it instead of rescanning the table, with the same
+     * results as a nested loop join, also after a rewind.
+     */
+    @Test public void indexNestedLoopJoin() throws Exception {
+        HeapFile outer = table("outer", 200, 50);
+        HeapFile inner = table("inner", 2000, 400);
+        Database.getCatalog().openHashIndex(inner.getId(), 0,
+                Catalog.hashIndexFileFor(inner.getFile(), 0));
+
+        LogicalJoinNode lj = new LogicalJoinNode("o", "i", "key", "key", Predicate.Op.EQUALS);
+        DbIterator join = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        assertTrue(join instanceof IndexNestedLoopJoin);
+        ArrayList<String> expected = TestUtil.sortedRows(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i")));
+        assertEquals(200 * 5, expected.size());
+        assertEquals(expected, TestUtil.sortedRows(join));
+
+        assertEquals(expected, TestUtil.sortedRows(join, 10));
+
+        // a join on a field without an index stays a nested loop join
+        lj = new LogicalJoinNode("o", "i", "key", "value", Predicate.Op.EQUALS);
+        join = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, inner.getId(), "i"));
+        assertFalse(join instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * Fields annotated hashindex in a catalog file get a hash index, which
+     * the planner uses for equality filters but not for range filters.
+     */
+    @Test public void catalogHashIndex() throws Exception {
+        HeapFile hf = table("hashed", ROWS, ROWS);
+        File catalog = new File(file.getParentFile(), "hashed_catalog.txt");
+        catalog.deleteOnExit();
+        String name = hf.getFile().getName().replace(".dat", "");
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (key int hashindex, value int)\n");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableid = Database.getCatalog().getTableId(name);
+        assertTrue(Database.getCatalog().getIndex(tableid, 0) instanceof HashIndexFile);
+        assertTrue(Catalog.hashIndexFileFor(hf.getFile(), 0).exists());
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(tableid, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableid, "t");
+        lp.addFilter("t.key", Predicate.Op.EQUALS, "1234");
+        lp.addProjectField("t.value", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan.getClass().getName(), ((Operator) plan).getChildren()[0] instanceof IndexScan);
+        ArrayList<String> found = TestUtil.sortedRows(plan);
+        assertEquals(1, found.size());
+        assertEquals("1234", found.get(0).trim());
+
+        lp = new LogicalPlan();
+        lp.addScan(tableid, "t");
+        lp.addFilter("t.key", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        assertEquals(3, TestUtil.sortedRows(plan).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
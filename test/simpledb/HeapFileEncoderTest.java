@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private File writeInput(String text) throws IOException {
+        File f = tempFile(".txt");
+        Writer w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    private byte[] readAll(File f) throws IOException {
+        byte[] b = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(b);
+        in.close();
+        return b;
+    }
+
+    /** Converts input sequentially and on several threads and compares the results. */
+    private byte[] assertSameOutput(File input, int chunkPages) throws IOException {
+        File seq = tempFile(".dat");
+        File par = tempFile(".dat");
+        int pageSize = BufferPool.getPageSize();
+        HeapFileEncoder.convert(input, seq, pageSize, TYPES.length, TYPES, ',');
+        HeapFileEncoder.convert(input, par, pageSize, TYPES, ',', 4, chunkPages);
+        byte[] expected = readAll(seq);
+        assertTrue(Arrays.equals(expected, readAll(par)));
+        return expected;
+    }
+
+    /**
+     * Splitting the input into many small chunks produces the same pages as
+     * the sequential conversion, blank lines and CRLF line endings included.
+     */
+    @Test public void parallelMatchesSequential() throws Exception {
+        Random r = new Random(143);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(r.nextInt()).append(",s").append(r.nextInt(1000))
+                .append(',').append(i);
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 100 == 0)
+                sb.append("\n");
+        }
+        File input = writeInput(sb.toString());
+        byte[] pages = assertSameOutput(input, 1);
+        assertTrue(pages.length / BufferPool.getPageSize() > 4);
+        assertSameOutput(input, 3);
+        assertSameOutput(input, HeapFileEncoder.CHUNK_PAGES);
+    }
+
+    /**
+     * An empty input still produces one empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        byte[] pages = assertSameOutput(writeInput("\n\n"), 1);
+        assertEquals(BufferPool.getPageSize(), pages.length);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
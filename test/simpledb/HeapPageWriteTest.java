@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,31 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page keep their values after their slot is deleted
+     * and reused, and modifying the page leaves the image it was built from
+     * alone.
+     */
+    @Test public void lazyTuplesAndSharedImage() throws Exception {
+        byte[] image = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, image);
+        Tuple first = page.iterator().next();
+        int slot = first.getRecordId().tupleno();
+
+        page.deleteTuple(first);
+        Tuple replacement = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(replacement);
+        assertEquals(slot, replacement.getRecordId().tupleno());
+
+        assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[0][0]), first.getField(0));
+        assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[0][1]), first.getField(1));
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, image));
+        assertTrue(Arrays.equals(image, page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        assertTrue(Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private File file;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "grp", "name" });
+        file = File.createTempFile("indexed", ".dat");
+        file.deleteOnExit();
+        for (int i = 0; i < td.numFields(); i++)
+            Catalog.indexFileFor(file, i).deleteOnExit();
+        hf = new HeapFile(file, td);
+        Database.getCatalog().addTable(hf, "indexed", "id");
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(tuple(i));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private Tuple tuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new IntField(id % 7));
+        t.setField(2, new StringField("name" + (id % 100), Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<Integer> ids(DbIterator it) throws Exception {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            ids.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return ids;
+    }
+
+    private static void findScans(DbIterator plan, ArrayList<DbIterator> scans) {
+        if (plan instanceof SeqScan || plan instanceof IndexScan)
+            scans.add(plan);
+        else if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+        }
+    }
+
+    /**
+     * An index built from an existing table, and kept up to date by the
+     * buffer pool's inserts and deletes, finds the same tuples as a filter.
+     */
+    @Test public void maintainedIndex() throws Exception {
+        File idx = Catalog.indexFileFor(file, 1);
+        BTreeFile index = Database.getCatalog().openIndex(hf.getId(), 1, idx);
+        assertSame(index, Database.getCatalog().getIndex(hf.getId(), 1));
+        assertNull(Database.getCatalog().getIndex(hf.getId(), 0));
+
+        IndexScan scan = new IndexScan(tid, hf.getId(), "t", 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals((ROWS + 3) / 7, ids(scan).size());
+
+        // delete every tuple of group 3 with an even id, and add new ones
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        ss.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            if (id % 7 == 3 && id % 2 == 0)
+                doomed.add(t);
+        }
+        ss.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = ROWS; i < ROWS + 70; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i));
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            ArrayList<Integer> expected = ids(new Filter(new Predicate(1, op, new IntField(3)),
+                    new SeqScan(tid, hf.getId(), "t")));
+            ArrayList<Integer> found = ids(new IndexScan(tid, hf.getId(), "t", 1,
+                    new IndexPredicate(op, new IntField(3))));
+            java.util.Collections.sort(expected);
+            java.util.Collections.sort(found);
+            assertEquals(expected, found);
+        }
+    }
+
+    /**
+     * The planner reads a primary key lookup through the index, and still
+     * scans the table for a predicate most tuples satisfy.
+     */
+    @Test public void plannerChoosesIndex() throws Exception {
+        Database.getCatalog().openIndex(hf.getId(), 0, Catalog.indexFileFor(file, 0));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("indexed", new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.EQUALS, "4321");
+        lp.addProjectField("t.name", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        ArrayList<DbIterator> scans = new ArrayList<DbIterator>();
+        findScans(plan, scans);
+        assertEquals(1, scans.size());
+        assertTrue(scans.get(0) instanceof IndexScan);
+        plan.open();
+        assertEquals(new StringField("name21", Type.STRING_LEN), plan.next().getField(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.id", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        scans.clear();
+        findScans(plan, scans);
+        assertTrue(scans.get(0) instanceof SeqScan);
+        assertEquals(ROWS - 11, ids(plan).size());
+    }
+
+    /**
+     * Fields annotated index in a catalog file get indexes, built from the
+     * existing table; the primary key only if it is annotated too.
+     */
+    @Test public void catalogAnnotations() throws Exception {
+        File catalog = new File(file.getParentFile(), "indexed_catalog.txt");
+        catalog.deleteOnExit();
+        String name = file.getName().replace(".dat", "");
+        FileWriter w = new FileWriter(catalog);
+        w.write(name + " (id int pk index, grp int, name string index)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int tableid = Database.getCatalog().getTableId(name);
+        assertNotNull(Database.getCatalog().getIndex(tableid, 0));
+        assertNull(Database.getCatalog().getIndex(tableid, 1));
+        assertNotNull(Database.getCatalog().getIndex(tableid, 2));
+        assertTrue(Catalog.indexFileFor(file, 2).exists());
+
+        IndexScan scan = new IndexScan(tid, tableid, "t", 2, new IndexPredicate(
+                Predicate.Op.EQUALS, new StringField("name7", Type.STRING_LEN)));
+        assertEquals(ROWS / 100, ids(scan).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.io.File;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares sequential scan throughput of the RandomAccessFile/FileChannel
+ * read path (HeapFile) with the memory-mapped one (MappedHeapFile) over the
+ * same data file. Each round first times raw readPage calls over every page,
+ * then a full SeqScan through a buffer pool too small to hold the table, so
+ * every page is read from the file each time.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.MappedHeapFileBenchmark [rows]
+ * </pre>
+ */
+public class MappedHeapFileBenchmark {
+
+    private static final int COLUMNS = 4;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = Benchmark.intArg(args, 2000000);
+        File data = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, rows, 1 << 20, null, null);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        HeapFile plain = new HeapFile(data, td);
+        HeapFile mapped = new MappedHeapFile(data, td);
+        System.out.println(rows + " rows, " + plain.numPages() + " pages of "
+                + BufferPool.getPageSize() + " bytes");
+
+        for (final HeapFile f : new HeapFile[] { plain, mapped }) {
+            Database.getCatalog().clear();
+            Database.getCatalog().addTable(f, "bench");
+            double[] best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+                public double run() {
+                    return readPages(f);
+                }
+            }, new Benchmark.Run() {
+                public double run() throws Exception {
+                    return scan(f);
+                }
+            });
+            System.out.println(String.format("%-14s readPage %10.0f pages/s   SeqScan %12.0f tuples/s",
+                    f.getClass().getSimpleName(), best[0], best[1]));
+        }
+    }
+
+    /** @return pages read per second by calling readPage directly */
+    private static double readPages(HeapFile f) {
+        int pages = f.numPages();
+        long begin = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            f.readPage(new HeapPageId(f.getId(), i));
+        return pages / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /** @return tuples per second returned by a SeqScan over the table */
+    private static double scan(HeapFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        return Benchmark.tuplesPerSecond(new SeqScan(tid, f.getId(), ""), tid);
+    }
+}
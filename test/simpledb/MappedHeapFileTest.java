@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private MappedHeapFile openMapped(File f, int columns) {
+        MappedHeapFile mf = new MappedHeapFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+        return mf;
+    }
+
+    /**
+     * A mapped page decodes to the same bytes as a page read through the
+     * plain HeapFile path.
+     */
+    @Test public void readPage() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, null);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        MappedHeapFile mf = new MappedHeapFile(f, hf.getTupleDesc());
+        assertEquals(hf.getId(), mf.getId());
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            assertTrue(Arrays.equals(hf.readPage(pid).getPageData(),
+                    mf.readPage(pid).getPageData()));
+        }
+    }
+
+    /**
+     * Scans return every tuple, including ones appended after the file was
+     * first mapped.
+     */
+    @Test public void scanAfterAppend() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 600, 1000, null, tuples);
+        MappedHeapFile mf = openMapped(f, 2);
+        SystemTestUtil.matchTuples(mf, tuples);
+
+        // fill the last page and spill onto a new one
+        TransactionId tid = new TransactionId();
+        int pages = mf.numPages();
+        for (int i = 0; mf.numPages() == pages; i++) {
+            Database.getBufferPool().insertTuple(tid, mf.getId(), Utility.getHeapTuple(i, 2));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    /** Writes rows of random ints into a table file with the given page size. */
+    private HeapFile createTable(int columns, int rows, int pageSize,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int j = 0; j < columns; j++)
+                row.add((int) (Math.random() * 1000));
+            tuples.add(row);
+        }
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, columns);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns),
+                PageFormat.FIXED, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * A table with large pages is read, scanned and written in pages of its
+     * own size.
+     */
+    @Test public void largePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = createTable(2, 5000, 16384, tuples);
+        assertEquals(hf.getFile().length() / 16384, hf.numPages());
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(16384, page.getPageData().length);
+        assertEquals((16384 * 8) / (8 * 8 + 1),
+                page.getNumEmptySlots() + countTuples(page));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        int pages = hf.numPages();
+        for (int i = 0; hf.numPages() == pages; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        }
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, hf.getFile().length() % 16384);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    private int countTuples(HeapPage page) {
+        int n = 0;
+        for (java.util.Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Pages of different sizes share the pool by bytes: a large page takes
+     * the room of several small ones.
+     */
+    @Test public void mixedFrames() throws Exception {
+        HeapFile big = createTable(2, 3000, 16384, new ArrayList<ArrayList<Integer>>());
+        HeapFile small = createTable(2, 3000, 4096, new ArrayList<ArrayList<Integer>>());
+        // room for ten 4 KB pages
+        BufferPool bp = Database.resetBufferPool(10);
+        TransactionId tid = new TransactionId();
+        HeapPageId big0 = new HeapPageId(big.getId(), 0);
+        HeapPageId big1 = new HeapPageId(big.getId(), 1);
+        bp.getPage(tid, big0, Permissions.READ_ONLY);
+        bp.getPage(tid, big1, Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(small.getId(), 1), Permissions.READ_ONLY);
+        assertTrue(bp.isResident(big0));
+        // the pool is full: the next small page evicts the oldest big page
+        bp.getPage(tid, new HeapPageId(small.getId(), 2), Permissions.READ_ONLY);
+        assertFalse(bp.isResident(big0));
+        assertTrue(bp.isResident(big1));
+        for (int i = 0; i < 3; i++)
+            assertTrue(bp.isResident(new HeapPageId(small.getId(), i)));
+        // reading it back evicts the least recently used page, the other
+        // big page, which makes room for it
+        bp.getPage(tid, big0, Permissions.READ_ONLY);
+        assertTrue(bp.isResident(big0));
+        assertFalse(bp.isResident(big1));
+        for (int i = 0; i < 3; i++)
+            assertTrue(bp.isResident(new HeapPageId(small.getId(), i)));
+    }
+
+    /**
+     * Slotted pages use their whole page size, up to 64 KB.
+     */
+    @Test public void slotted64k() throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile hf = new HeapFile(f, td, PageFormat.SLOTTED, 65536);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int n = 0;
+        while (hf.numPages() < 2) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(n));
+            t.setField(1, new StringField("row " + n, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            n++;
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new StringField("row " + ((IntField) t.getField(0)).getValue(),
+                    Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(n, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "name", "c" });
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td, PageFormat.PAX);
+        Database.getCatalog().addTable(hf, "pax");
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int a) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField("name" + a, Type.STRING_LEN));
+        t.setField(2, new IntField(-a));
+        return t;
+    }
+
+    /**
+     * A PAX page holds as many tuples as a fixed page, with each column
+     * stored contiguously, and reads them back after deletes.
+     */
+    @Test public void columnLayout() throws Exception {
+        HeapPage page = hf.newPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(page instanceof PaxHeapPage);
+        int slots = page.getNumEmptySlots();
+        assertEquals((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1), slots);
+        for (int i = 0; i < slots; i++)
+            page.insertTuple(tuple(i));
+        assertEquals(0, page.getNumEmptySlots());
+
+        // the first column is a run of ints right after the header
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        for (int i = 0; i < slots; i++)
+            assertEquals(i, data.getInt(header + 4 * i));
+        // the last column follows the first two
+        int last = header + slots * (4 + Type.STRING_TYPE.getLen());
+        for (int i = 0; i < slots; i++)
+            assertEquals(-i, data.getInt(last + 4 * i));
+
+        page.setBeforeImage();
+        page.deleteTuple(page.getTuple(3));
+        HeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < slots; i++) {
+            if (i == 3)
+                continue;
+            Tuple t = it.next();
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-i), t.getField(2));
+        }
+        assertFalse(it.hasNext());
+        assertTrue(page.getBeforeImage() instanceof PaxHeapPage);
+        assertEquals(slots, page.getBeforeImage().availableTuples());
+    }
+
+    private void insert(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++)
+            tuples.add(tuple(i));
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan given a column subset returns only those fields, in the
+     * requested order.
+     */
+    @Test public void scanColumns() throws Exception {
+        insert(500);
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, hf.getId(), "p", new int[] { 2, 0 });
+        TupleDesc out = ss.getTupleDesc();
+        assertEquals(2, out.numFields());
+        assertEquals("p.c", out.getFieldName(0));
+        assertEquals("p.a", out.getFieldName(1));
+        ss.open();
+        int count = 0;
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            int a = ((IntField) t.getField(1)).getValue();
+            assertEquals(new IntField(-a), t.getField(0));
+            assertNotNull(t.getRecordId());
+            count++;
+        }
+        ss.close();
+        assertEquals(500, count);
+    }
+
+    /**
+     * The logical plan pushes the fields a query uses down to its scans.
+     */
+    @Test public void planPushdown() throws Exception {
+        insert(500);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "p");
+        lp.addScan(hf.getId(), "q");
+        lp.addJoin("p.a", "q.a", Predicate.Op.EQUALS);
+        lp.addFilter("p.a", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("p.c", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pax", new TableStats(hf.getId(), 1));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        ArrayList<SeqScan> scans = new ArrayList<SeqScan>();
+        findScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan ss : scans) {
+            if (ss.getAlias().equals("p"))
+                assertArrayEquals(new int[] { 0, 2 }, ss.getColumns());
+            else
+                assertArrayEquals(new int[] { 0 }, ss.getColumns());
+        }
+
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertTrue(((IntField) t.getField(0)).getValue() > -10);
+            count++;
+        }
+        plan.close();
+        assertEquals(10, count);
+
+        // * needs every field
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "p");
+        lp.addScan(hf.getId(), "q");
+        lp.addJoin("p.a", "q.a", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        scans.clear();
+        findScans(lp.physicalPlan(tid, stats, false), scans);
+        for (SeqScan ss : scans)
+            assertNull(ss.getColumns());
+    }
+
+    private void findScans(DbIterator plan, ArrayList<SeqScan> scans) {
+        if (plan instanceof SeqScan)
+            scans.add((SeqScan) plan);
+        else
+            for (DbIterator child : ((Operator) plan).getChildren())
+                findScans(child, scans);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
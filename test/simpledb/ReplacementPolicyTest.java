@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * LRU evicts the page that was used longest ago.
+     */
+    @Test public void lru() {
+        ReplacementPolicy p = new LRUPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageAccessed(pid(0));
+        assertEquals(pid(1), p.evict());
+        assertEquals(pid(2), p.evict());
+        assertEquals(pid(0), p.evict());
+        assertNull(p.evict());
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clock() {
+        ReplacementPolicy p = new ClockPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(2));
+        assertEquals(pid(1), p.evict());
+        // the sweep cleared 0's bit, so it is next
+        assertEquals(pid(0), p.evict());
+        p.pageRemoved(pid(2));
+        assertNull(p.evict());
+    }
+
+    /**
+     * LRU-2 evicts pages referenced only once before pages referenced twice,
+     * even if the single-reference pages are more recent.
+     */
+    @Test public void lruK() {
+        ReplacementPolicy p = new LRUKPolicy(2, 10);
+        p.pageLoaded(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.evict());
+        assertEquals(pid(2), p.evict());
+        assertEquals(pid(0), p.evict());
+        assertNull(p.evict());
+
+        // history of an evicted page is retained
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(3));
+        assertEquals(pid(3), p.evict());
+    }
+
+    /**
+     * 2Q keeps pages that are re-read after leaving A1in in the hot queue.
+     */
+    @Test public void twoQ() {
+        ReplacementPolicy p = new TwoQPolicy(1, 4);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        assertEquals(pid(0), p.evict());
+        // 0 comes back while remembered in A1out: it is now hot
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.evict());
+        // A1in is back within its target size, so Am gives up its LRU page
+        assertEquals(pid(0), p.evict());
+        assertEquals(pid(2), p.evict());
+        assertNull(p.evict());
+    }
+
+    /** Rejects one page, as the buffer pool rejects a pinned one. */
+    private static ReplacementPolicy.Candidates except(final PageId pinned) {
+        return new ReplacementPolicy.Candidates() {
+            public boolean accept(PageId pid) {
+                return !pid.equals(pinned);
+            }
+        };
+    }
+
+    /**
+     * A page passed over by evict keeps its place and history, instead of
+     * being treated as newly loaded.
+     */
+    @Test public void evictSkipsRejected() {
+        ReplacementPolicy p = new LRUPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.evict(except(pid(0))));
+        assertEquals(pid(0), p.evict());
+
+        p = new TwoQPolicy(1, 2);
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(1), p.evict(except(pid(0))));
+        assertEquals(pid(0), p.evict());
+
+        p = new LRUKPolicy(2, 10);
+        p.pageLoaded(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        assertEquals(pid(2), p.evict(except(pid(1))));
+        // one reference, not two, so 1 still goes before 0
+        assertEquals(pid(1), p.evict());
+
+        p = new ClockPolicy();
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        assertEquals(pid(1), p.evict(except(pid(0))));
+        assertNull(p.evict(except(pid(0))));
+        assertEquals(pid(0), p.evict());
+    }
+
+    /**
+     * createPolicy understands every built in policy name.
+     */
+    @Test public void createPolicy() {
+        assertTrue(BufferPool.createPolicy("lru", 10) instanceof LRUPolicy);
+        assertTrue(BufferPool.createPolicy("CLOCK", 10) instanceof ClockPolicy);
+        assertTrue(BufferPool.createPolicy("lru-k", 10) instanceof LRUKPolicy);
+        assertTrue(BufferPool.createPolicy("2q", 10) instanceof TwoQPolicy);
+    }
+
+    /**
+     * The buffer pool counts hits and misses, and evicts through the policy
+     * when it is full.
+     */
+    @Test public void hitMissCounters() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2048, null, null);
+        int pages = f.numPages();
+        assertTrue(pages > 3);
+
+        for (String name : new String[] { "lru", "clock", "lru-k", "2q" }) {
+            BufferPool bp = Database.resetBufferPool(2, BufferPool.createPolicy(name, 2));
+            TransactionId tid = new TransactionId();
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < pages; i++)
+                    bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            }
+            bp.getPage(tid, new HeapPageId(f.getId(), pages - 1), Permissions.READ_ONLY);
+            assertEquals(name, 2 * pages, bp.getMissCount());
+            assertEquals(name, 1, bp.getHitCount());
+            bp.resetStats();
+            assertEquals(0, bp.getMissCount());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ScanPipelineTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return a table of 2000 (id, name, value) rows over several pages */
+    private HeapFile createTable(PageFormat format) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+                Type.INT_TYPE }, new String[] { "id", "name", "value" });
+        File data = File.createTempFile("pipeline", ".dat");
+        data.deleteOnExit();
+        HeapFile hf = new HeapFile(data, td, format);
+        Database.getCatalog().addTable(hf, "pipeline" + format);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + r.nextInt(30), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(100)));
+            tuples.add(t);
+        }
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        return hf;
+    }
+
+    /** Checks that a projection returns the same rows fused. */
+    private static void assertSameRows(Project p) throws Exception {
+        DbIterator fused = ScanPipeline.fuse(p);
+        assertTrue(fused instanceof ScanPipeline);
+        ArrayList<String> expected = TestUtil.sortedRows(p);
+        assertEquals(expected, TestUtil.sortedRows(fused));
+        // and again after a rewind
+        assertEquals(expected, TestUtil.sortedRows(fused, Integer.MAX_VALUE));
+    }
+
+    private static Project project(DbIterator child, Integer... fields) {
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            types[i] = child.getTupleDesc().getFieldType(fields[i]);
+        return new Project(new ArrayList<Integer>(Arrays.asList(fields)), types, child);
+    }
+
+    /** Every operator on int and string fields, on every page format. */
+    @Test public void sameRows() throws Exception {
+        for (PageFormat format : PageFormat.values()) {
+            HeapFile hf = createTable(format);
+            for (Predicate.Op op : Predicate.Op.values()) {
+                assertSameRows(project(new Filter(new Predicate(2, op, new IntField(40)),
+                        new SeqScan(tid, hf.getId(), "t")), 1, 0));
+                assertSameRows(project(new Filter(new Predicate(1, op,
+                        new StringField("name7", Type.STRING_LEN)),
+                        new SeqScan(tid, hf.getId(), "t")), 2));
+            }
+            // no filters; and two filters on one field of a scan of some fields
+            assertSameRows(project(new SeqScan(tid, hf.getId(), "t"), 2, 1, 0));
+            assertSameRows(project(new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                    new IntField(1500)), new Filter(new Predicate(1,
+                    Predicate.Op.GREATER_THAN, new IntField(100)), new SeqScan(tid,
+                    hf.getId(), "t", new int[] { 2, 0 }))), 1));
+            // nothing passes
+            assertSameRows(project(new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                    new IntField(0)), new SeqScan(tid, hf.getId(), "t")), 0));
+        }
+    }
+
+    /**
+     * The planner fuses a single table query unless told not to, and the
+     * tuples it returns keep their RecordIds, so that a DELETE can use them.
+     */
+    @Test public void plannerAndDelete() throws Exception {
+        HeapFile hf = createTable(PageFormat.FIXED);
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.GREATER_THAN_OR_EQ, "1000");
+        lp.addFilter("t.value", Predicate.Op.LESS_THAN, "50");
+        lp.addProjectField("t.id", null);
+        lp.setFused(false);
+        DbIterator unfused = lp.physicalPlan(tid, stats, false);
+        assertTrue(unfused instanceof Project);
+        assertTrue(((Operator) unfused).getChildren()[0] instanceof Filter);
+        lp.setFused(true);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof ScanPipeline);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SeqScan);
+        assertEquals(TestUtil.sortedRows(unfused), TestUtil.sortedRows(plan));
+
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("t", hf.getId());
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, aliases, stats);
+        int card = ((Operator) plan).getEstimatedCardinality();
+        assertTrue(card > 100 && card < 1000);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.PIPELINE));
+
+        int expected = TestUtil.sortedRows(plan).size();
+        Delete delete = new Delete(tid, plan);
+        delete.open();
+        assertEquals(new IntField(expected), delete.next().getField(0));
+        delete.close();
+        assertEquals(0, TestUtil.sortedRows(plan).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanPipelineTest.class);
+    }
+}
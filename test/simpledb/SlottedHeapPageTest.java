@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int a, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(-a));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return (SlottedHeapPage) hf.newPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /** Fills a page with short tuples and returns how many fit. */
+    private int fill(HeapPage page) throws Exception {
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, "name" + n));
+                n++;
+            }
+        } catch (DbException e) {
+            // full
+        }
+        return n;
+    }
+
+    /**
+     * Short strings take only their own length, so many more tuples fit
+     * than in fixed-size slots, and they read back from the page image.
+     */
+    @Test public void packsShortStrings() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        assertTrue(page.getNumEmptySlots() > 0);
+        int n = fill(page);
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n + " vs " + fixed, n > 5 * fixed);
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(n, page.availableTuples());
+
+        HeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-i), t.getField(2));
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted space is reclaimed by moving records, without changing the
+     * slot numbers of the records that remain.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int n = fill(page);
+        page.setBeforeImage();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            all.add(it.next());
+        Tuple kept = all.get(1);
+        assertEquals(new IntField(1), kept.getField(0));
+        for (int i = 0; i < n; i += 2)
+            page.deleteTuple(all.get(i));
+        assertFalse(page.isSlotUsed(0));
+
+        // a longer string than any deleted one needs the holes merged
+        Tuple big = tuple(1000, "a much longer name than the ones that were deleted");
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().tupleno());
+        assertEquals(big.getField(1), page.getTuple(0).getField(1));
+        for (int i = 1; i < n; i += 2)
+            assertEquals(new StringField("name" + i, Type.STRING_LEN),
+                    page.getTuple(i).getField(1));
+
+        // the before image is a slotted page too
+        HeapPage before = page.getBeforeImage();
+        assertTrue(before instanceof SlottedHeapPage);
+        assertEquals(n, before.availableTuples());
+    }
+
+    /**
+     * Tuples inserted through the buffer pool, one at a time or in bulk,
+     * scan back from a slotted file.
+     */
+    @Test public void heapFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(tuple(i, "t" + i));
+        for (Tuple t : tuples.subList(0, 100))
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        TupleIterator rest = new TupleIterator(td, tuples.subList(100, tuples.size()));
+        rest.open();
+        assertEquals(1900, Database.getBufferPool().bulkInsert(tid, hf.getId(), rest));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int a = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("t" + a, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(2000, count);
+        assertTrue(hf.numPages() < 2000 / ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
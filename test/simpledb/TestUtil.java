@@ -149,6 +149,50 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens the DbIterator, reads it to the end and closes it.
+     *
+     * @return the tuples read, as strings, sorted so that results can be
+     *   compared regardless of their order
+     */
+    public static ArrayList<String> sortedRows(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        return sortedRows(it, 0);
+    }
+
+    /**
+     * Like {@link #sortedRows(DbIterator)}, but first reads up to skip
+     * tuples and rewinds the DbIterator, returning the tuples read after
+     * the rewind.
+     */
+    public static ArrayList<String> sortedRows(DbIterator it, int skip)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        if (skip > 0) {
+            for (int i = 0; i < skip && it.hasNext(); i++)
+                it.next();
+            it.rewind();
+        }
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @see #sortedRows(DbIterator) */
+    public static ArrayList<String> sortedRows(DbFileIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
     /**
      * Verifies that the DbIterator has been exhausted of all elements.
      */
@@ -166,6 +210,33 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return a new, empty directory in the temporary-file directory.
+     *   Unlike those of files directly in the temporary-file directory, the
+     *   maps of tables in it are saved (see {@link HeapFile#savesMaps}).
+     */
+    public static File createTempDir() throws IOException {
+        File dir = File.createTempFile("simpledb", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    /**
+     * Deletes a directory made by {@link #createTempDir} and its files,
+     * first waiting for the background rebuilds of page maps (see
+     * {@link PageMap}), which may still be reading its tables.
+     */
+    public static void deleteDir(File dir) throws InterruptedException {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("simpledb-") && t.getName().endsWith("Map"))
+                t.join();
+        }
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -228,6 +299,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int getPageSize() {
+            return BufferPool.getPageSize();
+        }
+
         public int getId() {
             return tableid;
         }
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compares a scan with stacked filters and a projection run with its
+ * predicates interpreted and compiled by {@link TupleCompiler}, over a
+ * heap table that fits in the buffer pool. Each query runs several times
+ * and the best round is reported.
+ * <p>
+ * Not a unit test; run it by hand:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/* simpledb.TupleCompilerBenchmark [rows]
+ * </pre>
+ */
+public class TupleCompilerBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = Benchmark.intArg(args, 200000);
+        final HeapFile hf = Benchmark.salesTable(rows);
+        double[] best = Benchmark.best(ROUNDS, new Benchmark.Run() {
+            public double run() throws Exception {
+                return query(hf.getId(), false);
+            }
+        }, new Benchmark.Run() {
+            public double run() throws Exception {
+                return query(hf.getId(), true);
+            }
+        });
+        Benchmark.compare("amount, store where day >= 30 and day < 300 and store <> 7",
+                best[0] * rows, best[1] * rows, "rows/s");
+    }
+
+    /** @return runs per second of the query */
+    private static double query(int tableId, boolean compiled) throws Exception {
+        TransactionId tid = new TransactionId();
+        Project plan = new Project(new ArrayList<Integer>(Arrays.asList(2, 1)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(7)),
+                        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300)),
+                                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                                        new IntField(30)), new SeqScan(tid, tableId, "t")))));
+        plan.setCompiled(compiled);
+        return Benchmark.runsPerSecond(plan, tid);
+    }
+}
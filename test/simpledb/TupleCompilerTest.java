@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleCompilerTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE,
+                Type.INT_TYPE }, new String[] { "a", "s", "b" });
+        File data = File.createTempFile("compiled", ".dat");
+        data.deleteOnExit();
+        hf = new HeapFile(data, td);
+        Database.getCatalog().addTable(hf, "compiled");
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(3);
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(20) - 10));
+            t.setField(1, new StringField("s" + r.nextInt(10), Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(1000)));
+            tuples.add(t);
+        }
+        TupleIterator it = new TupleIterator(td, tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+    }
+
+    /** Turns compilation of a Filter or Project on or off. */
+    private static void setCompiled(DbIterator plan, boolean compiled) {
+        if (plan instanceof Filter)
+            ((Filter) plan).setCompiled(compiled);
+        else
+            ((Project) plan).setCompiled(compiled);
+    }
+
+    /** Checks that a plan returns the same rows compiled and interpreted. */
+    private static void assertSameRows(DbIterator plan) throws Exception {
+        setCompiled(plan, false);
+        ArrayList<String> expected = TestUtil.sortedRows(plan);
+        setCompiled(plan, true);
+        assertEquals(expected, TestUtil.sortedRows(plan));
+        // and again after a rewind
+        assertEquals(expected, TestUtil.sortedRows(plan, Integer.MAX_VALUE));
+    }
+
+    private SeqScan scan() {
+        return new SeqScan(tid, hf.getId(), "t");
+    }
+
+    /** Every operator, on int and string fields. */
+    @Test public void operators() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            assertSameRows(new Filter(new Predicate(0, op, new IntField(3)), scan()));
+            assertSameRows(new Filter(new Predicate(1, op,
+                    new StringField("s4", Type.STRING_LEN)), scan()));
+        }
+    }
+
+    /** Stacked filters and a projection are applied by one function. */
+    @Test public void chains() throws Exception {
+        Filter filters = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(700)),
+                new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS,
+                        new StringField("s2", Type.STRING_LEN)),
+                        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                                new IntField(-4)), scan())));
+        assertSameRows(filters);
+        assertSameRows(new Project(new ArrayList<Integer>(Arrays.asList(2, 1)),
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, filters));
+        assertSameRows(new Project(new ArrayList<Integer>(Arrays.asList(0)),
+                new Type[] { Type.INT_TYPE }, scan()));
+
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        assertTrue(Filter.chain(filters, preds) instanceof SeqScan);
+        assertEquals(3, preds.size());
+        assertEquals(0, preds.get(0).getField());
+        assertEquals(2, preds.get(2).getField());
+    }
+
+    /** Compiled functions keep the RecordIds of tuples, so deletes still work. */
+    @Test public void recordIds() throws Exception {
+        Project p = new Project(new ArrayList<Integer>(Arrays.asList(2)),
+                new Type[] { Type.INT_TYPE }, new Filter(new Predicate(0,
+                        Predicate.Op.EQUALS, new IntField(1)), scan()));
+        p.open();
+        assertTrue(p.hasNext());
+        Tuple t = p.next();
+        assertNotNull(t.getRecordId());
+        assertEquals(1, t.getTupleDesc().numFields());
+        p.close();
+    }
+
+    /** A class is generated once per shape, whatever the constants. */
+    @Test public void cachedByShape() throws Exception {
+        TupleDesc td = hf.getTupleDesc();
+        Predicate[] lt3 = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3)) };
+        Predicate[] lt5 = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5)) };
+        Predicate[] gt5 = { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5)) };
+        CompiledTupleFunction a = TupleCompiler.compile(td, lt3, null, null);
+        CompiledTupleFunction b = TupleCompiler.compile(td, lt5, null, null);
+        CompiledTupleFunction c = TupleCompiler.compile(td, gt5, null, null);
+        assertSame(a.getClass(), b.getClass());
+        assertNotSame(a.getClass(), c.getClass());
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(4));
+        assertNull(a.apply(t));
+        assertSame(t, b.apply(t));
+        assertNull(c.apply(t));
+    }
+
+    /** A chain that cannot be compiled is left to be interpreted. */
+    @Test public void failureFallsBack() throws Exception {
+        Predicate[] bad = { new Predicate(7, Predicate.Op.EQUALS, new IntField(1)) };
+        assertNull(TupleCompiler.tryCompile(hf.getTupleDesc(), bad, null, null));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleCompilerTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    // 10 full pages, clustered on field 0
+    private static final int ROWS = 504 * 10;
+
+    private File dir;
+    private File data;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // not directly in the temporary-file directory, so that the maps are saved
+        dir = TestUtil.createTempDir();
+        data = new File(dir, "zoned.dat");
+        hf = Utility.openHeapFile(2, "f", data);
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % 10 }));
+        TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        it.open();
+        Database.getBufferPool().bulkInsert(tid, hf.getId(), it);
+        Database.getBufferPool().flushAllPages();
+    }
+
+    @After public void removeFiles() throws Exception {
+        TestUtil.deleteDir(dir);
+    }
+
+    private static Predicate[] preds(Predicate... preds) {
+        return preds;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    /** @return the tuples of a scan that satisfy all of the predicates */
+    private static int count(DbIterator it, Predicate[] preds) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean match = true;
+            for (Predicate p : preds)
+                match &= p.filter(t);
+            if (match)
+                n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A scan with a range predicate on the clustered field reads only the
+     * pages of the range, and still returns every match; a predicate on an
+     * unclustered field reads every page.
+     */
+    @Test public void skipsPages() throws Exception {
+        Predicate[] range = preds(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 1100),
+                pred(0, Predicate.Op.LESS_THAN, 1200));
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(100, count(new SeqScan(tid, hf.getId(), "t", null, range), range));
+        assertEquals(1, bp.getHitCount() + bp.getMissCount());
+
+        Predicate[] none = preds(pred(0, Predicate.Op.GREATER_THAN, ROWS));
+        bp.resetStats();
+        assertEquals(0, count(new SeqScan(tid, hf.getId(), "t", null, none), none));
+        assertEquals(0, bp.getHitCount() + bp.getMissCount());
+
+        Predicate[] unclustered = preds(pred(1, Predicate.Op.EQUALS, 3));
+        bp.resetStats();
+        assertEquals(ROWS / 10, count(new SeqScan(tid, hf.getId(), "t", null, unclustered),
+                unclustered));
+        assertEquals(10, bp.getHitCount() + bp.getMissCount());
+    }
+
+    /**
+     * A tuple inserted into a page that has not been written out yet is
+     * still found, and deletes never make a page be skipped wrongly.
+     */
+    @Test public void insertWidens() throws Exception {
+        HeapPage p2 = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        Database.getBufferPool().deleteTuple(tid, p2.iterator().next());
+        Tuple t = Utility.getHeapTuple(new int[] { -5, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().pageNumber());
+
+        Predicate[] eq = preds(pred(0, Predicate.Op.EQUALS, -5));
+        assertEquals(1, count(new SeqScan(tid, hf.getId(), "t", null, eq), eq));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, count(new SeqScan(tid, hf.getId(), "t", null, eq), eq));
+        Predicate[] lt = preds(pred(0, Predicate.Op.LESS_THAN, 10));
+        assertEquals(11, count(new SeqScan(tid, hf.getId(), "t", null, lt), lt));
+    }
+
+    /**
+     * The map survives closing the file, and is rebuilt from the pages when
+     * the table file is newer than the sidecar.
+     */
+    @Test public void persistAndRebuild() throws Exception {
+        Predicate[] eq = preds(pred(0, Predicate.Op.EQUALS, 3000));
+        assertEquals(1, count(new SeqScan(tid, hf.getId(), "t", null, eq), eq));
+        hf.close();
+        File sidecar = ZoneMap.sidecarFor(data);
+        assertTrue(sidecar.exists());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, "f", data);
+        ZoneMap zm = hf.zoneMap();
+        assertTrue(zm.mayMatch(5, eq));
+        assertFalse(zm.mayMatch(4, eq));
+
+        // a stale sidecar claiming page 5 is empty is not trusted
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 5),
+                HeapPage.createEmptyPageData());
+        zm.pageWritten(empty);
+        zm.save();
+        hf.close();
+        assertTrue(sidecar.setLastModified(data.lastModified() - 10000));
+        hf = Utility.openHeapFile(2, "f", data);
+        zm = hf.zoneMap();
+        zm.awaitRebuild();
+        assertTrue(zm.mayMatch(5, eq));
+        assertFalse(zm.mayMatch(4, eq));
+    }
+
+    /**
+     * Flushing the pages saves the map without closing the file, and a
+     * missing sidecar is rebuilt in the background rather than by the scan
+     * that loads the map.
+     */
+    @Test public void savedOnFlush() throws Exception {
+        File sidecar = ZoneMap.sidecarFor(data);
+        assertTrue(sidecar.exists());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, "f", data);
+        assertFalse(hf.zoneMap().mayMatch(4, preds(pred(0, Predicate.Op.EQUALS, 3000))));
+
+        Tuple t = Utility.getHeapTuple(new int[] { -5, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, "f", data);
+        Predicate[] eq = preds(pred(0, Predicate.Op.EQUALS, -5));
+        int page = t.getRecordId().getPageId().pageNumber();
+        assertTrue(hf.zoneMap().mayMatch(page, eq));
+        assertFalse(hf.zoneMap().mayMatch(page == 0 ? 1 : 0, eq));
+
+        assertTrue(sidecar.delete());
+        hf = Utility.openHeapFile(2, "f", data);
+        ZoneMap zm = hf.zoneMap();
+        zm.awaitRebuild();
+        assertEquals(1, count(new SeqScan(tid, hf.getId(), "t", null, eq), eq));
+        assertFalse(zm.mayMatch(page == 0 ? 1 : 0, eq));
+        zm.save();
+        assertTrue(sidecar.exists());
+    }
+
+    /**
+     * The planner hands filters on int fields to the scan.
+     */
+    @Test public void plannerPushesPredicates() throws Exception {
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.f0", Predicate.Op.LESS_THAN, "600");
+        lp.addProjectField("t.f1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan))
+            scan = ((Operator) scan).getChildren()[0];
+        Predicate[] pushed = ((SeqScan) scan).getPredicates();
+        assertEquals(1, pushed.length);
+        assertEquals(0, pushed[0].getField());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(600, count(plan, new Predicate[0]));
+        assertEquals(2, bp.getHitCount() + bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
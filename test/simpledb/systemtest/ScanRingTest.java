@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that large sequential scans read through a private ring of frames
+ * and leave the rest of the buffer pool alone.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 16;
+
+    private void scan(HeapFile f) throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(new TransactionId(), f.getId(), "");
+        ss.open();
+        while (ss.hasNext())
+            ss.next();
+        ss.close();
+    }
+
+    private boolean survivesScan(HeapFile hot, HeapFile big, double threshold) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES, new LRUPolicy());
+        bp.setScanRingThreshold(threshold);
+        HeapPageId hotPid = new HeapPageId(hot.getId(), 0);
+        bp.getPage(new TransactionId(), hotPid, Permissions.READ_ONLY);
+        scan(big);
+        bp.resetStats();
+        bp.getPage(new TransactionId(), hotPid, Permissions.READ_ONLY);
+        return bp.getHitCount() == 1;
+    }
+
+    @Test public void testHotPageSurvivesLargeScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1024 * 20, null, null);
+        assertTrue(big.numPages() > BUFFER_PAGES);
+
+        assertTrue(survivesScan(hot, big, BufferPool.DEFAULT_SCAN_RING_THRESHOLD));
+        // with rings turned off, plain LRU throws the hot page out
+        assertFalse(survivesScan(hot, big, Double.POSITIVE_INFINITY));
+    }
+
+    @Test public void testRingScanReturnsAllTuples() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1024 * 20, null, tuples);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNotNull(bp.getScanRing(big.numPages()));
+        SystemTestUtil.matchTuples(big, tuples);
+    }
+
+    @Test public void testSmallTableHasNoRing() {
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNull(bp.getScanRing(BUFFER_PAGES));
+        assertEquals(2, bp.getScanRing(BUFFER_PAGES + 1).size());
+        bp.setScanRingThreshold(0.25);
+        assertNotNull(bp.getScanRing(BUFFER_PAGES / 2));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanRingTest.class);
+    }
+}